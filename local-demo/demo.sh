@@ -260,7 +260,7 @@ if [[ "$MODE" == "test-then-manual" || "$MODE" == "manual-only" ]]; then
 
     print_info "This will start a 4-node cluster for interactive exploration"
     echo "  - Bootstrap node: http://localhost:50000 (API)"
-    echo "  - Health check: http://localhost:50004/health"
+    echo "  - Health check: http://localhost:50004/ready (also /live, /metrics)"
     echo ""
     print_info "To stop the cluster: Press Ctrl+C in both terminals"
     echo ""
@@ -359,7 +359,7 @@ case "$MODE" in
         echo "The manual cluster ran successfully!"
         echo ""
         echo "To verify cluster formation:"
-        echo "  curl http://localhost:50004/health"
+        echo "  curl http://localhost:50004/ready"
         echo ""
         echo "Next steps:"
         echo "  - Read DEMO_GUIDE.md for API usage examples"
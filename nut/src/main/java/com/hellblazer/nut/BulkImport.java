@@ -0,0 +1,248 @@
+/*
+ * Copyright (c) 2024 Hal Hildebrand. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ *  more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.hellblazer.nut;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.net.HostAndPort;
+import com.hellblazer.delos.cryptography.cert.CertificateWithPrivateKey;
+import com.hellblazer.delos.cryptography.ssl.CertificateValidator;
+import com.hellblazer.delos.delphinius.Oracle;
+import com.hellblazer.delos.utils.Utils;
+import com.hellblazer.nut.comms.MtlsClient;
+import com.hellblazer.nut.service.OracleAdapter;
+import com.hellblazer.nut.service.OracleAdapter.Mutation;
+import io.netty.handler.ssl.ClientAuth;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bulk import of relationship tuples from a file into a running Sky cluster.  Tuples are read in full, deduplicated
+ * and sorted by target, then streamed to the service's bulkImport operation in large batches, each committed as its
+ * own transaction.  The import is paced by the server's flow control, with progress and throughput logged as it runs.
+ * <p>
+ * Each tuple is either a <i>member</i> tuple, making the subject a member of the target subject, or a <i>grant</i>
+ * tuple, asserting the subject has the target object.  Subjects and targets are written <code>namespace:name</code>
+ * or <code>namespace:name#relation</code>; grant targets require the relation.  Newline delimited JSON files have a
+ * tuple per line:
+ * <pre>
+ * {"type": "member", "subject": "my-org:Jale", "target": "my-org:Admins#member"}
+ * {"type": "grant", "subject": "my-org:Admins#member", "target": "Document:123#View"}
+ * </pre>
+ * CSV files have the columns <code>type,subject,target</code>, without quoting, and may start with that header.
+ * Blank lines and lines beginning with '#' are ignored in either format.
+ *
+ * @author hal.hildebrand
+ **/
+public class BulkImport {
+    public static final  int          DEFAULT_BATCH = 5_000;
+    private static final Logger       log           = LoggerFactory.getLogger(BulkImport.class);
+    private static final ObjectMapper mapper        = new ObjectMapper();
+    private static final String       CSV_HEADER    = "type,subject,target";
+
+    public static void main(String[] argv) throws Exception {
+        if (argv.length < 2) {
+            usage();
+        }
+        var format = argv[1].endsWith(".csv") ? Format.CSV : Format.NDJSON;
+        var batchSize = DEFAULT_BATCH;
+        for (int i = 2; i < argv.length; i++) {
+            var arg = argv[i];
+            if (arg.startsWith("--format=")) {
+                format = Format.valueOf(arg.substring("--format=".length()).toUpperCase());
+            } else if (arg.startsWith("--batch=")) {
+                batchSize = Integer.parseInt(arg.substring("--batch=".length()));
+            } else {
+                usage();
+            }
+        }
+        if (batchSize <= 0) {
+            usage();
+        }
+        var file = Path.of(argv[1]);
+        if (!Files.isRegularFile(file)) {
+            System.err.printf("Tuple file: %s does not exist", argv[1]).println();
+            System.exit(1);
+        }
+
+        var start = System.nanoTime();
+        SortedMap<String, Mutation> tuples;
+        try (var reader = Files.newBufferedReader(file)) {
+            tuples = read(reader, format);
+        }
+        log.info("Read: {} unique tuples from: {} in: {} ms", tuples.size(), file,
+                 TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+
+        var endpoint = HostAndPort.fromString(argv[0]);
+        var client = apiClient(new InetSocketAddress(endpoint.getHost(), endpoint.getPort()));
+        var sent = new AtomicLong();
+        var reporter = Executors.newSingleThreadScheduledExecutor(Thread.ofVirtual().factory());
+        var total = tuples.size();
+        try {
+            var oracle = new OracleAdapter(client.getChannel());
+            var began = System.nanoTime();
+            reporter.scheduleAtFixedRate(() -> {
+                var elapsed = Math.max(1, System.nanoTime() - began);
+                log.info("Sent: {}/{} tuples, {} tuples/sec", sent.get(), total,
+                         sent.get() * TimeUnit.SECONDS.toNanos(1) / elapsed);
+            }, 5, 5, TimeUnit.SECONDS);
+            var imported = oracle.bulkImport(batches(tuples.values(), batchSize), sent::set).get();
+            var elapsed = Math.max(1, System.nanoTime() - began);
+            var rate = imported.getMutations() * TimeUnit.SECONDS.toNanos(1) / elapsed;
+            log.info("Imported: {} tuples in: {} batches, ts: {} in: {} ms, {} tuples/sec", imported.getMutations(),
+                     imported.getBatches(), Long.toUnsignedString(imported.getTs()),
+                     TimeUnit.NANOSECONDS.toMillis(elapsed), rate);
+        } finally {
+            reporter.shutdownNow();
+            client.stop();
+        }
+        System.exit(0);
+    }
+
+    /**
+     * @return the mutations, in order, grouped into batches of at most batchSize
+     */
+    static Iterator<List<Mutation>> batches(Iterable<Mutation> mutations, int batchSize) {
+        var source = mutations.iterator();
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return source.hasNext();
+            }
+
+            @Override
+            public List<Mutation> next() {
+                if (!source.hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                var batch = new ArrayList<Mutation>(batchSize);
+                while (batch.size() < batchSize && source.hasNext()) {
+                    batch.add(source.next());
+                }
+                return batch;
+            }
+        };
+    }
+
+    /**
+     * Read the tuples, keyed by their canonical form: type, target then subject.  Duplicate tuples collapse to a single
+     * entry and the iteration order groups the tuples of each target together
+     *
+     * @throws IllegalArgumentException if a line is not a valid tuple
+     */
+    static SortedMap<String, Mutation> read(BufferedReader reader, Format format) throws IOException {
+        var tuples = new TreeMap<String, Mutation>();
+        String line;
+        int lineNumber = 0;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            line = line.strip();
+            if (line.isEmpty() || line.startsWith("#") || (format == Format.CSV && line.equals(CSV_HEADER))) {
+                continue;
+            }
+            String type, subject, target;
+            if (format == Format.CSV) {
+                var columns = line.split(",", -1);
+                if (columns.length != 3) {
+                    throw new IllegalArgumentException("Line: %s expected %s".formatted(lineNumber, CSV_HEADER));
+                }
+                type = columns[0].strip();
+                subject = columns[1].strip();
+                target = columns[2].strip();
+            } else {
+                JsonNode node = mapper.readTree(line);
+                type = node.path("type").asText();
+                subject = node.path("subject").asText().strip();
+                target = node.path("target").asText().strip();
+            }
+            try {
+                tuples.put(type + '|' + target + '|' + subject, mutation(type, subject, target));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Line: %s %s".formatted(lineNumber, e.getMessage()), e);
+            }
+        }
+        return tuples;
+    }
+
+    private static MtlsClient apiClient(InetSocketAddress serverAddress) {
+        CertificateWithPrivateKey clientCert = Utils.getMember(0);
+        return new MtlsClient(serverAddress, ClientAuth.REQUIRE, "foo", clientCert.getX509Certificate(),
+                              clientCert.getPrivateKey(), CertificateValidator.NONE);
+    }
+
+    private static Mutation mutation(String type, String subject, String target) {
+        return switch (type) {
+            case "member" -> Mutation.map(subject(subject), subject(target));
+            case "grant" -> {
+                var object = parse(target);
+                if (object[2] == null) {
+                    throw new IllegalArgumentException("grant target: %s requires a relation".formatted(target));
+                }
+                var ns = Oracle.namespace(object[0]);
+                yield Mutation.add(subject(subject).assertion(ns.object(object[1], ns.relation(object[2]))));
+            }
+            default -> throw new IllegalArgumentException("unknown tuple type: " + type);
+        };
+    }
+
+    /**
+     * @return the namespace, name and relation, or null, of the entity namespace:name[#relation]
+     */
+    private static String[] parse(String entity) {
+        var colon = entity.indexOf(':');
+        var hash = entity.lastIndexOf('#');
+        var end = hash < 0 ? entity.length() : hash;
+        if (colon <= 0 || colon + 1 >= end) {
+            throw new IllegalArgumentException("invalid entity: " + entity);
+        }
+        if (hash >= 0 && hash + 1 == entity.length()) {
+            throw new IllegalArgumentException("invalid relation: " + entity);
+        }
+        return new String[] { entity.substring(0, colon), entity.substring(colon + 1, end),
+                              hash < 0 ? null : entity.substring(hash + 1) };
+    }
+
+    private static Oracle.Subject subject(String entity) {
+        var subject = parse(entity);
+        var ns = Oracle.namespace(subject[0]);
+        return subject[2] == null ? ns.subject(subject[1]) : ns.subject(subject[1], ns.relation(subject[2]));
+    }
+
+    private static void usage() {
+        System.err.println("Usage: BulkImport <host:port> <tuple file> (--format=ndjson|csv) (--batch=<tuples>)");
+        System.exit(1);
+    }
+
+    enum Format {
+        CSV, NDJSON
+    }
+}
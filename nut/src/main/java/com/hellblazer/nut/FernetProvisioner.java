@@ -32,6 +32,7 @@ import com.hellblazer.delos.stereotomy.event.protobuf.ProtobufEventFactory;
 import com.hellblazer.delos.stereotomy.identifier.Identifier;
 import com.hellblazer.delos.stereotomy.identifier.SelfAddressingIdentifier;
 import com.hellblazer.nut.internal.v1.proto.InitialProvisioning;
+import com.hellblazer.nut.service.Delphi;
 import com.hellblazer.nut.service.Geb;
 import com.hellblazer.sanctorum.internal.v1.proto.FernetToken;
 import com.hellblazer.sky.sanctum.Sanctum;
@@ -92,7 +93,8 @@ public class FernetProvisioner extends Provisioner {
     }
 
     /**
-     * Transactional provisioning
+     * Transactional provisioning.  The provisioned Oracle state is written directly rather than as a WriteBatch, so the
+     * transaction advances the commit clock as an opaque commit, discarding the state derived from the change feed
      */
     public static boolean tokenProvision(DSLContext dsl, SessionServices services, String subject, String token) {
         return dsl.transactionResult(ctx -> {
@@ -111,6 +113,8 @@ public class FernetProvisioner extends Provisioner {
             if (resolved != null) {
                 return false;
             }
+            context.connection(connection -> Delphi.advanceClock(connection, services));
+
             // Mark the token as used
             AbstractOracle.addObj(context, namespace, boundToken, new Oracle.NamespacedId(namespace, 0L, 0L));
 
@@ -27,9 +27,11 @@ import com.hellblazer.delos.state.Mutator;
 import com.hellblazer.delos.state.proto.Migration;
 import com.hellblazer.delos.state.proto.Txn;
 import com.hellblazer.delos.stereotomy.services.grpc.StereotomyMetrics;
+import com.hellblazer.nut.service.ChangeFeed;
 
 import java.net.URL;
 import java.nio.file.Path;
+import java.sql.Connection;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -49,6 +51,17 @@ public class Sky extends ProcessDomain {
         return mutator;
     }
 
+    /**
+     * @return a new connection to the local replica of the SQL state
+     */
+    public Connection newConnection() {
+        return sqlStateMachine.newConnection();
+    }
+
+    public void register(ChangeFeed changeFeed) {
+        sqlStateMachine.register(ChangeFeed.CHANGE_FEED, params -> changeFeed);
+    }
+
     public void register(FernetProvisioner.TokenValidator validator) {
         sqlStateMachine.register(FernetProvisioner.TOKEN_VALIDATOR, params -> validator);
     }
@@ -17,6 +17,8 @@
 
 package com.hellblazer.nut;
 
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
 import com.google.common.net.HostAndPort;
 import com.google.protobuf.Any;
 import com.google.protobuf.ByteString;
@@ -52,13 +54,28 @@ import com.hellblazer.delos.thoth.DirectPublisher;
 import com.hellblazer.delos.utils.Utils;
 import com.hellblazer.nut.comms.MtlsClient;
 import com.hellblazer.nut.comms.*;
+import com.hellblazer.nut.service.ChangeFeed;
+import com.hellblazer.nut.service.CheckCache;
+import com.hellblazer.nut.service.Consistency;
 import com.hellblazer.nut.service.Delphi;
+import com.hellblazer.nut.service.DelphiMetrics;
+import com.hellblazer.nut.service.Envelope;
+import com.hellblazer.nut.service.Geb;
+import com.hellblazer.nut.service.GebCompactor;
+import com.hellblazer.nut.service.MembershipIndex;
+import com.hellblazer.nut.service.NameTable;
+import com.hellblazer.nut.service.NegativeFilter;
 import com.hellblazer.sky.sanctum.Sanctum;
 import com.macasaet.fernet.Token;
+import io.grpc.BindableService;
 import io.grpc.ManagedChannel;
 import io.grpc.NameResolver;
+import io.grpc.Server;
+import io.grpc.ServerInterceptor;
+import io.grpc.ServerInterceptors;
 import io.grpc.StatusRuntimeException;
 import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
 import io.grpc.inprocess.InProcessSocketAddress;
 import io.netty.handler.ssl.ClientAuth;
 import io.netty.handler.ssl.SslContext;
@@ -66,8 +83,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.net.InetSocketAddress;
-import java.net.ServerSocket;
 import java.net.SocketAddress;
 import java.security.KeyPair;
 import java.security.Provider;
@@ -80,6 +97,7 @@ import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Objects;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
@@ -99,7 +117,7 @@ public class SkyApplication {
     private final CertificateWithPrivateKey                 certWithKey;
     private final Sanctum                                   sanctorum;
     private final Router                                    admissionsComms;
-    private final ApiServer                                 serviceApi;
+    private final Server                                    serviceApi;
     private final Clock                                     clock;
     private final AtomicBoolean                             started   = new AtomicBoolean();
     private final DelegatedCertificateValidator             certificateValidator;
@@ -108,10 +126,18 @@ public class SkyApplication {
     private final Function<SignedNonce, Any>                attestation;
     private final int                                       retries   = 5;
     private final BiFunction<Credentials, Validations, Any> establishment;
+    private final ChangeFeed                                changeFeed;
+    private final Delphi                                    delphi;
+    private final Envelope                                  envelope;
+    private final Geb                                       geb;
+    private final GebCompactor                              compactor;
+    private final MetricRegistry                            metrics   = new MetricRegistry();
+    private final DelphiMetrics                             delphiMetrics;
 
     private final AtomicReference<Token> token = new AtomicReference<>();
     private volatile ManagedChannel joinChannel;
-    private volatile ServerSocket   health;
+    private volatile HealthServer   health;
+    private volatile boolean        serving;
 
     public SkyApplication(SkyConfiguration configuration, Sanctum sanctum, CompletableFuture<Void> onFailure,
                           Function<SignedNonce, Any> attestation) {
@@ -185,18 +211,34 @@ public class SkyApplication {
         admissionsComms = approachServer.router();
         contextId = runtime.getContext().getId();
 
-        var serviceEndpoint = configuration.endpoints.serviceEndpoint();
-        serviceApi = apiServer(serviceEndpoint);
+        var encryption = configuration.encryption;
+        envelope = encryption.enabled() ? new Envelope(getSky()::newConnection, getSky().getMutator(),
+                                                       choamParameters.getSubmitTimeout(), sanctum.dataKeys(),
+                                                       encryption.keyTtl(), encryption.maxKeys(),
+                                                       encryption.rotation()) : null;
+        geb = new Geb(getSky()::newConnection, getSky().getMutator(), choamParameters.getSubmitTimeout(), envelope);
+        var retention = configuration.retention;
+        compactor = retention.enabled() ? new GebCompactor(geb, retention.versions(), retention.age(),
+                                                           retention.interval(), retention.batch(), metrics) : null;
 
         // hard-wire Fernet provisioner for now
-        provisioner = new FernetProvisioner(node.getMember().getId(), getSky().getDelphi(), null,
+        provisioner = new FernetProvisioner(node.getMember().getId(), getSky().getDelphi(), geb,
                                             sanctum.tokenGenerator(), getSky().getMutator(),
                                             choamParameters.getSubmitTimeout());
 
+        changeFeed = new ChangeFeed(configuration.changeFeedCapacity);
+        changeFeed.start(getSky().newConnection(), configuration.changeFeedInterval);
+        delphiMetrics = configuration.metrics ? new DelphiMetrics(metrics) : null;
+        delphi = delphi();
+        var serviceEndpoint = configuration.endpoints.serviceEndpoint();
+        serviceApi = serviceApi(serviceEndpoint);
+
         new Gorgoneion(this::attest, this::establish, gorgoneionParameters.build(), sanctum.getMember(),
                        runtime.getContext(), new DirectPublisher(sanctum.getMember().getId(), new ProtoKERLAdapter(k)),
                        admissionsComms, null, clusterComms);
         getSky().register(getTokenValidator(sanctum, gorgoneionParameters.getDigestAlgorithm()));
+        getSky().register(changeFeed);
+        gauges();
         log.info("Service api: {} on: {}", serviceEndpoint, sanctum.getId());
     }
 
@@ -224,14 +266,28 @@ public class SkyApplication {
         return node.active();
     }
 
+    /**
+     * @return the metric registry shared by the services of the node
+     */
+    public MetricRegistry getMetrics() {
+        return metrics;
+    }
+
     public SocketAddress getServiceEndpoint() {
-        return serviceApi.getAddress();
+        return serviceApi.getListenSockets().getFirst();
     }
 
     public String logState() {
         return node.logState();
     }
 
+    /**
+     * @return true if the node is active in the CHOAM committee and the service API is serving
+     */
+    public boolean ready() {
+        return started.get() && serving && node.active() && !serviceApi.isShutdown();
+    }
+
     public void setCertificateValidatorAni() {
         certificateValidator.setDelegate(
         new StereotomyValidator(node.getDht().getAni().verifiers(Duration.ofSeconds(30))));
@@ -247,13 +303,17 @@ public class SkyApplication {
             return;
         }
         log.info("Shutting down on: {}", node.getMember().getId());
+        serving = false;
         if (health != null) {
-            try {
-                health.close();
-            } catch (IOException e) {
-                log.info("Error closing health", e);
-            }
+            health.stop();
+        }
+        if (compactor != null) {
+            compactor.stop();
         }
+        if (envelope != null) {
+            envelope.clear();
+        }
+        changeFeed.stop();
         if (joinChannel != null) {
             try {
                 joinChannel.shutdown();
@@ -278,7 +338,7 @@ public class SkyApplication {
             admissionsComms.close(Duration.ofMinutes(1));
         }
         if (serviceApi != null) {
-            serviceApi.stop();
+            serviceApi.shutdownNow();
         }
     }
 
@@ -306,6 +366,7 @@ public class SkyApplication {
     }
 
     protected void start(Duration viewGossipDuration, List<View.Seed> seeds, CompletableFuture<Void> onStart) {
+        startHealth();
         clusterComms.start();
         admissionsComms.start();
         //        node.setDhtVerifiers();
@@ -315,30 +376,26 @@ public class SkyApplication {
             log.info("Starting Sky services on: {}", sanctorum.getId());
             try {
                 serviceApi.start();
-                log.info("Sky services started: {} on: {}", serviceApi.getAddress(), sanctorum.getId());
+                serving = true;
+                if (compactor != null) {
+                    compactor.start();
+                }
+                log.info("Sky services started: {} on: {}", getServiceEndpoint(), sanctorum.getId());
             } catch (IOException e) {
                 log.error("Unable to start services on: {}", sanctorum.getId(), e);
                 shutdown();
                 throw new IllegalStateException("Unable to start services!", e);
             }
-            try {
-                var healthEndpoint = configuration.endpoints.healthEndpoint();
-                health = new ServerSocket();
-                health.bind(healthEndpoint);
-                log.info("Health check bound to: {} on: {}", healthEndpoint, sanctorum.getId());
-            } catch (UnsupportedOperationException e) {
-                log.info("Health endpoint not supported on: {}", sanctorum.getId());
-            } catch (IOException e) {
-                log.error("Health endpoint error on: {}", sanctorum.getId(), e);
-            }
         });
         node.getFoundation().start(onStart, viewGossipDuration, seeds);
         log.info("Started Sky: {}", sanctorum.getId());
     }
 
-    private ApiServer apiServer(SocketAddress address) {
+    private ApiServer apiServer(SocketAddress address, ServerInterceptor limits, BindableService... services) {
         log.info("Api server address: {}", address);
         CertificateWithPrivateKey apiIdentity = createIdentity((InetSocketAddress) address);
+        var compression = new CompressionPolicy(configuration.compression.threshold(),
+                                                configuration.compression.services(), metrics);
         return new ApiServer(address, ClientAuth.REQUIRE, "foo", new ServerContextSupplier() {
 
             @Override
@@ -356,7 +413,21 @@ public class SkyApplication {
                 }
                 return ((SelfAddressingIdentifier) decoded.get().identifier()).getDigest();
             }
-        }, validator(), new Delphi(getSky().getDelphi()), new ProvisioningServer(provisioner));
+        }, validator(), compression, limits, services);
+    }
+
+    private Delphi delphi() {
+        var checkCache = new CheckCache(configuration.checkCacheMaxWeight, configuration.latestCheckCacheSize);
+        var membership = configuration.membershipIndex ? new MembershipIndex(configuration.membershipIndexMaxEntries)
+                                                       : null;
+        var negatives = configuration.negativeFilter ? new NegativeFilter(getSky().getDelphi(),
+                                                                          configuration.negativeFilterFpr,
+                                                                          configuration.negativeFilterMaxBytes) : null;
+        return new Delphi(getSky().getDelphi(), getSky()::newConnection, getSky().getMutator(),
+                          configuration.choamParameters.getSubmitTimeout(), configuration.consistencyWait, checkCache,
+                          changeFeed, new NameTable(getSky()::newConnection, configuration.nameTableSize),
+                          membership, negatives, configuration.writeCoalesceWindow, configuration.writeCoalesceMax,
+                          delphiMetrics);
     }
 
     private Any attest(SignedNonce signedNonce) {
@@ -425,10 +496,11 @@ public class SkyApplication {
                                           .usePlaintext()
                                           .build();
         } else {
+            var clientLimits = configuration.clientLimits.enabled() ? configuration.clientLimits.limit() : null;
             MtlsClient client = new MtlsClient(factory, ClientAuth.REQUIRE, "foo", certWithKey.getX509Certificate(),
                                                certWithKey.getPrivateKey(), CertificateValidator.NONE, contextId,
                                                configuration.grpcKeepaliveTime, configuration.grpcKeepaliveTimeout,
-                                               configuration.grpcIdleTimeout);
+                                               configuration.grpcIdleTimeout, clientLimits);
             return client.getChannel();
         }
     }
@@ -446,6 +518,40 @@ public class SkyApplication {
         return current;
     }
 
+    private void gauges() {
+        var memory = ManagementFactory.getMemoryMXBean();
+        var threads = ManagementFactory.getThreadMXBean();
+        var runtime = ManagementFactory.getRuntimeMXBean();
+        var os = ManagementFactory.getOperatingSystemMXBean();
+        metrics.register("jvm.memory.heap.used", (Gauge<Long>) () -> memory.getHeapMemoryUsage().getUsed());
+        metrics.register("jvm.memory.heap.committed", (Gauge<Long>) () -> memory.getHeapMemoryUsage().getCommitted());
+        metrics.register("jvm.memory.heap.max", (Gauge<Long>) () -> memory.getHeapMemoryUsage().getMax());
+        metrics.register("jvm.memory.nonHeap.used", (Gauge<Long>) () -> memory.getNonHeapMemoryUsage().getUsed());
+        metrics.register("jvm.threads.count", (Gauge<Integer>) threads::getThreadCount);
+        metrics.register("jvm.threads.daemon", (Gauge<Integer>) threads::getDaemonThreadCount);
+        metrics.register("jvm.uptime", (Gauge<Long>) runtime::getUptime);
+        metrics.register("jvm.loadAverage", (Gauge<Double>) os::getSystemLoadAverage);
+        for (var gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            metrics.register(MetricRegistry.name("jvm.gc", gc.getName(), "count"),
+                             (Gauge<Long>) gc::getCollectionCount);
+            metrics.register(MetricRegistry.name("jvm.gc", gc.getName(), "time"), (Gauge<Long>) gc::getCollectionTime);
+        }
+        metrics.register("sanctum.tokenCache.hits", (Gauge<Long>) () -> sanctorum.cachedStats().hitCount());
+        metrics.register("sanctum.tokenCache.misses", (Gauge<Long>) () -> sanctorum.cachedStats().missCount());
+        metrics.register("sanctum.tokenCache.evictions",
+                         (Gauge<Long>) () -> sanctorum.cachedStats().evictionCount());
+        metrics.register("sanctum.invalidTokenCache.hits", (Gauge<Long>) () -> sanctorum.invalidStats().hitCount());
+        metrics.register("sanctum.invalidTokenCache.misses",
+                         (Gauge<Long>) () -> sanctorum.invalidStats().missCount());
+        if (envelope != null) {
+            metrics.register("geb.envelope.keyCache.hits", (Gauge<Long>) () -> envelope.keyStats().hitCount());
+            metrics.register("geb.envelope.keyCache.misses", (Gauge<Long>) () -> envelope.keyStats().missCount());
+            metrics.register("geb.envelope.keyCache.evictions",
+                             (Gauge<Long>) () -> envelope.keyStats().evictionCount());
+        }
+        metrics.register("sky.active", (Gauge<Boolean>) node::active);
+    }
+
     private void join(List<SocketAddress> approaches) {
         int attempt = retries;
         while (started.get() && attempt > 0) {
@@ -503,6 +609,53 @@ public class SkyApplication {
         };
     }
 
+    /**
+     * @return the server of the Oracle, Geb and provisioning services, in process if the endpoint is local
+     */
+    private Server serviceApi(SocketAddress address) {
+        var serverLimits = configuration.serverLimits;
+        ServerInterceptor limits = serverLimits.enabled() ? new PerMethodLimitInterceptor(serverLimits::limit) : null;
+        var consistency = Consistency.server(changeFeed, configuration.consistencyWait);
+        // metrics are outermost, so their latency includes the consistency wait
+        var interceptors = delphiMetrics == null ? new ServerInterceptor[] { consistency }
+                                                 : new ServerInterceptor[] { consistency, delphiMetrics.interceptor() };
+        BindableService oracle = () -> ServerInterceptors.intercept(delphi, interceptors);
+        var provisioning = new ProvisioningServer(provisioner);
+        if (!(address instanceof InProcessSocketAddress)) {
+            return apiServer(address, limits, oracle, geb, provisioning).getServer();
+        }
+        log.info("In process service address: {}", address);
+        var builder = InProcessServerBuilder.forAddress(address)
+                                            .executor(Executors.newVirtualThreadPerTaskExecutor())
+                                            .addService(oracle)
+                                            .addService(geb)
+                                            .addService(provisioning);
+        if (limits != null) {
+            builder.intercept(limits);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Serve /live, /ready and /metrics on the health endpoint, if the endpoints have one
+     */
+    private void startHealth() {
+        final SocketAddress healthEndpoint;
+        try {
+            healthEndpoint = configuration.endpoints.healthEndpoint();
+        } catch (UnsupportedOperationException e) {
+            log.info("Health endpoint not supported on: {}", sanctorum.getId());
+            return;
+        }
+        try {
+            health = new HealthServer((InetSocketAddress) healthEndpoint, started::get, this::ready, metrics);
+            health.start();
+            log.info("Health check bound to: {} on: {}", health.getAddress(), sanctorum.getId());
+        } catch (IOException e) {
+            log.error("Health endpoint error on: {}", sanctorum.getId(), e);
+        }
+    }
+
     private CertificateValidator validator() {
         return new CertificateValidator() {
             @Override
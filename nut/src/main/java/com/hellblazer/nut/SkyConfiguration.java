@@ -36,7 +36,12 @@ import com.hellblazer.delos.cryptography.SignatureAlgorithm;
 import com.hellblazer.delos.membership.Member;
 import com.hellblazer.delos.model.ProcessDomain.ProcessDomainParameters;
 import com.hellblazer.delos.utils.Utils;
+import com.hellblazer.nut.comms.CompressionPolicy;
 import com.hellblazer.nut.support.DigestDeserializer;
+import com.netflix.concurrency.limits.Limit;
+import com.netflix.concurrency.limits.limit.FixedLimit;
+import com.netflix.concurrency.limits.limit.Gradient2Limit;
+import com.netflix.concurrency.limits.limit.VegasLimit;
 import io.grpc.inprocess.InProcessSocketAddress;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -49,6 +54,7 @@ import java.nio.file.Path;
 import java.time.Duration;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 /**
@@ -92,6 +98,49 @@ public class SkyConfiguration {
     @JsonProperty
     public Duration                                           invalidTokenCacheTtl = Duration.ofHours(1);
     @JsonProperty
+    public long                                               checkCacheMaxWeight = 64 * 1024 * 1024;
+    @JsonProperty
+    public long                                               latestCheckCacheSize = 100_000;
+    @JsonProperty
+    public int                                                changeFeedCapacity = 100_000;
+    @JsonProperty
+    public Duration                                           changeFeedInterval = Duration.ofMillis(5);
+    @JsonProperty
+    public long                                               nameTableSize      = 1_000_000;
+    @JsonProperty
+    public boolean                                            membershipIndex    = true;
+    @JsonProperty
+    public long                                               membershipIndexMaxEntries = 1_000_000;
+    @JsonProperty
+    public boolean                                            negativeFilter     = false;
+    @JsonProperty
+    public double                                             negativeFilterFpr  = 0.01;
+    @JsonProperty
+    public long                                               negativeFilterMaxBytes = 64 * 1024 * 1024;
+    @JsonProperty
+    public Duration                                           consistencyWait    = Duration.ofMillis(500);
+    @JsonProperty
+    public Duration                                           writeCoalesceWindow = Duration.ZERO;
+    @JsonProperty
+    public int                                                writeCoalesceMax   = 256;
+    @JsonProperty
+    public boolean                                            metrics            = true;
+    @JsonProperty
+    public Compression                                        compression        = new Compression(
+    CompressionPolicy.DEFAULT_THRESHOLD, Collections.emptyMap());
+    @JsonProperty
+    public Retention                                          retention          = new Retention(true, 10,
+    Duration.ofDays(7), Duration.ofMinutes(10), 1_000);
+    @JsonProperty
+    public Encryption                                         encryption         = new Encryption(false,
+    Duration.ofMinutes(15), 1_000, Duration.ofDays(30));
+    @JsonProperty
+    public ConcurrencyLimits                                  serverLimits       = new ConcurrencyLimits(true,
+    LimitAlgorithm.GRADIENT2, 100, 10, 1000);
+    @JsonProperty
+    public ConcurrencyLimits                                  clientLimits       = new ConcurrencyLimits(true,
+    LimitAlgorithm.VEGAS, 20, 1, 200);
+    @JsonProperty
     public Duration                                           grpcDefaultDeadline = Duration.ofSeconds(30);
     @JsonProperty
     public Duration                                           grpcKeepaliveTime = Duration.ofSeconds(30);
@@ -172,6 +221,13 @@ public class SkyConfiguration {
 
         SocketAddress healthEndpoint();
 
+        /**
+         * @return the socket address of the configured endpoint of another member, such as an approach
+         */
+        default SocketAddress resolve(String endpoint) {
+            return EndpointProvider.reify(endpoint);
+        }
+
         SocketAddress serviceEndpoint();
     }
 
@@ -341,6 +397,14 @@ public class SkyConfiguration {
             throw new UnsupportedOperationException();
         }
 
+        /**
+         * Local endpoints of other members are the names of their in process servers
+         */
+        @Override
+        public SocketAddress resolve(String endpoint) {
+            return new InProcessSocketAddress(endpoint);
+        }
+
         @Override
         public SocketAddress serviceEndpoint() {
             if (resolvedServiceEndpoint != null) {
@@ -453,6 +517,60 @@ public class SkyConfiguration {
     public record Shamir(int shares, int threshold) {
     }
 
+    public enum LimitAlgorithm {
+        GRADIENT2, VEGAS
+    }
+
+    /**
+     * Adaptive concurrency limit settings.  The limit starts at initialLimit and adapts to the observed latency within
+     * [minLimit, maxLimit]
+     */
+    public record ConcurrencyLimits(boolean enabled, LimitAlgorithm algorithm, int initialLimit, int minLimit,
+                                    int maxLimit) {
+        /**
+         * @return a new instance of the configured limit, or an effectively unbounded limit if not enabled
+         */
+        public Limit limit() {
+            if (!enabled) {
+                return FixedLimit.of(Integer.MAX_VALUE);
+            }
+            return switch (algorithm) {
+                case GRADIENT2 -> Gradient2Limit.newBuilder()
+                                                .initialLimit(initialLimit)
+                                                .minLimit(minLimit)
+                                                .maxConcurrency(maxLimit)
+                                                .build();
+                case VEGAS -> VegasLimit.newBuilder().initialLimit(initialLimit).maxConcurrency(maxLimit).build();
+            };
+        }
+    }
+
+    /**
+     * Response compression of the service API.  Responses smaller than the threshold, in serialized bytes, are not
+     * compressed; a negative threshold disables compression
+     *
+     * @param services - thresholds overriding the default, by fully qualified service name, e.g. "delphi.v1.Oracle_"
+     */
+    public record Compression(int threshold, Map<String, Integer> services) {
+    }
+
+    /**
+     * Retention of the Geb version history.  A version is retained if it is the latest version of its key, one of the
+     * latest versions of its key and not deleted, or younger than age.  The remainder are compacted every interval,
+     * in transactions purging at most batch rows
+     */
+    public record Retention(boolean enabled, int versions, Duration age, Duration interval, int batch) {
+    }
+
+    /**
+     * Envelope encryption of Geb values under per namespace data keys wrapped by the enclave.  Unwrapped data keys are
+     * cached off heap for keyTtl, up to maxKeys, and each namespace's data key is rotated once older than rotation;
+     * a zero rotation never rotates.  As sealed values can only be read by members with encryption enabled, it must be
+     * enabled on every member of the cluster or none
+     */
+    public record Encryption(boolean enabled, Duration keyTtl, int maxKeys, Duration rotation) {
+    }
+
     public record Seedling(Digest identifier, String endpoint) {
     }
 }
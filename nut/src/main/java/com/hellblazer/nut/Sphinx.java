@@ -19,7 +19,6 @@ package com.hellblazer.nut;
 
 import com.google.protobuf.Any;
 import com.google.protobuf.Empty;
-import com.hellblazer.delos.archipelago.EndpointProvider;
 import com.hellblazer.delos.comm.grpc.ServerContextSupplier;
 import com.hellblazer.delos.cryptography.Digest;
 import com.hellblazer.delos.cryptography.cert.CertificateWithPrivateKey;
@@ -302,7 +301,6 @@ public class Sphinx {
                                                .addService(new SphinxServer(service))
                                                .executor(Executors.newVirtualThreadPerTaskExecutor())
                                                .build();
-            apiAddress = server.getListenSockets().getFirst();
             closeApiServer = Utils.wrapped(() -> {
                 server.shutdown();
             }, log);
@@ -311,6 +309,9 @@ public class Sphinx {
             } catch (IOException e) {
                 throw new IllegalStateException("Unable to start local api server on: %s".formatted(sanctum.getId()));
             }
+            apiAddress = server.getListenSockets().getFirst();
+            log.info("Started API server: {}", apiAddress);
+            return onStart;
         }
         log.info("Starting in MTLS API server: {}", configuration.endpoints.apiEndpoint());
         var server = apiServer();
@@ -398,12 +399,11 @@ public class Sphinx {
             }
         });
 
+        var endpoints = configuration.endpoints;
         List<SocketAddress> approaches = configuration.approaches == null ? Collections.emptyList()
                                                                           : configuration.approaches.stream()
                                                                                                     .map(
-                                                                                                    EndpointProvider::reify)
-                                                                                                    .map(
-                                                                                                    e -> (SocketAddress) e)
+                                                                                                    endpoints::resolve)
                                                                                                     .toList();
         var seeds = configuration.seeds.stream()
                                        .map(
@@ -39,6 +39,24 @@ public class ApiServer implements ClientIdentity {
 
     public ApiServer(SocketAddress address, ClientAuth clientAuth, String alias, ServerContextSupplier supplier,
                      CertificateValidator validator, BindableService... services) {
+        this(address, clientAuth, alias, supplier, validator, (ServerInterceptor) null, services);
+    }
+
+    /**
+     * @param limits - if not null, the interceptor limiting the concurrency of calls, applied before all others
+     */
+    public ApiServer(SocketAddress address, ClientAuth clientAuth, String alias, ServerContextSupplier supplier,
+                     CertificateValidator validator, ServerInterceptor limits, BindableService... services) {
+        this(address, clientAuth, alias, supplier, validator, new CompressionPolicy(), limits, services);
+    }
+
+    /**
+     * @param compression - the policy of response compression
+     * @param limits      - if not null, the interceptor limiting the concurrency of calls, applied before all others
+     */
+    public ApiServer(SocketAddress address, ClientAuth clientAuth, String alias, ServerContextSupplier supplier,
+                     CertificateValidator validator, CompressionPolicy compression, ServerInterceptor limits,
+                     BindableService... services) {
         var interceptor = new TlsInterceptor(sslSessionContext);
         this.supplier = supplier;
         NettyServerBuilder builder = NettyServerBuilder.forAddress(address)
@@ -47,7 +65,10 @@ public class ApiServer implements ClientIdentity {
                                                        supplier.forServer(clientAuth, alias, validator, PROVIDER_JSSE))
                                                        .withChildOption(ChannelOption.TCP_NODELAY, true)
                                                        .intercept(interceptor)
-                                                       .intercept(EnableCompressionInterceptor.SINGLETON);
+                                                       .intercept(compression);
+        if (limits != null) {
+            builder.intercept(limits);
+        }
         for (BindableService service : services) {
             builder.addService(service);
         }
@@ -124,6 +145,10 @@ public class ApiServer implements ClientIdentity {
         return supplier.getMemberId(getCert());
     }
 
+    public Server getServer() {
+        return server;
+    }
+
     public void start() throws IOException {
         server.start();
     }
@@ -139,19 +164,4 @@ public class ApiServer implements ClientIdentity {
             throw new IllegalStateException(e);
         }
     }
-
-    /**
-     * Currently grpc-java doesn't return compressed responses, even if the client has sent a compressed payload. This
-     * turns on gzip compression for all responses.
-     */
-    public static class EnableCompressionInterceptor implements ServerInterceptor {
-        public final static EnableCompressionInterceptor SINGLETON = new EnableCompressionInterceptor();
-
-        @Override
-        public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call, Metadata headers,
-                                                                     ServerCallHandler<ReqT, RespT> next) {
-            call.setCompression("gzip");
-            return next.startCall(call, headers);
-        }
-    }
 }
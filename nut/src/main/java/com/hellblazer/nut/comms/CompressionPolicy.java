@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2024 Hal Hildebrand. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ *  more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.hellblazer.nut.comms;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.protobuf.MessageLite;
+import io.grpc.*;
+
+import java.util.Collections;
+import java.util.Map;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Size aware response compression.  Responses are compressed only if their serialized size is at least the threshold
+ * of their service, and only if the client accepts the encoding, so that the small responses dominating the traffic -
+ * checks and commit timestamps - are not burdened with the CPU and latency of compression.
+ * <p>
+ * If metrics are provided, the time spent sending compressed responses - dominated by the compression - is recorded
+ * as "compression.{method}.compressed", and the responses skipped as "compression.{method}.skipped", for tuning the
+ * thresholds.
+ *
+ * @author hal.hildebrand
+ **/
+public class CompressionPolicy implements ServerInterceptor {
+    public static final  int                  DEFAULT_THRESHOLD = 1024;
+    public static final  String               GZIP              = "gzip";
+    private static final Metadata.Key<String> ACCEPT_ENCODING   = Metadata.Key.of("grpc-accept-encoding",
+                                                                                  Metadata.ASCII_STRING_MARSHALLER);
+
+    private final int                  threshold;
+    private final Map<String, Integer> services;
+    private final MetricRegistry       metrics;
+
+    public CompressionPolicy() {
+        this(DEFAULT_THRESHOLD, Collections.emptyMap(), null);
+    }
+
+    /**
+     * @param threshold - the minimum serialized size of a compressed response, or negative to disable compression
+     * @param services  - the thresholds overriding the default threshold, by fully qualified service name
+     * @param metrics   - the registry of the compression metrics, or null
+     */
+    public CompressionPolicy(int threshold, Map<String, Integer> services, MetricRegistry metrics) {
+        this.threshold = threshold;
+        this.services = services;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call, Metadata headers,
+                                                                 ServerCallHandler<ReqT, RespT> next) {
+        var descriptor = call.getMethodDescriptor();
+        int limit = services.getOrDefault(descriptor.getServiceName(), threshold);
+        if (limit < 0 || !accepts(headers.get(ACCEPT_ENCODING))) {
+            return next.startCall(call, headers);
+        }
+        call.setCompression(GZIP);
+        var method = descriptor.getBareMethodName();
+        Timer compressed = metrics == null ? null : metrics.timer(name("compression", method, "compressed"));
+        Meter skipped = metrics == null ? null : metrics.meter(name("compression", method, "skipped"));
+        return next.startCall(new ForwardingServerCall.SimpleForwardingServerCall<>(call) {
+            @Override
+            public void sendMessage(RespT message) {
+                var compress = !(message instanceof MessageLite m) || m.getSerializedSize() >= limit;
+                setMessageCompression(compress);
+                if (metrics == null) {
+                    super.sendMessage(message);
+                } else if (compress) {
+                    var timing = compressed.time();
+                    try {
+                        super.sendMessage(message);
+                    } finally {
+                        timing.stop();
+                    }
+                } else {
+                    skipped.mark();
+                    super.sendMessage(message);
+                }
+            }
+        }, headers);
+    }
+
+    private boolean accepts(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (var encoding : acceptEncoding.split(",")) {
+            if (GZIP.equals(encoding.trim())) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
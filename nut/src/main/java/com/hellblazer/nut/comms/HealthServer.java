@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2024 Hal Hildebrand. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ *  more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.hellblazer.nut.comms;
+
+import com.codahale.metrics.*;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Minimal HTTP server of the health port, for load balancers and metric scrapers:
+ * <ul>
+ *     <li>/live - 200 while the node is running</li>
+ *     <li>/ready - 200 when the node is able to serve, 503 otherwise, so balancers drain lagging nodes</li>
+ *     <li>/metrics - the metric registry in the Prometheus text exposition format</li>
+ * </ul>
+ *
+ * @author hal.hildebrand
+ **/
+public class HealthServer {
+    private static final String   TEXT       = "text/plain; charset=utf-8";
+    private static final String   PROMETHEUS = "text/plain; version=0.0.4; charset=utf-8";
+    private static final double[] QUANTILES  = { 0.5, 0.75, 0.95, 0.99, 0.999 };
+
+    private final HttpServer server;
+
+    public HealthServer(InetSocketAddress address, BooleanSupplier live, BooleanSupplier ready,
+                        MetricRegistry metrics) throws IOException {
+        server = HttpServer.create(address, 0);
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.createContext("/live", exchange -> status(exchange, live.getAsBoolean()));
+        server.createContext("/ready", exchange -> status(exchange, ready.getAsBoolean()));
+        server.createContext("/metrics", exchange -> respond(exchange, 200, PROMETHEUS, format(metrics)));
+    }
+
+    /**
+     * @return the registry in the Prometheus text exposition format.  Timers are in seconds.  Histograms and timers
+     * are summaries; as Dropwizard does not track an exact sum, their sum is the count times the mean of the sampled
+     * reservoir
+     */
+    public static String format(MetricRegistry registry) {
+        var builder = new StringBuilder();
+        for (Map.Entry<String, Gauge> entry : registry.getGauges().entrySet()) {
+            var value = entry.getValue().getValue();
+            if (value instanceof Number || value instanceof Boolean) {
+                var name = sanitize(entry.getKey());
+                type(builder, name, "gauge");
+                sample(builder, name, "", value instanceof Boolean b ? (b ? 1 : 0) : ((Number) value).doubleValue());
+            }
+        }
+        for (Map.Entry<String, Counter> entry : registry.getCounters().entrySet()) {
+            var name = sanitize(entry.getKey());
+            type(builder, name, "gauge");
+            sample(builder, name, "", entry.getValue().getCount());
+        }
+        for (Map.Entry<String, Meter> entry : registry.getMeters().entrySet()) {
+            var name = sanitize(entry.getKey()) + "_total";
+            type(builder, name, "counter");
+            sample(builder, name, "", entry.getValue().getCount());
+        }
+        for (Map.Entry<String, Histogram> entry : registry.getHistograms().entrySet()) {
+            summary(builder, sanitize(entry.getKey()), entry.getValue().getSnapshot(), entry.getValue().getCount(), 1);
+        }
+        for (Map.Entry<String, Timer> entry : registry.getTimers().entrySet()) {
+            summary(builder, sanitize(entry.getKey()) + "_seconds", entry.getValue().getSnapshot(),
+                    entry.getValue().getCount(), 1.0 / TimeUnit.SECONDS.toNanos(1));
+        }
+        return builder.toString();
+    }
+
+    public InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+    }
+
+    private static void respond(HttpExchange exchange, int code, String contentType, String body)
+    throws IOException {
+        try (exchange) {
+            if (!"GET".equals(exchange.getRequestMethod()) && !"HEAD".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            exchange.getResponseHeaders().set("Content-Type", contentType);
+            if ("HEAD".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(code, -1);
+                return;
+            }
+            var bytes = body.getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(code, bytes.length);
+            exchange.getResponseBody().write(bytes);
+        }
+    }
+
+    private static void sample(StringBuilder builder, String name, String labels, double value) {
+        builder.append(name).append(labels).append(' ').append(value).append('\n');
+    }
+
+    private static String sanitize(String name) {
+        return name.replaceAll("[^a-zA-Z0-9_:]", "_");
+    }
+
+    private static void status(HttpExchange exchange, boolean ok) throws IOException {
+        respond(exchange, ok ? 200 : 503, TEXT, ok ? "OK\n" : "UNAVAILABLE\n");
+    }
+
+    private static void summary(StringBuilder builder, String name, Snapshot snapshot, long count, double scale) {
+        type(builder, name, "summary");
+        for (var quantile : QUANTILES) {
+            sample(builder, name, "{quantile=\"" + quantile + "\"}", snapshot.getValue(quantile) * scale);
+        }
+        sample(builder, name + "_sum", "", snapshot.getMean() * count * scale);
+        sample(builder, name + "_count", "", count);
+    }
+
+    private static void type(StringBuilder builder, String name, String type) {
+        builder.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+}
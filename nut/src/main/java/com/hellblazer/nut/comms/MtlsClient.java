@@ -17,14 +17,19 @@
 
 package com.hellblazer.nut.comms;
 
-import com.netflix.concurrency.limits.Limiter;
-import com.netflix.concurrency.limits.grpc.client.GrpcClientLimiterBuilder;
-import com.netflix.concurrency.limits.grpc.client.GrpcClientRequestContext;
 import com.hellblazer.delos.archipelago.RouterImpl;
 import com.hellblazer.delos.comm.grpc.ClientContextSupplier;
 import com.hellblazer.delos.cryptography.Digest;
 import com.hellblazer.delos.cryptography.ssl.CertificateValidator;
+import com.netflix.concurrency.limits.Limit;
+import com.netflix.concurrency.limits.grpc.client.ConcurrencyLimitClientInterceptor;
+import com.netflix.concurrency.limits.grpc.client.GrpcClientLimiterBuilder;
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.ClientInterceptor;
 import io.grpc.ManagedChannel;
+import io.grpc.MethodDescriptor;
 import io.grpc.NameResolver;
 import io.grpc.netty.NettyChannelBuilder;
 import io.netty.handler.ssl.ClientAuth;
@@ -56,6 +61,34 @@ public class MtlsClient {
                       .idleTimeout(idleTimeout.toNanos(), TimeUnit.NANOSECONDS);
     }
 
+    /**
+     * The client side adaptive concurrency limit of unary calls.  Calls in excess of the limit are rejected immediately
+     * with UNAVAILABLE, shedding load at the client rather than queueing calls that would miss their deadline.
+     * Streaming calls are not limited, as a long lived stream would hold its permit, and distort the latency the limit
+     * adapts to, for its lifetime
+     */
+    static ClientInterceptor limiter(Limit limit) {
+        var limiter = new ConcurrencyLimitClientInterceptor(
+        new GrpcClientLimiterBuilder().limit(limit).blockOnLimit(false).build());
+        return new ClientInterceptor() {
+            @Override
+            public <ReqT, RespT> ClientCall<ReqT, RespT> interceptCall(MethodDescriptor<ReqT, RespT> method,
+                                                                       CallOptions callOptions, Channel next) {
+                if (method.getType() != MethodDescriptor.MethodType.UNARY) {
+                    return next.newCall(method, callOptions);
+                }
+                return limiter.interceptCall(method, callOptions, next);
+            }
+        };
+    }
+
+    /**
+     * @param limit - the concurrency limit of the channel, or null if unlimited
+     */
+    private static NettyChannelBuilder limited(NettyChannelBuilder builder, Limit limit) {
+        return limit == null ? builder : builder.intercept(limiter(limit));
+    }
+
     public MtlsClient(SocketAddress address, ClientAuth clientAuth, String alias, ClientContextSupplier supplier,
                       CertificateValidator validator, Executor exec) {
         this(address, clientAuth, alias, supplier, validator, exec, Duration.ofSeconds(30), Duration.ofSeconds(10),
@@ -85,7 +118,6 @@ public class MtlsClient {
                       ClientContextSupplier supplier, CertificateValidator validator, Executor exec,
                       Duration keepaliveTime, Duration keepaliveTimeout, Duration idleTimeout) {
 
-        Limiter<GrpcClientRequestContext> limiter = new GrpcClientLimiterBuilder().blockOnLimit(false).build();
         channel = applyGrpcConfig(NettyChannelBuilder.forTarget("approach")
                                                      .nameResolverFactory(resolver)
                                                      .executor(exec)
@@ -105,12 +137,21 @@ public class MtlsClient {
     public MtlsClient(SocketAddress address, ClientAuth clientAuth, String alias, X509Certificate certificate,
                       PrivateKey privateKey, CertificateValidator validator, Duration keepaliveTime,
                       Duration keepaliveTimeout, Duration idleTimeout) {
+        this(address, clientAuth, alias, certificate, privateKey, validator, keepaliveTime, keepaliveTimeout,
+             idleTimeout, null);
+    }
 
-        Limiter<GrpcClientRequestContext> limiter = new GrpcClientLimiterBuilder().blockOnLimit(false).build();
-        channel = applyGrpcConfig(NettyChannelBuilder.forAddress(address)
-                                                     .executor(exec)
-                                                     .sslContext(forClient(clientAuth, alias, certificate,
-                                                                           privateKey, validator)),
+    /**
+     * @param limit - the adaptive concurrency limit of the channel's unary calls, or null if unlimited
+     */
+    public MtlsClient(SocketAddress address, ClientAuth clientAuth, String alias, X509Certificate certificate,
+                      PrivateKey privateKey, CertificateValidator validator, Duration keepaliveTime,
+                      Duration keepaliveTimeout, Duration idleTimeout, Limit limit) {
+
+        channel = applyGrpcConfig(limited(NettyChannelBuilder.forAddress(address)
+                                                             .executor(exec)
+                                                             .sslContext(forClient(clientAuth, alias, certificate,
+                                                                                   privateKey, validator)), limit),
                                   keepaliveTime, keepaliveTimeout, idleTimeout)
                                      .build();
 
@@ -125,15 +166,25 @@ public class MtlsClient {
     public MtlsClient(NameResolver.Factory factory, ClientAuth clientAuth, String alias, X509Certificate certificate,
                       PrivateKey privateKey, CertificateValidator validator, Digest context, Duration keepaliveTime,
                       Duration keepaliveTimeout, Duration idleTimeout) {
+        this(factory, clientAuth, alias, certificate, privateKey, validator, context, keepaliveTime, keepaliveTimeout,
+             idleTimeout, null);
+    }
 
-        Limiter<GrpcClientRequestContext> limiter = new GrpcClientLimiterBuilder().blockOnLimit(false).build();
-        channel = applyGrpcConfig(NettyChannelBuilder.forTarget("approach")
-                                                     .nameResolverFactory(factory)
-                                                     .defaultLoadBalancingPolicy("round_robin")
-                                                     .executor(exec)
-                                                     .sslContext(forClient(clientAuth, alias, certificate,
-                                                                           privateKey, validator))
-                                                     .intercept(RouterImpl.clientInterceptor(context)),
+    /**
+     * @param limit - the adaptive concurrency limit of the channel's unary calls, or null if unlimited
+     */
+    public MtlsClient(NameResolver.Factory factory, ClientAuth clientAuth, String alias, X509Certificate certificate,
+                      PrivateKey privateKey, CertificateValidator validator, Digest context, Duration keepaliveTime,
+                      Duration keepaliveTimeout, Duration idleTimeout, Limit limit) {
+
+        channel = applyGrpcConfig(limited(NettyChannelBuilder.forTarget("approach")
+                                                             .nameResolverFactory(factory)
+                                                             .defaultLoadBalancingPolicy("round_robin")
+                                                             .executor(exec)
+                                                             .sslContext(forClient(clientAuth, alias, certificate,
+                                                                                   privateKey, validator))
+                                                             .intercept(RouterImpl.clientInterceptor(context)),
+                                          limit),
                                   keepaliveTime, keepaliveTimeout, idleTimeout)
                                      .build();
 
@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2024 Hal Hildebrand. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ *  more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.hellblazer.nut.comms;
+
+import com.netflix.concurrency.limits.Limit;
+import com.netflix.concurrency.limits.grpc.server.ConcurrencyLimitServerInterceptor;
+import com.netflix.concurrency.limits.grpc.server.GrpcServerLimiterBuilder;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.Status;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Adaptive concurrency limits enforced independently for each method.  Each method learns its own limit from the
+ * latency of its calls, so that expensive methods are throttled without starving the cheap ones.  Calls in excess of
+ * the limit are rejected immediately with UNAVAILABLE rather than queued, so that clients may back off or retry
+ * elsewhere.
+ * <p>
+ * Only unary methods are limited.  A streaming call (watch, checkStream, bulkImport, putChunked) holds its permit for
+ * the lifetime of the stream, so a handful of long lived streams would exhaust the limit, and their durations would
+ * be mistaken for latency; streams are bounded by their own flow control instead.
+ *
+ * @author hal.hildebrand
+ **/
+public class PerMethodLimitInterceptor implements ServerInterceptor {
+    private final Supplier<Limit>                                              limits;
+    private final ConcurrentHashMap<String, ConcurrencyLimitServerInterceptor> methods = new ConcurrentHashMap<>();
+
+    /**
+     * @param limits - supplies a new limit algorithm for each method
+     */
+    public PerMethodLimitInterceptor(Supplier<Limit> limits) {
+        this.limits = limits;
+    }
+
+    @Override
+    public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call, Metadata headers,
+                                                                 ServerCallHandler<ReqT, RespT> next) {
+        if (call.getMethodDescriptor().getType() != MethodDescriptor.MethodType.UNARY) {
+            return next.startCall(call, headers);
+        }
+        var method = call.getMethodDescriptor().getFullMethodName();
+        return methods.computeIfAbsent(method, m -> limiter()).interceptCall(call, headers, next);
+    }
+
+    private ConcurrencyLimitServerInterceptor limiter() {
+        var limiter = new GrpcServerLimiterBuilder().limit(limits.get()).build();
+        return ConcurrencyLimitServerInterceptor.newBuilder(limiter)
+                                                .statusSupplier(
+                                                () -> Status.UNAVAILABLE.withDescription("Concurrency limit reached"))
+                                                .build();
+    }
+}
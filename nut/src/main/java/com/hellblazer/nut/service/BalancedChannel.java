@@ -0,0 +1,277 @@
+/*
+ * Copyright (c) 2024 Hal Hildebrand. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ *  more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.hellblazer.nut.service;
+
+import io.grpc.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.SocketAddress;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * A channel spreading calls across the service endpoints of the cluster members.  The endpoints are discovered by
+ * periodically polling a supplier, such as one derived from the current membership view, and a channel is maintained
+ * to each live endpoint.  Each call is sent to the endpoint with the fewest outstanding calls, choosing randomly among
+ * ties.
+ * <p>
+ * Node local state, such as the ids assigned by resolve, is only meaningful to the node that assigned it.  Calls made
+ * on the {@link #pinned()} channel are sent to a single endpoint for as long as that endpoint remains live.
+ * <p>
+ * A call may record the endpoint it was sent to with the {@link #ROUTED} option, and a later call may steer away from
+ * that endpoint with the {@link #AVOID} option, so a hedged attempt is not sent to the endpoint that is slow to answer
+ * the first.
+ *
+ * @author hal.hildebrand
+ **/
+class BalancedChannel extends Channel {
+    /**
+     * Sends the call to another endpoint than this, unless it is the only live endpoint
+     */
+    static final CallOptions.Key<SocketAddress>                  AVOID  = CallOptions.Key.create("balanced.avoid");
+    /**
+     * Records the address of the endpoint the call is sent to
+     */
+    static final CallOptions.Key<AtomicReference<SocketAddress>> ROUTED = CallOptions.Key.create("balanced.routed");
+
+    private static final Logger log = LoggerFactory.getLogger(BalancedChannel.class);
+
+    private final    Supplier<List<SocketAddress>>            endpoints;
+    private final    Function<SocketAddress, ManagedChannel>  connect;
+    private final    ScheduledExecutorService                 scheduler;
+    private final    Map<SocketAddress, Endpoint>             live   = new HashMap<>();
+    private final    Channel                                  pinned = new Pinned();
+    private volatile List<Endpoint>                           active = List.of();
+    private volatile boolean                                  closed;
+
+    BalancedChannel(Supplier<List<SocketAddress>> endpoints, Function<SocketAddress, ManagedChannel> connect,
+                    Duration refresh) {
+        this.endpoints = endpoints;
+        this.connect = connect;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(Thread.ofVirtual().factory());
+        refresh();
+        scheduler.scheduleWithFixedDelay(this::refresh, refresh.toNanos(), refresh.toNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public String authority() {
+        var endpoints = active;
+        return endpoints.isEmpty() ? "balanced" : endpoints.getFirst().channel.authority();
+    }
+
+    @Override
+    public <ReqT, RespT> ClientCall<ReqT, RespT> newCall(MethodDescriptor<ReqT, RespT> method,
+                                                         CallOptions callOptions) {
+        var endpoint = least(callOptions.getOption(AVOID));
+        var routed = callOptions.getOption(ROUTED);
+        if (routed != null && endpoint != null) {
+            routed.set(endpoint.address);
+        }
+        return call(endpoint, method, callOptions);
+    }
+
+    /**
+     * @return the channel sending all calls to a single live endpoint
+     */
+    Channel pinned() {
+        return pinned;
+    }
+
+    void shutdown(Duration timeout) {
+        synchronized (live) {
+            closed = true;
+            scheduler.shutdownNow();
+            active = List.of();
+            for (var endpoint : live.values()) {
+                close(endpoint.channel, timeout);
+            }
+            live.clear();
+        }
+    }
+
+    private <ReqT, RespT> ClientCall<ReqT, RespT> call(Endpoint endpoint, MethodDescriptor<ReqT, RespT> method,
+                                                       CallOptions callOptions) {
+        if (endpoint == null) {
+            return new FailingCall<>(Status.UNAVAILABLE.withDescription("No live service endpoints"));
+        }
+        endpoint.outstanding.incrementAndGet();
+        var call = endpoint.channel.newCall(method, callOptions);
+        return new ForwardingClientCall.SimpleForwardingClientCall<>(call) {
+            private boolean started;
+
+            @Override
+            public void cancel(String message, Throwable cause) {
+                if (!started) {
+                    started = true;
+                    endpoint.outstanding.decrementAndGet();
+                }
+                super.cancel(message, cause);
+            }
+
+            @Override
+            public void start(Listener<RespT> responseListener, Metadata headers) {
+                started = true;
+                super.start(new ForwardingClientCallListener.SimpleForwardingClientCallListener<>(responseListener) {
+                    @Override
+                    public void onClose(Status status, Metadata trailers) {
+                        endpoint.outstanding.decrementAndGet();
+                        super.onClose(status, trailers);
+                    }
+                }, headers);
+            }
+        };
+    }
+
+    private void close(ManagedChannel channel, Duration timeout) {
+        channel.shutdown();
+        try {
+            if (!channel.awaitTermination(timeout.toNanos(), TimeUnit.NANOSECONDS)) {
+                channel.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            channel.shutdownNow();
+        }
+    }
+
+    /**
+     * @param avoid - the address of the endpoint not chosen unless it is the only live endpoint, or null
+     */
+    private Endpoint least(SocketAddress avoid) {
+        var endpoints = active;
+        Endpoint least = null;
+        var min = Integer.MAX_VALUE;
+        var ties = 0;
+        for (var endpoint : endpoints) {
+            if (endpoint.address.equals(avoid)) {
+                continue;
+            }
+            var outstanding = endpoint.outstanding.get();
+            if (outstanding < min) {
+                least = endpoint;
+                min = outstanding;
+                ties = 1;
+            } else if (outstanding == min && ThreadLocalRandom.current().nextInt(++ties) == 0) {
+                least = endpoint;
+            }
+        }
+        return least == null && avoid != null ? least(null) : least;
+    }
+
+    private void refresh() {
+        List<SocketAddress> current;
+        try {
+            current = endpoints.get();
+        } catch (Throwable t) {
+            log.warn("Unable to discover service endpoints", t);
+            return;
+        }
+        var removed = new ArrayList<ManagedChannel>();
+        synchronized (live) {
+            if (closed) {
+                return;
+            }
+            var retained = new HashSet<>(current);
+            live.entrySet().removeIf(e -> {
+                if (retained.contains(e.getKey())) {
+                    return false;
+                }
+                removed.add(e.getValue().channel);
+                return true;
+            });
+            var updated = new ArrayList<Endpoint>();
+            for (var address : current) {
+                updated.add(live.computeIfAbsent(address, a -> new Endpoint(a, connect.apply(a))));
+            }
+            if (!removed.isEmpty() || updated.size() != active.size()) {
+                log.info("Service endpoints: {}", current);
+            }
+            active = List.copyOf(updated);
+        }
+        // Calls in flight on departed endpoints are allowed to complete
+        removed.forEach(ManagedChannel::shutdown);
+    }
+
+    private record Endpoint(SocketAddress address, ManagedChannel channel, AtomicInteger outstanding) {
+        private Endpoint(SocketAddress address, ManagedChannel channel) {
+            this(address, channel, new AtomicInteger());
+        }
+    }
+
+    private static class FailingCall<ReqT, RespT> extends ClientCall<ReqT, RespT> {
+        private final Status status;
+
+        private FailingCall(Status status) {
+            this.status = status;
+        }
+
+        @Override
+        public void cancel(String message, Throwable cause) {
+        }
+
+        @Override
+        public void halfClose() {
+        }
+
+        @Override
+        public void request(int numMessages) {
+        }
+
+        @Override
+        public void sendMessage(ReqT message) {
+        }
+
+        @Override
+        public void start(Listener<RespT> responseListener, Metadata headers) {
+            responseListener.onClose(status, new Metadata());
+        }
+    }
+
+    private class Pinned extends Channel {
+        private volatile Endpoint pin;
+
+        @Override
+        public String authority() {
+            return BalancedChannel.this.authority();
+        }
+
+        @Override
+        public <ReqT, RespT> ClientCall<ReqT, RespT> newCall(MethodDescriptor<ReqT, RespT> method,
+                                                             CallOptions callOptions) {
+            var endpoints = active;
+            var current = pin;
+            if (current == null || !endpoints.contains(current)) {
+                current = endpoints.isEmpty() ? null : endpoints.getFirst();
+                pin = current;
+            }
+            return call(current, method, callOptions);
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2024 Hal Hildebrand. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ *  more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.hellblazer.nut.service;
+
+import com.hellblazer.delphi.v1.proto.BulkImported;
+import com.hellblazer.delphi.v1.proto.WriteBatch;
+import com.hellblazer.nut.internal.v1.proto.Committed;
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.StreamObserver;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+/**
+ * The server side of a Delphi bulkImport call.  Each batch is committed as its own transaction as it arrives, with at
+ * most IMPORT_WINDOW batches in flight; further batches are requested from the transport only as commits complete, so
+ * a fast client is held back by flow control rather than buffered here.  Once the client half closes and every batch
+ * has committed, the totals are returned.
+ * <p>
+ * The first batch that fails to commit fails the import, and no further batches are requested.  Batches already in
+ * flight, before or after the failing batch in the stream, may still commit; they are not reported in the failure, so
+ * a failed import must be treated as partially applied.
+ *
+ * @author hal.hildebrand
+ **/
+class BatchImport implements StreamObserver<WriteBatch> {
+    private final Function<WriteBatch, CompletableFuture<Committed>> submit;
+    private final ServerCallStreamObserver<BulkImported>             call;
+    private       long                                               batches;
+    private       long                                               mutations;
+    private       long                                               ts;
+    private       int                                                inFlight;
+    private       boolean                                            halfClosed;
+    private       boolean                                            done;
+
+    BatchImport(Function<WriteBatch, CompletableFuture<Committed>> submit,
+                StreamObserver<BulkImported> responseObserver) {
+        this.submit = submit;
+        this.call = (ServerCallStreamObserver<BulkImported>) responseObserver;
+        call.disableAutoRequest();
+        call.request(Delphi.IMPORT_WINDOW);
+    }
+
+    @Override
+    public synchronized void onCompleted() {
+        halfClosed = true;
+        complete();
+    }
+
+    @Override
+    public synchronized void onError(Throwable t) {
+        // client cancelled, the batches in flight are committed but unreported
+        done = true;
+    }
+
+    @Override
+    public void onNext(WriteBatch batch) {
+        synchronized (this) {
+            if (done) {
+                return;
+            }
+            if (batch.getMutationsCount() == 0) {
+                call.request(1);
+                return;
+            }
+            inFlight++;
+        }
+        submit.apply(batch).whenComplete((committed, t) -> {
+            synchronized (this) {
+                inFlight--;
+                if (done) {
+                    return;
+                }
+                if (t != null) {
+                    done = true;
+                    call.onError(t);
+                    return;
+                }
+                batches++;
+                mutations += batch.getMutationsCount();
+                ts = Math.max(ts, committed.getTs());
+                if (complete()) {
+                    return;
+                }
+            }
+            call.request(1);
+        });
+    }
+
+    /**
+     * @return true if the import is done
+     */
+    private boolean complete() {
+        if (done || !halfClosed || inFlight > 0) {
+            return done;
+        }
+        done = true;
+        call.onNext(BulkImported.newBuilder().setBatches(batches).setMutations(mutations).setTs(ts).build());
+        call.onCompleted();
+        return true;
+    }
+}
@@ -0,0 +1,358 @@
+/*
+ * Copyright (c) 2024 Hal Hildebrand. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ *  more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.hellblazer.nut.service;
+
+import com.hellblazer.delphi.v1.proto.Mutation_;
+import com.hellblazer.delphi.v1.proto.WatchEvent;
+import io.grpc.Status;
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.StreamObserver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.LongConsumer;
+
+/**
+ * The feed of committed Oracle mutations.  Mutations are staged by the nut.writeBatch procedure as each block is
+ * applied by the SQL state machine of this replica, and published only once their transaction has committed: when the
+ * submitter's transaction completes, or when the committed clock of the replica reaches their timestamp.  A staged
+ * batch whose transaction rolled back is discarded when the next batch is staged.  The watermark starts at the
+ * committed clock of the replica, and follows the clock as it advances, so that state committed before the feed
+ * started - or applied by a checkpoint - is known to be visible.
+ * <p>
+ * State committed without a description of its mutations - by the procedures other than nut.writeBatch that write the
+ * Oracle, or by a checkpoint - is opaque to the feed.  Such a commit is published to the reset listeners, which must
+ * discard any state derived from the published mutations.  A commit is known to be opaque when it is staged as such,
+ * when a published batch does not follow the watermark, or when the committed clock moves past the watermark.
+ * <p>
+ * Published mutations are retained in a bounded ring buffer.  Watchers receive the retained mutations committed at or
+ * after their starting timestamp, followed by new mutations as they are committed.  The feed vouches only for the
+ * mutations committed after the clock it started from, and after the last opaque commit.  A watcher that starts at or
+ * before that timestamp, or before the retained history, or that falls behind the retained history, is failed with
+ * OUT_OF_RANGE and must resync, as are the watchers active at an opaque commit.
+ *
+ * @author hal.hildebrand
+ **/
+public class ChangeFeed {
+    public static final  String   CHANGE_FEED = "CHANGE_FEED";
+    private static final String   CLOCK       = "select ts from nut.clock";
+    private static final Logger   log         = LoggerFactory.getLogger(ChangeFeed.class);
+    private static final Executor exec        = Executors.newVirtualThreadPerTaskExecutor();
+
+    private final    WatchEvent[]                            events;
+    private final    Set<Watcher>                            watchers   = ConcurrentHashMap.newKeySet();
+    private final    List<BiConsumer<Long, List<Mutation_>>> listeners  = new CopyOnWriteArrayList<>();
+    private final    List<LongConsumer>                      resets     = new CopyOnWriteArrayList<>();
+    private final    Deque<Staged>                           staged     = new ArrayDeque<>();
+    private final    Object                                  publishing = new Object();
+    private final    ScheduledExecutorService                scheduler  = Executors.newSingleThreadScheduledExecutor(
+    Thread.ofVirtual().factory());
+    private          long                                    head;
+    private          long                                    discarded;
+    private          long                                    earliest;
+    private volatile long                                    watermark;
+
+    public ChangeFeed(int capacity) {
+        events = new WatchEvent[capacity];
+    }
+
+    private static long max(long a, long b) {
+        return Long.compareUnsigned(a, b) >= 0 ? a : b;
+    }
+
+    /**
+     * Add a listener invoked with the commit timestamp and mutations of each published batch, in commit order.
+     * Listeners must not block
+     */
+    public void addListener(BiConsumer<Long, List<Mutation_>> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Add a listener invoked with the commit timestamp of opaque commits, whose mutations are not published.  Listeners
+     * must discard any state derived from the published mutations, and must not block
+     */
+    public void addResetListener(LongConsumer listener) {
+        resets.add(listener);
+    }
+
+    /**
+     * Answer whether the mutations committed at the timestamp are visible to reads on this replica
+     */
+    public boolean applied(long ts) {
+        return Long.compareUnsigned(ts, watermark) <= 0;
+    }
+
+    /**
+     * Wait until the mutations committed at the timestamp are visible to reads on this replica
+     *
+     * @return true if the timestamp was applied within the timeout, false otherwise
+     */
+    public boolean await(long ts, Duration timeout) throws InterruptedException {
+        var deadline = System.nanoTime() + timeout.toNanos();
+        synchronized (this) {
+            while (!applied(ts)) {
+                var remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                wait(remaining / 1_000_000, (int) (remaining % 1_000_000));
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Publish the staged batches committed at or before the timestamp, in commit order
+     *
+     * @param committed - a commit timestamp known to have committed on this replica
+     */
+    public void confirm(long committed) {
+        synchronized (publishing) {
+            while (true) {
+                Staged next;
+                synchronized (this) {
+                    next = staged.peekFirst();
+                    if (next == null || Long.compareUnsigned(next.ts, committed) > 0) {
+                        return;
+                    }
+                    staged.removeFirst();
+                }
+                publish(next.previous, next.ts, next.mutations);
+            }
+        }
+    }
+
+    /**
+     * Stage the mutations applied by a transaction that has yet to commit.  Called by the state machine in commit
+     * order; staged batches later than the preceding commit timestamp belong to transactions that rolled back
+     *
+     * @param previous  - the commit timestamp preceding the transaction
+     * @param ts        - the commit timestamp of the transaction
+     * @param mutations - the mutations applied by the transaction
+     */
+    public synchronized void stage(long previous, long ts, List<Mutation_> mutations) {
+        while (!staged.isEmpty() && Long.compareUnsigned(staged.peekLast().ts, previous) > 0) {
+            log.debug("Discarding rolled back mutations at: {}", Long.toUnsignedString(staged.removeLast().ts));
+        }
+        staged.addLast(new Staged(previous, ts, mutations));
+    }
+
+    /**
+     * Stage an opaque transaction, whose mutations are not described, that has yet to commit
+     *
+     * @param previous - the commit timestamp preceding the transaction
+     * @param ts       - the commit timestamp of the transaction
+     */
+    public void stage(long previous, long ts) {
+        stage(previous, ts, null);
+    }
+
+    /**
+     * Start following the committed clock of the replica, from its current reading
+     *
+     * @param connection - a connection reading the committed state of the replica
+     * @param interval   - the interval between readings of the clock
+     */
+    public void start(Connection connection, Duration interval) {
+        poll(connection);
+        scheduler.scheduleWithFixedDelay(() -> poll(connection), interval.toNanos(), interval.toNanos(),
+                                         TimeUnit.NANOSECONDS);
+    }
+
+    public void stop() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * @return the highest commit timestamp published
+     */
+    public long watermark() {
+        return watermark;
+    }
+
+    /**
+     * Watch the mutations committed at or after the timestamp
+     */
+    public void watch(long from, StreamObserver<WatchEvent> responseObserver) {
+        long cursor;
+        synchronized (this) {
+            if (earliest != 0 && Long.compareUnsigned(from, earliest) <= 0
+                || head > events.length && Long.compareUnsigned(from, discarded) <= 0) {
+                responseObserver.onError(Status.OUT_OF_RANGE.withDescription(
+                "Mutations from: %s are no longer retained".formatted(Long.toUnsignedString(from))).asException());
+                return;
+            }
+            cursor = head;
+            while (cursor > tail() && Long.compareUnsigned(event(cursor - 1).getTs(), from) >= 0) {
+                cursor--;
+            }
+        }
+        var watcher = new Watcher((ServerCallStreamObserver<WatchEvent>) responseObserver, cursor);
+        watcher.observer.setOnCancelHandler(() -> watchers.remove(watcher));
+        watcher.observer.setOnReadyHandler(watcher::drain);
+        watchers.add(watcher);
+        watcher.drain();
+    }
+
+    /**
+     * Advance the watermark to the committed clock.  The staged batches committed by the clock are published first
+     */
+    private void poll(Connection connection) {
+        long clock;
+        try (var statement = connection.prepareStatement(CLOCK); var rs = statement.executeQuery()) {
+            if (!rs.next()) {
+                return;
+            }
+            clock = rs.getLong(1);
+        } catch (SQLException e) {
+            log.warn("Unable to read the commit clock", e);
+            return;
+        }
+        confirm(clock);
+        synchronized (this) {
+            if (applied(clock)) {
+                return;
+            }
+            watermark = clock;
+            earliest = max(earliest, clock);
+            notifyAll();
+        }
+        reset(clock);
+    }
+
+    /**
+     * Publish a committed batch.  A batch that is opaque, or that does not follow the watermark, is published to the
+     * reset listeners before the mutation listeners
+     */
+    private void publish(long previous, long ts, List<Mutation_> mutations) {
+        boolean opaque;
+        synchronized (this) {
+            opaque = mutations == null || Long.compareUnsigned(previous, watermark) > 0;
+            if (opaque) {
+                earliest = max(earliest, mutations == null ? ts : previous);
+            }
+            for (var mutation : mutations == null ? List.<Mutation_>of() : mutations) {
+                var index = (int) (head % events.length);
+                if (head >= events.length) {
+                    discarded = max(discarded, events[index].getTs());
+                }
+                events[index] = WatchEvent.newBuilder().setTs(ts).setMutation(mutation).build();
+                head++;
+            }
+            watermark = max(watermark, ts);
+            notifyAll();
+        }
+        if (opaque) {
+            reset(ts);
+        }
+        if (mutations == null) {
+            return;
+        }
+        for (var listener : listeners) {
+            try {
+                listener.accept(ts, mutations);
+            } catch (Throwable t) {
+                log.warn("Error in change feed listener", t);
+            }
+        }
+        if (!opaque) {
+            for (var watcher : watchers) {
+                exec.execute(watcher::drain);
+            }
+        }
+    }
+
+
+    private void reset(long ts) {
+        log.debug("Opaque commit at: {}", Long.toUnsignedString(ts));
+        for (var watcher : watchers) {
+            exec.execute(() -> watcher.fail(
+            "Mutations committed at: %s are not known".formatted(Long.toUnsignedString(ts))));
+        }
+        for (var listener : resets) {
+            try {
+                listener.accept(ts);
+            } catch (Throwable t) {
+                log.warn("Error in change feed reset listener", t);
+            }
+        }
+    }
+
+    private WatchEvent event(long sequence) {
+        return events[(int) (sequence % events.length)];
+    }
+
+    private long tail() {
+        return Math.max(0, head - events.length);
+    }
+
+    private record Staged(long previous, long ts, List<Mutation_> mutations) {
+    }
+
+    private class Watcher {
+        private final ServerCallStreamObserver<WatchEvent> observer;
+        private       long                                 cursor;
+        private       boolean                              failed;
+
+        private Watcher(ServerCallStreamObserver<WatchEvent> observer, long cursor) {
+            this.observer = observer;
+            this.cursor = cursor;
+        }
+
+        private synchronized void drain() {
+            while (!failed && observer.isReady()) {
+                WatchEvent next;
+                synchronized (ChangeFeed.this) {
+                    if (cursor == head) {
+                        return;
+                    }
+                    next = cursor < tail() ? null : event(cursor);
+                }
+                if (next == null) {
+                    fail("Watcher fell behind the retained mutations");
+                    return;
+                }
+                cursor++;
+                observer.onNext(next);
+            }
+        }
+
+        private synchronized void fail(String description) {
+            if (failed) {
+                return;
+            }
+            failed = true;
+            watchers.remove(this);
+            observer.onError(Status.OUT_OF_RANGE.withDescription(description).asException());
+        }
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 2024 Hal Hildebrand. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ *  more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.hellblazer.nut.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.hellblazer.delos.delphinius.Oracle;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decision cache for Oracle checks.
+ * <p>
+ * Checks at an explicit timestamp no later than the commit watermark cannot change, and are held in a bounded cache
+ * weighted by the approximate size of the assertion.  Checks of the latest state (timestamp 0) are held in a separate
+ * cache that is cleared whenever a newer commit timestamp is observed.  A latest result computed concurrently with a
+ * commit is not cached, so a cleared cache is never repopulated with a stale decision.
+ * <p>
+ * An opaque commit, whose mutations are not published by the change feed, may have changed any decision, including
+ * those of timestamps already committed, so it clears both caches.
+ *
+ * @author hal.hildebrand
+ **/
+public class CheckCache {
+    private static final Logger log = LoggerFactory.getLogger(CheckCache.class);
+
+    private final Cache<Key, Boolean>              historical;
+    private final Cache<Oracle.Assertion, Boolean> latest;
+    private final AtomicLong                       watermark = new AtomicLong();
+    private final AtomicLong                       epoch     = new AtomicLong();
+
+    public CheckCache(long maximumWeight, long maximumLatest) {
+        historical = Caffeine.newBuilder()
+                             .maximumWeight(maximumWeight)
+                             .weigher((Key key, Boolean result) -> weight(key.assertion()))
+                             .recordStats()
+                             .build();
+        latest = Caffeine.newBuilder().maximumSize(maximumLatest).recordStats().build();
+        log.info("Check cache maximum weight: {}, maximum latest: {}", maximumWeight, maximumLatest);
+    }
+
+    private static int length(Oracle.Relation relation) {
+        return relation.namespace().name().length() + relation.name().length();
+    }
+
+    private static int weight(Oracle.Assertion assertion) {
+        var subject = assertion.subject();
+        var object = assertion.object();
+        var chars = subject.namespace().name().length() + subject.name().length() + length(subject.relation())
+                    + object.namespace().name().length() + object.name().length() + length(object.relation());
+        return 64 + 2 * chars;
+    }
+
+    /**
+     * Answer the check, using the cached decision if present
+     *
+     * @param assertion - the assertion to check
+     * @param ts        - the timestamp of the check, 0 for the latest state
+     * @param check     - evaluates the check when the decision is not cached
+     */
+    public boolean check(Oracle.Assertion assertion, long ts, Check check) throws SQLException {
+        if (ts == 0) {
+            return checkLatest(assertion, check);
+        }
+        if (Long.compareUnsigned(ts, watermark.get()) > 0) {
+            return check.check();
+        }
+        var key = new Key(assertion, ts);
+        var cached = historical.getIfPresent(key);
+        if (cached != null) {
+            return cached;
+        }
+        var result = check.check();
+        historical.put(key, result);
+        return result;
+    }
+
+    /**
+     * Record the commit timestamp of a mutation, invalidating the latest decisions
+     */
+    public void committed(long ts) {
+        watermark.accumulateAndGet(ts, (a, b) -> Long.compareUnsigned(a, b) >= 0 ? a : b);
+        epoch.incrementAndGet();
+        latest.invalidateAll();
+    }
+
+    /**
+     * Record the commit timestamp of an opaque commit, invalidating every decision
+     */
+    public void reset(long ts) {
+        committed(ts);
+        historical.invalidateAll();
+    }
+
+    public CacheStats historicalStats() {
+        return historical.stats();
+    }
+
+    public CacheStats latestStats() {
+        return latest.stats();
+    }
+
+    /**
+     * Log current cache statistics for monitoring purposes
+     */
+    public void logCacheStatistics() {
+        var historicalStats = historicalStats();
+        var latestStats = latestStats();
+        log.info("Check cache statistics: hits={}, misses={}, requests={}, evictions={}", historicalStats.hitCount(),
+                 historicalStats.missCount(), historicalStats.requestCount(), historicalStats.evictionCount());
+        log.info("Latest check cache statistics: hits={}, misses={}, requests={}, evictions={}",
+                 latestStats.hitCount(), latestStats.missCount(), latestStats.requestCount(),
+                 latestStats.evictionCount());
+    }
+
+    public long watermark() {
+        return watermark.get();
+    }
+
+    private boolean checkLatest(Oracle.Assertion assertion, Check check) throws SQLException {
+        var cached = latest.getIfPresent(assertion);
+        if (cached != null) {
+            return cached;
+        }
+        var current = epoch.get();
+        var result = check.check();
+        if (epoch.get() == current) {
+            latest.put(assertion, result);
+            if (epoch.get() != current) {
+                latest.invalidate(assertion);
+            }
+        }
+        return result;
+    }
+
+    @FunctionalInterface
+    public interface Check {
+        boolean check() throws SQLException;
+    }
+
+    private record Key(Oracle.Assertion assertion, long ts) {
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2024 Hal Hildebrand. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ *  more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.hellblazer.nut.service;
+
+import com.hellblazer.delphi.v1.proto.AssertionAt;
+import com.hellblazer.delphi.v1.proto.CheckRequest;
+import com.hellblazer.delphi.v1.proto.CheckResponse;
+import com.hellblazer.delphi.v1.proto.Oracle_Grpc;
+import io.grpc.stub.StreamObserver;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Multiplexes concurrent checks from many callers onto a single long lived checkStream call.  Each check is assigned
+ * an id and its future is completed when the correlated response arrives.  Should the stream fail, the outstanding
+ * checks are failed and a new stream is opened on the next check.
+ * <p>
+ * As the stream outlives any one check, the read-your-writes token is carried on each request rather than in the
+ * headers of the call, so that every check observes the writes its caller made before issuing it.
+ *
+ * @author hal.hildebrand
+ **/
+class CheckPipeline implements StreamObserver<CheckResponse> {
+    private final Oracle_Grpc.Oracle_Stub                             stub;
+    private final LongSupplier                                        atLeast;
+    private final ConcurrentHashMap<Long, CompletableFuture<Boolean>> pending = new ConcurrentHashMap<>();
+    private final AtomicLong                                          ids     = new AtomicLong();
+    private       StreamObserver<CheckRequest>                        requests;
+
+    CheckPipeline(Oracle_Grpc.Oracle_Stub stub) {
+        this(stub, () -> 0L);
+    }
+
+    /**
+     * @param atLeast - supplies the commit timestamp each check must observe, or 0 if none
+     */
+    CheckPipeline(Oracle_Grpc.Oracle_Stub stub, LongSupplier atLeast) {
+        this.stub = stub;
+        this.atLeast = atLeast;
+    }
+
+    CompletableFuture<Boolean> check(AssertionAt check) {
+        var id = ids.incrementAndGet();
+        var result = new CompletableFuture<Boolean>();
+        synchronized (this) {
+            if (requests == null) {
+                requests = stub.checkStream(this);
+            }
+            pending.put(id, result);
+            requests.onNext(
+            CheckRequest.newBuilder().setId(id).setCheck(check).setAtLeast(atLeast.getAsLong()).build());
+        }
+        return result;
+    }
+
+    synchronized void close() {
+        if (requests != null) {
+            requests.onCompleted();
+            requests = null;
+        }
+    }
+
+    @Override
+    public void onCompleted() {
+        failPending(new SQLException("Check stream closed"));
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        failPending(t);
+    }
+
+    @Override
+    public void onNext(CheckResponse response) {
+        var result = pending.remove(response.getId());
+        if (result == null) {
+            return;
+        }
+        if (response.getError().isEmpty()) {
+            result.complete(response.getResult());
+        } else {
+            result.completeExceptionally(new SQLException(response.getError()));
+        }
+    }
+
+    private synchronized void failPending(Throwable t) {
+        requests = null;
+        for (var id : new ArrayList<>(pending.keySet())) {
+            var result = pending.remove(id);
+            if (result != null) {
+                result.completeExceptionally(t);
+            }
+        }
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2024 Hal Hildebrand. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ *  more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.hellblazer.nut.service;
+
+import com.hellblazer.delphi.v1.proto.Object_;
+import com.hellblazer.geb.internal.v1.proto.PutChunk_;
+import com.hellblazer.geb.internal.v1.proto.Version_;
+import io.grpc.Status;
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.StreamObserver;
+
+import java.util.UUID;
+
+/**
+ * The server side of a Geb putChunked call.  Each chunk is staged by its own transaction as it arrives, with at most
+ * UPLOAD_WINDOW chunks in flight; further chunks are requested from the transport only as staging completes, so the
+ * memory held by an upload is bounded by the window rather than the size of the value.  Once the client half closes
+ * the staged chunks are committed as the next version of the key.  The chunks staged by a failed or cancelled upload
+ * are discarded.
+ *
+ * @author hal.hildebrand
+ **/
+class ChunkedUpload implements StreamObserver<PutChunk_> {
+    private final Geb                                geb;
+    private final ServerCallStreamObserver<Version_> call;
+    private final String                             upload = UUID.randomUUID().toString();
+    private       Object_                            key;
+    private       int                                cas;
+    private       int                                chunks;
+    private       int                                inFlight;
+    private       boolean                            halfClosed;
+    private       boolean                            done;
+    private       boolean                            failed;
+
+    ChunkedUpload(Geb geb, StreamObserver<Version_> responseObserver) {
+        this.geb = geb;
+        this.call = (ServerCallStreamObserver<Version_>) responseObserver;
+        call.disableAutoRequest();
+        call.request(Geb.UPLOAD_WINDOW);
+    }
+
+    @Override
+    public synchronized void onCompleted() {
+        halfClosed = true;
+        commit();
+    }
+
+    @Override
+    public synchronized void onError(Throwable t) {
+        // client cancelled
+        fail(null);
+    }
+
+    @Override
+    public void onNext(PutChunk_ chunk) {
+        Object_ object;
+        int index;
+        synchronized (this) {
+            if (done) {
+                return;
+            }
+            if (key == null) {
+                if (!chunk.hasKey()) {
+                    fail(Status.INVALID_ARGUMENT.withDescription("The first chunk must carry the key").asException());
+                    return;
+                }
+                key = chunk.getKey();
+                cas = chunk.getCas();
+            }
+            if (chunk.getChunk().size() > Geb.CHUNK_SIZE) {
+                fail(Status.INVALID_ARGUMENT.withDescription(
+                "Chunk of: %s bytes exceeds: %s".formatted(chunk.getChunk().size(), Geb.CHUNK_SIZE)).asException());
+                return;
+            }
+            object = key;
+            index = chunks++;
+            inFlight++;
+        }
+        geb.stage(upload, object, index, chunk.getChunk()).whenComplete((staged, t) -> {
+            synchronized (this) {
+                inFlight--;
+                if (done) {
+                    discard();
+                    return;
+                }
+                if (t != null) {
+                    fail(t);
+                    return;
+                }
+                if (commit()) {
+                    return;
+                }
+            }
+            call.request(1);
+        });
+    }
+
+    /**
+     * Commit the staged chunks once the client has half closed and every chunk is staged
+     *
+     * @return true if the upload is done
+     */
+    private boolean commit() {
+        if (done || !halfClosed || inFlight > 0) {
+            return done;
+        }
+        done = true;
+        if (key == null) {
+            call.onError(Status.INVALID_ARGUMENT.withDescription("No chunks uploaded").asException());
+            return true;
+        }
+        geb.commit(upload, key, cas).whenComplete((version, t) -> {
+            if (t != null) {
+                geb.abort(upload);
+                call.onError(t);
+            } else if (version == 0) {
+                call.onError(Status.FAILED_PRECONDITION.withDescription(
+                "CAS version: %s is not the latest of: %s".formatted(cas, Delphi.object(key))).asException());
+            } else {
+                call.onNext(Version_.newBuilder().setVersion(version).build());
+                call.onCompleted();
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Discard the staged chunks of a failed upload, once no chunk is still being staged
+     */
+    private void discard() {
+        if (failed && inFlight == 0 && chunks > 0) {
+            failed = false;
+            geb.abort(upload);
+        }
+    }
+
+    /**
+     * @param t - the error to report, or null if the client cancelled
+     */
+    private void fail(Throwable t) {
+        if (done) {
+            return;
+        }
+        done = true;
+        failed = true;
+        discard();
+        if (t != null) {
+            call.onError(t);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2024 Hal Hildebrand. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ *  more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.hellblazer.nut.service;
+
+import com.hellblazer.delphi.v1.proto.ConsistencyToken;
+import io.grpc.*;
+import io.grpc.protobuf.ProtoUtils;
+
+import java.time.Duration;
+import java.util.function.LongSupplier;
+
+/**
+ * Read your writes consistency for the Oracle service.  Each replica applies committed blocks independently, so a
+ * client whose write committed through one replica may read from another that has yet to apply it.  Clients carry the
+ * highest commit timestamp they have observed in the delphi-consistency-bin header, and the replica holds the call
+ * until it has applied that timestamp.  A replica that cannot catch up within the configured wait fails the call with
+ * UNAVAILABLE, returning its own watermark in the trailers, so that the client may retry on another replica.
+ *
+ * @author hal.hildebrand
+ **/
+public final class Consistency {
+    public static final Metadata.Key<ConsistencyToken> TOKEN = Metadata.Key.of("delphi-consistency-bin",
+                                                                               ProtoUtils.metadataMarshaller(
+                                                                               ConsistencyToken.getDefaultInstance()));
+
+    private Consistency() {
+    }
+
+    /**
+     * @param atLeast - supplies the highest commit timestamp observed by the client, 0 if none
+     * @return the client interceptor attaching the consistency token to each call
+     */
+    public static ClientInterceptor client(LongSupplier atLeast) {
+        return new ClientInterceptor() {
+            @Override
+            public <ReqT, RespT> ClientCall<ReqT, RespT> interceptCall(MethodDescriptor<ReqT, RespT> method,
+                                                                       CallOptions callOptions, Channel next) {
+                return new ForwardingClientCall.SimpleForwardingClientCall<>(next.newCall(method, callOptions)) {
+                    @Override
+                    public void start(Listener<RespT> responseListener, Metadata headers) {
+                        var ts = atLeast.getAsLong();
+                        if (ts != 0) {
+                            headers.put(TOKEN, ConsistencyToken.newBuilder().setAtLeast(ts).build());
+                        }
+                        super.start(responseListener, headers);
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * @param feed    - the change feed of the replica
+     * @param maxWait - the maximum time to hold a call waiting for the replica to apply the token's timestamp
+     * @return the server interceptor enforcing the consistency token of each call
+     */
+    public static ServerInterceptor server(ChangeFeed feed, Duration maxWait) {
+        return new ServerInterceptor() {
+            @Override
+            public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call,
+                                                                         Metadata headers,
+                                                                         ServerCallHandler<ReqT, RespT> next) {
+                var token = headers.get(TOKEN);
+                if (token == null || feed.applied(token.getAtLeast())) {
+                    return next.startCall(call, headers);
+                }
+                Status status;
+                try {
+                    if (feed.await(token.getAtLeast(), maxWait)) {
+                        return next.startCall(call, headers);
+                    }
+                    status = Status.UNAVAILABLE.withDescription(
+                    "Replica has not applied: %s".formatted(Long.toUnsignedString(token.getAtLeast())));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    status = Status.CANCELLED.withDescription("Interrupted awaiting consistency token");
+                }
+                var trailers = new Metadata();
+                trailers.put(TOKEN, ConsistencyToken.newBuilder().setAtLeast(feed.watermark()).build());
+                call.close(status, trailers);
+                return new ServerCall.Listener<>() {
+                };
+            }
+        };
+    }
+}
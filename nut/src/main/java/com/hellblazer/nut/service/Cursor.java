@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2024 Hal Hildebrand. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ *  more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.hellblazer.nut.service;
+
+import io.grpc.Status;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A lazy iterator over the rows of a forward only, read only JDBC cursor.  Rows are fetched from the database in
+ * batches of the fetch size as the iterator advances, so a response streamed from the cursor holds only the rows of
+ * the chunk being sent, rather than the full result set.  The cursor owns its connection, which is closed with it.
+ *
+ * @author hal.hildebrand
+ **/
+class Cursor<T> implements Iterator<T>, AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(Cursor.class);
+
+    private final Connection        connection;
+    private final PreparedStatement statement;
+    private final ResultSet         rows;
+    private final Row<T>            row;
+    private       Boolean           advanced;
+
+    /**
+     * Open the cursor, closing the connection should the query fail
+     *
+     * @param connection - the connection owned by the cursor
+     * @param sql        - the query
+     * @param fetchSize  - the number of rows fetched from the database at a time
+     * @param parameters - binds the parameters of the query
+     * @param row        - maps the current row of the cursor
+     */
+    Cursor(Connection connection, String sql, int fetchSize, Parameters parameters, Row<T> row) throws SQLException {
+        this.connection = connection;
+        this.row = row;
+        try {
+            statement = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            statement.setFetchSize(fetchSize);
+            parameters.bind(statement);
+            rows = statement.executeQuery();
+        } catch (SQLException e) {
+            connection.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public void close() {
+        try (connection; statement; rows) {
+            // closed in reverse order
+        } catch (SQLException e) {
+            log.warn("Error closing cursor", e);
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (advanced == null) {
+            try {
+                advanced = rows.next();
+            } catch (SQLException e) {
+                throw Status.INTERNAL.withDescription(e.getMessage()).withCause(e).asRuntimeException();
+            }
+        }
+        return advanced;
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        advanced = null;
+        try {
+            return row.map(rows);
+        } catch (SQLException e) {
+            throw Status.INTERNAL.withDescription(e.getMessage()).withCause(e).asRuntimeException();
+        }
+    }
+
+    @FunctionalInterface
+    interface Parameters {
+        void bind(PreparedStatement statement) throws SQLException;
+    }
+
+    @FunctionalInterface
+    interface Row<T> {
+        T map(ResultSet rows) throws SQLException;
+    }
+}
@@ -16,21 +16,210 @@
  */
 package com.hellblazer.nut.service;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.google.protobuf.InvalidProtocolBufferException;
 import com.hellblazer.delphi.v1.proto.*;
+import com.hellblazer.delos.choam.support.InvalidTransaction;
+import com.hellblazer.delos.delphinius.AbstractOracle;
 import com.hellblazer.delos.delphinius.Oracle;
+import com.hellblazer.delos.h2.SessionServices;
+import com.hellblazer.delos.state.Mutator;
+import com.hellblazer.nut.internal.v1.proto.Committed;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.stub.ServerCallStreamObserver;
 import io.grpc.stub.StreamObserver;
 import org.joou.ULong;
+import org.jooq.SQLDialect;
+import org.jooq.impl.DSL;
 
+import java.sql.Connection;
+import java.sql.JDBCType;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 /**
  * @author hal.hildebrand
  **/
 public class Delphi extends Oracle_Grpc.Oracle_ImplBase {
-    private final Oracle oracle;
+    public static final  int                                  CHECK_WINDOW  = 256;
+    public static final  int                                  CHUNK_SIZE    = 256;
+    public static final  int                                  IMPORT_WINDOW = 4;
+    private static final int                                  INTERNED      = 10_000;
+    private static final Executor                             exec          =
+    Executors.newVirtualThreadPerTaskExecutor();
+    private static final Cache<String, Oracle.Namespace>      namespaces    = Caffeine.newBuilder()
+                                                                                      .maximumSize(INTERNED)
+                                                                                      .build();
+    private static final Cache<RelationName, Oracle.Relation> relations     = Caffeine.newBuilder()
+                                                                                      .maximumSize(INTERNED)
+                                                                                      .build();
 
-    public Delphi(Oracle oracle) {
-        this.oracle = oracle;
+    private static final String LAZY       = "set lazy_query_execution true";
+    static final         String OBJECT_ID  = """
+                                             select o.id from delphinius.object o
+                                             join delphinius.namespace n on n.id = o.namespace
+                                             join delphinius.relation r on r.id = o.relation
+                                             join delphinius.namespace rn on rn.id = r.namespace
+                                             where n.name = ? and o.name = ? and rn.name = ? and r.name = ?
+                                             """;
+    private static final String PREDICATE  = " and rn.name = ? and r.name = ?";
+    private static final String PRESENT    = """
+                                             select count(*) from delphinius.assertion
+                                             where subject = ? and object = ?
+                                             """;
+    private static final String READ_OBJ   = """
+                                             select %s n.name, o.name, rn.name, r.name from delphinius.assertion a
+                                             join delphinius.object o on o.id = a.object
+                                             join delphinius.namespace n on n.id = o.namespace
+                                             join delphinius.relation r on r.id = o.relation
+                                             join delphinius.namespace rn on rn.id = r.namespace
+                                             where a.subject in (%s)%s
+                                             """;
+    private static final String READ_SUBJ  = """
+                                             select %s n.name, s.name, rn.name, r.name from delphinius.assertion a
+                                             join delphinius.subject s on s.id = a.subject
+                                             join delphinius.namespace n on n.id = s.namespace
+                                             join delphinius.relation r on r.id = s.relation
+                                             join delphinius.namespace rn on rn.id = r.namespace
+                                             where a.object in (%s)%s
+                                             """;
+    static final         String SUBJECT_ID = """
+                                             select s.id from delphinius.subject s
+                                             join delphinius.namespace n on n.id = s.namespace
+                                             join delphinius.relation r on r.id = s.relation
+                                             join delphinius.namespace rn on rn.id = r.namespace
+                                             where n.name = ? and s.name = ? and rn.name = ? and r.name = ?
+                                             """;
+
+    private final Oracle               oracle;
+    private final Supplier<Connection> connections;
+    private final Mutator              mutator;
+    private final Duration             timeout;
+    private final Duration             consistencyWait;
+    private final CheckCache           checkCache;
+    private final ChangeFeed           changeFeed;
+    private final NameTable            names;
+    private final MembershipIndex      membership;
+    private final NegativeFilter       negatives;
+    private final WriteCoalescer       coalescer;
+
+    /**
+     * @param connections     - supplies connections reading the replica's state, from which the streamed reads are
+     *                        served by a cursor, or null to serve them from the oracle
+     * @param consistencyWait - the maximum time a pipelined check is held waiting for its read-your-writes token
+     * @param membership      - the membership index consulted for latest checks, or null if disabled
+     * @param negatives       - the negative filter consulted for latest checks, or null if disabled
+     * @param metrics         - the metrics timing the SQL evaluation of the oracle, or null if disabled
+     */
+    public Delphi(Oracle oracle, Supplier<Connection> connections, Mutator mutator, Duration timeout,
+                  Duration consistencyWait, CheckCache checkCache, ChangeFeed changeFeed, NameTable names,
+                  MembershipIndex membership, NegativeFilter negatives, Duration coalesceWindow, int coalesceMax,
+                  DelphiMetrics metrics) {
+        this.oracle = metrics == null ? oracle : metrics.timed(oracle);
+        this.connections = connections;
+        this.mutator = mutator;
+        this.timeout = timeout;
+        this.consistencyWait = consistencyWait;
+        this.checkCache = checkCache;
+        this.changeFeed = changeFeed;
+        this.names = names;
+        this.membership = membership;
+        this.negatives = negatives;
+        this.coalescer = coalesceWindow.isZero() ? null : new WriteCoalescer(this::submit, coalesceWindow, coalesceMax);
+        if (membership != null) {
+            changeFeed.addListener(membership::apply);
+            changeFeed.addResetListener(membership::reset);
+        }
+        if (negatives != null) {
+            changeFeed.addListener(negatives::apply);
+            changeFeed.addResetListener(negatives::reset);
+        }
+        changeFeed.addListener((ts, mutations) -> checkCache.committed(ts));
+        changeFeed.addResetListener(checkCache::reset);
+    }
+
+    /**
+     * Transactional application of a serialized WriteBatch, executed by the SQL state machine as a single CHOAM
+     * transaction.  Any failing mutation aborts the entire batch.  The applied mutations are staged in the replica's
+     * change feed, which publishes them once the transaction has committed.
+     * <p>
+     * The commit timestamp is the proposed timestamp of the submitter, advanced past the timestamp of the previously
+     * applied batch.  As it is derived only from the replicated state, every replica assigns the same timestamp, and
+     * timestamps increase in commit order.  Added assertions are stamped with the commit timestamp, so a check at the
+     * returned timestamp observes the batch.
+     *
+     * @return the serialized Committed result of the batch
+     */
+    public static byte[] applyBatch(Connection connection, SessionServices services, byte[] batch, long proposed)
+    throws SQLException {
+        WriteBatch writeBatch;
+        try {
+            writeBatch = WriteBatch.parseFrom(batch);
+        } catch (InvalidProtocolBufferException e) {
+            throw new SQLException("Cannot parse write batch", e);
+        }
+        var previous = clock(connection);
+        var ts = Math.max(proposed, previous + 1);
+        clock(connection, ts);
+        var committed = Committed.newBuilder().setTs(ts);
+        var mutations = writeBatch.getMutationsList();
+        for (int i = 0; i < mutations.size(); i++) {
+            if (!apply(connection, mutations.get(i), ts)) {
+                committed.addPresent(i);
+            }
+        }
+        ChangeFeed feed = services.call(ChangeFeed.CHANGE_FEED);
+        if (feed != null) {
+            feed.stage(previous, ts, mutations);
+        }
+        return committed.build().toByteArray();
+    }
+
+    /**
+     * Advance the commit clock for a transaction that writes the Oracle other than by applying a WriteBatch, staging it
+     * in the replica's change feed as opaque.  Once the transaction commits, the state derived from the published
+     * mutations is discarded, rather than silently diverging from the Oracle
+     *
+     * @return the commit timestamp of the transaction
+     */
+    public static long advanceClock(Connection connection, SessionServices services) throws SQLException {
+        var previous = clock(connection);
+        var ts = previous + 1;
+        clock(connection, ts);
+        ChangeFeed feed = services.call(ChangeFeed.CHANGE_FEED);
+        if (feed != null) {
+            feed.stage(previous, ts);
+        }
+        return ts;
+    }
+
+    private static void clock(Connection connection, long ts) throws SQLException {
+        try (var statement = connection.prepareStatement("update nut.clock set ts = ?")) {
+            statement.setLong(1, ts);
+            statement.executeUpdate();
+        }
+    }
+
+    private static long clock(Connection connection) throws SQLException {
+        try (var statement = connection.prepareStatement("select ts from nut.clock");
+             var rs = statement.executeQuery()) {
+            if (!rs.next()) {
+                throw new SQLException("Commit clock not initialized");
+            }
+            return rs.getLong(1);
+        }
     }
 
     public static Oracle.Assertion assertion(Assertion_ assertion) {
@@ -42,7 +231,15 @@ public class Delphi extends Oracle_Grpc.Oracle_ImplBase {
     }
 
     private static Oracle.Namespace namespace(Namespace_ namespace) {
-        return new Oracle.Namespace(namespace.getName());
+        return namespace(namespace.getName());
+    }
+
+    /**
+     * Namespaces and relations are few and repeated in nearly every request, so their conversions are interned, keyed
+     * by their names
+     */
+    static Oracle.Namespace namespace(String name) {
+        return namespaces.get(name, Oracle.Namespace::new);
     }
 
     public static Oracle.Subject subject(Subject_ subject) {
@@ -51,7 +248,225 @@ public class Delphi extends Oracle_Grpc.Oracle_ImplBase {
     }
 
     public static Oracle.Relation relation(Relation_ relation) {
-        return new Oracle.Relation(namespace(relation.getNamespace()), relation.getName());
+        return relation(relation.getNamespace().getName(), relation.getName());
+    }
+
+    static Oracle.Relation relation(String namespace, String name) {
+        return relations.get(new RelationName(namespace, name),
+                             r -> new Oracle.Relation(namespace(r.namespace()), r.name()));
+    }
+
+    /**
+     * Apply the mutation, stamping an added assertion with the commit timestamp
+     *
+     * @return false if the mutation added an assertion that was already present, true otherwise
+     */
+    private static boolean apply(Connection c, Mutation_ mutation, long ts) throws SQLException {
+        switch (mutation.getMutationCase()) {
+        case ADDASSERTION -> {
+            return addAssertion(c, mutation.getAddAssertion(), ts);
+        }
+        case ADDNAMESPACE -> AbstractOracle.addNamespace(c, mutation.getAddNamespace().getName());
+        case ADDOBJECT -> {
+            var o = mutation.getAddObject();
+            AbstractOracle.addObject(c, o.getNamespace().getName(), o.getName(),
+                                     o.getRelation().getNamespace().getName(), o.getRelation().getName());
+        }
+        case ADDRELATION -> {
+            var r = mutation.getAddRelation();
+            AbstractOracle.addRelation(c, r.getNamespace().getName(), r.getName());
+        }
+        case ADDSUBJECT -> {
+            var s = mutation.getAddSubject();
+            AbstractOracle.addSubject(c, s.getNamespace().getName(), s.getName(),
+                                      s.getRelation().getNamespace().getName(), s.getRelation().getName());
+        }
+        case DELETEASSERTION -> {
+            var a = mutation.getDeleteAssertion();
+            AbstractOracle.deleteAssertion(c, a.getSubject().getNamespace().getName(), a.getSubject().getName(),
+                                           a.getSubject().getRelation().getNamespace().getName(),
+                                           a.getSubject().getRelation().getName(),
+                                           a.getObject().getNamespace().getName(), a.getObject().getName(),
+                                           a.getObject().getRelation().getNamespace().getName(),
+                                           a.getObject().getRelation().getName());
+        }
+        case DELETENAMESPACE -> AbstractOracle.deleteNamespace(c, mutation.getDeleteNamespace().getName());
+        case DELETEOBJECT -> {
+            var o = mutation.getDeleteObject();
+            AbstractOracle.deleteObject(c, o.getNamespace().getName(), o.getName(),
+                                        o.getRelation().getNamespace().getName(), o.getRelation().getName());
+        }
+        case DELETERELATION -> {
+            var r = mutation.getDeleteRelation();
+            AbstractOracle.deleteRelation(c, r.getNamespace().getName(), r.getName());
+        }
+        case DELETESUBJECT -> {
+            var s = mutation.getDeleteSubject();
+            AbstractOracle.deleteSubject(c, s.getNamespace().getName(), s.getName(),
+                                         s.getRelation().getNamespace().getName(), s.getRelation().getName());
+        }
+        case MAPOBJECT -> {
+            var m = mutation.getMapObject();
+            AbstractOracle.mapObject(c, m.getParent().getNamespace().getName(), m.getParent().getName(),
+                                     m.getParent().getRelation().getNamespace().getName(),
+                                     m.getParent().getRelation().getName(), m.getChild().getNamespace().getName(),
+                                     m.getChild().getName(), m.getChild().getRelation().getNamespace().getName(),
+                                     m.getChild().getRelation().getName());
+        }
+        case MAPRELATION -> {
+            var m = mutation.getMapRelation();
+            AbstractOracle.mapRelation(c, m.getParent().getNamespace().getName(), m.getParent().getName(),
+                                       m.getChild().getNamespace().getName(), m.getChild().getName());
+        }
+        case MAPSUBJECT -> {
+            var m = mutation.getMapSubject();
+            AbstractOracle.mapSubject(c, m.getParent().getNamespace().getName(), m.getParent().getName(),
+                                      m.getParent().getRelation().getNamespace().getName(),
+                                      m.getParent().getRelation().getName(), m.getChild().getNamespace().getName(),
+                                      m.getChild().getName(), m.getChild().getRelation().getNamespace().getName(),
+                                      m.getChild().getRelation().getName());
+        }
+        case UNMAPOBJECT -> {
+            var m = mutation.getUnmapObject();
+            AbstractOracle.removeObjectMapping(c, m.getParent().getNamespace().getName(), m.getParent().getName(),
+                                               m.getParent().getRelation().getNamespace().getName(),
+                                               m.getParent().getRelation().getName(),
+                                               m.getChild().getNamespace().getName(), m.getChild().getName(),
+                                               m.getChild().getRelation().getNamespace().getName(),
+                                               m.getChild().getRelation().getName());
+        }
+        case UNMAPRELATION -> {
+            var m = mutation.getUnmapRelation();
+            AbstractOracle.removeRelationMapping(c, m.getParent().getNamespace().getName(), m.getParent().getName(),
+                                                 m.getChild().getNamespace().getName(), m.getChild().getName());
+        }
+        case UNMAPSUBJECT -> {
+            var m = mutation.getUnmapSubject();
+            AbstractOracle.removeSubjectMapping(c, m.getParent().getNamespace().getName(), m.getParent().getName(),
+                                                m.getParent().getRelation().getNamespace().getName(),
+                                                m.getParent().getRelation().getName(),
+                                                m.getChild().getNamespace().getName(), m.getChild().getName(),
+                                                m.getChild().getRelation().getNamespace().getName(),
+                                                m.getChild().getRelation().getName());
+        }
+        case MUTATION_NOT_SET -> throw new SQLException("Mutation not set");
+        }
+        return true;
+    }
+
+    /**
+     * Add the assertion stamped with the timestamp, adding its subject and object if necessary
+     *
+     * @return true if the assertion was added, false if it was already present
+     */
+    private static boolean addAssertion(Connection c, Assertion_ assertion, long ts) throws SQLException {
+        var s = assertion.getSubject();
+        var o = assertion.getObject();
+        var subject = id(c, SUBJECT_ID, s.getNamespace(), s.getName(), s.getRelation());
+        var object = id(c, OBJECT_ID, o.getNamespace(), o.getName(), o.getRelation());
+        if (subject != 0 && object != 0) {
+            try (var statement = c.prepareStatement(PRESENT)) {
+                statement.setLong(1, subject);
+                statement.setLong(2, object);
+                try (var rs = statement.executeQuery()) {
+                    if (rs.next() && rs.getInt(1) > 0) {
+                        return false;
+                    }
+                }
+            }
+        }
+        if (subject == 0) {
+            AbstractOracle.addSubject(c, s.getNamespace().getName(), s.getName(),
+                                      s.getRelation().getNamespace().getName(), s.getRelation().getName());
+            subject = id(c, SUBJECT_ID, s.getNamespace(), s.getName(), s.getRelation());
+        }
+        if (object == 0) {
+            AbstractOracle.addObject(c, o.getNamespace().getName(), o.getName(),
+                                     o.getRelation().getNamespace().getName(), o.getRelation().getName());
+            object = id(c, OBJECT_ID, o.getNamespace(), o.getName(), o.getRelation());
+        }
+        AbstractOracle.addAssert(DSL.using(c, SQLDialect.H2), subject, object, ts);
+        return true;
+    }
+
+    /**
+     * @return the id of the subject or object named by the query, 0 if it does not exist
+     */
+    static long id(Connection c, String query, Namespace_ namespace, String name, Relation_ relation)
+    throws SQLException {
+        try (var statement = c.prepareStatement(query)) {
+            statement.setString(1, namespace.getName());
+            statement.setString(2, name);
+            statement.setString(3, relation.getNamespace().getName());
+            statement.setString(4, relation.getName());
+            try (var rs = statement.executeQuery()) {
+                return rs.next() ? rs.getLong(1) : 0;
+            }
+        }
+    }
+
+    /**
+     * @return the ids of the existing objects
+     */
+    private static List<Long> objectIds(Connection c, List<Object_> objects) throws SQLException {
+        var ids = new ArrayList<Long>();
+        for (var o : objects) {
+            var id = id(c, OBJECT_ID, o.getNamespace(), o.getName(), o.getRelation());
+            if (id != 0) {
+                ids.add(id);
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * @return the ids of the existing subjects
+     */
+    private static List<Long> subjectIds(Connection c, List<Subject_> subjects) throws SQLException {
+        var ids = new ArrayList<Long>();
+        for (var s : subjects) {
+            var id = id(c, SUBJECT_ID, s.getNamespace(), s.getName(), s.getRelation());
+            if (id != 0) {
+                ids.add(id);
+            }
+        }
+        return ids;
+    }
+
+    private static Object_ objectRow(ResultSet rows) throws SQLException {
+        return Object_.newBuilder()
+                      .setNamespace(Namespace_.newBuilder().setName(rows.getString(1)))
+                      .setName(rows.getString(2))
+                      .setRelation(Relation_.newBuilder()
+                                            .setNamespace(Namespace_.newBuilder().setName(rows.getString(3)))
+                                            .setName(rows.getString(4)))
+                      .build();
+    }
+
+    private static Subject_ subjectRow(ResultSet rows) throws SQLException {
+        return Subject_.newBuilder()
+                       .setNamespace(Namespace_.newBuilder().setName(rows.getString(1)))
+                       .setName(rows.getString(2))
+                       .setRelation(Relation_.newBuilder()
+                                             .setNamespace(Namespace_.newBuilder().setName(rows.getString(3)))
+                                             .setName(rows.getString(4)))
+                       .build();
+    }
+
+    private static Objects objects_(List<Oracle.Object> chunk) {
+        var objects = Objects.newBuilder();
+        chunk.forEach(o -> objects.addObjects(object_(o)));
+        return objects.build();
+    }
+
+    private static Subjects subjects_(List<Oracle.Subject> chunk) {
+        var subjects = Subjects.newBuilder();
+        chunk.forEach(s -> subjects.addSubjects(subject_(s)));
+        return subjects.build();
+    }
+
+    public static Assertion_.Builder assertion_(Oracle.Assertion a) {
+        return Assertion_.newBuilder().setSubject(subject_(a.subject())).setObject(object_(a.object()));
     }
 
     public static Object_.Builder object_(Oracle.Object o) {
@@ -76,14 +491,61 @@ public class Delphi extends Oracle_Grpc.Oracle_ImplBase {
         return Namespace_.newBuilder().setName(o.name());
     }
 
+    /**
+     * Hold a pipelined check until the replica has applied the commit timestamp of its read-your-writes token
+     *
+     * @return true if the timestamp has been applied, false if the consistency wait elapsed first
+     */
+    private boolean awaitApplied(long atLeast) throws SQLException {
+        if (atLeast == 0 || changeFeed.applied(atLeast)) {
+            return true;
+        }
+        try {
+            return changeFeed.await(atLeast, consistencyWait);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted awaiting consistency token", e);
+        }
+    }
+
+    /**
+     * Check the assertion at the timestamp, or against the latest state if the timestamp is 0.  Latest checks are
+     * answered by the membership index when it implies the assertion, and by the negative filter when it excludes it
+     */
+    private boolean check(Oracle.Assertion assertion, long ts) throws SQLException {
+        if (ts == 0 && membership != null && membership.implies(assertion)) {
+            return true;
+        }
+        if (ts == 0 && negatives != null && negatives.excludes(assertion)) {
+            return false;
+        }
+        return checkCache.check(assertion, ts,
+                                () -> ts == 0 ? oracle.check(assertion) : oracle.check(assertion, ULong.valueOf(ts)));
+    }
+
+    private void committed(Committed committed, Throwable t, StreamObserver<Ts> responseObserver) {
+        if (t != null) {
+            responseObserver.onError(t);
+        } else {
+            responseObserver.onNext(Ts.newBuilder().setTs(committed.getTs()).build());
+            responseObserver.onCompleted();
+        }
+    }
+
+    public CheckCache getCheckCache() {
+        return checkCache;
+    }
+
     @Override
     public void addAssertion(Assertion_ request, StreamObserver<Asserted_> responseObserver) {
-        oracle.add(assertion(request)).whenComplete((asserted, t) -> {
+        submit(Mutation_.newBuilder().setAddAssertion(request).build()).whenComplete((committed, t) -> {
             if (t != null) {
                 responseObserver.onError(t);
             } else {
-                responseObserver.onNext(
-                Asserted_.newBuilder().setAdded(asserted.added()).setTs(asserted.ts().longValue()).build());
+                responseObserver.onNext(Asserted_.newBuilder()
+                                                 .setAdded(committed.getPresentCount() == 0)
+                                                 .setTs(committed.getTs())
+                                                 .build());
                 responseObserver.onCompleted();
             }
         });
@@ -91,58 +553,39 @@ public class Delphi extends Oracle_Grpc.Oracle_ImplBase {
 
     @Override
     public void addNamespace(Namespace_ request, StreamObserver<Ts> responseObserver) {
-        oracle.add(namespace(request)).whenComplete((ts, t) -> {
-            if (t != null) {
-                responseObserver.onError(t);
-            } else {
-                responseObserver.onNext(Ts.newBuilder().setTs(ts.longValue()).build());
-                responseObserver.onCompleted();
-            }
-        });
+        submit(Mutation_.newBuilder().setAddNamespace(request).build(), responseObserver);
     }
 
     @Override
     public void addObject(Object_ request, StreamObserver<Ts> responseObserver) {
-        oracle.add(object(request)).whenComplete((ts, t) -> {
-            if (t != null) {
-                responseObserver.onError(t);
-            } else {
-                responseObserver.onNext(Ts.newBuilder().setTs(ts.longValue()).build());
-                responseObserver.onCompleted();
-            }
-        });
+        submit(Mutation_.newBuilder().setAddObject(request).build(), responseObserver);
     }
 
     @Override
     public void addRelation(Relation_ request, StreamObserver<Ts> responseObserver) {
-        oracle.add(relation(request)).whenComplete((ts, t) -> {
-            if (t != null) {
-                responseObserver.onError(t);
-            } else {
-                responseObserver.onNext(Ts.newBuilder().setTs(ts.longValue()).build());
-                responseObserver.onCompleted();
-            }
-        });
+        submit(Mutation_.newBuilder().setAddRelation(request).build(), responseObserver);
     }
 
     @Override
     public void addSubject(Subject_ request, StreamObserver<Ts> responseObserver) {
-        oracle.add(subject(request)).whenComplete((ts, t) -> {
-            if (t != null) {
-                responseObserver.onError(t);
-            } else {
-                responseObserver.onNext(Ts.newBuilder().setTs(ts.longValue()).build());
-                responseObserver.onCompleted();
-            }
-        });
+        submit(Mutation_.newBuilder().setAddSubject(request).build(), responseObserver);
+    }
+
+    /**
+     * Client streaming import, each batch committed as its own transaction under flow control
+     *
+     * @see BatchImport
+     */
+    @Override
+    public StreamObserver<WriteBatch> bulkImport(StreamObserver<BulkImported> responseObserver) {
+        return new BatchImport(this::submit, responseObserver);
     }
 
     @Override
     public void check(AssertionAt request, StreamObserver<AssertionCheck> responseObserver) {
         try {
-            var ts = ULong.valueOf(request.getTs());
             responseObserver.onNext(
-            AssertionCheck.newBuilder().setResult(oracle.check(assertion(request.getAssertion()), ts)).build());
+            AssertionCheck.newBuilder().setResult(check(assertion(request.getAssertion()), request.getTs())).build());
             responseObserver.onCompleted();
         } catch (SQLException e) {
             responseObserver.onError(e);
@@ -150,63 +593,120 @@ public class Delphi extends Oracle_Grpc.Oracle_ImplBase {
     }
 
     @Override
-    public void deleteAssertion(Assertion_ request, StreamObserver<Ts> responseObserver) {
-        oracle.delete(assertion(request)).whenComplete((ts, t) -> {
-            if (t != null) {
-                responseObserver.onError(t);
-            } else {
-                responseObserver.onNext(Ts.newBuilder().setTs(ts.longValue()).build());
-                responseObserver.onCompleted();
-            }
+    public void checkById(AssertionById request, StreamObserver<AssertionCheck> responseObserver) {
+        try {
+            var subject = names.subject(request.getEpoch(), request.getSubject());
+            var object = names.object(request.getEpoch(), request.getObject());
+            // names not present resolve to 0, and cannot be related
+            var result = subject != null && object != null && check(new Oracle.Assertion(subject, object),
+                                                                    request.getTs());
+            responseObserver.onNext(AssertionCheck.newBuilder().setResult(result).build());
+            responseObserver.onCompleted();
+        } catch (SQLException | StatusRuntimeException e) {
+            responseObserver.onError(e);
+        }
+    }
+
+    /**
+     * Pipelined checks.  Each request is evaluated independently and answered as soon as it completes, so responses
+     * may be returned out of order; clients correlate them using the request id.  A failing check is reported in the
+     * response rather than terminating the stream.  At most CHECK_WINDOW checks are in flight; further requests are
+     * taken from the transport only as checks complete, so a fast client is held back by flow control.
+     */
+    @Override
+    public StreamObserver<CheckRequest> checkStream(StreamObserver<CheckResponse> responseObserver) {
+        var call = (ServerCallStreamObserver<CheckResponse>) responseObserver;
+        // responses to a cancelled call are dropped rather than raised
+        call.setOnCancelHandler(() -> {
         });
+        call.disableAutoRequest();
+        call.request(CHECK_WINDOW);
+        var outstanding = new AtomicInteger(1); // the extra count is released by the client's half close
+        Runnable release = () -> {
+            if (outstanding.decrementAndGet() == 0) {
+                synchronized (responseObserver) {
+                    responseObserver.onCompleted();
+                }
+            }
+        };
+        return new StreamObserver<>() {
+            @Override
+            public void onCompleted() {
+                release.run();
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                // client cancelled, in flight checks are dropped by the cancel handler
+            }
+
+            @Override
+            public void onNext(CheckRequest request) {
+                outstanding.incrementAndGet();
+                exec.execute(() -> {
+                    try {
+                        var response = CheckResponse.newBuilder().setId(request.getId());
+                        try {
+                            var check = request.getCheck();
+                            if (awaitApplied(request.getAtLeast())) {
+                                response.setResult(check(assertion(check.getAssertion()), check.getTs()));
+                            } else {
+                                response.setError("Replica has not applied: %s".formatted(
+                                Long.toUnsignedString(request.getAtLeast())));
+                            }
+                        } catch (SQLException | RuntimeException e) {
+                            response.setError(String.valueOf(e.getMessage()));
+                        }
+                        synchronized (responseObserver) {
+                            responseObserver.onNext(response.build());
+                        }
+                    } finally {
+                        call.request(1);
+                        release.run();
+                    }
+                });
+            }
+        };
+    }
+
+    @Override
+    public void deleteAssertion(Assertion_ request, StreamObserver<Ts> responseObserver) {
+        submit(Mutation_.newBuilder().setDeleteAssertion(request).build(), responseObserver);
     }
 
     @Override
     public void deleteNamespace(Namespace_ request, StreamObserver<Ts> responseObserver) {
-        oracle.delete(namespace(request)).whenComplete((ts, t) -> {
-            if (t != null) {
-                responseObserver.onError(t);
-            } else {
-                responseObserver.onNext(Ts.newBuilder().setTs(ts.longValue()).build());
-                responseObserver.onCompleted();
-            }
-        });
+        submit(Mutation_.newBuilder().setDeleteNamespace(request).build(), responseObserver);
     }
 
     @Override
     public void deleteObject(Object_ request, StreamObserver<Ts> responseObserver) {
-        oracle.delete(object(request)).whenComplete((ts, t) -> {
-            if (t != null) {
-                responseObserver.onError(t);
-            } else {
-                responseObserver.onNext(Ts.newBuilder().setTs(ts.longValue()).build());
-                responseObserver.onCompleted();
-            }
-        });
+        submit(Mutation_.newBuilder().setDeleteObject(request).build(), responseObserver);
     }
 
     @Override
     public void deleteRelation(Relation_ request, StreamObserver<Ts> responseObserver) {
-        oracle.delete(relation(request)).whenComplete((ts, t) -> {
-            if (t != null) {
-                responseObserver.onError(t);
-            } else {
-                responseObserver.onNext(Ts.newBuilder().setTs(ts.longValue()).build());
-                responseObserver.onCompleted();
-            }
-        });
+        submit(Mutation_.newBuilder().setDeleteRelation(request).build(), responseObserver);
     }
 
     @Override
     public void deleteSubject(Subject_ request, StreamObserver<Ts> responseObserver) {
-        oracle.delete(subject(request)).whenComplete((ts, t) -> {
-            if (t != null) {
-                responseObserver.onError(t);
-            } else {
-                responseObserver.onNext(Ts.newBuilder().setTs(ts.longValue()).build());
-                responseObserver.onCompleted();
+        submit(Mutation_.newBuilder().setDeleteSubject(request).build(), responseObserver);
+    }
+
+    @Override
+    public void expandById(ObjectId request, StreamObserver<Subjects> responseObserver) {
+        try {
+            var result = Subjects.newBuilder();
+            var object = names.object(request.getEpoch(), request.getObject());
+            if (object != null) {
+                oracle.expand(object).stream().map(Delphi::subject_).forEach(result::addSubjects);
             }
-        });
+            responseObserver.onNext(result.build());
+            responseObserver.onCompleted();
+        } catch (SQLException | StatusRuntimeException e) {
+            responseObserver.onError(e);
+        }
     }
 
     @Override
@@ -265,38 +765,17 @@ public class Delphi extends Oracle_Grpc.Oracle_ImplBase {
 
     @Override
     public void mapObject(ObjectMap request, StreamObserver<Ts> responseObserver) {
-        oracle.map(object(request.getParent()), object(request.getChild())).whenComplete((ts, t) -> {
-            if (t != null) {
-                responseObserver.onError(t);
-            } else {
-                responseObserver.onNext(Ts.newBuilder().setTs(ts.longValue()).build());
-                responseObserver.onCompleted();
-            }
-        });
+        submit(Mutation_.newBuilder().setMapObject(request).build(), responseObserver);
     }
 
     @Override
     public void mapRelation(RelationMap request, StreamObserver<Ts> responseObserver) {
-        oracle.map(relation(request.getParent()), relation(request.getChild())).whenComplete((ts, t) -> {
-            if (t != null) {
-                responseObserver.onError(t);
-            } else {
-                responseObserver.onNext(Ts.newBuilder().setTs(ts.longValue()).build());
-                responseObserver.onCompleted();
-            }
-        });
+        submit(Mutation_.newBuilder().setMapRelation(request).build(), responseObserver);
     }
 
     @Override
     public void mapSubject(SubjectMap request, StreamObserver<Ts> responseObserver) {
-        oracle.map(subject(request.getParent()), subject(request.getChild())).whenComplete((ts, t) -> {
-            if (t != null) {
-                responseObserver.onError(t);
-            } else {
-                responseObserver.onNext(Ts.newBuilder().setTs(ts.longValue()).build());
-                responseObserver.onCompleted();
-            }
-        });
+        submit(Mutation_.newBuilder().setMapSubject(request).build(), responseObserver);
     }
 
     @Override
@@ -355,6 +834,131 @@ public class Delphi extends Oracle_Grpc.Oracle_ImplBase {
         }
     }
 
+    @Override
+    public void resolve(Names request, StreamObserver<NameIds> responseObserver) {
+        try {
+            responseObserver.onNext(names.resolve(request));
+            responseObserver.onCompleted();
+        } catch (SQLException e) {
+            responseObserver.onError(e);
+        }
+    }
+
+    @Override
+    public void streamExpandObject(Subject_ request, StreamObserver<Objects> responseObserver) {
+        try {
+            StreamingResponse.send(oracle.expand(subject(request)).iterator(), CHUNK_SIZE, Delphi::objects_,
+                                   responseObserver);
+        } catch (SQLException e) {
+            responseObserver.onError(e);
+        }
+    }
+
+    @Override
+    public void streamExpandObjects(SubjectPredicate request, StreamObserver<Objects> responseObserver) {
+        try {
+            StreamingResponse.send(
+            oracle.expand(relation(request.getPredicate()), subject(request.getSubject())).iterator(), CHUNK_SIZE,
+            Delphi::objects_, responseObserver);
+        } catch (SQLException e) {
+            responseObserver.onError(e);
+        }
+    }
+
+    @Override
+    public void streamExpandSubject(Object_ request, StreamObserver<Subjects> responseObserver) {
+        try {
+            StreamingResponse.send(oracle.expand(object(request)).iterator(), CHUNK_SIZE, Delphi::subjects_,
+                                   responseObserver);
+        } catch (SQLException e) {
+            responseObserver.onError(e);
+        }
+    }
+
+    @Override
+    public void streamExpandSubjects(ObjectPredicate request, StreamObserver<Subjects> responseObserver) {
+        try {
+            StreamingResponse.send(
+            oracle.expand(relation(request.getPredicate()), object(request.getObject())).iterator(), CHUNK_SIZE,
+            Delphi::subjects_, responseObserver);
+        } catch (SQLException e) {
+            responseObserver.onError(e);
+        }
+    }
+
+    @Override
+    public void streamReadObjects(Subjects request, StreamObserver<Objects> responseObserver) {
+        if (connections != null) {
+            stream(READ_OBJ, c -> subjectIds(c, request.getSubjectsList()), null, Delphi::objectRow,
+                   chunk -> Objects.newBuilder().addAllObjects(chunk).build(), responseObserver);
+            return;
+        }
+        var subjects = request.getSubjectsList().stream().map(Delphi::subject).toArray(Oracle.Subject[]::new);
+        try {
+            StreamingResponse.send(oracle.read(subjects).iterator(), CHUNK_SIZE, Delphi::objects_, responseObserver);
+        } catch (SQLException e) {
+            responseObserver.onError(e);
+        }
+    }
+
+    @Override
+    public void streamReadObjectsMatching(SubjectPredicates request, StreamObserver<Objects> responseObserver) {
+        if (connections != null) {
+            stream(READ_OBJ, c -> subjectIds(c, request.getSubjectsList()), request.getPredicate(), Delphi::objectRow,
+                   chunk -> Objects.newBuilder().addAllObjects(chunk).build(), responseObserver);
+            return;
+        }
+        var subjects = request.getSubjectsList().stream().map(Delphi::subject).toArray(Oracle.Subject[]::new);
+        try {
+            StreamingResponse.send(oracle.read(relation(request.getPredicate()), subjects).iterator(), CHUNK_SIZE,
+                                   Delphi::objects_, responseObserver);
+        } catch (SQLException e) {
+            responseObserver.onError(e);
+        }
+    }
+
+    @Override
+    public void streamReadSubjects(Objects request, StreamObserver<Subjects> responseObserver) {
+        if (connections != null) {
+            stream(READ_SUBJ, c -> objectIds(c, request.getObjectsList()), null, Delphi::subjectRow,
+                   chunk -> Subjects.newBuilder().addAllSubjects(chunk).build(), responseObserver);
+            return;
+        }
+        var objects = request.getObjectsList().stream().map(Delphi::object).toArray(Oracle.Object[]::new);
+        try {
+            StreamingResponse.send(oracle.read(objects).iterator(), CHUNK_SIZE, Delphi::subjects_, responseObserver);
+        } catch (SQLException e) {
+            responseObserver.onError(e);
+        }
+    }
+
+    @Override
+    public void streamReadSubjectsMatching(ObjectPredicates request, StreamObserver<Subjects> responseObserver) {
+        if (connections != null) {
+            stream(READ_SUBJ, c -> objectIds(c, request.getObjectsList()), request.getPredicate(), Delphi::subjectRow,
+                   chunk -> Subjects.newBuilder().addAllSubjects(chunk).build(), responseObserver);
+            return;
+        }
+        var objects = request.getObjectsList().stream().map(Delphi::object).toArray(Oracle.Object[]::new);
+        try {
+            StreamingResponse.send(oracle.read(relation(request.getPredicate()), objects).iterator(), CHUNK_SIZE,
+                                   Delphi::subjects_, responseObserver);
+        } catch (SQLException e) {
+            responseObserver.onError(e);
+        }
+    }
+
+    @Override
+    public void streamSubjects(ObjectPredicate request, StreamObserver<Subjects> responseObserver) {
+        try {
+            var subjects = oracle.subjects(relation(request.getPredicate()), object(request.getObject()));
+            StreamingResponse.send(subjects.iterator(), CHUNK_SIZE, Delphi::subjects_, responseObserver,
+                                   subjects::close);
+        } catch (SQLException e) {
+            responseObserver.onError(e);
+        }
+    }
+
     @Override
     public void subjects(ObjectPredicate request, StreamObserver<Subjects> responseObserver) {
         try {
@@ -371,37 +975,127 @@ public class Delphi extends Oracle_Grpc.Oracle_ImplBase {
 
     @Override
     public void unmapObject(ObjectMap request, StreamObserver<Ts> responseObserver) {
-        oracle.remove(object(request.getParent()), object(request.getChild())).whenComplete((ts, t) -> {
-            if (t != null) {
-                responseObserver.onError(t);
-            } else {
-                responseObserver.onNext(Ts.newBuilder().setTs(ts.longValue()).build());
-                responseObserver.onCompleted();
-            }
-        });
+        submit(Mutation_.newBuilder().setUnmapObject(request).build(), responseObserver);
     }
 
     @Override
     public void unmapRelation(RelationMap request, StreamObserver<Ts> responseObserver) {
-        oracle.remove(relation(request.getParent()), relation(request.getChild())).whenComplete((ts, t) -> {
-            if (t != null) {
-                responseObserver.onError(t);
-            } else {
-                responseObserver.onNext(Ts.newBuilder().setTs(ts.longValue()).build());
-                responseObserver.onCompleted();
-            }
-        });
+        submit(Mutation_.newBuilder().setUnmapRelation(request).build(), responseObserver);
     }
 
     @Override
     public void unmapSubject(SubjectMap request, StreamObserver<Ts> responseObserver) {
-        oracle.remove(subject(request.getParent()), subject(request.getChild())).whenComplete((ts, t) -> {
-            if (t != null) {
-                responseObserver.onError(t);
-            } else {
-                responseObserver.onNext(Ts.newBuilder().setTs(ts.longValue()).build());
-                responseObserver.onCompleted();
+        submit(Mutation_.newBuilder().setUnmapSubject(request).build(), responseObserver);
+    }
+
+    @Override
+    public void watch(WatchRequest request, StreamObserver<WatchEvent> responseObserver) {
+        changeFeed.watch(request.getFrom(), responseObserver);
+    }
+
+    @Override
+    public void writeBatch(WriteBatch request, StreamObserver<Ts> responseObserver) {
+        if (request.getMutationsCount() == 0) {
+            responseObserver.onError(Status.INVALID_ARGUMENT.withDescription("Empty write batch").asException());
+            return;
+        }
+        submit(request).whenComplete((committed, t) -> committed(committed, t, responseObserver));
+    }
+
+    /**
+     * Stream the rows of a direct read from a forward only cursor, fetched as the transport is ready for them.  The
+     * subjects or objects read are resolved to their ids on the cursor's connection, skipping those that do not exist
+     *
+     * @param read      - the query, formatted with the distinct qualifier, the ids' parameters and the predicate clause
+     * @param ids       - resolves the ids of the subjects or objects read
+     * @param predicate - the relation of the results, or null for any relation
+     */
+    private <T, M> void stream(String read, Ids ids, Relation_ predicate, Cursor.Row<T> row, Function<List<T>, M> chunk,
+                               StreamObserver<M> responseObserver) {
+        var connection = connections.get();
+        Cursor<T> cursor;
+        try {
+            var resolved = ids.resolve(connection);
+            if (resolved.isEmpty()) {
+                connection.close();
+                StreamingResponse.send(Collections.emptyIterator(), CHUNK_SIZE, chunk, responseObserver);
+                return;
             }
-        });
+            try (var statement = connection.createStatement()) {
+                // otherwise H2 evaluates the full result before answering the first row
+                statement.execute(LAZY);
+            }
+            var sql = read.formatted(resolved.size() == 1 ? "" : "distinct",
+                                     String.join(", ", Collections.nCopies(resolved.size(), "?")),
+                                     predicate == null ? "" : PREDICATE);
+            cursor = new Cursor<>(connection, sql, CHUNK_SIZE, statement -> {
+                var i = 1;
+                for (var id : resolved) {
+                    statement.setLong(i++, id);
+                }
+                if (predicate != null) {
+                    statement.setString(i++, predicate.getNamespace().getName());
+                    statement.setString(i, predicate.getName());
+                }
+            }, row);
+        } catch (SQLException e) {
+            try {
+                connection.close();
+            } catch (SQLException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            responseObserver.onError(e);
+            return;
+        }
+        StreamingResponse.send(cursor, CHUNK_SIZE, chunk, responseObserver, cursor::close);
+    }
+
+    /**
+     * Submit the batch to the nut.writeBatch procedure
+     *
+     * @return the committed result of the batch
+     */
+    private CompletableFuture<Committed> submit(WriteBatch batch) {
+        var call = mutator.call("{ ? = call nut.writeBatch(?, ?) }", Collections.singletonList(JDBCType.VARBINARY),
+                                batch.toByteArray(), System.currentTimeMillis());
+        try {
+            return mutator.execute(call, timeout).thenApply(result -> {
+                Committed committed;
+                try {
+                    committed = Committed.parseFrom((byte[]) result.outValues.get(0));
+                } catch (InvalidProtocolBufferException e) {
+                    throw new IllegalStateException("Cannot parse committed result", e);
+                }
+                // the transaction has committed on this replica
+                changeFeed.confirm(committed.getTs());
+                return committed;
+            });
+        } catch (InvalidTransaction e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Submit the single mutation, coalesced with those of concurrent callers if enabled
+     *
+     * @return the committed result of the mutation
+     */
+    private CompletableFuture<Committed> submit(Mutation_ mutation) {
+        if (coalescer != null) {
+            return coalescer.submit(mutation);
+        }
+        return submit(WriteBatch.newBuilder().addMutations(mutation).build());
+    }
+
+    private void submit(Mutation_ mutation, StreamObserver<Ts> responseObserver) {
+        submit(mutation).whenComplete((committed, t) -> committed(committed, t, responseObserver));
+    }
+
+    @FunctionalInterface
+    private interface Ids {
+        List<Long> resolve(Connection connection) throws SQLException;
+    }
+
+    private record RelationName(String namespace, String name) {
     }
 }
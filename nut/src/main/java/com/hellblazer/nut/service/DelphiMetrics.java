@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) 2024 Hal Hildebrand. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ *  more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.hellblazer.nut.service;
+
+import com.codahale.metrics.*;
+import com.google.protobuf.MessageLite;
+import com.hellblazer.delos.delphinius.Oracle;
+import io.grpc.*;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Metrics of the Oracle service, registered under "delphi" in a metric registry shared with the rest of the node.
+ * Each RPC method has a latency timer, an in flight count, request and response size histograms, a timer of response
+ * serialization and a meter per error status code.  Each Oracle operation has a timer of its SQL evaluation
+ *
+ * @author hal.hildebrand
+ **/
+public class DelphiMetrics {
+    public static final String PREFIX = "delphi";
+
+    private final MetricRegistry registry;
+
+    public DelphiMetrics(MetricRegistry registry) {
+        this.registry = registry;
+    }
+
+    public Meter errors(String method, Status.Code code) {
+        return registry.meter(name(PREFIX, method, "errors", code.name()));
+    }
+
+    public MetricRegistry getRegistry() {
+        return registry;
+    }
+
+    public Counter inFlight(String method) {
+        return registry.counter(name(PREFIX, method, "inFlight"));
+    }
+
+    /**
+     * @return the server interceptor recording the RPC metrics of the intercepted service
+     */
+    public ServerInterceptor interceptor() {
+        return new ServerInterceptor() {
+            @Override
+            public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call,
+                                                                         Metadata headers,
+                                                                         ServerCallHandler<ReqT, RespT> next) {
+                return instrument(call, headers, next);
+            }
+        };
+    }
+
+    public Timer latency(String method) {
+        return registry.timer(name(PREFIX, method, "latency"));
+    }
+
+    public Histogram requestSize(String method) {
+        return registry.histogram(name(PREFIX, method, "requestSize"));
+    }
+
+    public Histogram responseSize(String method) {
+        return registry.histogram(name(PREFIX, method, "responseSize"));
+    }
+
+    public Timer serialization(String method) {
+        return registry.timer(name(PREFIX, method, "serialization"));
+    }
+
+    public Timer sql(String operation) {
+        return registry.timer(name(PREFIX, "sql", operation));
+    }
+
+    /**
+     * @return the oracle timing the SQL evaluation of each of its operations
+     */
+    public Oracle timed(Oracle oracle) {
+        return (Oracle) Proxy.newProxyInstance(Oracle.class.getClassLoader(), new Class<?>[] { Oracle.class },
+                                               (proxy, method, args) -> {
+                                                   if (method.getDeclaringClass() == Object.class) {
+                                                       return method.invoke(oracle, args);
+                                                   }
+                                                   var timing = sql(method.getName()).time();
+                                                   try {
+                                                       return method.invoke(oracle, args);
+                                                   } catch (InvocationTargetException e) {
+                                                       throw e.getCause();
+                                                   } finally {
+                                                       timing.stop();
+                                                   }
+                                               });
+    }
+
+    private <ReqT, RespT> ServerCall.Listener<ReqT> instrument(ServerCall<ReqT, RespT> call, Metadata headers,
+                                                               ServerCallHandler<ReqT, RespT> next) {
+        var method = call.getMethodDescriptor().getBareMethodName();
+        var inFlight = inFlight(method);
+        var requests = requestSize(method);
+        var responses = responseSize(method);
+        var serialization = serialization(method);
+        var latency = latency(method).time();
+        var completed = new AtomicBoolean();
+        Runnable complete = () -> {
+            if (completed.compareAndSet(false, true)) {
+                inFlight.dec();
+                latency.stop();
+            }
+        };
+        inFlight.inc();
+
+        var instrumented = new ForwardingServerCall.SimpleForwardingServerCall<>(call) {
+            @Override
+            public void close(Status status, Metadata trailers) {
+                if (!status.isOk()) {
+                    errors(method, status.getCode()).mark();
+                }
+                try {
+                    super.close(status, trailers);
+                } finally {
+                    complete.run();
+                }
+            }
+
+            @Override
+            public void sendMessage(RespT message) {
+                if (message instanceof MessageLite m) {
+                    responses.update(m.getSerializedSize());
+                }
+                var timing = serialization.time();
+                try {
+                    super.sendMessage(message);
+                } finally {
+                    timing.stop();
+                }
+            }
+        };
+        ServerCall.Listener<ReqT> listener;
+        try {
+            listener = next.startCall(instrumented, headers);
+        } catch (RuntimeException e) {
+            errors(method, Status.Code.UNKNOWN).mark();
+            complete.run();
+            throw e;
+        }
+        return new ForwardingServerCallListener.SimpleForwardingServerCallListener<>(listener) {
+            @Override
+            public void onCancel() {
+                if (!completed.get()) {
+                    errors(method, Status.Code.CANCELLED).mark();
+                }
+                try {
+                    super.onCancel();
+                } finally {
+                    complete.run();
+                }
+            }
+
+            @Override
+            public void onMessage(ReqT message) {
+                if (message instanceof MessageLite m) {
+                    requests.update(m.getSerializedSize());
+                }
+                super.onMessage(message);
+            }
+        };
+    }
+}
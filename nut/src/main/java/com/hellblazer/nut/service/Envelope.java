@@ -0,0 +1,451 @@
+/*
+ * Copyright (c) 2024 Hal Hildebrand. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ *  more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.hellblazer.nut.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.UnsafeByteOperations;
+import com.hellblazer.delos.choam.support.InvalidTransaction;
+import com.hellblazer.delos.h2.SessionServices;
+import com.hellblazer.delos.state.Mutator;
+import com.hellblazer.delos.utils.Entropy;
+import com.hellblazer.delphi.v1.proto.Object_;
+import com.hellblazer.sanctorum.internal.v1.proto.DataKey_;
+import com.hellblazer.sky.sanctum.DataKeys;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.sql.Connection;
+import java.sql.JDBCType;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Envelope encryption of Geb values.  Each namespace has a data key, generated by the enclave and wrapped by its
+ * master key, that is recorded by generation in the nut.data_key table through consensus.  As the enclaves of every
+ * member share the master key, a data key generated by any member can be unwrapped by all.  Values are sealed and
+ * unsealed locally with AES-GCM under the data key of their namespace, bound to their key and chunk as associated
+ * data, so the enclave is only consulted to generate a data key, when the current generation is rotated, or when an
+ * unwrapped data key is not cached.
+ * <p>
+ * Unwrapped data keys are cached off heap, bounded in number and expiring after the ttl, and are zeroed when evicted.
+ * A data key is copied to the heap only for the duration of a single seal or unseal.
+ * <p>
+ * A sealed value is the generation of its data key, followed by the IV and the AES-GCM ciphertext and tag.  Every
+ * generation is retained, so values sealed before a rotation remain readable, while rotation bounds the number of
+ * values sealed under a single data key with random IVs.
+ *
+ * @author hal.hildebrand
+ **/
+public class Envelope {
+    public static final  int    IV_LENGTH  = 12; // bytes
+    public static final  int    TAG_LENGTH = 128; // bits
+    public static final  int    OVERHEAD   = Integer.BYTES + IV_LENGTH + TAG_LENGTH / 8;
+    private static final String AES        = "AES";
+    private static final String AES_GCM    = "AES/GCM/NoPadding";
+    private static final String LATEST     = """
+                                             select generation, created from nut.data_key
+                                             where namespace = ? order by generation desc limit 1
+                                             """;
+    private static final String WRAPPED    = """
+                                             select iv, wrapped from nut.data_key
+                                             where namespace = ? and generation = ?
+                                             """;
+    private static final Logger log        = LoggerFactory.getLogger(Envelope.class);
+
+    private final Supplier<Connection>                       connections;
+    private final Mutator                                    mutator;
+    private final Duration                                   timeout;
+    private final DataKeys                                   enclave;
+    private final Duration                                   rotation;
+    private final Cache<Generation, CachedKey>               keys;
+    private final Cache<String, Current>                     current;
+    private final Map<String, CompletableFuture<Generation>> generating = new ConcurrentHashMap<>();
+
+    /**
+     * @param connections - the new connections to the local replica's state, each serving a single read of the
+     *                    wrapped data keys, so that concurrent reads are not serialized on a shared connection
+     * @param mutator     - the mutator committing new generations of data keys
+     * @param timeout     - the timeout of committed generations
+     * @param enclave     - generates and unwraps data keys
+     * @param ttl         - the time an unwrapped data key is cached
+     * @param maxKeys     - the maximum number of unwrapped data keys cached
+     * @param rotation    - the age of a namespace's current data key at which the next generation is generated, or
+     *                    zero to never rotate
+     */
+    public Envelope(Supplier<Connection> connections, Mutator mutator, Duration timeout, DataKeys enclave,
+                    Duration ttl, int maxKeys, Duration rotation) {
+        this.connections = connections;
+        this.mutator = mutator;
+        this.timeout = timeout;
+        this.enclave = enclave;
+        this.rotation = rotation;
+        keys = Caffeine.newBuilder()
+                       .maximumSize(maxKeys)
+                       .expireAfterWrite(ttl)
+                       .executor(Runnable::run)
+                       .recordStats()
+                       .removalListener((Generation generation, CachedKey key, RemovalCause cause) -> {
+                           if (key != null) {
+                               key.destroy();
+                           }
+                       })
+                       .build();
+        current = Caffeine.newBuilder().maximumSize(maxKeys).expireAfterWrite(ttl).build();
+        log.info("Envelope data key cache TTL: {}, maximum keys: {}, rotation: {}", ttl, maxKeys, rotation);
+    }
+
+    /**
+     * Transactional record of a wrapped data key as the next generation of the namespace's data key
+     *
+     * @return the generation, or 0 if it is not the next generation of the namespace
+     */
+    public static int applyDataKey(Connection connection, SessionServices services, String namespace, int generation,
+                                   byte[] iv, byte[] wrapped, long created) throws SQLException {
+        int latest;
+        try (var statement = connection.prepareStatement(
+        "select max(generation) from nut.data_key where namespace = ?")) {
+            statement.setString(1, namespace);
+            try (var rs = statement.executeQuery()) {
+                latest = rs.next() ? rs.getInt(1) : 0;
+            }
+        }
+        if (latest + 1 != generation) {
+            return 0;
+        }
+        try (var statement = connection.prepareStatement(
+        "insert into nut.data_key (namespace, generation, created, iv, wrapped) values (?, ?, ?, ?, ?)")) {
+            statement.setString(1, namespace);
+            statement.setInt(2, generation);
+            statement.setLong(3, created);
+            statement.setBytes(4, iv);
+            statement.setBytes(5, wrapped);
+            statement.executeUpdate();
+        }
+        return generation;
+    }
+
+    /**
+     * @return the associated data binding a sealed value to its key and chunk
+     */
+    private static byte[] aad(Object_ key, int chunk) {
+        var names = new byte[][] { key.getNamespace().getName().getBytes(StandardCharsets.UTF_8),
+                                   key.getName().getBytes(StandardCharsets.UTF_8),
+                                   key.getRelation().getNamespace().getName().getBytes(StandardCharsets.UTF_8),
+                                   key.getRelation().getName().getBytes(StandardCharsets.UTF_8) };
+        var aad = ByteBuffer.allocate(Integer.BYTES * (names.length + 1) + Arrays.stream(names)
+                                                                                 .mapToInt(n -> n.length)
+                                                                                 .sum());
+        for (var name : names) {
+            aad.putInt(name.length).put(name);
+        }
+        return aad.putInt(chunk).array();
+    }
+
+    /**
+     * @return the context binding a wrapped data key to its namespace and generation
+     */
+    private static ByteString context(Generation generation) {
+        return ByteString.copyFromUtf8("%s:%s".formatted(generation.generation(), generation.namespace()));
+    }
+
+    /**
+     * Zero and discard every cached data key
+     */
+    public void clear() {
+        current.invalidateAll();
+        keys.invalidateAll();
+    }
+
+    public CacheStats keyStats() {
+        return keys.stats();
+    }
+
+    /**
+     * Seal the value of the key under the current data key of its namespace, generating the namespace's first data
+     * key, or its next generation once the current generation is due for rotation
+     *
+     * @param chunk - the index of the chunk of the value, or -1 if the value is not chunked
+     */
+    public CompletableFuture<ByteString> seal(Object_ key, int chunk, ByteString value) {
+        return current(key.getNamespace().getName()).thenApply(generation -> {
+            try {
+                return seal(generation, aad(key, chunk), value);
+            } catch (SQLException e) {
+                throw new CompletionException(e);
+            }
+        });
+    }
+
+    /**
+     * Unseal the sealed value of the key
+     *
+     * @param chunk - the index of the chunk of the value, or -1 if the value is not chunked
+     */
+    public ByteString unseal(Object_ key, int chunk, ByteString sealed) throws SQLException {
+        if (sealed.size() < OVERHEAD) {
+            throw new SQLException("Not a sealed value of: %s".formatted(Delphi.object(key)));
+        }
+        var envelope = sealed.asReadOnlyByteBuffer();
+        var generation = new Generation(key.getNamespace().getName(), envelope.getInt());
+        var iv = new byte[IV_LENGTH];
+        envelope.get(iv);
+        var dataKey = key(generation);
+        try {
+            var cipher = Cipher.getInstance(AES_GCM);
+            cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(dataKey, AES), new GCMParameterSpec(TAG_LENGTH, iv));
+            cipher.updateAAD(aad(key, chunk));
+            var value = ByteBuffer.allocate(cipher.getOutputSize(envelope.remaining()));
+            cipher.doFinal(envelope, value);
+            return UnsafeByteOperations.unsafeWrap(value.array(), 0, value.position());
+        } catch (GeneralSecurityException e) {
+            throw new SQLException("Cannot unseal value of: %s".formatted(Delphi.object(key)), e);
+        } finally {
+            Arrays.fill(dataKey, (byte) 0);
+        }
+    }
+
+    /**
+     * @return the current generation of the namespace's data key, generating the next generation if the namespace
+     * has none, or its current generation is due for rotation
+     */
+    private CompletableFuture<Generation> current(String namespace) {
+        var cached = current.getIfPresent(namespace);
+        if (cached != null && !rotate(cached)) {
+            return CompletableFuture.completedFuture(cached.generation());
+        }
+        Current latest;
+        try {
+            latest = latest(namespace);
+        } catch (SQLException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        if (latest != null && !rotate(latest)) {
+            current.put(namespace, latest);
+            return CompletableFuture.completedFuture(latest.generation());
+        }
+        var generated = new CompletableFuture<Generation>();
+        var existing = generating.putIfAbsent(namespace, generated);
+        if (existing != null) {
+            return existing;
+        }
+        var next = new Generation(namespace, latest == null ? 1 : latest.generation().generation() + 1);
+        generate(next).whenComplete((generation, t) -> {
+            generating.remove(namespace, generated);
+            if (t != null) {
+                generated.completeExceptionally(t);
+            } else {
+                generated.complete(generation);
+            }
+        });
+        return generated;
+    }
+
+    /**
+     * Generate the data key of the generation and commit it, answering the winning generation if another member
+     * committed the generation first
+     */
+    private CompletableFuture<Generation> generate(Generation generation) {
+        DataKey_ dataKey;
+        try {
+            dataKey = enclave.generate(context(generation));
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        var plaintext = dataKey.getKey().toByteArray();
+        var generated = new CachedKey(plaintext);
+        Arrays.fill(plaintext, (byte) 0);
+        var created = System.currentTimeMillis();
+        var call = mutator.call("{ ? = call nut.gebDataKey(?, ?, ?, ?, ?) }",
+                                Collections.singletonList(JDBCType.INTEGER), generation.namespace(),
+                                generation.generation(), dataKey.getIv().toByteArray(),
+                                dataKey.getWrapped().toByteArray(), created);
+        CompletableFuture<Generation> committed;
+        try {
+            committed = mutator.execute(call, timeout).thenApply(result -> {
+                if ((Integer) result.outValues.get(0) != 0) {
+                    keys.put(generation, generated);
+                    current.put(generation.namespace(), new Current(generation, created));
+                    log.info("Generated data key: {} of: {}", generation.generation(), generation.namespace());
+                    return generation;
+                }
+                // lost to another member, whose generation has been applied by the time this one is
+                generated.destroy();
+                try {
+                    var latest = latest(generation.namespace());
+                    if (latest == null) {
+                        throw new SQLException("No data key of: %s".formatted(generation.namespace()));
+                    }
+                    current.put(generation.namespace(), latest);
+                    return latest.generation();
+                } catch (SQLException e) {
+                    throw new CompletionException(e);
+                }
+            });
+        } catch (InvalidTransaction e) {
+            committed = CompletableFuture.failedFuture(e);
+        }
+        return committed.whenComplete((g, t) -> {
+            if (t != null) {
+                generated.destroy();
+            }
+        });
+    }
+
+    /**
+     * @return a copy of the unwrapped data key of the generation, to be cleared by the caller once used
+     */
+    private byte[] key(Generation generation) throws SQLException {
+        while (true) {
+            CachedKey cached;
+            try {
+                cached = keys.get(generation, this::unwrap);
+            } catch (IllegalStateException e) {
+                throw new SQLException(e.getMessage(), e.getCause());
+            }
+            var key = cached.copy();
+            if (key != null) {
+                return key;
+            }
+            // evicted while in hand
+            keys.asMap().remove(generation, cached);
+        }
+    }
+
+    /**
+     * @return the latest generation of the namespace's data key, or null if none
+     */
+    private Current latest(String namespace) throws SQLException {
+        try (var connection = connections.get(); var statement = connection.prepareStatement(LATEST)) {
+            statement.setString(1, namespace);
+            try (var rs = statement.executeQuery()) {
+                return rs.next() ? new Current(new Generation(namespace, rs.getInt(1)), rs.getLong(2)) : null;
+            }
+        }
+    }
+
+    private boolean rotate(Current generation) {
+        return rotation.isPositive() && System.currentTimeMillis() - generation.created() >= rotation.toMillis();
+    }
+
+    private ByteString seal(Generation generation, byte[] aad, ByteString value) throws SQLException {
+        var iv = new byte[IV_LENGTH];
+        Entropy.nextSecureBytes(iv);
+        var dataKey = key(generation);
+        try {
+            var cipher = Cipher.getInstance(AES_GCM);
+            cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(dataKey, AES), new GCMParameterSpec(TAG_LENGTH, iv));
+            cipher.updateAAD(aad);
+            var sealed = ByteBuffer.allocate(Integer.BYTES + IV_LENGTH + cipher.getOutputSize(value.size()));
+            sealed.putInt(generation.generation()).put(iv);
+            cipher.doFinal(value.asReadOnlyByteBuffer(), sealed);
+            return UnsafeByteOperations.unsafeWrap(sealed.array(), 0, sealed.position());
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Unable to seal", e);
+        } finally {
+            Arrays.fill(dataKey, (byte) 0);
+        }
+    }
+
+    /**
+     * Unwrap the data key of the generation by the enclave
+     */
+    private CachedKey unwrap(Generation generation) {
+        var wrapped = DataKey_.newBuilder().setContext(context(generation));
+        try (var connection = connections.get(); var statement = connection.prepareStatement(WRAPPED)) {
+            statement.setString(1, generation.namespace());
+            statement.setInt(2, generation.generation());
+            try (var rs = statement.executeQuery()) {
+                if (!rs.next()) {
+                    throw new IllegalStateException(
+                    "No data key: %s of: %s".formatted(generation.generation(), generation.namespace()));
+                }
+                wrapped.setIv(ByteString.copyFrom(rs.getBytes(1))).setWrapped(ByteString.copyFrom(rs.getBytes(2)));
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+        log.debug("Unwrapping data key: {} of: {}", generation.generation(), generation.namespace());
+        byte[] plaintext;
+        try {
+            plaintext = enclave.unwrap(wrapped.build());
+        } catch (RuntimeException e) {
+            throw new IllegalStateException(
+            "Cannot unwrap data key: %s of: %s".formatted(generation.generation(), generation.namespace()), e);
+        }
+        try {
+            return new CachedKey(plaintext);
+        } finally {
+            Arrays.fill(plaintext, (byte) 0);
+        }
+    }
+
+    private record Generation(String namespace, int generation) {
+    }
+
+    private record Current(Generation generation, long created) {
+    }
+
+    /**
+     * An unwrapped data key, held off heap and zeroed once evicted
+     */
+    private static class CachedKey {
+        private final ByteBuffer key;
+        private       boolean    destroyed;
+
+        private CachedKey(byte[] plaintext) {
+            key = ByteBuffer.allocateDirect(plaintext.length);
+            key.put(0, plaintext);
+        }
+
+        /**
+         * @return a copy of the key, to be cleared by the caller once used, or null if the key has been destroyed
+         */
+        private synchronized byte[] copy() {
+            if (destroyed) {
+                return null;
+            }
+            var copy = new byte[key.capacity()];
+            key.get(0, copy);
+            return copy;
+        }
+
+        private synchronized void destroy() {
+            destroyed = true;
+            for (int i = 0; i < key.capacity(); i++) {
+                key.put(i, (byte) 0);
+            }
+        }
+    }
+}
@@ -17,70 +17,910 @@
 
 package com.hellblazer.nut.service;
 
-import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
-import com.hellblazer.delos.comm.grpc.ServerContextSupplier;
-import com.hellblazer.delos.cryptography.Digest;
-import com.hellblazer.delos.cryptography.ssl.CertificateValidator;
-import com.hellblazer.delos.cryptography.ssl.NodeKeyManagerFactory;
-import com.hellblazer.delos.cryptography.ssl.NodeTrustManagerFactory;
-import com.hellblazer.delos.cryptography.ssl.TlsInterceptor;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Empty;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.hellblazer.delos.choam.support.InvalidTransaction;
+import com.hellblazer.delos.delphinius.AbstractOracle;
 import com.hellblazer.delos.delphinius.Oracle;
-import com.hellblazer.delos.protocols.ClientIdentity;
+import com.hellblazer.delos.h2.SessionServices;
 import com.hellblazer.delos.state.Mutator;
-import io.grpc.*;
-import io.grpc.netty.GrpcSslContexts;
-import io.grpc.netty.NettyServerBuilder;
-import io.netty.channel.ChannelOption;
-import io.netty.handler.ssl.*;
-import org.jooq.DSLContext;
-import org.jooq.impl.DSL;
-
-import javax.net.ssl.SSLException;
-import javax.net.ssl.SSLPeerUnverifiedException;
-import javax.net.ssl.SSLSession;
-import java.io.IOException;
-import java.net.SocketAddress;
-import java.security.PrivateKey;
-import java.security.Provider;
-import java.security.Security;
-import java.security.cert.X509Certificate;
+import com.hellblazer.delphi.v1.proto.Object_;
+import com.hellblazer.geb.internal.v1.proto.*;
+import io.grpc.Status;
+import io.grpc.stub.StreamObserver;
+
 import java.sql.Connection;
+import java.sql.JDBCType;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
 
 /**
- * The secrets storage
+ * The secrets storage.  Secrets are versioned values keyed by Oracle objects, stored in the nut.storage table.  Puts
+ * and deletes are committed through consensus by the nut.gebPut and nut.gebDelete procedures, with puts guarded by
+ * the version they replace.  Gets are answered from the local replica with a single indexed lookup, without a
+ * consensus round trip, so a version is visible on a node once the node has applied the block committing it.
+ * <p>
+ * Values larger than a single row are stored in chunks of at most CHUNK_SIZE bytes in the nut.chunk table.  Their
+ * chunks are first staged in nut.upload, each by its own transaction, and then published as the new version by a
+ * single transaction, so no transaction or message carries more than a chunk.
+ * <p>
+ * Every version records the time it was stored, allowing the version history to be compacted under a retention
+ * policy by the {@link GebCompactor}.
+ * <p>
+ * With an {@link Envelope}, values and chunks are sealed on this node before they are submitted, and unsealed as they
+ * are read, so the replicated state only holds values encrypted under the data keys of their namespaces.
  *
  * @author hal.hildebrand
  **/
-public class Geb {
+public class Geb extends Geb_Grpc.Geb_ImplBase {
+    public static final  int    CHUNK_SIZE    = 32_768;
+    public static final  int    MAX_KEYS      = 1_000;
+    public static final  int    UPLOAD_WINDOW = 4;
+    private static final int    UNCHUNKED     = -1;
+    private static final String OBJECT_ID     = """
+                                                select o.id from delphinius.object o
+                                                join delphinius.namespace n on n.id = o.namespace
+                                                join delphinius.relation r on r.id = o.relation
+                                                join delphinius.namespace rn on rn.id = r.namespace
+                                                where n.name = ? and o.name = ? and rn.name = ? and r.name = ?
+                                                """;
+    private static final String VALUE         = """
+                                                select s.version, s.deleted, s.value, s.object, s.chunks, s.sealed
+                                                from nut.storage s
+                                                join delphinius.object o on o.id = s.object
+                                                join delphinius.namespace n on n.id = o.namespace
+                                                join delphinius.relation r on r.id = o.relation
+                                                join delphinius.namespace rn on rn.id = r.namespace
+                                                where n.name = ? and o.name = ? and rn.name = ? and r.name = ?
+                                                """;
+    private static final String AT_VERSION    = VALUE + "and s.version = ?";
+    private static final String LATEST        = VALUE + "order by s.version desc limit 1";
+    private static final String KEY_ROW       = """
+                                                (cast(? as int), cast(? as varchar), cast(? as varchar), \
+                                                cast(? as varchar), cast(? as varchar), cast(? as int))""";
+    private static final String GET_MANY      = """
+                                                select k.i, s.version, s.deleted, s.value, s.object, s.chunks,
+                                                       s.sealed
+                                                from (values %s) as k(i, ns, name, rns, rel, version)
+                                                join delphinius.namespace n on n.name = k.ns
+                                                join delphinius.object o on o.namespace = n.id and o.name = k.name
+                                                join delphinius.relation r on r.id = o.relation and r.name = k.rel
+                                                join delphinius.namespace rn on rn.id = r.namespace and rn.name = k.rns
+                                                join nut.storage s on s.object = o.id and s.version =
+                                                    case when k.version = 0
+                                                         then (select max(m.version) from nut.storage m
+                                                               where m.object = o.id)
+                                                         else k.version end
+                                                """;
+    private static final String CHUNK         = """
+                                                select value from nut.chunk
+                                                where object = ? and version = ? and chunk = ?
+                                                """;
+    private static final String CHUNKS        = """
+                                                select chunk, value from nut.chunk
+                                                where object = ? and version = ? order by chunk
+                                                """;
+    private static final String PURGEABLE     = """
+                                                select s.object, s.version from nut.storage s
+                                                join (select object, max(version) as latest from nut.storage
+                                                      group by object) l on l.object = s.object
+                                                where s.stored < ? and s.version < l.latest
+                                                and (s.deleted or s.version <= l.latest - ?)
+                                                order by s.object, s.version
+                                                limit ?
+                                                """;
+    private static final String ABANDONED     = """
+                                                select upload, chunk from nut.upload where staged < ?
+                                                order by upload, chunk
+                                                limit ?
+                                                """;
+    private static final String INSERT        = """
+                                                insert into nut.storage (object, version, deleted, value, stored,
+                                                                         sealed)
+                                                values (?, ?, false, ?, ?, ?)
+                                                """;
+
+    private final Supplier<Connection> connections;
+    private final Mutator              mutator;
+    private final Duration             timeout;
+    private final Envelope             envelope;
 
-    private final DSLContext dslCtx;
-    private final Mutator    mutator;
+    public Geb(Supplier<Connection> connections, Mutator mutator, Duration timeout) {
+        this(connections, mutator, timeout, null);
+    }
 
-    public Geb(Connection connection, Mutator mutator) {
-        this.dslCtx = DSL.using(connection);
+    /**
+     * @param connections - the new connections to the local replica's state, each serving a single read, so that
+     *                    concurrent reads are not serialized on a shared connection
+     * @param mutator     - the mutator committing writes
+     * @param timeout     - the timeout of committed writes
+     * @param envelope    - the envelope encryption of values, or null if values are stored in the clear
+     */
+    public Geb(Supplier<Connection> connections, Mutator mutator, Duration timeout, Envelope envelope) {
+        this.connections = connections;
         this.mutator = mutator;
+        this.timeout = timeout;
+        this.envelope = envelope;
+    }
+
+    /**
+     * Transactional discard of the chunks staged by an upload
+     *
+     * @return the number of chunks discarded
+     */
+    public static int applyAbort(Connection connection, SessionServices services, String upload) throws SQLException {
+        try (var statement = connection.prepareStatement("delete from nut.upload where upload = ?")) {
+            statement.setString(1, upload);
+            return statement.executeUpdate();
+        }
+    }
+
+    /**
+     * Transactional commit of the chunks staged by an upload.  The chunks are published as the next version of the
+     * serialized Object_ key only if the latest version of the key is the cas version.  The staged chunks are
+     * discarded in either case.
+     *
+     * @param sealed - true if the chunks were sealed by an envelope
+     * @return the new version of the key, or 0 if the cas version is not the latest
+     */
+    public static int applyCommit(Connection connection, SessionServices services, byte[] key, int cas, String upload,
+                                  long stored, boolean sealed) throws SQLException {
+        Object_ object;
+        try {
+            object = Object_.parseFrom(key);
+        } catch (InvalidProtocolBufferException e) {
+            throw new SQLException("Cannot parse key", e);
+        }
+        var id = objectId(connection, object);
+        var latest = id == null ? 0 : latest(connection, id);
+        if (latest != cas) {
+            applyAbort(connection, services, upload);
+            return 0;
+        }
+        if (id == null) {
+            id = addKey(connection, object);
+        }
+        var version = latest + 1;
+        int chunks;
+        try (var statement = connection.prepareStatement("select count(*) from nut.upload where upload = ?")) {
+            statement.setString(1, upload);
+            try (var rs = statement.executeQuery()) {
+                chunks = rs.next() ? rs.getInt(1) : 0;
+            }
+        }
+        try (var statement = connection.prepareStatement(
+        "insert into nut.storage (object, version, deleted, value, chunks, stored, sealed) " +
+        "values (?, ?, false, ?, ?, ?, ?)")) {
+            statement.setLong(1, id);
+            statement.setInt(2, version);
+            statement.setBytes(3, new byte[0]);
+            statement.setInt(4, chunks);
+            statement.setLong(5, stored);
+            statement.setBoolean(6, sealed);
+            statement.executeUpdate();
+        }
+        try (var statement = connection.prepareStatement(
+        "insert into nut.chunk (object, version, chunk, value) select ?, ?, chunk, value from nut.upload " +
+        "where upload = ?")) {
+            statement.setLong(1, id);
+            statement.setInt(2, version);
+            statement.setString(3, upload);
+            statement.executeUpdate();
+        }
+        applyAbort(connection, services, upload);
+        return version;
+    }
+
+    /**
+     * Transactional compaction of at most limit rows.  A version is purged if it was stored before the cutoff, is not
+     * the latest version of its key, and is either deleted or older than the latest versions of its key.  The latest
+     * version is always retained, deleted or not, so versions are never reused.  Uploads staged before the cutoff are
+     * abandoned, and their chunks are purged with any remaining limit.  Rows are chosen in key order, so every replica
+     * purges the same rows.
+     *
+     * @param versions - the number of latest versions of each key retained
+     * @param before   - the cutoff; versions and uploads stored at or after the cutoff are retained
+     * @return the number of rows purged
+     */
+    public static int applyCompact(Connection connection, SessionServices services, int versions, long before,
+                                   int limit) throws SQLException {
+        var purged = 0;
+        try (var select = connection.prepareStatement(PURGEABLE);
+             var delete = connection.prepareStatement("delete from nut.storage where object = ? and version = ?")) {
+            select.setLong(1, before);
+            select.setInt(2, versions);
+            select.setInt(3, limit);
+            try (var rs = select.executeQuery()) {
+                while (rs.next()) {
+                    delete.setLong(1, rs.getLong(1));
+                    delete.setInt(2, rs.getInt(2));
+                    delete.addBatch();
+                    purged++;
+                }
+            }
+            if (purged > 0) {
+                delete.executeBatch();
+            }
+        }
+        if (purged < limit) {
+            var abandoned = 0;
+            try (var select = connection.prepareStatement(ABANDONED);
+                 var delete = connection.prepareStatement("delete from nut.upload where upload = ? and chunk = ?")) {
+                select.setLong(1, before);
+                select.setInt(2, limit - purged);
+                try (var rs = select.executeQuery()) {
+                    while (rs.next()) {
+                        delete.setString(1, rs.getString(1));
+                        delete.setInt(2, rs.getInt(2));
+                        delete.addBatch();
+                        abandoned++;
+                    }
+                }
+                if (abandoned > 0) {
+                    delete.executeBatch();
+                }
+            }
+            purged += abandoned;
+        }
+        return purged;
+    }
+
+    /**
+     * Transactional delete of a serialized KeyVersion_, marking the version of the key, or every version if 0, as
+     * deleted
+     *
+     * @return the number of versions deleted
+     */
+    public static int applyDelete(Connection connection, SessionServices services, byte[] delete)
+    throws SQLException {
+        KeyVersion_ keyVersion;
+        try {
+            keyVersion = KeyVersion_.parseFrom(delete);
+        } catch (InvalidProtocolBufferException e) {
+            throw new SQLException("Cannot parse key version", e);
+        }
+        var id = objectId(connection, keyVersion.getKey());
+        if (id == null) {
+            return 0;
+        }
+        var sql = "update nut.storage set deleted = true where object = ? and deleted = false";
+        if (keyVersion.getVersion() != 0) {
+            sql += " and version = ?";
+        }
+        try (var statement = connection.prepareStatement(sql)) {
+            statement.setLong(1, id);
+            if (keyVersion.getVersion() != 0) {
+                statement.setInt(2, keyVersion.getVersion());
+            }
+            return statement.executeUpdate();
+        }
+    }
+
+    /**
+     * Transactional put of a serialized PutValue_.  The value is stored as the next version of the key only if the
+     * latest version of the key, deleted or not, is the cas version.  Versions are never reused.
+     *
+     * @param sealed - true if the value was sealed by an envelope
+     * @return the new version of the key, or 0 if the cas version is not the latest
+     */
+    public static int applyPut(Connection connection, SessionServices services, byte[] put, long stored,
+                               boolean sealed) throws SQLException {
+        PutValue_ value;
+        try {
+            value = PutValue_.parseFrom(put);
+        } catch (InvalidProtocolBufferException e) {
+            throw new SQLException("Cannot parse put value", e);
+        }
+        var id = objectId(connection, value.getKey());
+        var latest = id == null ? 0 : latest(connection, id);
+        if (latest != value.getCas()) {
+            return 0;
+        }
+        try (var statement = connection.prepareStatement(INSERT)) {
+            bind(statement, id == null ? addKey(connection, value.getKey()) : id, latest + 1, value, stored, sealed);
+            statement.executeUpdate();
+        }
+        return latest + 1;
+    }
+
+    /**
+     * Transactional put of serialized PutValues_.  Every cas version is checked before any value is stored, so either
+     * all the values are put or none are.  Values of the same key are applied in order, each cas version checked
+     * against the version put by the value before it.
+     *
+     * @param sealed - true if the values were sealed by an envelope
+     * @return the index of the first value whose cas version is not the latest, or -1 if every value was put
+     */
+    public static int applyPutMany(Connection connection, SessionServices services, byte[] puts, long stored,
+                                   boolean sealed) throws SQLException {
+        PutValues_ values;
+        try {
+            values = PutValues_.parseFrom(puts);
+        } catch (InvalidProtocolBufferException e) {
+            throw new SQLException("Cannot parse put values", e);
+        }
+        var ids = new HashMap<Object_, Long>();
+        var latest = new HashMap<Object_, Integer>();
+        for (int i = 0; i < values.getValuesCount(); i++) {
+            var value = values.getValues(i);
+            var key = value.getKey();
+            if (!latest.containsKey(key)) {
+                var id = objectId(connection, key);
+                ids.put(key, id);
+                latest.put(key, id == null ? 0 : latest(connection, id));
+            }
+            if (latest.get(key) != value.getCas()) {
+                return i;
+            }
+            latest.put(key, value.getCas() + 1);
+        }
+        try (var statement = connection.prepareStatement(INSERT)) {
+            for (var value : values.getValuesList()) {
+                var id = ids.get(value.getKey());
+                if (id == null) {
+                    id = addKey(connection, value.getKey());
+                    ids.put(value.getKey(), id);
+                }
+                bind(statement, id, value.getCas() + 1, value, stored, sealed);
+                statement.addBatch();
+            }
+            statement.executeBatch();
+        }
+        return -1;
+    }
+
+    /**
+     * Transactional staging of a chunk of an upload.  Staged chunks are not visible until the upload is committed
+     *
+     * @return the index of the staged chunk
+     */
+    public static int applyStage(Connection connection, SessionServices services, String upload, int chunk,
+                                 byte[] value, long staged) throws SQLException {
+        try (var statement = connection.prepareStatement(
+        "insert into nut.upload (upload, chunk, staged, value) values (?, ?, ?, ?)")) {
+            statement.setString(1, upload);
+            statement.setInt(2, chunk);
+            statement.setLong(3, staged);
+            statement.setBytes(4, value);
+            statement.executeUpdate();
+        }
+        return chunk;
+    }
+
+    public static KeyVersion_ keyVersion_(KeyVersion key) {
+        return KeyVersion_.newBuilder().setKey(Delphi.object_(key.key())).setVersion(key.version()).build();
+    }
+
+    public static PutValue_ putValue_(PutValue value) {
+        return PutValue_.newBuilder()
+                        .setKey(Delphi.object_(value.key()))
+                        .setValue(value.value())
+                        .setCas(value.cas())
+                        .build();
+    }
+
+    /**
+     * @return the id of the newly added key object
+     */
+    private static long addKey(Connection connection, Object_ key) throws SQLException {
+        AbstractOracle.addObject(connection, key.getNamespace().getName(), key.getName(),
+                                 key.getRelation().getNamespace().getName(), key.getRelation().getName());
+        var id = objectId(connection, key);
+        if (id == null) {
+            throw new SQLException("Cannot add key: %s".formatted(Delphi.object(key)));
+        }
+        return id;
     }
 
-    public void delete(KeyVersion key) throws SQLException {
+    private static void bind(PreparedStatement statement, long id, int version, PutValue_ value, long stored,
+                             boolean sealed) throws SQLException {
+        statement.setLong(1, id);
+        statement.setInt(2, version);
+        statement.setBytes(3, value.getValue().toByteArray());
+        statement.setLong(4, stored);
+        statement.setBoolean(5, sealed);
     }
 
-    public String get(KeyVersion key) throws SQLException {
-        return null;
+    private static void bind(PreparedStatement statement, Object_ key) throws SQLException {
+        statement.setString(1, key.getNamespace().getName());
+        statement.setString(2, key.getName());
+        statement.setString(3, key.getRelation().getNamespace().getName());
+        statement.setString(4, key.getRelation().getName());
     }
 
+    /**
+     * @return the query of the values of the keys, joining the derived table of the index, name and version of each
+     */
+    private static String getMany(int keys) {
+        var rows = String.join(", ", Collections.nCopies(keys, KEY_ROW));
+        return GET_MANY.formatted(rows);
+    }
+
+    /**
+     * @return the latest version of the key object, deleted or not, or 0 if none
+     */
+    private static int latest(Connection connection, long id) throws SQLException {
+        try (var statement = connection.prepareStatement("select max(version) from nut.storage where object = ?")) {
+            statement.setLong(1, id);
+            try (var rs = statement.executeQuery()) {
+                return rs.next() ? rs.getInt(1) : 0;
+            }
+        }
+    }
+
+    private static Long objectId(Connection connection, Object_ key) throws SQLException {
+        try (var statement = connection.prepareStatement(OBJECT_ID)) {
+            bind(statement, key);
+            try (var rs = statement.executeQuery()) {
+                return rs.next() ? rs.getLong(1) : null;
+            }
+        }
+    }
+
+    /**
+     * Delete the version of the key, or every version if 0
+     *
+     * @return true if any version was deleted
+     */
+    public boolean delete(KeyVersion key) throws SQLException {
+        return result(deleteAsync(keyVersion_(key))) > 0;
+    }
+
+    @Override
+    public void delete(KeyVersion_ request, StreamObserver<Empty> responseObserver) {
+        deleteAsync(request).whenComplete((deleted, t) -> {
+            if (t != null) {
+                responseObserver.onError(t);
+            } else if (deleted == 0) {
+                responseObserver.onError(Status.NOT_FOUND.withDescription(
+                "No version: %s of: %s".formatted(request.getVersion(), Delphi.object(request.getKey())))
+                                                         .asException());
+            } else {
+                responseObserver.onNext(Empty.getDefaultInstance());
+                responseObserver.onCompleted();
+            }
+        });
+    }
+
+    /**
+     * Answer the version of the key, or its latest version if 0, from the local replica
+     *
+     * @return the value, or null if there is no such version or it is deleted
+     */
+    public Value get(KeyVersion key) throws SQLException {
+        var value = get(keyVersion_(key));
+        return value == null ? null : new Value(value.getVersion(), value.getValue());
+    }
+
+    @Override
+    public void get(KeyVersion_ request, StreamObserver<Value_> responseObserver) {
+        Value_ value;
+        try {
+            value = get(request);
+        } catch (SQLException e) {
+            responseObserver.onError(e);
+            return;
+        }
+        if (value == null) {
+            responseObserver.onError(Status.NOT_FOUND.withDescription(
+            "No version: %s of: %s".formatted(request.getVersion(), Delphi.object(request.getKey()))).asException());
+            return;
+        }
+        responseObserver.onNext(value);
+        responseObserver.onCompleted();
+    }
+
+    @Override
+    public void getChunked(KeyVersion_ request, StreamObserver<Chunk_> responseObserver) {
+        Stored stored;
+        try (var connection = connections.get()) {
+            stored = stored(connection, request);
+        } catch (SQLException e) {
+            responseObserver.onError(e);
+            return;
+        }
+        if (stored == null) {
+            responseObserver.onError(Status.NOT_FOUND.withDescription(
+            "No version: %s of: %s".formatted(request.getVersion(), Delphi.object(request.getKey()))).asException());
+            return;
+        }
+        if (stored.chunks() == 0) {
+            ByteString value;
+            try {
+                value = unseal(stored, UNCHUNKED, stored.value());
+            } catch (SQLException e) {
+                responseObserver.onError(e);
+                return;
+            }
+            responseObserver.onNext(Chunk_.newBuilder().setVersion(stored.version()).setChunk(value).build());
+            responseObserver.onCompleted();
+            return;
+        }
+        StreamingResponse.send(chunks(stored), 1, List::getFirst, responseObserver);
+    }
+
+    /**
+     * Answer the values of the keys, in order, with a single query of the local replica
+     *
+     * @return the values, with null for each key that has no such version or whose version is deleted
+     */
+    public List<Value> getMany(List<KeyVersion> keys) throws SQLException {
+        var request = KeyVersions_.newBuilder();
+        keys.forEach(key -> request.addKeys(keyVersion_(key)));
+        return getMany(request.build()).getValuesList()
+                                       .stream()
+                                       .map(v -> v.getVersion() == 0 ? null : new Value(v.getVersion(), v.getValue()))
+                                       .toList();
+    }
+
+    @Override
+    public void getMany(KeyVersions_ request, StreamObserver<Values_> responseObserver) {
+        if (request.getKeysCount() > MAX_KEYS) {
+            responseObserver.onError(Status.INVALID_ARGUMENT.withDescription(
+            "Keys: %s exceed the maximum: %s".formatted(request.getKeysCount(), MAX_KEYS)).asException());
+            return;
+        }
+        Values_ values;
+        try {
+            values = getMany(request);
+        } catch (SQLException e) {
+            responseObserver.onError(e);
+            return;
+        }
+        responseObserver.onNext(values);
+        responseObserver.onCompleted();
+    }
+
+    /**
+     * Put the value as the next version of the key, if the latest version of the key is the cas version
+     *
+     * @return the new version, or 0 if the cas version is not the latest
+     */
     public int put(PutValue value) throws SQLException {
-        return 0;
+        return result(putAsync(putValue_(value)));
+    }
+
+    @Override
+    public void put(PutValue_ request, StreamObserver<Version_> responseObserver) {
+        putAsync(request).whenComplete((version, t) -> {
+            if (t != null) {
+                responseObserver.onError(t);
+            } else if (version == 0) {
+                responseObserver.onError(Status.FAILED_PRECONDITION.withDescription(
+                "CAS version: %s is not the latest of: %s".formatted(request.getCas(),
+                                                                      Delphi.object(request.getKey()))).asException());
+            } else {
+                responseObserver.onNext(Version_.newBuilder().setVersion(version).build());
+                responseObserver.onCompleted();
+            }
+        });
     }
 
-    public record PutValue(Oracle.Object key, String value, int cas) {
+    /**
+     * Put the values as a single transaction, if the cas version of every value is the latest
+     *
+     * @return the new versions, in order, or an empty list if any cas version is not the latest
+     */
+    public List<Integer> putMany(List<PutValue> values) throws SQLException {
+        var request = PutValues_.newBuilder();
+        values.forEach(value -> request.addValues(putValue_(value)));
+        var failed = result(putManyAsync(request.build()));
+        return failed >= 0 ? List.of() : values.stream().map(value -> value.cas() + 1).toList();
+    }
+
+    @Override
+    public void putMany(PutValues_ request, StreamObserver<Versions_> responseObserver) {
+        if (request.getValuesCount() == 0 || request.getValuesCount() > MAX_KEYS) {
+            responseObserver.onError(Status.INVALID_ARGUMENT.withDescription(
+            "Values: %s must be between 1 and: %s".formatted(request.getValuesCount(), MAX_KEYS)).asException());
+            return;
+        }
+        if (request.getValuesList().stream().anyMatch(value -> value.getValue().size() > CHUNK_SIZE)) {
+            responseObserver.onError(Status.INVALID_ARGUMENT.withDescription(
+            "Values larger than: %s bytes must be put individually".formatted(CHUNK_SIZE)).asException());
+            return;
+        }
+        putManyAsync(request).whenComplete((failed, t) -> {
+            if (t != null) {
+                responseObserver.onError(t);
+            } else if (failed >= 0) {
+                var value = request.getValues(failed);
+                responseObserver.onError(Status.FAILED_PRECONDITION.withDescription(
+                "CAS version: %s is not the latest of: %s".formatted(value.getCas(), Delphi.object(value.getKey())))
+                                                                   .asException());
+            } else {
+                var versions = Versions_.newBuilder();
+                request.getValuesList().forEach(value -> versions.addVersions(value.getCas() + 1));
+                responseObserver.onNext(versions.build());
+                responseObserver.onCompleted();
+            }
+        });
+    }
+
+    @Override
+    public StreamObserver<PutChunk_> putChunked(StreamObserver<Version_> responseObserver) {
+        return new ChunkedUpload(this, responseObserver);
+    }
+
+    /**
+     * Discard the chunks staged by the upload
+     */
+    CompletableFuture<Integer> abort(String upload) {
+        return submit("{ ? = call nut.gebAbort(?) }", upload);
+    }
+
+    /**
+     * Publish the chunks staged by the upload as the next version of the key, if the latest version is the cas version
+     *
+     * @return the new version, or 0 if the cas version is not the latest
+     */
+    CompletableFuture<Integer> commit(String upload, Object_ key, int cas) {
+        return submit("{ ? = call nut.gebCommit(?, ?, ?, ?, ?) }", key.toByteArray(), cas, upload,
+                      System.currentTimeMillis(), envelope != null);
+    }
+
+    /**
+     * Purge at most limit rows of the version history in a single transaction
+     *
+     * @return the number of rows purged
+     */
+    CompletableFuture<Integer> compact(int versions, long before, int limit) {
+        return submit("{ ? = call nut.gebCompact(?, ?, ?) }", versions, before, limit);
+    }
+
+    /**
+     * Stage the chunk of the upload of the key, sealed if enveloped
+     */
+    CompletableFuture<Integer> stage(String upload, Object_ key, int chunk, ByteString value) {
+        return seal(key, chunk, value).thenCompose(
+        sealed -> submit("{ ? = call nut.gebStage(?, ?, ?, ?) }", upload, chunk, sealed.toByteArray(),
+                         System.currentTimeMillis()));
+    }
+
+    private CompletableFuture<Integer> deleteAsync(KeyVersion_ key) {
+        return submit("{ ? = call nut.gebDelete(?) }", key.toByteArray());
+    }
+
+    /**
+     * @return the chunks of the stored value, each a single indexed lookup made as the transport is ready for it
+     */
+    private Iterator<Chunk_> chunks(Stored stored) {
+        return new Iterator<>() {
+            private int next;
+
+            @Override
+            public boolean hasNext() {
+                return next < stored.chunks();
+            }
+
+            @Override
+            public Chunk_ next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                var chunk = Chunk_.newBuilder();
+                if (next == 0) {
+                    chunk.setVersion(stored.version());
+                }
+                try (var connection = connections.get(); var statement = connection.prepareStatement(CHUNK)) {
+                    statement.setLong(1, stored.object());
+                    statement.setInt(2, stored.version());
+                    statement.setInt(3, next);
+                    try (var rs = statement.executeQuery()) {
+                        if (!rs.next()) {
+                            throw new SQLException(
+                            "Missing chunk: %s of version: %s".formatted(next, stored.version()));
+                        }
+                        chunk.setChunk(unseal(stored, next, ByteString.copyFrom(rs.getBytes(1))));
+                    }
+                } catch (SQLException e) {
+                    throw Status.INTERNAL.withDescription(e.getMessage()).withCause(e).asRuntimeException();
+                }
+                next++;
+                return chunk.build();
+            }
+        };
+    }
+
+    private Value_ get(KeyVersion_ request) throws SQLException {
+        try (var connection = connections.get()) {
+            var stored = stored(connection, request);
+            return stored == null ? null : Value_.newBuilder()
+                                                 .setVersion(stored.version())
+                                                 .setValue(value(connection, stored))
+                                                 .build();
+        }
+    }
+
+    private Values_ getMany(KeyVersions_ request) throws SQLException {
+        var count = request.getKeysCount();
+        if (count == 0) {
+            return Values_.getDefaultInstance();
+        }
+        var found = new Value_[count];
+        try (var connection = connections.get(); var statement = connection.prepareStatement(getMany(count))) {
+            var parameter = 1;
+            for (int i = 0; i < count; i++) {
+                var keyVersion = request.getKeys(i);
+                var key = keyVersion.getKey();
+                statement.setInt(parameter++, i);
+                statement.setString(parameter++, key.getNamespace().getName());
+                statement.setString(parameter++, key.getName());
+                statement.setString(parameter++, key.getRelation().getNamespace().getName());
+                statement.setString(parameter++, key.getRelation().getName());
+                statement.setInt(parameter++, keyVersion.getVersion());
+            }
+            try (var rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    if (!rs.getBoolean(3)) {
+                        var stored = new Stored(request.getKeys(rs.getInt(1)).getKey(), rs.getLong(5), rs.getInt(2),
+                                                rs.getInt(6), rs.getBoolean(7), ByteString.copyFrom(rs.getBytes(4)));
+                        found[rs.getInt(1)] = Value_.newBuilder()
+                                                    .setVersion(stored.version())
+                                                    .setValue(value(connection, stored))
+                                                    .build();
+                    }
+                }
+            }
+        }
+        var values = Values_.newBuilder();
+        for (var value : found) {
+            values.addValues(value == null ? Value_.getDefaultInstance() : value);
+        }
+        return values.build();
+    }
+
+    /**
+     * Values too large for a single row are uploaded in chunks
+     */
+    private CompletableFuture<Integer> putAsync(PutValue_ value) {
+        if (value.getValue().size() > CHUNK_SIZE) {
+            return upload(value.getKey(), value.getCas(), value.getValue());
+        }
+        return seal(value.getKey(), UNCHUNKED, value.getValue()).thenCompose(
+        sealed -> submit("{ ? = call nut.gebPut(?, ?, ?) }", value.toBuilder().setValue(sealed).build().toByteArray(),
+                         System.currentTimeMillis(), envelope != null));
+    }
+
+    private CompletableFuture<Integer> putManyAsync(PutValues_ values) {
+        var sealing = values.getValuesList()
+                            .stream()
+                            .map(value -> seal(value.getKey(), UNCHUNKED, value.getValue()).thenApply(
+                            sealed -> value.toBuilder().setValue(sealed).build()))
+                            .toList();
+        return CompletableFuture.allOf(sealing.toArray(CompletableFuture[]::new)).thenCompose(v -> {
+            var sealed = PutValues_.newBuilder();
+            sealing.forEach(value -> sealed.addValues(value.join()));
+            return submit("{ ? = call nut.gebPutMany(?, ?, ?) }", sealed.build().toByteArray(),
+                          System.currentTimeMillis(), envelope != null);
+        });
+    }
+
+    private <T> T result(CompletableFuture<T> submitted) throws SQLException {
+        try {
+            return submitted.get(timeout.toNanos(), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted", e);
+        } catch (ExecutionException e) {
+            throw new SQLException("Cannot commit", e.getCause());
+        } catch (TimeoutException e) {
+            throw new SQLException("Timed out committing", e);
+        }
+    }
+
+    /**
+     * @return the value, sealed by the envelope if enveloped
+     */
+    private CompletableFuture<ByteString> seal(Object_ key, int chunk, ByteString value) {
+        return envelope == null ? CompletableFuture.completedFuture(value) : envelope.seal(key, chunk, value);
+    }
+
+    private Stored stored(Connection connection, KeyVersion_ request) throws SQLException {
+        var latest = request.getVersion() == 0;
+        try (var statement = connection.prepareStatement(latest ? LATEST : AT_VERSION)) {
+            bind(statement, request.getKey());
+            if (!latest) {
+                statement.setInt(5, request.getVersion());
+            }
+            try (var rs = statement.executeQuery()) {
+                if (!rs.next() || rs.getBoolean(2)) {
+                    return null;
+                }
+                return new Stored(request.getKey(), rs.getLong(4), rs.getInt(1), rs.getInt(5), rs.getBoolean(6),
+                                  ByteString.copyFrom(rs.getBytes(3)));
+            }
+        }
+    }
+
+    private CompletableFuture<Integer> submit(String procedure, Object... arguments) {
+        var call = mutator.call(procedure, Collections.singletonList(JDBCType.INTEGER), arguments);
+        try {
+            return mutator.execute(call, timeout).thenApply(result -> (Integer) result.outValues.get(0));
+        } catch (InvalidTransaction e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Upload the value in chunks, staged concurrently, then committed as the next version of the key
+     */
+    private CompletableFuture<Integer> upload(Object_ key, int cas, ByteString value) {
+        var upload = UUID.randomUUID().toString();
+        var staged = new ArrayList<CompletableFuture<Integer>>();
+        for (int offset = 0, chunk = 0; offset < value.size(); offset += CHUNK_SIZE, chunk++) {
+            staged.add(
+            stage(upload, key, chunk, value.substring(offset, Math.min(value.size(), offset + CHUNK_SIZE))));
+        }
+        return CompletableFuture.allOf(staged.toArray(CompletableFuture[]::new))
+                                .thenCompose(v -> commit(upload, key, cas))
+                                .whenComplete((version, t) -> {
+                                    if (t != null) {
+                                        abort(upload);
+                                    }
+                                });
+    }
+
+    /**
+     * @return the value of the stored version's chunk, unsealed if sealed
+     */
+    private ByteString unseal(Stored stored, int chunk, ByteString value) throws SQLException {
+        if (!stored.sealed()) {
+            return value;
+        }
+        if (envelope == null) {
+            throw new SQLException("Version: %s of: %s is sealed and envelope encryption is not enabled".formatted(
+            stored.version(), Delphi.object(stored.key())));
+        }
+        return envelope.unseal(stored.key(), chunk, value);
+    }
+
+    /**
+     * @return the value, assembled from its chunks if chunked, and unsealed if sealed
+     */
+    private ByteString value(Connection connection, Stored stored) throws SQLException {
+        if (stored.chunks() == 0) {
+            return unseal(stored, UNCHUNKED, stored.value());
+        }
+        var assembled = ByteString.empty();
+        try (var statement = connection.prepareStatement(CHUNKS)) {
+            statement.setLong(1, stored.object());
+            statement.setInt(2, stored.version());
+            try (var rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    assembled = assembled.concat(unseal(stored, rs.getInt(1), ByteString.copyFrom(rs.getBytes(2))));
+                }
+            }
+        }
+        return assembled;
+    }
+
+    public record PutValue(Oracle.Object key, ByteString value, int cas) {
     }
 
     public record KeyVersion(Oracle.Object key, int version) {
     }
 
+    public record Value(int version, ByteString value) {
+    }
+
+    /**
+     * A stored version of the key; chunked values are stored in their chunks, not the value
+     */
+    private record Stored(Object_ key, long object, int version, int chunks, boolean sealed, ByteString value) {
+    }
 }
@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2024 Hal Hildebrand. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ *  more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.hellblazer.nut.service;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Background compaction of the Geb version history.  Every interval, versions outside the retention policy are purged
+ * in consensus committed batches of at most batch rows, until a batch purges fewer rows than the limit.  A version is
+ * retained if it is the latest version of its key, one of the latest versions of its key and not deleted, or younger
+ * than the retained age.
+ * <p>
+ * The cutoff of each batch is computed by the submitting node, and the rows purged are chosen in key order, so every
+ * replica purges the same rows.  Each node runs its own compactor, starting at a random point in the interval; a batch
+ * submitted after another node's batch has purged the same rows simply purges nothing.
+ *
+ * @author hal.hildebrand
+ **/
+public class GebCompactor {
+    private static final Logger log = LoggerFactory.getLogger(GebCompactor.class);
+
+    private final Geb                      geb;
+    private final int                      versions;
+    private final Duration                 age;
+    private final Duration                 interval;
+    private final int                      batch;
+    private final Meter                    reclaimed;
+    private final Timer                    time;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+    Thread.ofVirtual().factory());
+
+    /**
+     * @param versions - the number of latest versions of each key retained
+     * @param age      - versions younger than the age are retained
+     * @param interval - the interval between compactions
+     * @param batch    - the maximum number of rows purged by a transaction
+     * @param metrics  - the registry of the geb.compaction.reclaimed meter and geb.compaction.time timer
+     */
+    public GebCompactor(Geb geb, int versions, Duration age, Duration interval, int batch, MetricRegistry metrics) {
+        if (versions < 1) {
+            throw new IllegalArgumentException("At least one version must be retained: " + versions);
+        }
+        if (batch < 1) {
+            throw new IllegalArgumentException("Batch must be positive: " + batch);
+        }
+        this.geb = geb;
+        this.versions = versions;
+        this.age = age;
+        this.interval = interval;
+        this.batch = batch;
+        this.reclaimed = metrics.meter(MetricRegistry.name("geb", "compaction", "reclaimed"));
+        this.time = metrics.timer(MetricRegistry.name("geb", "compaction", "time"));
+    }
+
+    /**
+     * Purge the versions outside the retention policy, in batches
+     *
+     * @return the number of rows purged
+     */
+    public long compact() {
+        var before = System.currentTimeMillis() - age.toMillis();
+        var total = 0L;
+        try (var ctx = time.time()) {
+            int purged;
+            do {
+                purged = geb.compact(versions, before, batch).get();
+                reclaimed.mark(purged);
+                total += purged;
+            } while (purged == batch && !scheduler.isShutdown());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            log.warn("Compaction failed after purging: {} rows", total, e.getCause());
+        }
+        if (total > 0) {
+            log.info("Compaction purged: {} rows", total);
+        }
+        return total;
+    }
+
+    public void start() {
+        var initial = ThreadLocalRandom.current().nextLong(Math.max(1, interval.toMillis()));
+        scheduler.scheduleWithFixedDelay(this::compact, initial, interval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        scheduler.shutdownNow();
+    }
+}
@@ -0,0 +1,260 @@
+/*
+ * Copyright (c) 2024 Hal Hildebrand. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ *  more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.hellblazer.nut.service;
+
+import com.hellblazer.delphi.v1.proto.Mutation_;
+import com.hellblazer.delos.delphinius.Oracle;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In memory transitive closure of subject set membership, in the style of Zanzibar's Leopard index.  For each subject
+ * the index maintains the full set of groups it is a member of, directly or through nested subject mappings, along with
+ * the subjects directly asserted on each object.  A latest check then becomes a set intersection rather than a
+ * recursive graph query.
+ * <p>
+ * The index is fed incrementally from the committed mutations of the change feed, so it only knows the mappings and
+ * assertions committed since this node started.  Every edge it holds is therefore present in the Oracle, and a positive
+ * answer is definite; a negative answer is not, and must fall back to the Oracle.  Mutations whose effect on the
+ * closure is not tracked precisely (namespace and relation deletion) clear the index, preserving this property, as do
+ * opaque commits whose mutations are not published by the change feed.
+ * <p>
+ * The index is bounded by the number of entries it holds, counting each subject's transitive memberships and each
+ * object's asserted subjects.  When a batch takes it past the bound the index is cleared, and latest checks fall back
+ * to the Oracle until it has refilled.
+ *
+ * @author hal.hildebrand
+ **/
+public class MembershipIndex {
+    private final Map<Oracle.Subject, Set<Oracle.Subject>> groups    = new HashMap<>();
+    private final Map<Oracle.Subject, Set<Oracle.Subject>> members   = new HashMap<>();
+    private final Map<Oracle.Subject, Set<Oracle.Subject>> ancestors = new HashMap<>();
+    private final Map<Oracle.Object, Set<Oracle.Subject>>  granted   = new HashMap<>();
+    private final ReadWriteLock                            lock      = new ReentrantReadWriteLock();
+    private final long                                     maxEntries;
+    private       long                                     entries;
+
+    /**
+     * @param maxEntries - the maximum number of transitive memberships and asserted subjects held
+     */
+    public MembershipIndex(long maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Apply the committed mutations to the index
+     */
+    public void apply(long ts, List<Mutation_> mutations) {
+        lock.writeLock().lock();
+        try {
+            mutations.forEach(this::apply);
+            if (entries > maxEntries) {
+                clear();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return true if the assertion definitely holds in the latest state, false if unknown
+     */
+    public boolean implies(Oracle.Assertion assertion) {
+        lock.readLock().lock();
+        try {
+            var subjects = granted.get(assertion.object());
+            if (subjects == null) {
+                return false;
+            }
+            if (subjects.contains(assertion.subject())) {
+                return true;
+            }
+            var memberOf = ancestors.getOrDefault(assertion.subject(), Collections.emptySet());
+            if (memberOf.size() < subjects.size()) {
+                return memberOf.stream().anyMatch(subjects::contains);
+            }
+            return subjects.stream().anyMatch(memberOf::contains);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Clear the index on an opaque commit, whose deletions may have removed any edge it holds
+     */
+    public void reset(long ts) {
+        lock.writeLock().lock();
+        try {
+            clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return the number of transitive memberships and asserted subjects held
+     */
+    public long entries() {
+        lock.readLock().lock();
+        try {
+            return entries;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the number of subjects with a tracked membership
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return ancestors.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void apply(Mutation_ mutation) {
+        switch (mutation.getMutationCase()) {
+        case ADDASSERTION -> {
+            var assertion = Delphi.assertion(mutation.getAddAssertion());
+            if (granted.computeIfAbsent(assertion.object(), o -> new HashSet<>()).add(assertion.subject())) {
+                entries++;
+            }
+        }
+        case DELETEASSERTION -> {
+            var assertion = Delphi.assertion(mutation.getDeleteAssertion());
+            var subjects = granted.get(assertion.object());
+            if (subjects != null && subjects.remove(assertion.subject())) {
+                entries--;
+            }
+        }
+        case DELETEOBJECT -> {
+            var subjects = granted.remove(Delphi.object(mutation.getDeleteObject()));
+            if (subjects != null) {
+                entries -= subjects.size();
+            }
+        }
+        case DELETESUBJECT -> delete(Delphi.subject(mutation.getDeleteSubject()));
+        case DELETENAMESPACE, DELETERELATION -> clear();
+        case MAPSUBJECT -> map(Delphi.subject(mutation.getMapSubject().getParent()),
+                               Delphi.subject(mutation.getMapSubject().getChild()));
+        case UNMAPSUBJECT -> unmap(Delphi.subject(mutation.getUnmapSubject().getParent()),
+                                   Delphi.subject(mutation.getUnmapSubject().getChild()));
+        default -> {
+            // additions and object or relation mappings only widen the Oracle's answers
+        }
+        }
+    }
+
+    private void clear() {
+        groups.clear();
+        members.clear();
+        ancestors.clear();
+        granted.clear();
+        entries = 0;
+    }
+
+    private void delete(Oracle.Subject subject) {
+        var affected = descendants(subject);
+        affected.remove(subject);
+        for (var group : groups.getOrDefault(subject, Collections.emptySet())) {
+            members.get(group).remove(subject);
+        }
+        for (var member : members.getOrDefault(subject, Collections.emptySet())) {
+            groups.get(member).remove(subject);
+        }
+        groups.remove(subject);
+        members.remove(subject);
+        var closure = ancestors.remove(subject);
+        if (closure != null) {
+            entries -= closure.size();
+        }
+        granted.values().forEach(subjects -> {
+            if (subjects.remove(subject)) {
+                entries--;
+            }
+        });
+        affected.forEach(this::recompute);
+    }
+
+    /**
+     * @return the subject and every subject that is transitively a member of it
+     */
+    private Set<Oracle.Subject> descendants(Oracle.Subject subject) {
+        var visited = new HashSet<Oracle.Subject>();
+        var pending = new ArrayDeque<Oracle.Subject>();
+        pending.add(subject);
+        while (!pending.isEmpty()) {
+            var next = pending.poll();
+            if (visited.add(next)) {
+                pending.addAll(members.getOrDefault(next, Collections.emptySet()));
+            }
+        }
+        return visited;
+    }
+
+    /**
+     * The member is now a member of the group, as is every transitive member of the member
+     */
+    private void map(Oracle.Subject member, Oracle.Subject group) {
+        groups.computeIfAbsent(member, s -> new HashSet<>()).add(group);
+        members.computeIfAbsent(group, s -> new HashSet<>()).add(member);
+        var inherited = new HashSet<>(ancestors.getOrDefault(group, Collections.emptySet()));
+        inherited.add(group);
+        for (var descendant : descendants(member)) {
+            var closure = ancestors.computeIfAbsent(descendant, s -> new HashSet<>());
+            var before = closure.size();
+            closure.addAll(inherited);
+            entries += closure.size() - before;
+        }
+    }
+
+    /**
+     * Recompute the closure of the subject from its direct group memberships
+     */
+    private void recompute(Oracle.Subject subject) {
+        var closure = new HashSet<Oracle.Subject>();
+        var pending = new ArrayDeque<>(groups.getOrDefault(subject, Collections.emptySet()));
+        while (!pending.isEmpty()) {
+            var next = pending.poll();
+            if (closure.add(next)) {
+                pending.addAll(groups.getOrDefault(next, Collections.emptySet()));
+            }
+        }
+        var previous = closure.isEmpty() ? ancestors.remove(subject) : ancestors.put(subject, closure);
+        entries += closure.size() - (previous == null ? 0 : previous.size());
+    }
+
+    private void unmap(Oracle.Subject member, Oracle.Subject group) {
+        var memberOf = groups.get(member);
+        if (memberOf == null || !memberOf.remove(group)) {
+            return;
+        }
+        members.get(group).remove(member);
+        descendants(member).forEach(this::recompute);
+    }
+}
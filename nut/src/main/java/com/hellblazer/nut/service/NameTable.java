@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2024 Hal Hildebrand. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ *  more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.hellblazer.nut.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.hellblazer.delos.delphinius.Oracle;
+import com.hellblazer.delphi.v1.proto.NameIds;
+import com.hellblazer.delphi.v1.proto.Names;
+import io.grpc.Status;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.function.Supplier;
+
+/**
+ * Numeric ids for subjects and objects, allowing repeated checks and expansions to skip name handling.  The ids are
+ * the delphinius row ids of the subjects and objects, which are never reused, so an id remains valid for as long as its
+ * row exists and never resolves to another name.  Names not present resolve to 0, which checks false and expands to
+ * nothing.  The names of looked up ids are cached, bounded by the maximum size.
+ * <p>
+ * The epoch is fixed; callers presenting ids from another epoch, issued by earlier versions, receive
+ * FAILED_PRECONDITION and must resolve their names again.
+ *
+ * @author hal.hildebrand
+ **/
+public class NameTable {
+    public static final  long   EPOCH   = 0;
+    private static final String OBJECT  = """
+                                          select n.name, o.name, rn.name, r.name from delphinius.object o
+                                          join delphinius.namespace n on n.id = o.namespace
+                                          join delphinius.relation r on r.id = o.relation
+                                          join delphinius.namespace rn on rn.id = r.namespace
+                                          where o.id = ?
+                                          """;
+    private static final String SUBJECT = """
+                                          select n.name, s.name, rn.name, r.name from delphinius.subject s
+                                          join delphinius.namespace n on n.id = s.namespace
+                                          join delphinius.relation r on r.id = s.relation
+                                          join delphinius.namespace rn on rn.id = r.namespace
+                                          where s.id = ?
+                                          """;
+
+    private final Supplier<Connection>        connections;
+    private final Cache<Long, Oracle.Object>  objects;
+    private final Cache<Long, Oracle.Subject> subjects;
+
+    /**
+     * @param connections - supplies connections reading the replica's state
+     * @param maxSize     - the maximum number of subject and object names cached
+     */
+    public NameTable(Supplier<Connection> connections, long maxSize) {
+        this.connections = connections;
+        this.objects = Caffeine.newBuilder().maximumSize(maxSize / 2).build();
+        this.subjects = Caffeine.newBuilder().maximumSize(maxSize / 2).build();
+    }
+
+    private static void current(long epoch) {
+        if (epoch != EPOCH) {
+            throw Status.FAILED_PRECONDITION.withDescription("Stale name epoch, resolve again").asRuntimeException();
+        }
+    }
+
+    private static <T> T named(Connection c, String query, long id, Named<T> named) throws SQLException {
+        try (var statement = c.prepareStatement(query)) {
+            statement.setLong(1, id);
+            try (var rs = statement.executeQuery()) {
+                if (!rs.next()) {
+                    throw Status.NOT_FOUND.withDescription("Unknown id: %s".formatted(id)).asRuntimeException();
+                }
+                var relation = Delphi.relation(rs.getString(3), rs.getString(4));
+                return named.of(Delphi.namespace(rs.getString(1)), rs.getString(2), relation);
+            }
+        }
+    }
+
+    public long epoch() {
+        return EPOCH;
+    }
+
+    /**
+     * @return the object of the id, or null if the id is 0
+     */
+    public Oracle.Object object(long epoch, long id) throws SQLException {
+        current(epoch);
+        if (id == 0) {
+            return null;
+        }
+        var object = objects.getIfPresent(id);
+        if (object == null) {
+            try (var c = connections.get()) {
+                object = named(c, OBJECT, id, Oracle.Object::new);
+            }
+            objects.put(id, object);
+        }
+        return object;
+    }
+
+    /**
+     * Resolve the names to their ids, using a single connection for the request
+     */
+    public NameIds resolve(Names names) throws SQLException {
+        var resolved = NameIds.newBuilder().setEpoch(EPOCH);
+        try (var c = connections.get()) {
+            for (var s : names.getSubjectsList()) {
+                resolved.addSubjects(Delphi.id(c, Delphi.SUBJECT_ID, s.getNamespace(), s.getName(), s.getRelation()));
+            }
+            for (var o : names.getObjectsList()) {
+                resolved.addObjects(Delphi.id(c, Delphi.OBJECT_ID, o.getNamespace(), o.getName(), o.getRelation()));
+            }
+        }
+        return resolved.build();
+    }
+
+    /**
+     * @return the subject of the id, or null if the id is 0
+     */
+    public Oracle.Subject subject(long epoch, long id) throws SQLException {
+        current(epoch);
+        if (id == 0) {
+            return null;
+        }
+        var subject = subjects.getIfPresent(id);
+        if (subject == null) {
+            try (var c = connections.get()) {
+                subject = named(c, SUBJECT, id, Oracle.Subject::new);
+            }
+            subjects.put(id, subject);
+        }
+        return subject;
+    }
+
+    @FunctionalInterface
+    private interface Named<T> {
+        T of(Oracle.Namespace namespace, String name, Oracle.Relation relation);
+    }
+}
@@ -0,0 +1,235 @@
+/*
+ * Copyright (c) 2024 Hal Hildebrand. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ *  more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.hellblazer.nut.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnel;
+import com.hellblazer.delphi.v1.proto.Mutation_;
+import com.hellblazer.delos.delphinius.Oracle;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Probabilistic accelerator for denied checks.  For each checked object, a Bloom filter of every subject transitively
+ * reachable from the object is built from the Oracle's expansion of the object.  A latest check whose subject is not
+ * in the object's filter is a definite denial, answered without touching the database.
+ * <p>
+ * The filter of an object must always be a superset of its reachable subjects.  Deletions only narrow reachability, so
+ * filters survive them, but committed mutations that can widen reachability discard the filters they may affect.  A
+ * subject mapping into a group discards the filters that may contain the group.  An assertion on an object widens the
+ * object and every object that reaches it through object and relation mappings, including mappings committed before
+ * this node started.  Each of these objects now grants the asserted subject, so the affected filters are those of the
+ * objects the Oracle expands from the subject.  Likewise, an object mapping widens only the objects that now reach the
+ * subjects of the mapped objects, found by expanding a subject of each.  These objects are found in the background,
+ * and no check is excluded until they have been discarded.  A relation mapping rewrites every object of the relation,
+ * which cannot be enumerated without a scan, so discards every filter, as does an opaque commit whose mutations are not
+ * published.  Discarded filters are rebuilt in the background on the next check of the object.  Because transitive
+ * reachability cannot be decremented safely, removals are not applied to filters; a rebuild restores their
+ * precision.
+ *
+ * @author hal.hildebrand
+ **/
+public class NegativeFilter {
+    private static final Logger                 log     = LoggerFactory.getLogger(NegativeFilter.class);
+    private static final Executor               exec    = Executors.newVirtualThreadPerTaskExecutor();
+    private static final Funnel<Oracle.Subject> SUBJECT = (subject, into) -> {
+        into.putString(subject.namespace().name(), StandardCharsets.UTF_8)
+            .putString(subject.name(), StandardCharsets.UTF_8)
+            .putString(subject.relation().namespace().name(), StandardCharsets.UTF_8)
+            .putString(subject.relation().name(), StandardCharsets.UTF_8);
+    };
+
+    private final Oracle                                            oracle;
+    private final double                                            fpr;
+    private final Cache<Oracle.Object, BloomFilter<Oracle.Subject>> filters;
+    private final Set<Oracle.Object>                                building   = ConcurrentHashMap.newKeySet();
+    private final AtomicLong                                        generation = new AtomicLong();
+    private final AtomicLong                                        excluded   = new AtomicLong();
+    private final AtomicInteger                                     widening   = new AtomicInteger();
+
+    /**
+     * @param oracle   - the oracle expanding objects
+     * @param fpr      - the false positive rate of each filter
+     * @param maxBytes - the maximum memory used by filters
+     */
+    public NegativeFilter(Oracle oracle, double fpr, long maxBytes) {
+        this.oracle = oracle;
+        this.fpr = fpr;
+        filters = Caffeine.newBuilder()
+                          .maximumWeight(maxBytes)
+                          .weigher((Oracle.Object o, BloomFilter<Oracle.Subject> f) -> bytes(
+                          f.approximateElementCount(), fpr))
+                          .recordStats()
+                          .build();
+        log.info("Negative filter fpr: {}, maximum bytes: {}", fpr, maxBytes);
+    }
+
+    /**
+     * The size of a Bloom filter of n elements at the false positive rate
+     */
+    private static int bytes(long n, double fpr) {
+        var bits = -Math.max(1, n) * Math.log(fpr) / (Math.log(2) * Math.log(2));
+        return (int) Math.min(Integer.MAX_VALUE, 64 + (long) Math.ceil(bits / 8));
+    }
+
+    /**
+     * Discard the filters affected by the committed mutations
+     */
+    public void apply(long ts, List<Mutation_> mutations) {
+        for (var mutation : mutations) {
+            switch (mutation.getMutationCase()) {
+            case MAPSUBJECT -> {
+                widened();
+                var group = Delphi.subject(mutation.getMapSubject().getChild());
+                filters.asMap().entrySet().removeIf(e -> e.getValue().mightContain(group));
+            }
+            case ADDASSERTION -> {
+                var assertion = Delphi.assertion(mutation.getAddAssertion());
+                widen(List.of(assertion.object()), () -> oracle.expand(assertion.subject()));
+            }
+            case MAPOBJECT -> {
+                var mapped = List.of(Delphi.object(mutation.getMapObject().getParent()),
+                                     Delphi.object(mutation.getMapObject().getChild()));
+                widen(mapped, () -> reaching(mapped));
+            }
+            case MAPRELATION -> {
+                widened();
+                filters.invalidateAll();
+            }
+            default -> {
+                // deletions and unmappings only narrow reachability
+            }
+            }
+        }
+    }
+
+    /**
+     * @return true if the assertion definitely does not hold in the latest state, false if unknown
+     */
+    public boolean excludes(Oracle.Assertion assertion) {
+        var filter = filters.getIfPresent(assertion.object());
+        if (filter == null) {
+            build(assertion.object());
+            return false;
+        }
+        if (widening.get() != 0 || filter.mightContain(assertion.subject())) {
+            return false;
+        }
+        excluded.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * @return the number of checks answered as definite denials
+     */
+    public long excluded() {
+        return excluded.get();
+    }
+
+    public CacheStats filterStats() {
+        return filters.stats();
+    }
+
+    /**
+     * Discard every filter on an opaque commit, whose mutations are not published
+     */
+    public void reset(long ts) {
+        widened();
+        filters.invalidateAll();
+    }
+
+    /**
+     * @return the objects that reach the subjects of the mapped objects
+     */
+    private List<Oracle.Object> reaching(List<Oracle.Object> mapped) throws SQLException {
+        var reaching = new ArrayList<Oracle.Object>();
+        for (var object : mapped) {
+            var subjects = oracle.expand(object);
+            if (!subjects.isEmpty()) {
+                reaching.addAll(oracle.expand(subjects.getFirst()));
+            }
+        }
+        return reaching;
+    }
+
+    private void widened() {
+        generation.incrementAndGet();
+    }
+
+    /**
+     * Discard the filters of the objects, then of the widened objects found in the background.  Until these are
+     * found, no check is excluded
+     */
+    private void widen(List<Oracle.Object> objects, Affected affected) {
+        widened();
+        widening.incrementAndGet();
+        filters.invalidateAll(objects);
+        exec.execute(() -> {
+            try {
+                filters.invalidateAll(affected.objects());
+            } catch (SQLException e) {
+                log.warn("Unable to find the widened objects, discarding every filter", e);
+                filters.invalidateAll();
+            } finally {
+                widening.decrementAndGet();
+            }
+        });
+    }
+
+    private void build(Oracle.Object object) {
+        if (!building.add(object)) {
+            return;
+        }
+        exec.execute(() -> {
+            try {
+                var current = generation.get();
+                var reachable = oracle.expand(object);
+                var filter = BloomFilter.create(SUBJECT, Math.max(1, reachable.size()), fpr);
+                reachable.forEach(filter::put);
+                if (generation.get() == current) {
+                    filters.put(object, filter);
+                    if (generation.get() != current) {
+                        filters.invalidate(object);
+                    }
+                }
+            } catch (SQLException e) {
+                log.warn("Unable to build negative filter for: {}", object, e);
+            } finally {
+                building.remove(object);
+            }
+        });
+    }
+
+    @FunctionalInterface
+    private interface Affected {
+        List<Oracle.Object> objects() throws SQLException;
+    }
+}
@@ -16,38 +16,120 @@
  */
 package com.hellblazer.nut.service;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.hellblazer.delphi.v1.proto.*;
 import com.hellblazer.delos.delphinius.Oracle;
+import io.grpc.ClientInterceptors;
+import io.grpc.Context;
 import io.grpc.ManagedChannel;
 import io.grpc.StatusRuntimeException;
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.ClientResponseObserver;
 import org.joou.ULong;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.net.SocketAddress;
 import java.sql.SQLException;
 import java.time.Duration;
 import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Optional;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.Callable;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.LongConsumer;
+import java.util.function.Supplier;
 import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * @author hal.hildebrand
  **/
 public class OracleAdapter implements Oracle {
-    private static final Logger                   log = LoggerFactory.getLogger(OracleAdapter.class);
+    private static final Logger                   log     = LoggerFactory.getLogger(OracleAdapter.class);
+    private static final ScheduledExecutorService hedging = Executors.newSingleThreadScheduledExecutor(
+    Thread.ofVirtual().factory());
     private final Oracle_Grpc.Oracle_FutureStub   asyncDelphi;
     private final Oracle_Grpc.Oracle_BlockingStub syncDelphi;
+    private final Oracle_Grpc.Oracle_FutureStub   pinnedAsync;
+    private final Oracle_Grpc.Oracle_BlockingStub pinnedSync;
+    private final Oracle_Grpc.Oracle_Stub         streamDelphi;
+    private final CheckPipeline                   checks;
     private final ManagedChannel                  channel;
+    private final BalancedChannel                 balanced;
+    private final Duration                        hedgeDelay;
+    private final Cache<Assertion, Boolean>       cached;
+    private final AtomicLong                      highWater = new AtomicLong();
+    private final AtomicLong                      epoch     = new AtomicLong();
 
     public OracleAdapter(ManagedChannel channel) {
+        this(channel, null);
+    }
+
+    /**
+     * Construct an adapter caching the results of {@link #check(Assertion)}.  Cached decisions are at most staleness
+     * old, and are discarded whenever a mutation made through this adapter commits, providing read your writes.
+     *
+     * @param channel   - the channel to the Delphi service
+     * @param staleness - the maximum age of a cached decision
+     * @param maxSize   - the maximum number of cached decisions
+     */
+    public OracleAdapter(ManagedChannel channel, Duration staleness, long maxSize) {
+        this(channel, Caffeine.newBuilder().expireAfterWrite(staleness).maximumSize(maxSize).recordStats().build());
+    }
+
+    /**
+     * Construct an adapter balancing calls across the service endpoints of the cluster members.  Each call is sent to
+     * the live endpoint with the fewest outstanding calls.  Calls using node local ids, resolve, checkById and
+     * expandById, are pinned to a single endpoint.
+     *
+     * @param endpoints  - supplies the live service endpoints, polled every refresh interval
+     * @param connect    - creates the channel to an endpoint
+     * @param refresh    - the interval between polls of the endpoints
+     * @param hedgeDelay - if not null, the asynchronous reads not answered within this delay are hedged with a second
+     *                   attempt on another endpoint, answering the first successful result
+     */
+    public OracleAdapter(Supplier<List<SocketAddress>> endpoints, Function<SocketAddress, ManagedChannel> connect,
+                         Duration refresh, Duration hedgeDelay) {
+        this(null, new BalancedChannel(endpoints, connect, refresh), hedgeDelay, null);
+    }
+
+    private OracleAdapter(ManagedChannel channel, Cache<Assertion, Boolean> cached) {
+        this(channel, null, null, cached);
+    }
+
+    private OracleAdapter(ManagedChannel channel, BalancedChannel balanced, Duration hedgeDelay,
+                          Cache<Assertion, Boolean> cached) {
         this.channel = channel;
-        this.asyncDelphi = Oracle_Grpc.newFutureStub(channel);
-        this.syncDelphi = Oracle_Grpc.newBlockingStub(channel);
+        this.balanced = balanced;
+        this.hedgeDelay = hedgeDelay;
+        var consistency = Consistency.client(highWater::get);
+        var consistent = ClientInterceptors.intercept(balanced == null ? channel : balanced, consistency);
+        var pinned = balanced == null ? consistent : ClientInterceptors.intercept(balanced.pinned(), consistency);
+        this.asyncDelphi = Oracle_Grpc.newFutureStub(consistent);
+        this.syncDelphi = Oracle_Grpc.newBlockingStub(consistent);
+        this.pinnedAsync = Oracle_Grpc.newFutureStub(pinned);
+        this.pinnedSync = Oracle_Grpc.newBlockingStub(pinned);
+        this.streamDelphi = Oracle_Grpc.newStub(consistent);
+        this.checks = new CheckPipeline(streamDelphi, highWater::get);
+        this.cached = cached;
     }
 
     private static Assertion_ of(Assertion of) {
@@ -82,6 +164,31 @@ public class OracleAdapter implements Oracle {
         return Oracle.namespace(name);
     }
 
+    /**
+     * @return the future of the mapped result of the source, whose cancellation cancels the source, and so the call
+     */
+    private static <T, R> CompletableFuture<R> cancellable(CompletableFuture<T> from, Function<T, R> mapping) {
+        var mapped = new CompletableFuture<R>() {
+            @Override
+            public boolean cancel(boolean mayInterruptIfRunning) {
+                from.cancel(mayInterruptIfRunning);
+                return super.cancel(mayInterruptIfRunning);
+            }
+        };
+        from.whenComplete((value, t) -> {
+            if (t != null) {
+                mapped.completeExceptionally(t);
+                return;
+            }
+            try {
+                mapped.complete(mapping.apply(value));
+            } catch (RuntimeException e) {
+                mapped.completeExceptionally(e);
+            }
+        });
+        return mapped;
+    }
+
     static <T> CompletableFuture<T> fs(ListenableFuture<T> from) {
         var fs = new CompletableFuture<T>() {
             @Override
@@ -105,6 +212,31 @@ public class OracleAdapter implements Oracle {
         return fs;
     }
 
+    /**
+     * Lazily stream the elements of a server streaming call.  The call is cancelled when the stream is closed
+     */
+    private static <M, T> Stream<T> lazy(Callable<Iterator<M>> call, Function<M, List<T>> elements) {
+        var context = Context.current().withCancellation();
+        Iterator<M> chunks;
+        try {
+            chunks = context.call(call);
+        } catch (Exception e) {
+            context.cancel(e);
+            throw new IllegalStateException(e);
+        }
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(chunks, Spliterator.ORDERED), false)
+                            .flatMap(chunk -> elements.apply(chunk).stream())
+                            .onClose(() -> context.cancel(null));
+    }
+
+    private static List<Object> objects(Objects objects) {
+        return objects.getObjectsList().stream().map(OracleAdapter::of).toList();
+    }
+
+    private static List<Subject> subjects(Subjects subjects) {
+        return subjects.getSubjectsList().stream().map(OracleAdapter::of).toList();
+    }
+
     private static Object of(Object_ s) {
         return new Object(of(s.getNamespace()), s.getName(), of(s.getRelation()));
     }
@@ -124,32 +256,119 @@ public class OracleAdapter implements Oracle {
     @Override
     public CompletableFuture<Asserted> add(Assertion assertion) {
         return fs(asyncDelphi.addAssertion(of(assertion))).thenApply(
-        asserted -> new Asserted(ULong.valueOf(asserted.getTs()), asserted.getAdded()));
+        asserted -> new Asserted(written(asserted.getTs()), asserted.getAdded()));
     }
 
     @Override
     public CompletableFuture<ULong> add(Namespace namespace) {
-        return fs(asyncDelphi.addNamespace(of(namespace))).thenApply(ts -> ULong.valueOf(ts.getTs()));
+        return fs(asyncDelphi.addNamespace(of(namespace))).thenApply(ts -> written(ts.getTs()));
     }
 
     @Override
     public CompletableFuture<ULong> add(Object object) {
-        return fs(asyncDelphi.addObject(of(object))).thenApply(ts -> ULong.valueOf(ts.getTs()));
+        return fs(asyncDelphi.addObject(of(object))).thenApply(ts -> written(ts.getTs()));
     }
 
     @Override
     public CompletableFuture<ULong> add(Relation relation) {
-        return fs(asyncDelphi.addRelation(of(relation))).thenApply(ts -> ULong.valueOf(ts.getTs()));
+        return fs(asyncDelphi.addRelation(of(relation))).thenApply(ts -> written(ts.getTs()));
     }
 
     @Override
     public CompletableFuture<ULong> add(Subject subject) {
-        return fs(asyncDelphi.addSubject(of(subject))).thenApply(ts -> ULong.valueOf(ts.getTs()));
+        return fs(asyncDelphi.addSubject(of(subject))).thenApply(ts -> written(ts.getTs()));
+    }
+
+    /**
+     * Fold a commit timestamp observed elsewhere, such as a write made by another client, into the consistency token
+     * of this adapter.  Subsequent reads are served only by replicas that have applied the timestamp
+     */
+    public void advance(ULong ts) {
+        highWater.accumulateAndGet(ts.longValue(), (a, b) -> Long.compareUnsigned(a, b) >= 0 ? a : b);
+    }
+
+    /**
+     * Import the batches over a single stream, each batch committed as its own transaction.  Batches are pulled from
+     * the iterator only as the stream is ready for them, so the server's flow control paces the import
+     *
+     * @param batches  - the batches of mutations to import
+     * @param progress - notified with the running total of mutations sent, as each batch is sent
+     * @return the totals of the import, completing when every batch has committed
+     */
+    public CompletableFuture<BulkImported> bulkImport(Iterator<List<Mutation>> batches, LongConsumer progress) {
+        var fs = new CompletableFuture<BulkImported>();
+        streamDelphi.bulkImport(new ClientResponseObserver<WriteBatch, BulkImported>() {
+            private long    sent;
+            private boolean completed;
+
+            @Override
+            public void beforeStart(ClientCallStreamObserver<WriteBatch> requests) {
+                requests.setOnReadyHandler(() -> drain(requests));
+            }
+
+            @Override
+            public void onCompleted() {
+                fs.completeExceptionally(new IllegalStateException("Import completed without a result"));
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                fs.completeExceptionally(t);
+            }
+
+            @Override
+            public void onNext(BulkImported imported) {
+                written(imported.getTs());
+                fs.complete(imported);
+            }
+
+            private void drain(ClientCallStreamObserver<WriteBatch> requests) {
+                while (!completed && requests.isReady()) {
+                    if (!batches.hasNext()) {
+                        completed = true;
+                        requests.onCompleted();
+                        return;
+                    }
+                    var batch = batches.next();
+                    requests.onNext(WriteBatch.newBuilder()
+                                              .addAllMutations(batch.stream().map(Mutation::mutation_).toList())
+                                              .build());
+                    sent += batch.size();
+                    progress.accept(sent);
+                }
+            }
+        });
+        return fs;
+    }
+
+    /**
+     * @return the statistics of the check cache, or empty if caching is not enabled
+     */
+    public Optional<CacheStats> cachedStats() {
+        return Optional.ofNullable(cached).map(Cache::stats);
     }
 
+    /**
+     * Check the assertion against the latest state.  If caching is enabled, the cached decision is answered if present
+     */
     @Override
     public boolean check(Assertion assertion) throws SQLException {
-        throw new SQLException(new UnsupportedOperationException("Must provide time stamp"));
+        if (cached == null) {
+            return check(assertion, ULong.valueOf(0));
+        }
+        var decision = cached.getIfPresent(assertion);
+        if (decision != null) {
+            return decision;
+        }
+        var current = epoch.get();
+        var result = check(assertion, ULong.valueOf(0));
+        if (epoch.get() == current) {
+            cached.put(assertion, result);
+            if (epoch.get() != current) {
+                cached.invalidate(assertion);
+            }
+        }
+        return result;
     }
 
     @Override
@@ -162,14 +381,73 @@ public class OracleAdapter implements Oracle {
         }
     }
 
+    /**
+     * Non-blocking variant of {@link #check(Assertion)}.  If caching is enabled, the cached decision is answered if
+     * present
+     */
+    public CompletableFuture<Boolean> checkAsync(Assertion assertion) {
+        if (cached == null) {
+            return checkAsync(assertion, ULong.valueOf(0));
+        }
+        var decision = cached.getIfPresent(assertion);
+        if (decision != null) {
+            return CompletableFuture.completedFuture(decision);
+        }
+        var current = epoch.get();
+        return cancellable(checkAsync(assertion, ULong.valueOf(0)), result -> {
+            if (epoch.get() == current) {
+                cached.put(assertion, result);
+                if (epoch.get() != current) {
+                    cached.invalidate(assertion);
+                }
+            }
+            return result;
+        });
+    }
+
+    /**
+     * Non-blocking variant of {@link #check(Assertion, ULong)}
+     */
+    public CompletableFuture<Boolean> checkAsync(Assertion assertion, ULong valid) {
+        var assertionAt = AssertionAt.newBuilder().setAssertion(of(assertion)).setTs(valid.longValue()).build();
+        return cancellable(hedged(stub -> stub.check(assertionAt)), AssertionCheck::getResult);
+    }
+
+    /**
+     * Check using ids resolved by {@link #resolve(List, List)}.  Fails with FAILED_PRECONDITION if the epoch is stale
+     */
+    public CompletableFuture<Boolean> checkById(Resolved resolved, long subject, long object, ULong valid) {
+        var request = AssertionById.newBuilder()
+                                   .setEpoch(resolved.epoch())
+                                   .setSubject(subject)
+                                   .setObject(object)
+                                   .setTs(valid.longValue())
+                                   .build();
+        return cancellable(fs(pinnedAsync.checkById(request)), AssertionCheck::getResult);
+    }
+
+    /**
+     * Pipelined variant of {@link #checkAsync(Assertion, ULong)}.  Concurrent callers share a single long lived
+     * checkStream call, avoiding per call stream setup for high rate checks
+     */
+    public CompletableFuture<Boolean> checkPipelined(Assertion assertion, ULong valid) {
+        return checks.check(AssertionAt.newBuilder().setAssertion(of(assertion)).setTs(valid.longValue()).build());
+    }
+
     public void close() {
         close(Duration.ofSeconds(10));
     }
 
     public void close(Duration timeout) {
+        if (balanced != null) {
+            checks.close();
+            balanced.shutdown(timeout);
+            return;
+        }
         if (channel == null) {
             return;
         }
+        checks.close();
         try {
             channel.shutdown();
             if (!channel.awaitTermination(timeout.toNanos(), TimeUnit.NANOSECONDS)) {
@@ -186,29 +464,36 @@ public class OracleAdapter implements Oracle {
         }
     }
 
+    /**
+     * @return the consistency token of this adapter, the highest commit timestamp of its writes and advances
+     */
+    public ULong consistency() {
+        return ULong.valueOf(highWater.get());
+    }
+
     @Override
     public CompletableFuture<ULong> delete(Assertion assertion) {
-        return fs(asyncDelphi.deleteAssertion(of(assertion))).thenApply(ts -> ULong.valueOf(ts.getTs()));
+        return fs(asyncDelphi.deleteAssertion(of(assertion))).thenApply(ts -> written(ts.getTs()));
     }
 
     @Override
     public CompletableFuture<ULong> delete(Namespace namespace) {
-        return fs(asyncDelphi.deleteNamespace(of(namespace))).thenApply(ts -> ULong.valueOf(ts.getTs()));
+        return fs(asyncDelphi.deleteNamespace(of(namespace))).thenApply(ts -> written(ts.getTs()));
     }
 
     @Override
     public CompletableFuture<ULong> delete(Object object) {
-        return fs(asyncDelphi.deleteObject(of(object))).thenApply(ts -> ULong.valueOf(ts.getTs()));
+        return fs(asyncDelphi.deleteObject(of(object))).thenApply(ts -> written(ts.getTs()));
     }
 
     @Override
     public CompletableFuture<ULong> delete(Relation relation) {
-        return fs(asyncDelphi.deleteRelation(of(relation))).thenApply(ts -> ULong.valueOf(ts.getTs()));
+        return fs(asyncDelphi.deleteRelation(of(relation))).thenApply(ts -> written(ts.getTs()));
     }
 
     @Override
     public CompletableFuture<ULong> delete(Subject subject) {
-        return fs(asyncDelphi.deleteSubject(of(subject))).thenApply(ts -> ULong.valueOf(ts.getTs()));
+        return fs(asyncDelphi.deleteSubject(of(subject))).thenApply(ts -> written(ts.getTs()));
     }
 
     @Override
@@ -257,22 +542,119 @@ public class OracleAdapter implements Oracle {
         }
     }
 
+    /**
+     * Expand using an id resolved by {@link #resolve(List, List)}.  Fails with FAILED_PRECONDITION if stale
+     */
+    public List<Subject> expandById(Resolved resolved, long object) throws SQLException {
+        try {
+            return subjects(
+            pinnedSync.expandById(ObjectId.newBuilder().setEpoch(resolved.epoch()).setObject(object).build()));
+        } catch (StatusRuntimeException e) {
+            throw new SQLException(e);
+        }
+    }
+
+    public CompletableFuture<List<Subject>> expandAsync(Object object) {
+        return cancellable(hedged(stub -> stub.expandSubject(of(object))), OracleAdapter::subjects);
+    }
+
+    public CompletableFuture<List<Subject>> expandAsync(Relation predicate, Object object) {
+        var request = ObjectPredicate.newBuilder().setPredicate(of(predicate)).setObject(of(object)).build();
+        return cancellable(hedged(stub -> stub.expandSubjects(request)), OracleAdapter::subjects);
+    }
+
+    public CompletableFuture<List<Object>> expandAsync(Relation predicate, Subject subject) {
+        var request = SubjectPredicate.newBuilder().setPredicate(of(predicate)).setSubject(of(subject)).build();
+        return cancellable(hedged(stub -> stub.expandObjects(request)), OracleAdapter::objects);
+    }
+
+    public CompletableFuture<List<Object>> expandAsync(Subject subject) {
+        return cancellable(hedged(stub -> stub.expandObject(of(subject))), OracleAdapter::objects);
+    }
+
+    /**
+     * Lazily stream the transitive subjects of the object, without materializing the result set
+     */
+    public Stream<Subject> expandStream(Object object) {
+        return lazy(() -> syncDelphi.streamExpandSubject(of(object)), Subjects::getSubjectsList).map(
+        OracleAdapter::of);
+    }
+
+    public Stream<Subject> expandStream(Relation predicate, Object object) {
+        var request = ObjectPredicate.newBuilder().setPredicate(of(predicate)).setObject(of(object)).build();
+        return lazy(() -> syncDelphi.streamExpandSubjects(request), Subjects::getSubjectsList).map(
+        OracleAdapter::of);
+    }
+
+    public Stream<Object> expandStream(Relation predicate, Subject subject) {
+        var request = SubjectPredicate.newBuilder().setPredicate(of(predicate)).setSubject(of(subject)).build();
+        return lazy(() -> syncDelphi.streamExpandObjects(request), Objects::getObjectsList).map(OracleAdapter::of);
+    }
+
+    /**
+     * Lazily stream the transitive objects of the subject, without materializing the result set
+     */
+    public Stream<Object> expandStream(Subject subject) {
+        return lazy(() -> syncDelphi.streamExpandObject(of(subject)), Objects::getObjectsList).map(OracleAdapter::of);
+    }
+
+    /**
+     * Issue the read, hedging it with a second attempt if not answered within the hedge delay.  The hedge is sent to
+     * another endpoint than the first attempt.  The first successful attempt answers and the other is cancelled; the
+     * read fails only if every attempt fails
+     */
+    private <T> CompletableFuture<T> hedged(Function<Oracle_Grpc.Oracle_FutureStub, ListenableFuture<T>> read) {
+        if (hedgeDelay == null) {
+            return fs(read.apply(asyncDelphi));
+        }
+        var routed = new AtomicReference<SocketAddress>();
+        var primary = fs(read.apply(asyncDelphi.withOption(BalancedChannel.ROUTED, routed)));
+        var result = new CompletableFuture<T>();
+        var attempts = new CopyOnWriteArrayList<CompletableFuture<T>>();
+        var pending = new AtomicInteger(1);
+        BiConsumer<T, Throwable> completion = (value, t) -> {
+            if (t == null) {
+                result.complete(value);
+            } else if (pending.decrementAndGet() == 0) {
+                result.completeExceptionally(t);
+            }
+        };
+        attempts.add(primary);
+        primary.whenComplete(completion);
+        var hedge = hedging.schedule(() -> {
+            if (result.isDone() || pending.incrementAndGet() == 1) {
+                return;
+            }
+            var attempt = fs(read.apply(asyncDelphi.withOption(BalancedChannel.AVOID, routed.get())));
+            attempts.add(attempt);
+            attempt.whenComplete(completion);
+            if (result.isDone()) {
+                attempt.cancel(true);
+            }
+        }, hedgeDelay.toNanos(), TimeUnit.NANOSECONDS);
+        result.whenComplete((value, t) -> {
+            hedge.cancel(false);
+            attempts.forEach(attempt -> attempt.cancel(true));
+        });
+        return result;
+    }
+
     @Override
     public CompletableFuture<ULong> map(Object parent, Object child) {
         var m = asyncDelphi.mapObject(ObjectMap.newBuilder().setParent(of(parent)).setChild(of(child)).build());
-        return fs(m).thenApply(ts -> ULong.valueOf(ts.getTs()));
+        return fs(m).thenApply(ts -> written(ts.getTs()));
     }
 
     @Override
     public CompletableFuture<ULong> map(Relation parent, Relation child) {
         var m = asyncDelphi.mapRelation(RelationMap.newBuilder().setParent(of(parent)).setChild(of(child)).build());
-        return fs(m).thenApply(ts -> ULong.valueOf(ts.getTs()));
+        return fs(m).thenApply(ts -> written(ts.getTs()));
     }
 
     @Override
     public CompletableFuture<ULong> map(Subject parent, Subject child) {
         var m = asyncDelphi.mapSubject(SubjectMap.newBuilder().setParent(of(parent)).setChild(of(child)).build());
-        return fs(m).thenApply(ts -> ULong.valueOf(ts.getTs()));
+        return fs(m).thenApply(ts -> written(ts.getTs()));
     }
 
     @Override
@@ -339,23 +721,93 @@ public class OracleAdapter implements Oracle {
         }
     }
 
+    public CompletableFuture<List<Subject>> readAsync(Object... objects) {
+        var request = Objects.newBuilder().addAllObjects(Arrays.stream(objects).map(OracleAdapter::of).toList());
+        return cancellable(hedged(stub -> stub.readSubjects(request.build())), OracleAdapter::subjects);
+    }
+
+    public CompletableFuture<List<Subject>> readAsync(Relation predicate, Object... objects) {
+        var request = ObjectPredicates.newBuilder()
+                                      .setPredicate(of(predicate))
+                                      .addAllObjects(Arrays.stream(objects).map(OracleAdapter::of).toList());
+        return cancellable(hedged(stub -> stub.readSubjectsMatching(request.build())), OracleAdapter::subjects);
+    }
+
+    public CompletableFuture<List<Object>> readAsync(Relation predicate, Subject... subjects) {
+        var request = SubjectPredicates.newBuilder()
+                                       .setPredicate(of(predicate))
+                                       .addAllSubjects(Arrays.stream(subjects).map(OracleAdapter::of).toList());
+        return cancellable(hedged(stub -> stub.readObjectsMatching(request.build())), OracleAdapter::objects);
+    }
+
+    public CompletableFuture<List<Object>> readAsync(Subject... subjects) {
+        var request = Subjects.newBuilder().addAllSubjects(Arrays.stream(subjects).map(OracleAdapter::of).toList());
+        return cancellable(hedged(stub -> stub.readObjects(request.build())), OracleAdapter::objects);
+    }
+
+    public Stream<Subject> readStream(Object... objects) {
+        var request = Objects.newBuilder().addAllObjects(Arrays.stream(objects).map(OracleAdapter::of).toList());
+        return lazy(() -> syncDelphi.streamReadSubjects(request.build()), Subjects::getSubjectsList).map(
+        OracleAdapter::of);
+    }
+
+    public Stream<Subject> readStream(Relation predicate, Object... objects) {
+        var request = ObjectPredicates.newBuilder()
+                                      .setPredicate(of(predicate))
+                                      .addAllObjects(Arrays.stream(objects).map(OracleAdapter::of).toList());
+        return lazy(() -> syncDelphi.streamReadSubjectsMatching(request.build()), Subjects::getSubjectsList).map(
+        OracleAdapter::of);
+    }
+
+    public Stream<Object> readStream(Relation predicate, Subject... subjects) {
+        var request = SubjectPredicates.newBuilder()
+                                       .setPredicate(of(predicate))
+                                       .addAllSubjects(Arrays.stream(subjects).map(OracleAdapter::of).toList());
+        return lazy(() -> syncDelphi.streamReadObjectsMatching(request.build()), Objects::getObjectsList).map(
+        OracleAdapter::of);
+    }
+
+    public Stream<Object> readStream(Subject... subjects) {
+        var request = Subjects.newBuilder().addAllSubjects(Arrays.stream(subjects).map(OracleAdapter::of).toList());
+        return lazy(() -> syncDelphi.streamReadObjects(request.build()), Objects::getObjectsList).map(
+        OracleAdapter::of);
+    }
+
     @Override
     public CompletableFuture<ULong> remove(Object parent, Object child) {
         var unMap = asyncDelphi.unmapObject(ObjectMap.newBuilder().setParent(of(parent)).setChild(of(child)).build());
-        return fs(unMap).thenApply(ts -> ULong.valueOf(ts.getTs()));
+        return fs(unMap).thenApply(ts -> written(ts.getTs()));
     }
 
     @Override
     public CompletableFuture<ULong> remove(Relation parent, Relation child) {
         var unMap = asyncDelphi.unmapRelation(
         RelationMap.newBuilder().setParent(of(parent)).setChild(of(child)).build());
-        return fs(unMap).thenApply(ts -> ULong.valueOf(ts.getTs()));
+        return fs(unMap).thenApply(ts -> written(ts.getTs()));
     }
 
     @Override
     public CompletableFuture<ULong> remove(Subject parent, Subject child) {
         var unMap = asyncDelphi.unmapSubject(SubjectMap.newBuilder().setParent(of(parent)).setChild(of(child)).build());
-        return fs(unMap).thenApply(ts -> ULong.valueOf(ts.getTs()));
+        return fs(unMap).thenApply(ts -> written(ts.getTs()));
+    }
+
+    /**
+     * Resolve the subjects and objects to numeric ids for use with {@link #checkById} and {@link #expandById}.  The ids
+     * are the row ids of the names, 0 if not present, and are used on the endpoint that resolved them, which has
+     * applied their rows
+     */
+    public Resolved resolve(List<Subject> subjects, List<Object> objects) throws SQLException {
+        var request = Names.newBuilder()
+                           .addAllSubjects(subjects.stream().map(OracleAdapter::of).toList())
+                           .addAllObjects(objects.stream().map(OracleAdapter::of).toList())
+                           .build();
+        try {
+            var resolved = pinnedSync.resolve(request);
+            return new Resolved(resolved.getEpoch(), resolved.getSubjectsList(), resolved.getObjectsList());
+        } catch (StatusRuntimeException e) {
+            throw new SQLException(e);
+        }
     }
 
     @Override
@@ -370,4 +822,141 @@ public class OracleAdapter implements Oracle {
             throw new SQLException(e);
         }
     }
+
+    public CompletableFuture<List<Subject>> subjectsAsync(Relation predicate, Object object) {
+        var request = ObjectPredicate.newBuilder().setPredicate(of(predicate)).setObject(of(object)).build();
+        return cancellable(hedged(stub -> stub.subjects(request)), OracleAdapter::subjects);
+    }
+
+    /**
+     * Lazily stream the subjects matching the predicate, without materializing the result set
+     */
+    public Stream<Subject> subjectsStream(Relation predicate, Object object) {
+        var request = ObjectPredicate.newBuilder().setPredicate(of(predicate)).setObject(of(object)).build();
+        return lazy(() -> syncDelphi.streamSubjects(request), Subjects::getSubjectsList).map(OracleAdapter::of);
+    }
+
+    /**
+     * Watch the mutations committed at or after the timestamp.  The stream does not end until it is closed or the
+     * watch fails
+     */
+    public Stream<WatchEvent> watch(ULong from) {
+        var request = WatchRequest.newBuilder().setFrom(from.longValue()).build();
+        return lazy(() -> syncDelphi.watch(request), List::of);
+    }
+
+    /**
+     * Apply the mutations as a single transaction
+     *
+     * @return the commit timestamp of the batch
+     */
+    public CompletableFuture<ULong> write(List<Mutation> mutations) {
+        var batch = WriteBatch.newBuilder().addAllMutations(mutations.stream().map(Mutation::mutation_).toList());
+        return fs(asyncDelphi.writeBatch(batch.build())).thenApply(ts -> written(ts.getTs()));
+    }
+
+    /**
+     * Note the commit timestamp of a mutation made through this adapter, discarding the cached decisions.  Concurrent
+     * writes may complete out of commit order, so every write invalidates, not just those with a newer timestamp
+     */
+    private ULong written(long ts) {
+        advance(ULong.valueOf(ts));
+        if (cached != null) {
+            epoch.incrementAndGet();
+            cached.invalidateAll();
+        }
+        return ULong.valueOf(ts);
+    }
+
+    /**
+     * The numeric ids of resolved subjects and objects, in the order requested
+     */
+    public record Resolved(long epoch, List<Long> subjects, List<Long> objects) {
+    }
+
+    /**
+     * A single mutation of a batched write
+     */
+    public record Mutation(Mutation_ mutation_) {
+        public static Mutation add(Assertion assertion) {
+            return new Mutation(Mutation_.newBuilder().setAddAssertion(of(assertion)).build());
+        }
+
+        public static Mutation add(Namespace namespace) {
+            return new Mutation(Mutation_.newBuilder().setAddNamespace(of(namespace)).build());
+        }
+
+        public static Mutation add(Object object) {
+            return new Mutation(Mutation_.newBuilder().setAddObject(of(object)).build());
+        }
+
+        public static Mutation add(Relation relation) {
+            return new Mutation(Mutation_.newBuilder().setAddRelation(of(relation)).build());
+        }
+
+        public static Mutation add(Subject subject) {
+            return new Mutation(Mutation_.newBuilder().setAddSubject(of(subject)).build());
+        }
+
+        public static Mutation delete(Assertion assertion) {
+            return new Mutation(Mutation_.newBuilder().setDeleteAssertion(of(assertion)).build());
+        }
+
+        public static Mutation delete(Namespace namespace) {
+            return new Mutation(Mutation_.newBuilder().setDeleteNamespace(of(namespace)).build());
+        }
+
+        public static Mutation delete(Object object) {
+            return new Mutation(Mutation_.newBuilder().setDeleteObject(of(object)).build());
+        }
+
+        public static Mutation delete(Relation relation) {
+            return new Mutation(Mutation_.newBuilder().setDeleteRelation(of(relation)).build());
+        }
+
+        public static Mutation delete(Subject subject) {
+            return new Mutation(Mutation_.newBuilder().setDeleteSubject(of(subject)).build());
+        }
+
+        public static Mutation map(Object parent, Object child) {
+            return new Mutation(Mutation_.newBuilder()
+                                         .setMapObject(ObjectMap.newBuilder().setParent(of(parent)).setChild(of(child)))
+                                         .build());
+        }
+
+        public static Mutation map(Relation parent, Relation child) {
+            return new Mutation(Mutation_.newBuilder()
+                                         .setMapRelation(
+                                         RelationMap.newBuilder().setParent(of(parent)).setChild(of(child)))
+                                         .build());
+        }
+
+        public static Mutation map(Subject parent, Subject child) {
+            return new Mutation(Mutation_.newBuilder()
+                                         .setMapSubject(
+                                         SubjectMap.newBuilder().setParent(of(parent)).setChild(of(child)))
+                                         .build());
+        }
+
+        public static Mutation remove(Object parent, Object child) {
+            return new Mutation(Mutation_.newBuilder()
+                                         .setUnmapObject(
+                                         ObjectMap.newBuilder().setParent(of(parent)).setChild(of(child)))
+                                         .build());
+        }
+
+        public static Mutation remove(Relation parent, Relation child) {
+            return new Mutation(Mutation_.newBuilder()
+                                         .setUnmapRelation(
+                                         RelationMap.newBuilder().setParent(of(parent)).setChild(of(child)))
+                                         .build());
+        }
+
+        public static Mutation remove(Subject parent, Subject child) {
+            return new Mutation(Mutation_.newBuilder()
+                                         .setUnmapSubject(
+                                         SubjectMap.newBuilder().setParent(of(parent)).setChild(of(child)))
+                                         .build());
+        }
+    }
 }
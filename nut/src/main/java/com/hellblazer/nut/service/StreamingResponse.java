@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2024 Hal Hildebrand. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ *  more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.hellblazer.nut.service;
+
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.StreamObserver;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Streams results to a server call in bounded chunks.  Chunks are only produced while the transport is ready, so the
+ * response messages buffered by the transport are bounded by flow control rather than the size of the result set.
+ * The results themselves are held as the iterator holds them: a lazy iterator, such as Geb's per chunk lookups or a
+ * {@link Cursor} over Delphi's direct reads, holds only the chunk being sent, while an iterator over a materialized
+ * list, such as the Oracle's expansions, holds the full result set until the response completes.
+ *
+ * @author hal.hildebrand
+ **/
+public class StreamingResponse<T, M> {
+    private final Iterator<T>                 results;
+    private final int                         chunkSize;
+    private final Function<List<T>, M>        chunk;
+    private final ServerCallStreamObserver<M> observer;
+    private final Runnable                    onClose;
+    private       boolean                     closed;
+
+    private StreamingResponse(Iterator<T> results, int chunkSize, Function<List<T>, M> chunk,
+                              ServerCallStreamObserver<M> observer, Runnable onClose) {
+        this.results = results;
+        this.chunkSize = chunkSize;
+        this.chunk = chunk;
+        this.observer = observer;
+        this.onClose = onClose;
+    }
+
+    public static <T, M> void send(Iterator<T> results, int chunkSize, Function<List<T>, M> chunk,
+                                   StreamObserver<M> responseObserver) {
+        send(results, chunkSize, chunk, responseObserver, () -> {
+        });
+    }
+
+    /**
+     * Send the results in chunks of at most chunkSize elements
+     *
+     * @param results          - the results to send
+     * @param chunkSize        - the maximum number of results per response message
+     * @param chunk            - builds the response message for a chunk of results
+     * @param responseObserver - the server call's observer
+     * @param onClose          - run once the results are exhausted, fail or the call is cancelled
+     */
+    public static <T, M> void send(Iterator<T> results, int chunkSize, Function<List<T>, M> chunk,
+                                   StreamObserver<M> responseObserver, Runnable onClose) {
+        var response = new StreamingResponse<>(results, chunkSize, chunk,
+                                               (ServerCallStreamObserver<M>) responseObserver, onClose);
+        response.observer.setOnCancelHandler(response::close);
+        response.observer.setOnReadyHandler(response::drain);
+        response.drain();
+    }
+
+    private synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        onClose.run();
+    }
+
+    private synchronized void drain() {
+        if (closed) {
+            return;
+        }
+        try {
+            while (observer.isReady() && results.hasNext()) {
+                var next = new ArrayList<T>(chunkSize);
+                while (next.size() < chunkSize && results.hasNext()) {
+                    next.add(results.next());
+                }
+                observer.onNext(chunk.apply(next));
+            }
+            if (!results.hasNext()) {
+                close();
+                observer.onCompleted();
+            }
+        } catch (Throwable t) {
+            close();
+            observer.onError(t);
+        }
+    }
+}
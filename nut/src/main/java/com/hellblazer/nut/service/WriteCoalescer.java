@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2024 Hal Hildebrand. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ *  more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.hellblazer.nut.service;
+
+import com.hellblazer.delphi.v1.proto.Mutation_;
+import com.hellblazer.delphi.v1.proto.WriteBatch;
+import com.hellblazer.nut.internal.v1.proto.Committed;
+
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Coalesces the single mutations of concurrent callers into shared write batches.  Mutations arriving within the
+ * window of the first pending mutation, up to the maximum batch size, are submitted as a single transaction and every
+ * caller is answered with the shared commit timestamp, and whether its own assertion was already present.
+ * <p>
+ * A failing mutation aborts the entire transaction, so a batch that failed to apply is resubmitted one mutation at a
+ * time, confining the failure to the callers whose mutations actually fail.  Any other failure, such as a timeout or
+ * cancellation, leaves the outcome of the batch unknown - it may yet commit - so it fails every caller rather than risk
+ * applying their mutations twice.
+ *
+ * @author hal.hildebrand
+ **/
+class WriteCoalescer {
+    private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+    Thread.ofVirtual().factory());
+
+    private final Function<WriteBatch, CompletableFuture<Committed>> submitter;
+    private final Duration                                           window;
+    private final int                                                maxMutations;
+    private       List<Pending>                                      pending = new ArrayList<>();
+    private       ScheduledFuture<?>                                 timer;
+
+    WriteCoalescer(Function<WriteBatch, CompletableFuture<Committed>> submitter, Duration window, int maxMutations) {
+        this.submitter = submitter;
+        this.window = window;
+        this.maxMutations = maxMutations;
+    }
+
+    /**
+     * @return true if the batch failed to apply, and so was rolled back, rather than failing to report its outcome
+     */
+    private static boolean failedToApply(Throwable t) {
+        var cause = t instanceof CompletionException || t instanceof ExecutionException ? t.getCause() : t;
+        return cause instanceof SQLException;
+    }
+
+    /**
+     * @return the committed result of the mutation at the index of the batch
+     */
+    private static Committed of(Committed batch, int index) {
+        var committed = Committed.newBuilder().setTs(batch.getTs());
+        if (batch.getPresentList().contains(index)) {
+            committed.addPresent(0);
+        }
+        return committed.build();
+    }
+
+    /**
+     * @return the committed result of the mutation, with the commit timestamp of the batch it was coalesced into
+     */
+    CompletableFuture<Committed> submit(Mutation_ mutation) {
+        var result = new CompletableFuture<Committed>();
+        List<Pending> full = null;
+        synchronized (this) {
+            pending.add(new Pending(mutation, result));
+            if (pending.size() >= maxMutations) {
+                full = drain();
+            } else if (pending.size() == 1) {
+                timer = scheduler.schedule(this::flush, window.toNanos(), TimeUnit.NANOSECONDS);
+            }
+        }
+        if (full != null) {
+            submit(full);
+        }
+        return result;
+    }
+
+    private List<Pending> drain() {
+        var drained = pending;
+        pending = new ArrayList<>();
+        if (timer != null) {
+            timer.cancel(false);
+            timer = null;
+        }
+        return drained;
+    }
+
+    private void flush() {
+        List<Pending> batch;
+        synchronized (this) {
+            batch = drain();
+        }
+        if (!batch.isEmpty()) {
+            submit(batch);
+        }
+    }
+
+    private void submit(List<Pending> batch) {
+        var writeBatch = WriteBatch.newBuilder();
+        batch.forEach(p -> writeBatch.addMutations(p.mutation));
+        submitter.apply(writeBatch.build()).whenComplete((committed, t) -> {
+            if (t == null) {
+                for (int i = 0; i < batch.size(); i++) {
+                    batch.get(i).completed(of(committed, i), null);
+                }
+            } else if (batch.size() == 1 || !failedToApply(t)) {
+                batch.forEach(p -> p.completed(null, t));
+            } else {
+                for (var p : batch) {
+                    var single = WriteBatch.newBuilder().addMutations(p.mutation).build();
+                    submitter.apply(single).whenComplete(p::completed);
+                }
+            }
+        });
+    }
+
+    private record Pending(Mutation_ mutation, CompletableFuture<Committed> result) {
+        private void completed(Committed committed, Throwable t) {
+            if (t == null) {
+                result.complete(committed);
+            } else {
+                result.completeExceptionally(t);
+            }
+        }
+    }
+}
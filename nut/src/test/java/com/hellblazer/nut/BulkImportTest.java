@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2024 Hal Hildebrand. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ *  more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.hellblazer.nut;
+
+import com.hellblazer.delos.delphinius.Oracle;
+import com.hellblazer.nut.service.OracleAdapter.Mutation;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * @author hal.hildebrand
+ **/
+public class BulkImportTest {
+
+    @Test
+    public void batches() {
+        var mutations = new ArrayList<Mutation>();
+        for (int i = 0; i < 7; i++) {
+            mutations.add(Mutation.add(Oracle.namespace("ns" + i)));
+        }
+        var batches = BulkImport.batches(mutations, 3);
+        assertEquals(mutations.subList(0, 3), batches.next());
+        assertEquals(mutations.subList(3, 6), batches.next());
+        assertEquals(mutations.subList(6, 7), batches.next());
+        assertFalse(batches.hasNext());
+    }
+
+    @Test
+    public void csv() throws Exception {
+        var csv = """
+        type,subject,target
+        member,my-org:Jale,my-org:Admins#member
+        # comment
+
+        grant,my-org:Admins#member,Document:123#View
+        member,my-org:Jale,my-org:Admins#member
+        """;
+        var tuples = BulkImport.read(new BufferedReader(new StringReader(csv)), BulkImport.Format.CSV);
+        assertEquals(2, tuples.size());
+
+        var ns = Oracle.namespace("my-org");
+        var doc = Oracle.namespace("Document");
+        var admins = ns.subject("Admins", ns.relation("member"));
+        var expected = List.of(Mutation.add(admins.assertion(doc.object("123", doc.relation("View")))),
+                               Mutation.map(ns.subject("Jale"), admins));
+        assertEquals(expected, new ArrayList<>(tuples.values()));
+    }
+
+    @Test
+    public void ndjson() throws Exception {
+        var ndjson = """
+        {"type": "member", "subject": "my-org:Jale", "target": "my-org:Admins#member"}
+        {"type": "member", "subject": "my-org:Egin", "target": "my-org:Admins#member"}
+        """;
+        var tuples = BulkImport.read(new BufferedReader(new StringReader(ndjson)), BulkImport.Format.NDJSON);
+        assertEquals(2, tuples.size());
+
+        var invalid = """
+        {"type": "grant", "subject": "my-org:Jale", "target": "Document:123"}
+        """;
+        assertThrows(IllegalArgumentException.class,
+                     () -> BulkImport.read(new BufferedReader(new StringReader(invalid)), BulkImport.Format.NDJSON));
+    }
+}
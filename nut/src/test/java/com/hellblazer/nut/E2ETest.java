@@ -166,6 +166,9 @@ public class E2ETest {
         // Users can View Document 123
         Oracle.Assertion tuple = userMembers.assertion(object123View);
         var t1 = retryNesting(() -> oracle.add(tuple), 3).get(120, TimeUnit.SECONDS);
+        assertTrue(t1.added());
+        // the assertion is visible at its own commit timestamp
+        assertTrue(oracle.check(tuple, t1.ts()));
 
         // Direct subjects that can View the document
         var viewers = oracle.read(object123View);
@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2024 Hal Hildebrand. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ *  more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.hellblazer.nut.comms;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.BytesValue;
+import com.hellblazer.delphi.v1.proto.AssertionAt;
+import com.hellblazer.delphi.v1.proto.AssertionCheck;
+import com.hellblazer.delphi.v1.proto.Oracle_Grpc;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author hal.hildebrand
+ **/
+public class CompressionPolicyTest {
+    private static final Metadata.Key<String> ACCEPT_ENCODING = Metadata.Key.of("grpc-accept-encoding",
+                                                                                 Metadata.ASCII_STRING_MARSHALLER);
+    private static final String               SERVICE         = Oracle_Grpc.getCheckMethod().getServiceName();
+
+    private final ServerCall<AssertionAt, Object>        call    = call();
+    private final ServerCallHandler<AssertionAt, Object> handler = handler();
+
+    private static Metadata accepting(String encodings) {
+        var headers = new Metadata();
+        if (encodings != null) {
+            headers.put(ACCEPT_ENCODING, encodings);
+        }
+        return headers;
+    }
+
+    private static BytesValue bytes(int size) {
+        return BytesValue.of(ByteString.copyFrom(new byte[size]));
+    }
+
+    @Test
+    public void acceptEncoding() {
+        for (var encodings : new String[] { null, "identity", "deflate, identity", "gzipped" }) {
+            var policy = new CompressionPolicy(0, Map.of(), null);
+            var headers = accepting(encodings);
+            policy.interceptCall(call, headers, handler);
+            // the call is passed through untouched
+            verify(handler).startCall(call, headers);
+        }
+        verify(call, never()).setCompression(anyString());
+
+        for (var encodings : new String[] { "gzip", "identity,gzip", "deflate, gzip , identity" }) {
+            var accepted = call();
+            var compressed = start(new CompressionPolicy(0, Map.of(), null), accepted, accepting(encodings));
+            compressed.sendMessage(bytes(1));
+            verify(accepted).setCompression(CompressionPolicy.GZIP);
+            verify(accepted).setMessageCompression(true);
+        }
+    }
+
+    @Test
+    public void metrics() {
+        var metrics = new MetricRegistry();
+        var sent = start(new CompressionPolicy(100, Map.of(), metrics), call, accepting("gzip"));
+        sent.sendMessage(bytes(10));
+        sent.sendMessage(bytes(200));
+        sent.sendMessage(bytes(300));
+        assertEquals(1, metrics.meter("compression.check.skipped").getCount());
+        assertEquals(2, metrics.timer("compression.check.compressed").getCount());
+    }
+
+    @Test
+    public void serviceThreshold() {
+        var disabled = new CompressionPolicy(0, Map.of(SERVICE, -1), null);
+        var headers = accepting("gzip");
+        disabled.interceptCall(call, headers, handler);
+        verify(handler).startCall(call, headers);
+        verify(call, never()).setCompression(anyString());
+
+        var lowered = start(new CompressionPolicy(1024, Map.of(SERVICE, 10), null), call, accepting("gzip"));
+        lowered.sendMessage(bytes(100));
+        verify(call).setMessageCompression(true);
+    }
+
+    @Test
+    public void threshold() {
+        var sent = start(new CompressionPolicy(), call, accepting("gzip"));
+        verify(call).setCompression(CompressionPolicy.GZIP);
+
+        var small = AssertionCheck.newBuilder().setResult(true).build();
+        sent.sendMessage(small);
+        verify(call).setMessageCompression(false);
+        verify(call).sendMessage(small);
+
+        var large = bytes(CompressionPolicy.DEFAULT_THRESHOLD);
+        sent.sendMessage(large);
+        verify(call).setMessageCompression(true);
+        verify(call).sendMessage(large);
+    }
+
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    private ServerCall<AssertionAt, Object> call() {
+        ServerCall<AssertionAt, Object> call = mock(ServerCall.class);
+        when(call.getMethodDescriptor()).thenReturn((MethodDescriptor) Oracle_Grpc.getCheckMethod());
+        return call;
+    }
+
+    @SuppressWarnings("unchecked")
+    private ServerCallHandler<AssertionAt, Object> handler() {
+        return mock(ServerCallHandler.class);
+    }
+
+    /**
+     * @return the call the policy started in place of the call
+     */
+    @SuppressWarnings("unchecked")
+    private ServerCall<AssertionAt, Object> start(CompressionPolicy policy, ServerCall<AssertionAt, Object> call,
+                                                  Metadata headers) {
+        var handler = handler();
+        policy.interceptCall(call, headers, handler);
+        ArgumentCaptor<ServerCall<AssertionAt, Object>> started = ArgumentCaptor.forClass(ServerCall.class);
+        verify(handler).startCall(started.capture(), any());
+        return started.getValue();
+    }
+}
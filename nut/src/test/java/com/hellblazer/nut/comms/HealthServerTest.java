@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2024 Hal Hildebrand. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ *  more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.hellblazer.nut.comms;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author hal.hildebrand
+ **/
+public class HealthServerTest {
+
+    @Test
+    public void smokin() throws Exception {
+        var ready = new AtomicBoolean();
+        var metrics = new MetricRegistry();
+        metrics.counter("delphi.check.inFlight").inc();
+        metrics.timer("delphi.check.latency").update(Duration.ofMillis(2));
+        metrics.histogram("delphi.check.responseSize").update(40);
+
+        var server = new HealthServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), () -> true,
+                                      ready::get, metrics);
+        server.start();
+        try (var client = HttpClient.newHttpClient()) {
+            var base = "http://localhost:%s".formatted(server.getAddress().getPort());
+
+            assertEquals(200, get(client, base + "/live").statusCode());
+            assertEquals(503, get(client, base + "/ready").statusCode());
+            ready.set(true);
+            assertEquals(200, get(client, base + "/ready").statusCode());
+
+            var scraped = get(client, base + "/metrics");
+            assertEquals(200, scraped.statusCode());
+            assertTrue(scraped.body().contains("delphi_check_inFlight 1.0"), scraped.body());
+            assertTrue(scraped.body().contains("delphi_check_latency_seconds_count 1.0"), scraped.body());
+            // summaries carry a sum alongside their count, so that rates of the mean can be derived
+            assertTrue(scraped.body().contains("delphi_check_latency_seconds_sum 0.002"), scraped.body());
+            assertTrue(scraped.body().contains("delphi_check_responseSize_sum 40.0"), scraped.body());
+            assertTrue(scraped.body().contains("delphi_check_responseSize_count 1.0"), scraped.body());
+        } finally {
+            server.stop();
+        }
+    }
+
+    private HttpResponse<String> get(HttpClient client, String uri) throws Exception {
+        return client.send(HttpRequest.newBuilder(URI.create(uri)).GET().build(), HttpResponse.BodyHandlers.ofString());
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2024 Hal Hildebrand. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ *  more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.hellblazer.nut.comms;
+
+import com.hellblazer.delphi.v1.proto.AssertionAt;
+import com.hellblazer.delphi.v1.proto.AssertionCheck;
+import com.hellblazer.delphi.v1.proto.Oracle_Grpc;
+import com.hellblazer.delphi.v1.proto.WatchEvent;
+import com.hellblazer.delphi.v1.proto.WatchRequest;
+import com.netflix.concurrency.limits.limit.FixedLimit;
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.ServerInterceptors;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author hal.hildebrand
+ **/
+public class PerMethodLimitInterceptorTest {
+    private Server         server;
+    private ManagedChannel channel;
+
+    @AfterEach
+    public void after() {
+        if (channel != null) {
+            channel.shutdownNow();
+        }
+        if (server != null) {
+            server.shutdownNow();
+        }
+    }
+
+    @Test
+    public void streamsNotLimited() throws Exception {
+        var entered = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+        var oracle = new Oracle_Grpc.Oracle_ImplBase() {
+            @Override
+            public void check(AssertionAt request, StreamObserver<AssertionCheck> responseObserver) {
+                entered.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                responseObserver.onNext(AssertionCheck.newBuilder().setResult(true).build());
+                responseObserver.onCompleted();
+            }
+
+            @Override
+            public void watch(WatchRequest request, StreamObserver<WatchEvent> responseObserver) {
+                responseObserver.onNext(WatchEvent.newBuilder().setTs(request.getFrom()).build());
+                responseObserver.onCompleted();
+            }
+        };
+        var name = UUID.randomUUID().toString();
+        server = InProcessServerBuilder.forName(name)
+                                       .addService(ServerInterceptors.intercept(oracle, new PerMethodLimitInterceptor(
+                                       () -> FixedLimit.of(1))))
+                                       .build()
+                                       .start();
+        channel = InProcessChannelBuilder.forName(name).usePlaintext().build();
+
+        var held = Oracle_Grpc.newFutureStub(channel).check(AssertionAt.getDefaultInstance());
+        assertTrue(entered.await(10, TimeUnit.SECONDS));
+
+        // the unary method is at its limit
+        var stub = Oracle_Grpc.newBlockingStub(channel);
+        var rejected = assertThrows(StatusRuntimeException.class, () -> stub.check(AssertionAt.getDefaultInstance()));
+        assertEquals(Status.Code.UNAVAILABLE, rejected.getStatus().getCode());
+
+        // streams are not counted against any limit
+        for (int i = 0; i < 3; i++) {
+            var events = stub.watch(WatchRequest.newBuilder().setFrom(i).build());
+            assertEquals(i, events.next().getTs());
+        }
+
+        release.countDown();
+        assertTrue(held.get(10, TimeUnit.SECONDS).getResult());
+        assertTrue(stub.check(AssertionAt.getDefaultInstance()).getResult());
+    }
+}
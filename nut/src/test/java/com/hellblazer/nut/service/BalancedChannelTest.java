@@ -0,0 +1,185 @@
+/*
+ * Copyright (c) 2024 Hal Hildebrand. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ *  more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.hellblazer.nut.service;
+
+import com.hellblazer.delphi.v1.proto.AssertionAt;
+import com.hellblazer.delphi.v1.proto.AssertionCheck;
+import com.hellblazer.delphi.v1.proto.Oracle_Grpc;
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.ManagedChannel;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+import io.grpc.inprocess.InProcessSocketAddress;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.net.SocketAddress;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author hal.hildebrand
+ **/
+public class BalancedChannelTest {
+    private static final SocketAddress                                 A     = new InProcessSocketAddress("a");
+    private static final SocketAddress                                 B     = new InProcessSocketAddress("b");
+    private static final MethodDescriptor<AssertionAt, AssertionCheck> CHECK = Oracle_Grpc.getCheckMethod();
+
+    private final AtomicReference<List<SocketAddress>> endpoints = new AtomicReference<>(List.of(A, B));
+    private final AtomicReference<SocketAddress>       last      = new AtomicReference<>();
+    private final AtomicReference<ClientCall<?, ?>>    made      = new AtomicReference<>();
+    private       BalancedChannel                      balanced;
+
+    @AfterEach
+    public void after() {
+        if (balanced != null) {
+            balanced.shutdown(Duration.ZERO);
+        }
+    }
+
+    @Test
+    public void avoid() {
+        balanced = balanced(Duration.ofHours(1));
+        start(balanced, CallOptions.DEFAULT.withOption(BalancedChannel.AVOID, A));
+        start(balanced, CallOptions.DEFAULT.withOption(BalancedChannel.AVOID, A));
+        assertEquals(B, last.get());
+
+        // the avoided endpoint is not chosen, even with fewer outstanding calls
+        start(balanced, CallOptions.DEFAULT.withOption(BalancedChannel.AVOID, A));
+        assertEquals(B, last.get());
+        start(balanced, CallOptions.DEFAULT.withOption(BalancedChannel.AVOID, B));
+        assertEquals(A, last.get());
+
+        // unless it is the only live endpoint
+        endpoints.set(List.of(A));
+        var single = balanced(Duration.ofHours(1));
+        try {
+            start(single, CallOptions.DEFAULT.withOption(BalancedChannel.AVOID, A));
+            assertEquals(A, last.get());
+        } finally {
+            single.shutdown(Duration.ZERO);
+        }
+    }
+
+    @Test
+    public void leastOutstanding() {
+        balanced = balanced(Duration.ofHours(1));
+        var first = start(balanced, CallOptions.DEFAULT);
+        var x = last.get();
+        var second = start(balanced, CallOptions.DEFAULT);
+        var y = last.get();
+        assertNotEquals(x, y);
+
+        close(second);
+        var third = start(balanced, CallOptions.DEFAULT);
+        assertEquals(y, last.get());
+
+        close(first);
+        var routed = new AtomicReference<SocketAddress>();
+        start(balanced, CallOptions.DEFAULT.withOption(BalancedChannel.ROUTED, routed));
+        assertEquals(x, last.get());
+        // the endpoint chosen is recorded
+        assertEquals(x, routed.get());
+
+        close(third);
+        // a call cancelled before it starts is no longer outstanding
+        balanced.newCall(CHECK, CallOptions.DEFAULT).cancel("cancelled", null);
+        assertEquals(y, last.get());
+        balanced.newCall(CHECK, CallOptions.DEFAULT);
+        assertEquals(y, last.get());
+    }
+
+    @Test
+    public void pinned() throws Exception {
+        balanced = balanced(Duration.ofMillis(10));
+        for (int i = 0; i < 5; i++) {
+            start(balanced.pinned(), CallOptions.DEFAULT);
+            assertEquals(A, last.get());
+            // balanced calls do not move the pin
+            start(balanced, CallOptions.DEFAULT);
+        }
+
+        // the pin moves only when its endpoint departs
+        endpoints.set(List.of(B));
+        var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        do {
+            Thread.sleep(10);
+            balanced.pinned().newCall(CHECK, CallOptions.DEFAULT).cancel("moved?", null);
+        } while (!B.equals(last.get()) && System.nanoTime() < deadline);
+        assertEquals(B, last.get());
+
+        endpoints.set(List.of(A, B));
+        Thread.sleep(100);
+        for (int i = 0; i < 5; i++) {
+            start(balanced.pinned(), CallOptions.DEFAULT);
+            assertEquals(B, last.get());
+        }
+    }
+
+    private BalancedChannel balanced(Duration refresh) {
+        return new BalancedChannel(endpoints::get, this::connect, refresh);
+    }
+
+    /**
+     * Close the started call, as its server would
+     */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    private void close(ClientCall<AssertionAt, AssertionCheck> delegate) {
+        ArgumentCaptor<ClientCall.Listener> listener = ArgumentCaptor.forClass(ClientCall.Listener.class);
+        verify(delegate).start(listener.capture(), any());
+        listener.getValue().onClose(Status.OK, new Metadata());
+    }
+
+    /**
+     * @return a channel to the endpoint recording the address of the endpoint each call is sent to
+     */
+    @SuppressWarnings("unchecked")
+    private ManagedChannel connect(SocketAddress address) {
+        var channel = mock(ManagedChannel.class);
+        when(channel.newCall(any(), any())).thenAnswer(invocation -> {
+            last.set(address);
+            made.set(mock(ClientCall.class));
+            return made.get();
+        });
+        return channel;
+    }
+
+    /**
+     * Start a call on the channel
+     *
+     * @return the call made on the channel of the endpoint it was sent to
+     */
+    @SuppressWarnings("unchecked")
+    private ClientCall<AssertionAt, AssertionCheck> start(Channel channel, CallOptions options) {
+        channel.newCall(CHECK, options).start(mock(ClientCall.Listener.class), new Metadata());
+        return (ClientCall<AssertionAt, AssertionCheck>) made.get();
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2024 Hal Hildebrand. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ *  more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.hellblazer.nut.service;
+
+import com.hellblazer.delphi.v1.proto.BulkImported;
+import com.hellblazer.delphi.v1.proto.Mutation_;
+import com.hellblazer.delphi.v1.proto.WriteBatch;
+import com.hellblazer.nut.internal.v1.proto.Committed;
+import io.grpc.stub.ServerCallStreamObserver;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+/**
+ * @author hal.hildebrand
+ **/
+public class BatchImportTest {
+    private final List<CompletableFuture<Committed>>     submitted = new ArrayList<>();
+    private final ServerCallStreamObserver<BulkImported> call      = call();
+    private final BatchImport                            imported  = new BatchImport(batch -> {
+        var committed = new CompletableFuture<Committed>();
+        submitted.add(committed);
+        return committed;
+    }, call);
+
+    private static WriteBatch batch(int mutations) {
+        var batch = WriteBatch.newBuilder();
+        for (int i = 0; i < mutations; i++) {
+            batch.addMutations(Mutation_.getDefaultInstance());
+        }
+        return batch.build();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ServerCallStreamObserver<BulkImported> call() {
+        return mock(ServerCallStreamObserver.class);
+    }
+
+    private static Committed committed(long ts) {
+        return Committed.newBuilder().setTs(ts).build();
+    }
+
+    @Test
+    public void cancelled() {
+        imported.onNext(batch(1));
+        imported.onError(new RuntimeException("cancelled"));
+        submitted.getFirst().complete(committed(10));
+        imported.onNext(batch(1));
+
+        assertEquals(1, submitted.size());
+        verify(call, never()).request(1);
+        verify(call, never()).onNext(any());
+        verify(call, never()).onError(any());
+    }
+
+    @Test
+    public void failure() {
+        imported.onNext(batch(1));
+        imported.onNext(batch(1));
+        imported.onNext(batch(1));
+
+        var failure = new IllegalStateException("failed");
+        submitted.get(1).completeExceptionally(failure);
+        verify(call).onError(failure);
+
+        // the batches in flight commit, unreported, and no further batches are requested or submitted
+        submitted.get(0).complete(committed(10));
+        submitted.get(2).complete(committed(30));
+        imported.onNext(batch(1));
+        imported.onCompleted();
+        assertEquals(3, submitted.size());
+        verify(call, never()).request(1);
+        verify(call, times(1)).onError(any());
+        verify(call, never()).onNext(any());
+        verify(call, never()).onCompleted();
+    }
+
+    @Test
+    public void window() {
+        verify(call).disableAutoRequest();
+        verify(call).request(Delphi.IMPORT_WINDOW);
+        for (int i = 0; i < Delphi.IMPORT_WINDOW; i++) {
+            imported.onNext(batch(i + 1));
+        }
+        // no further batch is requested until a batch in flight commits
+        verify(call, never()).request(1);
+
+        submitted.get(1).complete(committed(20));
+        verify(call, times(1)).request(1);
+
+        // an empty batch is not submitted, and its place in the window is requested again at once
+        imported.onNext(batch(0));
+        assertEquals(Delphi.IMPORT_WINDOW, submitted.size());
+        verify(call, times(2)).request(1);
+
+        imported.onCompleted();
+        submitted.get(3).complete(committed(40));
+        submitted.get(0).complete(committed(10));
+        // not done until every batch in flight has committed
+        verify(call, never()).onNext(any());
+
+        submitted.get(2).complete(committed(30));
+        verify(call).onNext(BulkImported.newBuilder().setBatches(4).setMutations(1 + 2 + 3 + 4).setTs(40).build());
+        verify(call).onCompleted();
+        verify(call, never()).onError(any());
+    }
+}
@@ -0,0 +1,235 @@
+/*
+ * Copyright (c) 2024 Hal Hildebrand. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ *  more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.hellblazer.nut.service;
+
+import com.hellblazer.delphi.v1.proto.Mutation_;
+import com.hellblazer.delphi.v1.proto.Namespace_;
+import com.hellblazer.delphi.v1.proto.WatchEvent;
+import io.grpc.Status;
+import io.grpc.stub.ServerCallStreamObserver;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author hal.hildebrand
+ **/
+public class ChangeFeedTest {
+    private static void clock(Connection connection, long ts) throws SQLException {
+        try (var statement = connection.prepareStatement("update nut.clock set ts = ?")) {
+            statement.setLong(1, ts);
+            statement.executeUpdate();
+        }
+    }
+
+    private static Status.Code failure(ServerCallStreamObserver<WatchEvent> observer) {
+        var captor = ArgumentCaptor.forClass(Throwable.class);
+        verify(observer, timeout(10_000)).onError(captor.capture());
+        return Status.fromThrowable(captor.getValue()).getCode();
+    }
+
+    private static List<Mutation_> mutations(String name) {
+        return List.of(Mutation_.newBuilder().setAddNamespace(Namespace_.newBuilder().setName(name)).build());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ServerCallStreamObserver<WatchEvent> observer() {
+        ServerCallStreamObserver<WatchEvent> observer = mock(ServerCallStreamObserver.class);
+        when(observer.isReady()).thenReturn(true);
+        return observer;
+    }
+
+    @Test
+    public void clock() throws Exception {
+        var feed = new ChangeFeed(100);
+        try (var connection = TestSchema.connection()) {
+            feed.start(connection, Duration.ofMillis(1));
+            feed.stage(0, 10, mutations("a"));
+            assertFalse(feed.await(10, Duration.ofMillis(50)));
+
+            clock(connection, 10);
+            assertTrue(feed.await(10, Duration.ofSeconds(10)));
+            assertEquals(10, feed.watermark());
+        } finally {
+            feed.stop();
+        }
+    }
+
+    @Test
+    public void clockAdvancedOutsideFeed() throws Exception {
+        var feed = new ChangeFeed(100);
+        var reset = new CompletableFuture<Long>();
+        feed.addResetListener(reset::complete);
+        try (var connection = TestSchema.connection()) {
+            feed.start(connection, Duration.ofMillis(1));
+            // commits not staged through the feed, such as those applied by a checkpoint, advance the watermark
+            clock(connection, 50);
+            assertTrue(feed.await(50, Duration.ofSeconds(10)));
+            assertEquals(50, feed.watermark());
+            // and are opaque, as their mutations are unknown
+            assertEquals(50L, reset.get(10, TimeUnit.SECONDS));
+        } finally {
+            feed.stop();
+        }
+    }
+
+    @Test
+    public void opaque() {
+        var feed = new ChangeFeed(100);
+        var published = new ArrayList<Long>();
+        var resets = new ArrayList<Long>();
+        feed.addListener((ts, mutations) -> published.add(ts));
+        feed.addResetListener(resets::add);
+
+        // an opaque transaction, such as a token provisioning, resets rather than publishing mutations
+        feed.stage(0, 10, mutations("a"));
+        feed.stage(10, 11);
+        feed.stage(11, 20, mutations("b"));
+        feed.confirm(20);
+        assertEquals(List.of(10L, 20L), published);
+        assertEquals(List.of(11L), resets);
+        assertEquals(20, feed.watermark());
+
+        // as does a batch that does not follow the watermark
+        feed.stage(25, 30, mutations("c"));
+        feed.confirm(30);
+        assertEquals(List.of(10L, 20L, 30L), published);
+        assertEquals(List.of(11L, 30L), resets);
+    }
+
+    @Test
+    public void restarted() throws Exception {
+        try (var connection = TestSchema.connection()) {
+            clock(connection, 1_000);
+            // a feed reopened over an existing clock starts from it, without waiting for a new batch
+            var feed = new ChangeFeed(100);
+            try {
+                feed.start(connection, Duration.ofHours(1));
+                assertTrue(feed.applied(1_000));
+                assertFalse(feed.applied(1_001));
+                assertEquals(1_000, feed.watermark());
+            } finally {
+                feed.stop();
+            }
+        }
+    }
+
+    @Test
+    public void publishedAfterCommit() {
+        var feed = new ChangeFeed(100);
+        var published = new ArrayList<Long>();
+        feed.addListener((ts, mutations) -> published.add(ts));
+
+        feed.stage(0, 10, mutations("a"));
+        feed.stage(10, 20, mutations("b"));
+        assertFalse(feed.applied(10));
+        assertEquals(List.of(), published);
+
+        feed.confirm(10);
+        assertTrue(feed.applied(10));
+        assertFalse(feed.applied(20));
+        assertEquals(List.of(10L), published);
+
+        feed.confirm(20);
+        assertTrue(feed.applied(20));
+        assertEquals(List.of(10L, 20L), published);
+
+        // confirmations are idempotent
+        feed.confirm(20);
+        assertEquals(List.of(10L, 20L), published);
+    }
+
+    @Test
+    public void rolledBack() {
+        var feed = new ChangeFeed(100);
+        var published = new ArrayList<String>();
+        feed.addListener((ts, mutations) -> mutations.forEach(m -> published.add(m.getAddNamespace().getName())));
+
+        feed.stage(0, 10, mutations("a"));
+        feed.confirm(10);
+
+        // the transaction at 20 rolled back, so the next transaction follows 10 and may reuse its timestamp
+        feed.stage(10, 20, mutations("rolled back"));
+        feed.stage(10, 20, mutations("b"));
+        feed.stage(20, 30, mutations("c"));
+        feed.confirm(30);
+        assertEquals(List.of("a", "b", "c"), published);
+        assertEquals(30, feed.watermark());
+    }
+
+    @Test
+    public void watchBeforeStart() throws Exception {
+        try (var connection = TestSchema.connection()) {
+            clock(connection, 1_000);
+            var feed = new ChangeFeed(100);
+            try {
+                feed.start(connection, Duration.ofHours(1));
+                // the feed cannot vouch for mutations committed before it started, though its buffer has not wrapped
+                var before = observer();
+                feed.watch(1_000, before);
+                assertEquals(Status.Code.OUT_OF_RANGE, failure(before));
+
+                var after = observer();
+                feed.watch(1_001, after);
+                feed.stage(1_000, 1_001, mutations("a"));
+                feed.confirm(1_001);
+                verify(after, timeout(10_000)).onNext(any());
+                verify(after, never()).onError(any());
+            } finally {
+                feed.stop();
+            }
+        }
+    }
+
+    @Test
+    public void watchersFailedByOpaqueCommit() {
+        var feed = new ChangeFeed(100);
+        var watcher = observer();
+        feed.watch(1, watcher);
+        feed.stage(0, 10, mutations("a"));
+        feed.confirm(10);
+        verify(watcher, timeout(10_000)).onNext(any());
+
+        // the mutations of the opaque commit are unknown, so the watcher must resync
+        feed.stage(10, 11);
+        feed.confirm(11);
+        assertEquals(Status.Code.OUT_OF_RANGE, failure(watcher));
+
+        // as must a watcher starting at or before it
+        var late = observer();
+        feed.watch(11, late);
+        assertEquals(Status.Code.OUT_OF_RANGE, failure(late));
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2024 Hal Hildebrand. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ *  more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.hellblazer.nut.service;
+
+import com.hellblazer.delos.delphinius.Oracle;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author hal.hildebrand
+ **/
+public class CheckCacheTest {
+    @Test
+    public void historical() throws Exception {
+        var cache = new CheckCache(1024 * 1024, 100);
+        var assertion = assertion();
+        var evaluated = new AtomicInteger();
+
+        // not yet committed, never cached
+        assertTrue(cache.check(assertion, 10, () -> evaluated.incrementAndGet() > 0));
+        assertTrue(cache.check(assertion, 10, () -> evaluated.incrementAndGet() > 0));
+        assertEquals(2, evaluated.get());
+
+        // the watermark is published only once committed
+        cache.committed(10);
+        assertTrue(cache.check(assertion, 10, () -> evaluated.incrementAndGet() > 0));
+        assertTrue(cache.check(assertion, 10, () -> evaluated.incrementAndGet() > 0));
+        assertEquals(3, evaluated.get());
+
+        // subsequent commits do not affect historical decisions
+        cache.committed(30);
+        assertTrue(cache.check(assertion, 10, () -> evaluated.incrementAndGet() < 0));
+        assertEquals(1, cache.historicalStats().missCount());
+        assertEquals(2, cache.historicalStats().hitCount());
+    }
+
+    @Test
+    public void latest() throws Exception {
+        var cache = new CheckCache(1024 * 1024, 100);
+        var assertion = assertion();
+        var evaluated = new AtomicInteger();
+
+        assertFalse(cache.check(assertion, 0, () -> evaluated.incrementAndGet() < 0));
+        assertFalse(cache.check(assertion, 0, () -> evaluated.incrementAndGet() < 0));
+        assertEquals(1, evaluated.get());
+
+        // a commit clears the latest decisions, which are cached again once evaluated
+        cache.committed(10);
+        assertTrue(cache.check(assertion, 0, () -> evaluated.incrementAndGet() > 0));
+        assertTrue(cache.check(assertion, 0, () -> evaluated.incrementAndGet() < 0));
+        assertEquals(2, evaluated.get());
+
+        // a commit racing the evaluation must not leave a stale decision behind
+        cache.committed(20);
+        assertFalse(cache.check(assertion, 0, () -> {
+            evaluated.incrementAndGet();
+            cache.committed(30);
+            return false;
+        }));
+        assertTrue(cache.check(assertion, 0, () -> evaluated.incrementAndGet() > 0));
+        assertTrue(cache.check(assertion, 0, () -> evaluated.incrementAndGet() < 0));
+        assertEquals(4, evaluated.get());
+    }
+
+    @Test
+    public void reset() throws Exception {
+        var cache = new CheckCache(1024 * 1024, 100);
+        var assertion = assertion();
+        var evaluated = new AtomicInteger();
+        cache.committed(10);
+        assertFalse(cache.check(assertion, 0, () -> evaluated.incrementAndGet() < 0));
+        assertFalse(cache.check(assertion, 10, () -> evaluated.incrementAndGet() < 0));
+        assertEquals(2, evaluated.get());
+
+        // an opaque commit, such as a token provisioning, may have changed any decision
+        cache.reset(11);
+        assertTrue(cache.check(assertion, 0, () -> evaluated.incrementAndGet() > 0));
+        assertTrue(cache.check(assertion, 10, () -> evaluated.incrementAndGet() > 0));
+        assertEquals(4, evaluated.get());
+        assertEquals(11, cache.watermark());
+    }
+
+    private Oracle.Assertion assertion() {
+        var ns = Oracle.namespace("my-org");
+        var member = ns.relation("member");
+        var users = ns.subject("Users", member);
+        var doc = ns.object("Doc", ns.relation("viewer"));
+        return users.assertion(doc);
+    }
+}
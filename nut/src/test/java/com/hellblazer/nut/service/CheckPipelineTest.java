@@ -0,0 +1,269 @@
+/*
+ * Copyright (c) 2024 Hal Hildebrand. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ *  more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.hellblazer.nut.service;
+
+import com.hellblazer.delphi.v1.proto.AssertionAt;
+import com.hellblazer.delphi.v1.proto.CheckRequest;
+import com.hellblazer.delphi.v1.proto.CheckResponse;
+import com.hellblazer.delphi.v1.proto.Oracle_Grpc;
+import com.hellblazer.delos.delphinius.Oracle;
+import com.hellblazer.delos.state.Mutator;
+import io.grpc.BindableService;
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author hal.hildebrand
+ **/
+public class CheckPipelineTest {
+    private static final Oracle.Namespace ORG      = Oracle.namespace("my-org");
+    private static final Oracle.Namespace DOCUMENT = Oracle.namespace("Document");
+    private static final Oracle.Relation  MEMBER   = ORG.relation("member");
+    private static final Oracle.Relation  VIEW     = DOCUMENT.relation("View");
+
+    private final List<Server>         servers  = new ArrayList<>();
+    private final List<ManagedChannel> channels = new ArrayList<>();
+
+    private static Oracle.Assertion assertion(String document) {
+        return ORG.subject("Users", MEMBER).assertion(DOCUMENT.object(document, VIEW));
+    }
+
+    private static AssertionAt at(String document) {
+        return AssertionAt.newBuilder().setAssertion(Delphi.assertion_(assertion(document))).build();
+    }
+
+    @AfterEach
+    public void after() {
+        channels.forEach(ManagedChannel::shutdownNow);
+        servers.forEach(Server::shutdownNow);
+    }
+
+    @Test
+    public void errors() throws Exception {
+        var oracle = mock(Oracle.class);
+        when(oracle.check(any(Oracle.Assertion.class))).thenAnswer(invocation -> {
+            Oracle.Assertion assertion = invocation.getArgument(0);
+            if (assertion.object().name().equals("broken")) {
+                throw new SQLException("broken");
+            }
+            if (assertion.object().name().equals("faulty")) {
+                throw new IllegalStateException("faulty");
+            }
+            return true;
+        });
+        var pipeline = new CheckPipeline(Oracle_Grpc.newStub(serve(delphi(oracle))));
+
+        var broken = pipeline.check(at("broken"));
+        var faulty = pipeline.check(at("faulty"));
+        var fine = pipeline.check(at("fine"));
+        var failure = assertThrows(ExecutionException.class, () -> broken.get(10, TimeUnit.SECONDS)).getCause();
+        assertInstanceOf(SQLException.class, failure);
+        assertEquals("broken", failure.getMessage());
+        // unchecked failures are answered likewise, rather than leaving the check and the stream outstanding
+        failure = assertThrows(ExecutionException.class, () -> faulty.get(10, TimeUnit.SECONDS)).getCause();
+        assertEquals("faulty", failure.getMessage());
+        // the failure is confined to its own check, and the stream carries on
+        assertTrue(fine.get(10, TimeUnit.SECONDS));
+        assertTrue(pipeline.check(at("after")).get(10, TimeUnit.SECONDS));
+        pipeline.close();
+    }
+
+    @Test
+    public void flowControlled() throws Exception {
+        var oracle = mock(Oracle.class);
+        var started = new AtomicInteger();
+        var release = new CountDownLatch(1);
+        when(oracle.check(any(Oracle.Assertion.class))).thenAnswer(invocation -> {
+            started.incrementAndGet();
+            release.await();
+            return true;
+        });
+        var pipeline = new CheckPipeline(Oracle_Grpc.newStub(serve(delphi(oracle))));
+
+        var checks = new ArrayList<CompletableFuture<Boolean>>();
+        for (int i = 0; i < Delphi.CHECK_WINDOW + 10; i++) {
+            checks.add(pipeline.check(at("document-" + i)));
+        }
+        // no more than the window of checks is taken from the stream while they are blocked
+        var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (started.get() < Delphi.CHECK_WINDOW && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(100);
+        assertEquals(Delphi.CHECK_WINDOW, started.get());
+
+        release.countDown();
+        for (var check : checks) {
+            assertTrue(check.get(10, TimeUnit.SECONDS));
+        }
+        assertEquals(Delphi.CHECK_WINDOW + 10, started.get());
+        pipeline.close();
+    }
+
+    @Test
+    public void outOfOrder() throws Exception {
+        var oracle = mock(Oracle.class);
+        var release = new CountDownLatch(1);
+        when(oracle.check(any(Oracle.Assertion.class))).thenAnswer(invocation -> {
+            Oracle.Assertion assertion = invocation.getArgument(0);
+            if (assertion.object().name().equals("slow")) {
+                release.await();
+                return false;
+            }
+            return assertion.object().name().startsWith("allowed");
+        });
+        var pipeline = new CheckPipeline(Oracle_Grpc.newStub(serve(delphi(oracle))));
+
+        var slow = pipeline.check(at("slow"));
+        var checks = new ArrayList<CompletableFuture<Boolean>>();
+        for (int i = 0; i < 20; i++) {
+            checks.add(pipeline.check(at((i % 2 == 0 ? "allowed-" : "denied-") + i)));
+        }
+        // the checks behind the slow check are answered as they complete, correlated by id
+        for (int i = 0; i < 20; i++) {
+            assertEquals(i % 2 == 0, checks.get(i).get(10, TimeUnit.SECONDS));
+        }
+        assertFalse(slow.isDone());
+
+        release.countDown();
+        assertFalse(slow.get(10, TimeUnit.SECONDS));
+        pipeline.close();
+    }
+
+    @Test
+    public void readYourWrites() throws Exception {
+        var oracle = mock(Oracle.class);
+        when(oracle.check(any(Oracle.Assertion.class))).thenReturn(true);
+        var feed = new ChangeFeed(16);
+        var highWater = new AtomicLong();
+        var pipeline = new CheckPipeline(Oracle_Grpc.newStub(serve(delphi(oracle, feed, Duration.ofSeconds(10)))),
+                                         highWater::get);
+
+        // the stream is opened before the write, and the check after it must still observe the write
+        assertTrue(pipeline.check(at("before")).get(10, TimeUnit.SECONDS));
+        highWater.set(10);
+        var after = pipeline.check(at("after"));
+        Thread.sleep(100);
+        assertFalse(after.isDone());
+
+        feed.stage(0, 10, List.of());
+        feed.confirm(10);
+        assertTrue(after.get(10, TimeUnit.SECONDS));
+        pipeline.close();
+    }
+
+    @Test
+    public void readYourWritesTimeout() throws Exception {
+        var oracle = mock(Oracle.class);
+        when(oracle.check(any(Oracle.Assertion.class))).thenReturn(true);
+        var pipeline = new CheckPipeline(
+        Oracle_Grpc.newStub(serve(delphi(oracle, new ChangeFeed(16), Duration.ofMillis(10)))), () -> 10L);
+
+        var failed = pipeline.check(at("unapplied"));
+        var failure = assertThrows(ExecutionException.class, () -> failed.get(10, TimeUnit.SECONDS)).getCause();
+        assertInstanceOf(SQLException.class, failure);
+        assertEquals("Replica has not applied: 10", failure.getMessage());
+        pipeline.close();
+    }
+
+    @Test
+    public void reopened() throws Exception {
+        var streams = new AtomicInteger();
+        var failing = new Oracle_Grpc.Oracle_ImplBase() {
+            @Override
+            public StreamObserver<CheckRequest> checkStream(StreamObserver<CheckResponse> responseObserver) {
+                var stream = streams.incrementAndGet();
+                return new StreamObserver<>() {
+                    @Override
+                    public void onCompleted() {
+                        responseObserver.onCompleted();
+                    }
+
+                    @Override
+                    public void onError(Throwable t) {
+                    }
+
+                    @Override
+                    public void onNext(CheckRequest request) {
+                        if (stream == 1) {
+                            responseObserver.onError(Status.UNAVAILABLE.asException());
+                        } else {
+                            responseObserver.onNext(
+                            CheckResponse.newBuilder().setId(request.getId()).setResult(true).build());
+                        }
+                    }
+                };
+            }
+        };
+        var pipeline = new CheckPipeline(Oracle_Grpc.newStub(serve(failing)));
+
+        var failed = pipeline.check(at("first"));
+        var failure = assertThrows(ExecutionException.class, () -> failed.get(10, TimeUnit.SECONDS)).getCause();
+        assertEquals(Status.Code.UNAVAILABLE, ((StatusRuntimeException) failure).getStatus().getCode());
+
+        // a new stream is opened by the next check
+        assertTrue(pipeline.check(at("second")).get(10, TimeUnit.SECONDS));
+        assertEquals(2, streams.get());
+        pipeline.close();
+    }
+
+    private Delphi delphi(Oracle oracle) {
+        return delphi(oracle, new ChangeFeed(16), Duration.ofSeconds(10));
+    }
+
+    private Delphi delphi(Oracle oracle, ChangeFeed feed, Duration consistencyWait) {
+        return new Delphi(oracle, null, mock(Mutator.class), Duration.ofSeconds(10), consistencyWait,
+                          new CheckCache(1_000_000, 1_000), feed, null, null, null, Duration.ZERO, 0, null);
+    }
+
+    private ManagedChannel serve(BindableService service) throws Exception {
+        var name = UUID.randomUUID().toString();
+        servers.add(InProcessServerBuilder.forName(name).addService(service).build().start());
+        var channel = InProcessChannelBuilder.forName(name).usePlaintext().build();
+        channels.add(channel);
+        return channel;
+    }
+}
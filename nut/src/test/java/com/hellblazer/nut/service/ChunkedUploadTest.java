@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2024 Hal Hildebrand. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ *  more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.hellblazer.nut.service;
+
+import com.google.protobuf.ByteString;
+import com.hellblazer.geb.internal.v1.proto.PutChunk_;
+import com.hellblazer.geb.internal.v1.proto.Version_;
+import io.grpc.stub.ServerCallStreamObserver;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.concurrent.CompletableFuture;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author hal.hildebrand
+ **/
+public class ChunkedUploadTest {
+    private static PutChunk_ chunk() {
+        return PutChunk_.newBuilder().setKey(GebTest.key("uploaded")).setChunk(ByteString.copyFromUtf8("c")).build();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ServerCallStreamObserver<Version_> call() {
+        return mock(ServerCallStreamObserver.class);
+    }
+
+    @Test
+    public void cancelAfterStaging() {
+        var geb = mock(Geb.class);
+        var call = call();
+        when(geb.stage(anyString(), any(), anyInt(), any())).thenReturn(CompletableFuture.completedFuture(0));
+        when(geb.abort(anyString())).thenReturn(CompletableFuture.completedFuture(1));
+        var upload = new ChunkedUpload(geb, call);
+
+        upload.onNext(chunk());
+        upload.onError(new RuntimeException("cancelled"));
+
+        var id = ArgumentCaptor.forClass(String.class);
+        verify(geb).stage(id.capture(), any(), anyInt(), any());
+        verify(geb).abort(id.getValue());
+        verify(geb, never()).commit(anyString(), any(), anyInt());
+        // a cancelled call has no one to report to
+        verify(call, never()).onError(any());
+    }
+
+    @Test
+    public void cancelWhileStaging() {
+        var geb = mock(Geb.class);
+        var call = call();
+        var staging = new CompletableFuture<Integer>();
+        when(geb.stage(anyString(), any(), anyInt(), any())).thenReturn(staging);
+        when(geb.abort(anyString())).thenReturn(CompletableFuture.completedFuture(1));
+        var upload = new ChunkedUpload(geb, call);
+
+        upload.onNext(chunk());
+        upload.onError(new RuntimeException("cancelled"));
+        // the chunk in flight may yet be staged, so the upload is not discarded until it is
+        verify(geb, never()).abort(anyString());
+
+        staging.complete(0);
+        var id = ArgumentCaptor.forClass(String.class);
+        verify(geb).stage(id.capture(), any(), anyInt(), any());
+        verify(geb, times(1)).abort(id.getValue());
+        verify(geb, never()).commit(anyString(), any(), anyInt());
+        // no further chunks are requested once cancelled
+        verify(call, times(1)).request(Geb.UPLOAD_WINDOW);
+        verify(call, never()).request(1);
+    }
+
+    @Test
+    public void cancelWithoutChunks() {
+        var geb = mock(Geb.class);
+        var upload = new ChunkedUpload(geb, call());
+
+        upload.onError(new RuntimeException("cancelled"));
+        verify(geb, never()).abort(anyString());
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2024 Hal Hildebrand. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ *  more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.hellblazer.nut.service;
+
+import com.hellblazer.delphi.v1.proto.AssertionAt;
+import com.hellblazer.delphi.v1.proto.AssertionCheck;
+import com.hellblazer.delphi.v1.proto.ConsistencyToken;
+import com.hellblazer.delphi.v1.proto.Oracle_Grpc;
+import io.grpc.Channel;
+import io.grpc.ClientInterceptors;
+import io.grpc.ManagedChannel;
+import io.grpc.Metadata;
+import io.grpc.Server;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.ServerInterceptors;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author hal.hildebrand
+ **/
+public class ConsistencyTest {
+    private final ChangeFeed             feed     = new ChangeFeed(16);
+    private final AtomicLong             atLeast  = new AtomicLong();
+    private final List<ConsistencyToken> received = new CopyOnWriteArrayList<>();
+    private       Server                 server;
+    private       ManagedChannel         channel;
+
+    @AfterEach
+    public void after() {
+        if (channel != null) {
+            channel.shutdownNow();
+        }
+        if (server != null) {
+            server.shutdownNow();
+        }
+    }
+
+    @Test
+    public void heldUntilApplied() throws Exception {
+        var stub = Oracle_Grpc.newFutureStub(serve(Duration.ofSeconds(10)));
+        atLeast.set(10);
+        var check = stub.check(AssertionAt.getDefaultInstance());
+        Thread.sleep(100);
+        assertFalse(check.isDone());
+
+        feed.stage(0, 10, List.of());
+        feed.confirm(10);
+        assertTrue(check.get(10, TimeUnit.SECONDS).getResult());
+    }
+
+    @Test
+    public void roundTrip() throws Exception {
+        var stub = Oracle_Grpc.newBlockingStub(serve(Duration.ofSeconds(10)));
+        feed.stage(0, 42, List.of());
+        feed.confirm(42);
+
+        // no token is sent until the client has observed a commit
+        assertTrue(stub.check(AssertionAt.getDefaultInstance()).getResult());
+        assertNull(received.getFirst());
+
+        atLeast.set(42);
+        assertTrue(stub.check(AssertionAt.getDefaultInstance()).getResult());
+        assertEquals(42, received.get(1).getAtLeast());
+    }
+
+    @Test
+    public void timedOut() throws Exception {
+        var stub = Oracle_Grpc.newBlockingStub(serve(Duration.ofMillis(50)));
+        feed.stage(0, 5, List.of());
+        feed.confirm(5);
+        atLeast.set(100);
+
+        var failure = assertThrows(StatusRuntimeException.class, () -> stub.check(AssertionAt.getDefaultInstance()));
+        assertEquals(Status.Code.UNAVAILABLE, failure.getStatus().getCode());
+        // the replica's own watermark is returned, so the client may retry elsewhere
+        assertEquals(5, failure.getTrailers().get(Consistency.TOKEN).getAtLeast());
+    }
+
+    /**
+     * @return the channel to a service answering every check, held until the replica applies the client's token
+     */
+    private Channel serve(Duration maxWait) throws IOException {
+        var service = new Oracle_Grpc.Oracle_ImplBase() {
+            @Override
+            public void check(AssertionAt request, StreamObserver<AssertionCheck> responseObserver) {
+                responseObserver.onNext(AssertionCheck.newBuilder().setResult(true).build());
+                responseObserver.onCompleted();
+            }
+        };
+        var recording = new ServerInterceptor() {
+            @Override
+            public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call,
+                                                                         Metadata headers,
+                                                                         ServerCallHandler<ReqT, RespT> next) {
+                received.add(headers.get(Consistency.TOKEN));
+                return next.startCall(call, headers);
+            }
+        };
+        var name = UUID.randomUUID().toString();
+        server = InProcessServerBuilder.forName(name)
+                                       .addService(
+                                       ServerInterceptors.intercept(service, Consistency.server(feed, maxWait),
+                                                                    recording))
+                                       .build()
+                                       .start();
+        channel = InProcessChannelBuilder.forName(name).usePlaintext().build();
+        return ClientInterceptors.intercept(channel, Consistency.client(atLeast::get));
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2024 Hal Hildebrand. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ *  more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.hellblazer.nut.service;
+
+import com.codahale.metrics.MetricRegistry;
+import com.hellblazer.delphi.v1.proto.AssertionAt;
+import com.hellblazer.delphi.v1.proto.AssertionCheck;
+import com.hellblazer.delphi.v1.proto.Object_;
+import com.hellblazer.delphi.v1.proto.Oracle_Grpc;
+import com.hellblazer.delphi.v1.proto.Subjects;
+import com.hellblazer.delos.delphinius.Oracle;
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.ServerInterceptors;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+import java.util.UUID;
+import java.util.function.LongSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author hal.hildebrand
+ **/
+public class DelphiMetricsTest {
+    private static final Oracle.Namespace ORG       = Oracle.namespace("my-org");
+    private static final Oracle.Namespace DOCUMENT  = Oracle.namespace("Document");
+    private static final Oracle.Assertion ASSERTION = ORG.subject("Users", ORG.relation("member"))
+                                                         .assertion(DOCUMENT.object("123", DOCUMENT.relation("View")));
+
+    /**
+     * Await the count, which the server records after the client has its response
+     */
+    private static void await(long expected, LongSupplier count) throws InterruptedException {
+        for (int i = 0; i < 1_000 && count.getAsLong() != expected; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(expected, count.getAsLong());
+    }
+
+    @Test
+    public void intercepted() throws Exception {
+        var metrics = new DelphiMetrics(new MetricRegistry());
+        var oracle = new Oracle_Grpc.Oracle_ImplBase() {
+            @Override
+            public void check(AssertionAt request, StreamObserver<AssertionCheck> responseObserver) {
+                responseObserver.onNext(AssertionCheck.newBuilder().setResult(true).build());
+                responseObserver.onCompleted();
+            }
+
+            @Override
+            public void expandSubject(Object_ request, StreamObserver<Subjects> responseObserver) {
+                responseObserver.onError(Status.NOT_FOUND.asRuntimeException());
+            }
+        };
+        var name = UUID.randomUUID().toString();
+        Server server = InProcessServerBuilder.forName(name)
+                                              .addService(ServerInterceptors.intercept(oracle, metrics.interceptor()))
+                                              .build()
+                                              .start();
+        ManagedChannel channel = InProcessChannelBuilder.forName(name).usePlaintext().build();
+        try {
+            var stub = Oracle_Grpc.newBlockingStub(channel);
+            var request = AssertionAt.newBuilder().setAssertion(Delphi.assertion_(ASSERTION)).build();
+            for (int i = 0; i < 3; i++) {
+                assertTrue(stub.check(request).getResult());
+            }
+            await(3, () -> metrics.latency("check").getCount());
+            assertEquals(0, metrics.inFlight("check").getCount());
+            assertEquals(3, metrics.requestSize("check").getCount());
+            assertEquals(request.getSerializedSize(), metrics.requestSize("check").getSnapshot().getMax());
+            assertEquals(3, metrics.responseSize("check").getCount());
+            assertEquals(3, metrics.serialization("check").getCount());
+            assertEquals(0, metrics.errors("check", Status.Code.NOT_FOUND).getCount());
+
+            var failure = assertThrows(StatusRuntimeException.class,
+                                       () -> stub.expandSubject(Delphi.object_(ASSERTION.object()).build()));
+            assertEquals(Status.Code.NOT_FOUND, failure.getStatus().getCode());
+            await(1, () -> metrics.latency("expandSubject").getCount());
+            assertEquals(1, metrics.errors("expandSubject", Status.Code.NOT_FOUND).getCount());
+            assertEquals(0, metrics.responseSize("expandSubject").getCount());
+            assertEquals(0, metrics.inFlight("expandSubject").getCount());
+        } finally {
+            channel.shutdownNow();
+            server.shutdownNow();
+        }
+    }
+
+    @Test
+    public void timed() throws Exception {
+        var metrics = new DelphiMetrics(new MetricRegistry());
+        var oracle = mock(Oracle.class);
+        when(oracle.check(ASSERTION)).thenReturn(true);
+        when(oracle.expand(ASSERTION.object())).thenThrow(new SQLException("broken"));
+        var timed = metrics.timed(oracle);
+
+        assertTrue(timed.check(ASSERTION));
+        assertTrue(timed.check(ASSERTION));
+        assertEquals(2, metrics.sql("check").getCount());
+
+        // failures are timed too, and propagate unwrapped
+        assertEquals("broken", assertThrows(SQLException.class, () -> timed.expand(ASSERTION.object())).getMessage());
+        assertEquals(1, metrics.sql("expand").getCount());
+
+        // the methods of Object are not operations of the Oracle
+        timed.hashCode();
+        timed.toString();
+        assertEquals(2, metrics.getRegistry().getTimers().size());
+    }
+}
@@ -0,0 +1,295 @@
+/*
+ * Copyright (c) 2024 Hal Hildebrand. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ *  more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.hellblazer.nut.service;
+
+import com.hellblazer.delphi.v1.proto.Mutation_;
+import com.hellblazer.delphi.v1.proto.Objects;
+import com.hellblazer.delphi.v1.proto.Subjects;
+import com.hellblazer.delphi.v1.proto.WriteBatch;
+import com.hellblazer.delos.delphinius.Oracle;
+import com.hellblazer.delos.h2.SessionServices;
+import com.hellblazer.delos.state.Mutator;
+import com.hellblazer.nut.internal.v1.proto.Committed;
+import io.grpc.stub.ServerCallStreamObserver;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author hal.hildebrand
+ **/
+public class DelphiTest {
+    private static final Oracle.Namespace ORG      = Oracle.namespace("my-org");
+    private static final Oracle.Namespace DOCUMENT = Oracle.namespace("Document");
+    private static final Oracle.Relation  MEMBER   = ORG.relation("member");
+    private static final Oracle.Relation  VIEW     = DOCUMENT.relation("View");
+
+    private static Committed apply(Connection connection, long proposed, Mutation_... mutations) throws Exception {
+        var batch = WriteBatch.newBuilder().addAllMutations(List.of(mutations)).build();
+        return Committed.parseFrom(
+        Delphi.applyBatch(connection, mock(SessionServices.class), batch.toByteArray(), proposed));
+    }
+
+    private static Mutation_ assertion(Oracle.Assertion assertion) {
+        return Mutation_.newBuilder().setAddAssertion(Delphi.assertion_(assertion)).build();
+    }
+
+    /**
+     * @return the number of assertions stored
+     */
+    private static int assertions(Connection connection) throws Exception {
+        try (var statement = connection.createStatement();
+             var rs = statement.executeQuery("select count(*) from delphinius.assertion")) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+
+    /**
+     * @return the connection, counting the rows fetched and recording the fetch size of its cursors
+     */
+    private static Connection counting(Connection connection, AtomicInteger fetched, AtomicInteger fetchSize,
+                                       AtomicBoolean closed) {
+        return proxy(Connection.class, connection, (method, args, result) -> {
+            if (method.getName().equals("close")) {
+                closed.set(true);
+            }
+            if (!method.getName().equals("prepareStatement") || args.length != 3) {
+                return result;
+            }
+            return proxy(PreparedStatement.class, (PreparedStatement) result, (m, a, r) -> {
+                if (m.getName().equals("setFetchSize")) {
+                    fetchSize.set((Integer) a[0]);
+                }
+                if (!m.getName().equals("executeQuery")) {
+                    return r;
+                }
+                return proxy(ResultSet.class, (ResultSet) r, (m2, a2, r2) -> {
+                    if (m2.getName().equals("next")) {
+                        fetched.incrementAndGet();
+                    }
+                    return r2;
+                });
+            });
+        });
+    }
+
+    /**
+     * Add the namespaces and relations of the test assertions
+     */
+    private static void initialize(Connection connection) throws Exception {
+        apply(connection, 0, Mutation_.newBuilder().setAddNamespace(Delphi.namespace_(ORG)).build(),
+              Mutation_.newBuilder().setAddNamespace(Delphi.namespace_(DOCUMENT)).build(),
+              Mutation_.newBuilder().setAddRelation(Delphi.relation_(MEMBER)).build(),
+              Mutation_.newBuilder().setAddRelation(Delphi.relation_(VIEW)).build());
+    }
+
+    private static Mutation_ deletion(Oracle.Assertion assertion) {
+        return Mutation_.newBuilder().setDeleteAssertion(Delphi.assertion_(assertion)).build();
+    }
+
+    private static Mutation_ object(String document) {
+        return Mutation_.newBuilder().setAddObject(Delphi.object_(DOCUMENT.object(document, VIEW))).build();
+    }
+
+    private static Mutation_ subject() {
+        return Mutation_.newBuilder().setAddSubject(Delphi.subject_(ORG.subject("Users", MEMBER))).build();
+    }
+
+    /**
+     * @return a proxy of the target, whose results are passed through the interceptor
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, T target, Interceptor interceptor) {
+        return (T) Proxy.newProxyInstance(DelphiTest.class.getClassLoader(), new Class<?>[] { type },
+                                          (proxy, method, args) -> {
+                                              Object result;
+                                              try {
+                                                  result = method.invoke(target, args);
+                                              } catch (InvocationTargetException e) {
+                                                  throw e.getCause();
+                                              }
+                                              return interceptor.intercept(method, args, result);
+                                          });
+    }
+
+    private static Oracle.Assertion users(String document) {
+        return ORG.subject("Users", MEMBER).assertion(DOCUMENT.object(document, VIEW));
+    }
+
+    @Test
+    public void added() throws Exception {
+        try (var connection = TestSchema.connection()) {
+            initialize(connection);
+            var first = apply(connection, 0, subject(), object("123"), assertion(users("123")));
+            assertEquals(List.of(), first.getPresentList());
+
+            // only the assertion already present is reported
+            var second = apply(connection, 0, object("456"), assertion(users("456")), assertion(users("123")));
+            assertEquals(List.of(2), second.getPresentList());
+        }
+    }
+
+    @Test
+    public void clock() throws Exception {
+        try (var connection = TestSchema.connection()) {
+            initialize(connection);
+            apply(connection, 0, subject(), object("123"));
+            assertEquals(1_000, apply(connection, 1_000, assertion(users("123"))).getTs());
+            // the clock never runs backwards, whatever the submitter proposes
+            assertEquals(1_001, apply(connection, 500, assertion(users("123"))).getTs());
+            assertEquals(2_000, apply(connection, 2_000, assertion(users("123"))).getTs());
+        }
+    }
+
+    @Test
+    public void clockStaged() throws Exception {
+        try (var connection = TestSchema.connection()) {
+            initialize(connection);
+            var feed = mock(ChangeFeed.class);
+            var services = mock(SessionServices.class);
+            doReturn(feed).when(services).call(ChangeFeed.CHANGE_FEED);
+            var batch = WriteBatch.newBuilder().addMutations(subject()).addMutations(object("123")).build();
+
+            // every commit, batched or opaque, advances the clock by at least one, chained from the previous commit
+            var first = Committed.parseFrom(Delphi.applyBatch(connection, services, batch.toByteArray(), 0)).getTs();
+            var second = Committed.parseFrom(Delphi.applyBatch(connection, services, batch.toByteArray(), 0)).getTs();
+            var opaque = Delphi.advanceClock(connection, services);
+            var proposed = Committed.parseFrom(Delphi.applyBatch(connection, services, batch.toByteArray(), opaque))
+                                    .getTs();
+            assertEquals(first + 1, second);
+            assertEquals(second + 1, opaque);
+            assertEquals(opaque + 1, proposed);
+            verify(feed).stage(first - 1, first, batch.getMutationsList());
+            verify(feed).stage(first, second, batch.getMutationsList());
+            verify(feed).stage(second, opaque);
+            verify(feed).stage(opaque, proposed, batch.getMutationsList());
+        }
+    }
+
+    @Test
+    public void mixed() throws Exception {
+        try (var connection = TestSchema.connection()) {
+            initialize(connection);
+            apply(connection, 0, subject(), object("123"), object("456"));
+
+            // mutations apply in order, so an assertion deleted earlier in the batch is added again, not present
+            var first = apply(connection, 0, assertion(users("123")), deletion(users("123")), assertion(users("123")),
+                              assertion(users("456")));
+            assertEquals(List.of(), first.getPresentList());
+            assertEquals(2, assertions(connection));
+
+            // every repeat within and across batches is reported, by its index in the batch
+            var second = apply(connection, 0, assertion(users("123")), deletion(users("456")),
+                               assertion(users("123")), assertion(users("456")), assertion(users("456")));
+            assertEquals(List.of(0, 2, 4), second.getPresentList());
+            assertEquals(2, assertions(connection));
+
+            // deleting an absent assertion is not an error, and is not reported
+            var third = apply(connection, 0, deletion(users("123")), deletion(users("123")));
+            assertEquals(List.of(), third.getPresentList());
+            assertEquals(1, assertions(connection));
+        }
+    }
+
+    @Test
+    public void streamedFromCursor() throws Exception {
+        var connections = TestSchema.connections();
+        var count = 10 * Delphi.CHUNK_SIZE + 1;
+        try (var connection = connections.get()) {
+            initialize(connection);
+            var mutations = new ArrayList<Mutation_>();
+            for (int i = 0; i < count; i++) {
+                mutations.add(assertion(ORG.subject("user-" + i, MEMBER).assertion(DOCUMENT.object("123", VIEW))));
+            }
+            apply(connection, 0, mutations.toArray(Mutation_[]::new));
+        }
+        var fetched = new AtomicInteger();
+        var fetchSize = new AtomicInteger();
+        var closed = new AtomicBoolean();
+        var oracle = mock(Oracle.class);
+        var delphi = new Delphi(oracle, () -> counting(connections.get(), fetched, fetchSize, closed),
+                                mock(Mutator.class), Duration.ofSeconds(10), Duration.ZERO, new CheckCache(1024, 0),
+                                new ChangeFeed(16), null, null, null, Duration.ZERO, 0, null);
+
+        // the transport is ready for a single message at a time
+        var ready = new AtomicBoolean(true);
+        var sent = new ArrayList<Subjects>();
+        var completed = new AtomicBoolean();
+        @SuppressWarnings("unchecked")
+        ServerCallStreamObserver<Subjects> observer = mock(ServerCallStreamObserver.class);
+        when(observer.isReady()).thenAnswer(invocation -> ready.get());
+        doAnswer(invocation -> {
+            sent.add(invocation.getArgument(0));
+            ready.set(false);
+            return null;
+        }).when(observer).onNext(any());
+        doAnswer(invocation -> completed.getAndSet(true)).when(observer).onCompleted();
+
+        delphi.streamReadSubjects(Objects.newBuilder().addObjects(Delphi.object_(DOCUMENT.object("123", VIEW))).build(),
+                                  observer);
+        var onReady = ArgumentCaptor.forClass(Runnable.class);
+        verify(observer).setOnReadyHandler(onReady.capture());
+        assertEquals(Delphi.CHUNK_SIZE, fetchSize.get());
+        while (!completed.get()) {
+            // only the rows of the chunks sent have been fetched from the cursor
+            assertTrue(fetched.get() <= sent.size() * Delphi.CHUNK_SIZE + 1);
+            assertFalse(closed.get());
+            ready.set(true);
+            onReady.getValue().run();
+        }
+
+        assertEquals(11, sent.size());
+        var subjects = new HashSet<String>();
+        sent.forEach(chunk -> chunk.getSubjectsList().forEach(subject -> subjects.add(subject.getName())));
+        assertEquals(count, subjects.size());
+        assertTrue(subjects.contains("user-0"));
+        assertTrue(closed.get());
+        verify(observer, never()).onError(any());
+        verifyNoInteractions(oracle);
+    }
+
+    @FunctionalInterface
+    private interface Interceptor {
+        Object intercept(Method method, Object[] args, Object result) throws Throwable;
+    }
+}
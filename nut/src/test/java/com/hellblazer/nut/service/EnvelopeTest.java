@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2024 Hal Hildebrand. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ *  more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.hellblazer.nut.service;
+
+import com.google.protobuf.ByteString;
+import com.hellblazer.delos.utils.Entropy;
+import com.hellblazer.delphi.v1.proto.Namespace_;
+import com.hellblazer.delphi.v1.proto.Object_;
+import com.hellblazer.delphi.v1.proto.Relation_;
+import com.hellblazer.sanctorum.internal.v1.proto.DataKey_;
+import com.hellblazer.sky.sanctum.DataKeys;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author hal.hildebrand
+ **/
+public class EnvelopeTest {
+    private static Object_ key(String namespace, String name) {
+        var ns = Namespace_.newBuilder().setName(namespace).build();
+        return Object_.newBuilder()
+                      .setNamespace(ns)
+                      .setName(name)
+                      .setRelation(Relation_.newBuilder().setNamespace(ns).setName("value"))
+                      .build();
+    }
+
+    @Test
+    public void sealing() throws Exception {
+        var url = "jdbc:h2:mem:%s".formatted(UUID.randomUUID());
+        try (var connection = DriverManager.getConnection(url)) {
+            try (var statement = connection.createStatement()) {
+                statement.execute("create schema nut");
+                statement.execute("""
+                                  create table nut.data_key (namespace varchar, generation int, created int8,
+                                  iv varbinary(16), wrapped varbinary(64), primary key (namespace, generation))
+                                  """);
+            }
+            // the enclave's wrapping is the identity
+            var dataKey = new byte[32];
+            Entropy.nextSecureBytes(dataKey);
+            var unwrapped = new AtomicInteger();
+            var enclave = new DataKeys() {
+                @Override
+                public DataKey_ generate(ByteString context) {
+                    throw new UnsupportedOperationException();
+                }
+
+                @Override
+                public byte[] unwrap(DataKey_ wrapped) {
+                    unwrapped.incrementAndGet();
+                    assertEquals("1:secrets", wrapped.getContext().toStringUtf8());
+                    return wrapped.getWrapped().toByteArray();
+                }
+            };
+            var created = System.currentTimeMillis();
+            assertEquals(1, Envelope.applyDataKey(connection, null, "secrets", 1, new byte[12], dataKey, created));
+            // only the next generation is admitted
+            assertEquals(0, Envelope.applyDataKey(connection, null, "secrets", 1, new byte[12], dataKey, created));
+            assertEquals(0, Envelope.applyDataKey(connection, null, "secrets", 3, new byte[12], dataKey, created));
+
+            var opened = new ArrayList<Connection>();
+            Supplier<Connection> connections = () -> {
+                try {
+                    var read = DriverManager.getConnection(url);
+                    opened.add(read);
+                    return read;
+                } catch (SQLException e) {
+                    throw new IllegalStateException(e);
+                }
+            };
+            var envelope = new Envelope(connections, null, Duration.ofSeconds(1), enclave, Duration.ofMinutes(1), 10,
+                                        Duration.ZERO);
+            var key = key("secrets", "db-password");
+            var value = ByteString.copyFromUtf8("Give me food or give me slack or kill me");
+            var sealed = envelope.seal(key, -1, value).get();
+            assertEquals(value.size() + Envelope.OVERHEAD, sealed.size());
+            assertEquals(value, envelope.unseal(key, -1, sealed));
+
+            // bound to the key and chunk
+            assertThrows(SQLException.class, () -> envelope.unseal(key, 0, sealed));
+            assertThrows(SQLException.class, () -> envelope.unseal(key("secrets", "other"), -1, sealed));
+
+            // the enclave is consulted only on a miss
+            assertEquals(1, unwrapped.get());
+            envelope.clear();
+            assertEquals(value, envelope.unseal(key, -1, sealed));
+            assertEquals(2, unwrapped.get());
+
+            // each read uses its own connection, closed once read
+            assertFalse(opened.isEmpty());
+            for (var read : opened) {
+                assertTrue(read.isClosed());
+            }
+        }
+    }
+}
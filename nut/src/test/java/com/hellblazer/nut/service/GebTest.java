@@ -0,0 +1,218 @@
+/*
+ * Copyright (c) 2024 Hal Hildebrand. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ *  more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.hellblazer.nut.service;
+
+import com.google.protobuf.ByteString;
+import com.hellblazer.delphi.v1.proto.Namespace_;
+import com.hellblazer.delphi.v1.proto.Object_;
+import com.hellblazer.delphi.v1.proto.Relation_;
+import com.hellblazer.geb.internal.v1.proto.KeyVersion_;
+import com.hellblazer.geb.internal.v1.proto.PutValue_;
+import com.hellblazer.geb.internal.v1.proto.PutValues_;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * @author hal.hildebrand
+ **/
+public class GebTest {
+    static Object_ key(String name) {
+        var ns = Namespace_.newBuilder().setName("secrets").build();
+        return Object_.newBuilder()
+                      .setNamespace(ns)
+                      .setName(name)
+                      .setRelation(Relation_.newBuilder().setNamespace(ns).setName("value"))
+                      .build();
+    }
+
+    private static void delete(Connection connection, Object_ key, int version) throws SQLException {
+        var keyVersion = KeyVersion_.newBuilder().setKey(key).setVersion(version).build();
+        Geb.applyDelete(connection, null, keyVersion.toByteArray());
+    }
+
+    private static PutValue_ put(Object_ key, int cas, String value) {
+        return PutValue_.newBuilder().setKey(key).setCas(cas).setValue(ByteString.copyFromUtf8(value)).build();
+    }
+
+    private static int putMany(Connection connection, PutValue_... values) throws SQLException {
+        var puts = PutValues_.newBuilder();
+        for (var value : values) {
+            puts.addValues(value);
+        }
+        return Geb.applyPutMany(connection, null, puts.build().toByteArray(), 1_000, false);
+    }
+
+    private static void put(Connection connection, Object_ key, long... stored) throws SQLException {
+        for (int cas = 0; cas < stored.length; cas++) {
+            var put = put(key, cas, "v" + (cas + 1)).toByteArray();
+            assertEquals(cas + 1, Geb.applyPut(connection, null, put, stored[cas], false));
+        }
+    }
+
+    private static List<String> uploads(Connection connection) throws SQLException {
+        var uploads = new ArrayList<String>();
+        try (var statement = connection.prepareStatement("select upload, chunk from nut.upload order by upload, chunk");
+             var rs = statement.executeQuery()) {
+            while (rs.next()) {
+                uploads.add(rs.getString(1) + ":" + rs.getInt(2));
+            }
+        }
+        return uploads;
+    }
+
+    static List<Integer> versions(Connection connection, Object_ key) throws SQLException {
+        var versions = new ArrayList<Integer>();
+        try (var statement = connection.prepareStatement("""
+                                                         select s.version from nut.storage s
+                                                         join delphinius.object o on o.id = s.object
+                                                         where o.name = ? order by s.version
+                                                         """)) {
+            statement.setString(1, key.getName());
+            try (var rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    versions.add(rs.getInt(1));
+                }
+            }
+        }
+        return versions;
+    }
+
+    @Test
+    public void compactionOrder() throws Exception {
+        try (var connection = TestSchema.connection()) {
+            var first = key("first");
+            var second = key("second");
+            put(connection, first, 1_000, 2_000, 3_000, 4_000);
+            put(connection, second, 1_000, 2_000, 3_000, 4_000);
+            Geb.applyStage(connection, null, "b", 0, new byte[1], 1_000);
+            Geb.applyStage(connection, null, "a", 1, new byte[1], 1_000);
+            Geb.applyStage(connection, null, "a", 0, new byte[1], 1_000);
+
+            // the limit purges the same rows on every replica: the least keys first
+            assertEquals(4, Geb.applyCompact(connection, null, 1, 10_000, 4));
+            assertEquals(List.of(4), versions(connection, first));
+            assertEquals(List.of(2, 3, 4), versions(connection, second));
+
+            assertEquals(3, Geb.applyCompact(connection, null, 1, 10_000, 3));
+            assertEquals(List.of(4), versions(connection, second));
+            assertEquals(List.of("a:1", "b:0"), uploads(connection));
+
+            assertEquals(2, Geb.applyCompact(connection, null, 1, 10_000, 3));
+            assertEquals(List.of(), uploads(connection));
+            assertEquals(0, Geb.applyCompact(connection, null, 1, 10_000, 3));
+        }
+    }
+
+    @Test
+    public void compactionRetention() throws Exception {
+        try (var connection = TestSchema.connection()) {
+            var history = key("history");
+            var deleted = key("deleted");
+            var young = key("young");
+            put(connection, history, 1_000, 2_000, 3_000, 4_000, 5_000);
+            put(connection, deleted, 1_000, 2_000);
+            delete(connection, deleted, 0);
+            put(connection, young, 1_000, 20_000, 30_000, 40_000);
+            Geb.applyStage(connection, null, "abandoned", 0, new byte[1], 1_000);
+            Geb.applyStage(connection, null, "abandoned", 1, new byte[1], 1_000);
+            Geb.applyStage(connection, null, "active", 0, new byte[1], 20_000);
+
+            assertEquals(7, Geb.applyCompact(connection, null, 2, 10_000, 100));
+            // the latest versions are retained
+            assertEquals(List.of(4, 5), versions(connection, history));
+            // the latest version is retained even if deleted, so versions are never reused
+            assertEquals(List.of(2), versions(connection, deleted));
+            // versions younger than the cutoff are retained
+            assertEquals(List.of(2, 3, 4), versions(connection, young));
+            assertEquals(List.of("active:0"), uploads(connection));
+            assertEquals(0, Geb.applyCompact(connection, null, 2, 10_000, 100));
+        }
+    }
+
+    @Test
+    public void casConflict() throws Exception {
+        try (var connection = TestSchema.connection()) {
+            var key = key("conflict");
+            put(connection, key, 1_000, 2_000);
+
+            // neither a stale nor a future cas version is the latest
+            assertEquals(0, Geb.applyPut(connection, null, put(key, 1, "stale").toByteArray(), 3_000, false));
+            assertEquals(0, Geb.applyPut(connection, null, put(key, 3, "future").toByteArray(), 3_000, false));
+            // the latest version of a key that does not exist is 0
+            assertEquals(0, Geb.applyPut(connection, null, put(key("absent"), 1, "v").toByteArray(), 3_000, false));
+            assertEquals(List.of(1, 2), versions(connection, key));
+            assertEquals(List.of(), versions(connection, key("absent")));
+
+            assertEquals(3, Geb.applyPut(connection, null, put(key, 2, "v3").toByteArray(), 3_000, false));
+            assertEquals(List.of(1, 2, 3), versions(connection, key));
+        }
+    }
+
+    @Test
+    public void commitConflictDiscardsStaged() throws Exception {
+        try (var connection = TestSchema.connection()) {
+            var key = key("chunked");
+            put(connection, key, 1_000);
+            Geb.applyStage(connection, null, "stale", 0, new byte[] { 1 }, 1_000);
+            Geb.applyStage(connection, null, "stale", 1, new byte[] { 2 }, 1_000);
+            Geb.applyStage(connection, null, "other", 0, new byte[] { 3 }, 1_000);
+
+            assertEquals(0, Geb.applyCommit(connection, null, key.toByteArray(), 0, "stale", 2_000, false));
+            // the staged chunks of the conflicting upload are discarded, and only those
+            assertEquals(List.of("other:0"), uploads(connection));
+            assertEquals(List.of(1), versions(connection, key));
+
+            assertEquals(2, Geb.applyCommit(connection, null, key.toByteArray(), 1, "other", 2_000, false));
+            assertEquals(List.of(), uploads(connection));
+            assertEquals(List.of(1, 2), versions(connection, key));
+            try (var statement = connection.prepareStatement("select count(*) from nut.chunk where version = 2");
+                 var rs = statement.executeQuery()) {
+                rs.next();
+                assertEquals(1, rs.getInt(1));
+            }
+        }
+    }
+
+    @Test
+    public void putManyAllOrNothing() throws Exception {
+        try (var connection = TestSchema.connection()) {
+            var existing = key("existing");
+            var added = key("added");
+            put(connection, existing, 1_000);
+
+            // the second value's cas version is stale, so the first, of a new key, is not put either
+            assertEquals(1, putMany(connection, put(added, 0, "a1"), put(existing, 0, "e2")));
+            assertEquals(List.of(), versions(connection, added));
+            assertEquals(List.of(1), versions(connection, existing));
+
+            // values of the same key are checked against the version put by the value before them
+            assertEquals(2, putMany(connection, put(added, 0, "a1"), put(added, 1, "a2"), put(added, 1, "a2'")));
+            assertEquals(List.of(), versions(connection, added));
+
+            assertEquals(-1, putMany(connection, put(added, 0, "a1"), put(added, 1, "a2"), put(existing, 1, "e2")));
+            assertEquals(List.of(1, 2), versions(connection, added));
+            assertEquals(List.of(1, 2), versions(connection, existing));
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2024 Hal Hildebrand. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ *  more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.hellblazer.nut.service;
+
+import com.hellblazer.delphi.v1.proto.Mutation_;
+import com.hellblazer.delphi.v1.proto.SubjectMap;
+import com.hellblazer.delos.delphinius.Oracle;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author hal.hildebrand
+ **/
+public class MembershipIndexTest {
+    private static Mutation_ map(Oracle.Subject member, Oracle.Subject group) {
+        return Mutation_.newBuilder()
+                        .setMapSubject(SubjectMap.newBuilder()
+                                                 .setParent(Delphi.subject_(member))
+                                                 .setChild(Delphi.subject_(group)))
+                        .build();
+    }
+
+    private static Mutation_ unmap(Oracle.Subject member, Oracle.Subject group) {
+        return Mutation_.newBuilder()
+                        .setUnmapSubject(SubjectMap.newBuilder()
+                                                   .setParent(Delphi.subject_(member))
+                                                   .setChild(Delphi.subject_(group)))
+                        .build();
+    }
+
+    @Test
+    public void bounded() {
+        var ns = Oracle.namespace("my-org");
+        var member = ns.relation("member");
+        var root = ns.subject("Root", member);
+        var admins = ns.subject("Admins", member);
+        var users = ns.subject("Users", member);
+        var jale = ns.subject("Jale");
+        var doc = Oracle.namespace("Document").object("123", Oracle.namespace("Document").relation("View"));
+
+        var index = new MembershipIndex(4);
+        index.apply(1, List.of(map(jale, users), Mutation_.newBuilder()
+                                                          .setAddAssertion(Delphi.assertion_(users.assertion(doc)))
+                                                          .build()));
+        assertEquals(2, index.entries());
+        index.apply(2, List.of(map(users, admins)));
+        assertEquals(4, index.entries());
+        index.apply(3, List.of(unmap(users, admins)));
+        assertEquals(2, index.entries());
+        assertTrue(index.implies(jale.assertion(doc)));
+
+        // past the bound the index is cleared, and checks fall back to the Oracle
+        index.apply(4, List.of(map(users, admins), map(admins, root)));
+        assertEquals(0, index.entries());
+        assertEquals(0, index.size());
+        assertFalse(index.implies(jale.assertion(doc)));
+    }
+
+    @Test
+    public void nesting() {
+        var ns = Oracle.namespace("my-org");
+        var member = ns.relation("member");
+        var users = ns.subject("Users", member);
+        var technicians = ns.subject("Technicians", member);
+        var abcTechnicians = ns.subject("ABCTechnicians", member);
+        var helpDesk = ns.subject("HelpDesk", member);
+        var jale = ns.subject("Jale");
+        var demet = ns.subject("Demet");
+        var doc = Oracle.namespace("Document").object("123", Oracle.namespace("Document").relation("View"));
+
+        var index = new MembershipIndex(1_000);
+        index.apply(1, List.of(map(technicians, users), map(abcTechnicians, technicians), map(jale, abcTechnicians),
+                               map(demet, helpDesk)));
+        index.apply(2, List.of(Mutation_.newBuilder().setAddAssertion(
+        Delphi.assertion_(users.assertion(doc))).build()));
+
+        assertTrue(index.implies(users.assertion(doc)));
+        assertTrue(index.implies(jale.assertion(doc)));
+        assertTrue(index.implies(abcTechnicians.assertion(doc)));
+        assertFalse(index.implies(demet.assertion(doc)));
+        assertFalse(index.implies(helpDesk.assertion(doc)));
+
+        index.apply(3, List.of(unmap(abcTechnicians, technicians)));
+        assertFalse(index.implies(jale.assertion(doc)));
+        assertTrue(index.implies(technicians.assertion(doc)));
+
+        index.apply(4, List.of(map(helpDesk, users)));
+        assertTrue(index.implies(demet.assertion(doc)));
+
+        index.apply(5, List.of(Mutation_.newBuilder().setDeleteSubject(Delphi.subject_(helpDesk)).build()));
+        assertFalse(index.implies(demet.assertion(doc)));
+        assertTrue(index.implies(technicians.assertion(doc)));
+    }
+
+    @Test
+    public void reset() {
+        var ns = Oracle.namespace("my-org");
+        var member = ns.relation("member");
+        var users = ns.subject("Users", member);
+        var jale = ns.subject("Jale");
+        var doc = Oracle.namespace("Document").object("123", Oracle.namespace("Document").relation("View"));
+
+        var index = new MembershipIndex(1_000);
+        index.apply(1, List.of(map(jale, users), Mutation_.newBuilder()
+                                                          .setAddAssertion(Delphi.assertion_(users.assertion(doc)))
+                                                          .build()));
+        assertTrue(index.implies(jale.assertion(doc)));
+
+        // an opaque commit may have removed any edge
+        index.reset(2);
+        assertFalse(index.implies(jale.assertion(doc)));
+        assertEquals(0, index.size());
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2024 Hal Hildebrand. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ *  more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.hellblazer.nut.service;
+
+import com.hellblazer.delphi.v1.proto.Mutation_;
+import com.hellblazer.delphi.v1.proto.Names;
+import com.hellblazer.delphi.v1.proto.WriteBatch;
+import com.hellblazer.delos.delphinius.Oracle;
+import com.hellblazer.delos.h2.SessionServices;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.mock;
+
+/**
+ * @author hal.hildebrand
+ **/
+public class NameTableTest {
+    private static final Oracle.Namespace ORG      = Oracle.namespace("my-org");
+    private static final Oracle.Namespace DOCUMENT = Oracle.namespace("Document");
+    private static final Oracle.Relation  MEMBER   = ORG.relation("member");
+    private static final Oracle.Relation  VIEW     = DOCUMENT.relation("View");
+
+    private static void apply(Connection connection, Mutation_... mutations) throws Exception {
+        var batch = WriteBatch.newBuilder().addAllMutations(List.of(mutations)).build();
+        Delphi.applyBatch(connection, mock(SessionServices.class), batch.toByteArray(), 0);
+    }
+
+    private static void assertStatus(Status.Code code, Lookup lookup) {
+        assertEquals(code, assertThrows(StatusRuntimeException.class, lookup::run).getStatus().getCode());
+    }
+
+    private static void initialize(Connection connection) throws Exception {
+        apply(connection, Mutation_.newBuilder().setAddNamespace(Delphi.namespace_(ORG)).build(),
+              Mutation_.newBuilder().setAddNamespace(Delphi.namespace_(DOCUMENT)).build(),
+              Mutation_.newBuilder().setAddRelation(Delphi.relation_(MEMBER)).build(),
+              Mutation_.newBuilder().setAddRelation(Delphi.relation_(VIEW)).build(),
+              Mutation_.newBuilder().setAddSubject(Delphi.subject_(ORG.subject("Users", MEMBER))).build(),
+              Mutation_.newBuilder().setAddObject(Delphi.object_(DOCUMENT.object("123", VIEW))).build());
+    }
+
+    private static Names names(Oracle.Subject subject, Oracle.Object object) {
+        return Names.newBuilder().addSubjects(Delphi.subject_(subject)).addObjects(Delphi.object_(object)).build();
+    }
+
+    @Test
+    public void notReused() throws Exception {
+        var connections = TestSchema.connections();
+        try (var connection = connections.get()) {
+            initialize(connection);
+            var names = new NameTable(connections, 100);
+            var document = DOCUMENT.object("123", VIEW);
+            var object = names.resolve(names(ORG.subject("Users", MEMBER), document)).getObjects(0);
+
+            // the name added again is a new row, and the id of the deleted row is unknown
+            apply(connection, Mutation_.newBuilder().setDeleteObject(Delphi.object_(document)).build(),
+                  Mutation_.newBuilder().setAddObject(Delphi.object_(document)).build());
+            var added = names.resolve(names(ORG.subject("Users", MEMBER), document)).getObjects(0);
+            assertNotEquals(object, added);
+            assertStatus(Status.Code.NOT_FOUND, () -> names.object(NameTable.EPOCH, object));
+            assertEquals(document, names.object(NameTable.EPOCH, added));
+        }
+    }
+
+    @Test
+    public void resolved() throws Exception {
+        var connections = TestSchema.connections();
+        try (var connection = connections.get()) {
+            initialize(connection);
+            var names = new NameTable(connections, 100);
+            var users = ORG.subject("Users", MEMBER);
+            var document = DOCUMENT.object("123", VIEW);
+            var resolved = names.resolve(names(users, document));
+            assertEquals(NameTable.EPOCH, resolved.getEpoch());
+            var subject = resolved.getSubjects(0);
+            var object = resolved.getObjects(0);
+
+            // ids are the rows' ids, stable across resolutions
+            assertNotEquals(0, subject);
+            assertNotEquals(0, object);
+            assertEquals(resolved, names.resolve(names(users, document)));
+            assertEquals(users, names.subject(NameTable.EPOCH, subject));
+            assertEquals(document, names.object(NameTable.EPOCH, object));
+
+            // names not present resolve to 0, which names nothing
+            var absent = names.resolve(names(ORG.subject("Admins", MEMBER), DOCUMENT.object("456", VIEW)));
+            assertEquals(List.of(0L), absent.getSubjectsList());
+            assertEquals(List.of(0L), absent.getObjectsList());
+            assertNull(names.subject(NameTable.EPOCH, 0));
+            assertNull(names.object(NameTable.EPOCH, 0));
+
+            assertStatus(Status.Code.NOT_FOUND, () -> names.subject(NameTable.EPOCH, object + subject + 100));
+            assertStatus(Status.Code.FAILED_PRECONDITION, () -> names.subject(NameTable.EPOCH + 1, subject));
+        }
+    }
+
+    @FunctionalInterface
+    private interface Lookup {
+        void run() throws Exception;
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright (c) 2024 Hal Hildebrand. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ *  more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.hellblazer.nut.service;
+
+import com.hellblazer.delphi.v1.proto.Mutation_;
+import com.hellblazer.delphi.v1.proto.ObjectMap;
+import com.hellblazer.delphi.v1.proto.SubjectMap;
+import com.hellblazer.delos.delphinius.Oracle;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author hal.hildebrand
+ **/
+public class NegativeFilterTest {
+    private static final Oracle.Namespace ORG      = Oracle.namespace("my-org");
+    private static final Oracle.Namespace DOCUMENT = Oracle.namespace("Document");
+    private static final Oracle.Relation  MEMBER   = ORG.relation("member");
+    private static final Oracle.Relation  VIEW     = DOCUMENT.relation("View");
+    private static final Oracle.Subject   USERS    = ORG.subject("Users", MEMBER);
+    private static final Oracle.Subject   ADMINS   = ORG.subject("Admins", MEMBER);
+    private static final Oracle.Subject   JALE     = ORG.subject("Jale");
+    private static final Oracle.Subject   OUTSIDER = ORG.subject("Outsider");
+    private static final Oracle.Object    DOC      = DOCUMENT.object("123", VIEW);
+    private static final Oracle.Object    FOLDER   = DOCUMENT.object("456", VIEW);
+    private static final Oracle.Object    OTHER    = DOCUMENT.object("789", VIEW);
+
+    private static Mutation_ add(Oracle.Subject subject, Oracle.Object object) {
+        return Mutation_.newBuilder().setAddAssertion(Delphi.assertion_(subject.assertion(object))).build();
+    }
+
+    /**
+     * Wait until the subject is excluded from the object, building its filter
+     */
+    private static void built(NegativeFilter filter, Oracle.Subject subject, Oracle.Object object)
+    throws InterruptedException {
+        var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!filter.excludes(subject.assertion(object))) {
+            if (System.nanoTime() > deadline) {
+                fail("Filter of: " + object + " not built");
+            }
+            Thread.sleep(1);
+        }
+    }
+
+    private static Mutation_ delete(Oracle.Subject subject, Oracle.Object object) {
+        return Mutation_.newBuilder().setDeleteAssertion(Delphi.assertion_(subject.assertion(object))).build();
+    }
+
+    private static Mutation_ map(Oracle.Object parent, Oracle.Object child) {
+        return Mutation_.newBuilder()
+                        .setMapObject(ObjectMap.newBuilder()
+                                               .setParent(Delphi.object_(parent))
+                                               .setChild(Delphi.object_(child)))
+                        .build();
+    }
+
+    private static Mutation_ map(Oracle.Subject member, Oracle.Subject group) {
+        return Mutation_.newBuilder()
+                        .setMapSubject(SubjectMap.newBuilder()
+                                                 .setParent(Delphi.subject_(member))
+                                                 .setChild(Delphi.subject_(group)))
+                        .build();
+    }
+
+    @Test
+    public void assertionDiscardsAffectedFilters() throws Exception {
+        var oracle = mock(Oracle.class);
+        when(oracle.expand(DOC)).thenReturn(List.of(USERS, JALE));
+        when(oracle.expand(FOLDER)).thenReturn(List.of(ADMINS)).thenReturn(List.of(ADMINS, OUTSIDER));
+        // the outsider is granted the folder, and the objects reaching it, which do not include the document
+        when(oracle.expand(OUTSIDER)).thenReturn(List.of(FOLDER));
+        var filter = new NegativeFilter(oracle, 0.001, 1024 * 1024);
+        built(filter, OUTSIDER, DOC);
+        built(filter, OUTSIDER, FOLDER);
+
+        filter.apply(1, List.of(add(OUTSIDER, FOLDER)));
+        assertFalse(filter.excludes(OUTSIDER.assertion(FOLDER)));
+        // the document's filter survives, and excludes again once the widened objects are found
+        built(filter, OUTSIDER, DOC);
+        verify(oracle, times(1)).expand(DOC);
+        assertFalse(filter.excludes(OUTSIDER.assertion(FOLDER)));
+    }
+
+    @Test
+    public void deletionsRetainFilters() throws Exception {
+        var oracle = mock(Oracle.class);
+        when(oracle.expand(DOC)).thenReturn(List.of(USERS, JALE));
+        var filter = new NegativeFilter(oracle, 0.001, 1024 * 1024);
+        built(filter, OUTSIDER, DOC);
+
+        filter.apply(1, List.of(delete(USERS, DOC)));
+        assertTrue(filter.excludes(OUTSIDER.assertion(DOC)));
+    }
+
+    @Test
+    public void excludes() throws Exception {
+        var oracle = mock(Oracle.class);
+        when(oracle.expand(DOC)).thenReturn(List.of(USERS, JALE));
+        var filter = new NegativeFilter(oracle, 0.001, 1024 * 1024);
+
+        // unknown until the filter is built
+        assertFalse(filter.excludes(OUTSIDER.assertion(DOC)));
+        built(filter, OUTSIDER, DOC);
+
+        assertFalse(filter.excludes(JALE.assertion(DOC)));
+        assertFalse(filter.excludes(USERS.assertion(DOC)));
+        assertTrue(filter.excludes(OUTSIDER.assertion(DOC)));
+        assertEquals(2, filter.excluded());
+    }
+
+    @Test
+    public void objectMappingDiscardsAffectedFilters() throws Exception {
+        var oracle = mock(Oracle.class);
+        when(oracle.expand(DOC)).thenReturn(List.of(USERS, JALE));
+        when(oracle.expand(FOLDER)).thenReturn(List.of(ADMINS));
+        when(oracle.expand(OTHER)).thenReturn(List.of(JALE));
+        // the document is mapped into the folder, so now reaches the admins
+        when(oracle.expand(USERS)).thenReturn(List.of(DOC));
+        when(oracle.expand(ADMINS)).thenReturn(List.of(FOLDER, DOC));
+        var filter = new NegativeFilter(oracle, 0.001, 1024 * 1024);
+        built(filter, OUTSIDER, DOC);
+        built(filter, OUTSIDER, FOLDER);
+        built(filter, OUTSIDER, OTHER);
+
+        filter.apply(1, List.of(map(DOC, FOLDER)));
+        assertFalse(filter.excludes(ADMINS.assertion(DOC)));
+        // the unrelated object's filter survives
+        built(filter, OUTSIDER, OTHER);
+        verify(oracle, times(1)).expand(OTHER);
+        verify(oracle).expand(ADMINS);
+    }
+
+    @Test
+    public void raceWithWidening() throws Exception {
+        var oracle = mock(Oracle.class);
+        var release = new CountDownLatch(1);
+        var expansions = new AtomicInteger();
+        when(oracle.expand(DOC)).thenAnswer(invocation -> {
+            if (expansions.incrementAndGet() == 1) {
+                release.await();
+                return List.of(USERS);
+            }
+            return List.of(USERS, OUTSIDER);
+        });
+        var filter = new NegativeFilter(oracle, 0.001, 1024 * 1024);
+
+        assertFalse(filter.excludes(OUTSIDER.assertion(DOC)));
+        verify(oracle, timeout(10_000)).expand(DOC);
+        // the outsider is asserted while the filter is being built from the prior state
+        filter.apply(1, List.of(add(OUTSIDER, DOC)));
+        release.countDown();
+
+        // the stale filter is discarded, and the next check rebuilds it
+        var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (expansions.get() < 2) {
+            assertFalse(filter.excludes(OUTSIDER.assertion(DOC)));
+            if (System.nanoTime() > deadline) {
+                fail("Filter not rebuilt");
+            }
+            Thread.sleep(1);
+        }
+        assertFalse(filter.excludes(OUTSIDER.assertion(DOC)));
+    }
+
+    @Test
+    public void resetDiscardsEveryFilter() throws Exception {
+        var oracle = mock(Oracle.class);
+        when(oracle.expand(DOC)).thenReturn(List.of(USERS, JALE));
+        var filter = new NegativeFilter(oracle, 0.001, 1024 * 1024);
+        built(filter, OUTSIDER, DOC);
+
+        // an opaque commit may have asserted anything
+        filter.reset(1);
+        assertFalse(filter.excludes(OUTSIDER.assertion(DOC)));
+    }
+
+    @Test
+    public void subjectMapping() throws Exception {
+        var oracle = mock(Oracle.class);
+        when(oracle.expand(DOC)).thenReturn(List.of(USERS, JALE));
+        when(oracle.expand(FOLDER)).thenReturn(List.of(ADMINS));
+        var filter = new NegativeFilter(oracle, 0.001, 1024 * 1024);
+        built(filter, OUTSIDER, DOC);
+        built(filter, OUTSIDER, FOLDER);
+
+        // the outsider joins the users, so reaches the document but not the folder
+        filter.apply(1, List.of(map(OUTSIDER, USERS)));
+        assertFalse(filter.excludes(OUTSIDER.assertion(DOC)));
+        assertTrue(filter.excludes(OUTSIDER.assertion(FOLDER)));
+    }
+}
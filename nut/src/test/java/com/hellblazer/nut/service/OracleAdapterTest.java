@@ -0,0 +1,255 @@
+/*
+ * Copyright (c) 2024 Hal Hildebrand. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ *  more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.hellblazer.nut.service;
+
+import com.hellblazer.delphi.v1.proto.AssertionAt;
+import com.hellblazer.delphi.v1.proto.AssertionCheck;
+import com.hellblazer.delphi.v1.proto.Namespace_;
+import com.hellblazer.delphi.v1.proto.Object_;
+import com.hellblazer.delphi.v1.proto.Objects;
+import com.hellblazer.delphi.v1.proto.Oracle_Grpc;
+import com.hellblazer.delphi.v1.proto.Subjects;
+import com.hellblazer.delphi.v1.proto.Ts;
+import com.hellblazer.delos.delphinius.Oracle;
+import io.grpc.BindableService;
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.inprocess.InProcessSocketAddress;
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.StreamObserver;
+import org.joou.ULong;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.SocketAddress;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author hal.hildebrand
+ **/
+public class OracleAdapterTest {
+    private static final Oracle.Namespace ORG       = Oracle.namespace("my-org");
+    private static final Oracle.Namespace DOCUMENT  = Oracle.namespace("Document");
+    private static final Oracle.Assertion ASSERTION = ORG.subject("Users", ORG.relation("member"))
+                                                         .assertion(DOCUMENT.object("123", DOCUMENT.relation("View")));
+
+    private final List<Server> servers = new ArrayList<>();
+
+    @AfterEach
+    public void after() {
+        servers.forEach(Server::shutdownNow);
+    }
+
+    @Test
+    public void asyncCancelled() throws Exception {
+        var arrived = new CountDownLatch(1);
+        var cancelled = new CountDownLatch(1);
+        var silent = new Oracle_Grpc.Oracle_ImplBase() {
+            @Override
+            public void check(AssertionAt request, StreamObserver<AssertionCheck> responseObserver) {
+                ((ServerCallStreamObserver<AssertionCheck>) responseObserver).setOnCancelHandler(cancelled::countDown);
+                arrived.countDown();
+            }
+        };
+        var adapter = new OracleAdapter(connect(serve(silent)));
+        try {
+            var check = adapter.checkAsync(ASSERTION);
+            assertTrue(arrived.await(10, TimeUnit.SECONDS));
+            assertTrue(check.cancel(true));
+            assertTrue(check.isCancelled());
+            // the call is cancelled, not merely abandoned by the caller
+            assertTrue(cancelled.await(10, TimeUnit.SECONDS));
+        } finally {
+            adapter.close(Duration.ofSeconds(1));
+        }
+    }
+
+    @Test
+    public void asyncCompleted() throws Exception {
+        var checked = new CopyOnWriteArrayList<Long>();
+        var oracle = new Oracle_Grpc.Oracle_ImplBase() {
+            @Override
+            public void check(AssertionAt request, StreamObserver<AssertionCheck> responseObserver) {
+                checked.add(request.getTs());
+                responseObserver.onNext(AssertionCheck.newBuilder().setResult(true).build());
+                responseObserver.onCompleted();
+            }
+
+            @Override
+            public void expandSubject(Object_ request, StreamObserver<Subjects> responseObserver) {
+                var subjects = Subjects.newBuilder().addSubjects(Delphi.subject_(ASSERTION.subject()));
+                responseObserver.onNext(subjects.build());
+                responseObserver.onCompleted();
+            }
+
+            @Override
+            public void readObjects(Subjects request, StreamObserver<Objects> responseObserver) {
+                responseObserver.onNext(Objects.newBuilder().addObjects(Delphi.object_(ASSERTION.object())).build());
+                responseObserver.onCompleted();
+            }
+        };
+        var adapter = new OracleAdapter(connect(serve(oracle)));
+        try {
+            assertTrue(adapter.checkAsync(ASSERTION).get(10, TimeUnit.SECONDS));
+            assertTrue(adapter.checkAsync(ASSERTION, ULong.valueOf(5)).get(10, TimeUnit.SECONDS));
+            // the latest check is at 0, the timestamp of the latest state
+            assertEquals(List.of(0L, 5L), checked);
+
+            var expanded = adapter.expandAsync(ASSERTION.object());
+            assertEquals(List.of(ASSERTION.subject()), expanded.get(10, TimeUnit.SECONDS));
+            var read = adapter.readAsync(ASSERTION.subject());
+            assertEquals(List.of(ASSERTION.object()), read.get(10, TimeUnit.SECONDS));
+        } finally {
+            adapter.close(Duration.ofSeconds(1));
+        }
+    }
+
+    @Test
+    public void cachedUntilStale() throws Exception {
+        var endpoint = new Answering();
+        var adapter = new OracleAdapter(connect(serve(endpoint)), Duration.ofMillis(200), 100);
+        try {
+            assertTrue(adapter.check(ASSERTION));
+            endpoint.answer.set(false);
+            // the cached decision is answered, synchronously or not, until it is stale
+            assertTrue(adapter.check(ASSERTION));
+            assertTrue(adapter.checkAsync(ASSERTION).get(10, TimeUnit.SECONDS));
+            assertEquals(1, endpoint.calls.get());
+            assertEquals(2, adapter.cachedStats().orElseThrow().hitCount());
+
+            // checks at a timestamp are never cached
+            assertFalse(adapter.check(ASSERTION, ULong.valueOf(1)));
+            assertEquals(2, endpoint.calls.get());
+
+            Thread.sleep(400);
+            assertFalse(adapter.check(ASSERTION));
+            assertEquals(3, endpoint.calls.get());
+        } finally {
+            adapter.close(Duration.ofSeconds(1));
+        }
+    }
+
+    @Test
+    public void cacheInvalidatedByWrites() throws Exception {
+        var endpoint = new Answering();
+        var adapter = new OracleAdapter(connect(serve(endpoint)), Duration.ofHours(1), 100);
+        try {
+            assertTrue(adapter.check(ASSERTION));
+            endpoint.answer.set(false);
+            assertTrue(adapter.check(ASSERTION));
+            assertEquals(1, endpoint.calls.get());
+
+            // a committed write through the adapter discards every cached decision, so it reads its own writes
+            assertEquals(ULong.valueOf(7), adapter.add(ORG).get(10, TimeUnit.SECONDS));
+            assertFalse(adapter.check(ASSERTION));
+            assertEquals(2, endpoint.calls.get());
+            assertFalse(adapter.checkAsync(ASSERTION).get(10, TimeUnit.SECONDS));
+            assertEquals(2, endpoint.calls.get());
+        } finally {
+            adapter.close(Duration.ofSeconds(1));
+        }
+    }
+
+    @Test
+    public void hedged() throws Exception {
+        var slow = new Endpoint(false);
+        var fast = new Endpoint(true);
+        var endpoints = List.of(serve(slow), serve(fast));
+        var adapter = new OracleAdapter(() -> endpoints, OracleAdapterTest::connect, Duration.ofHours(1),
+                                        Duration.ofMillis(20));
+        try {
+            for (int i = 0; i < 10; i++) {
+                slow.calls.set(0);
+                fast.calls.set(0);
+                assertTrue(adapter.checkAsync(ASSERTION, ULong.valueOf(0)).get(10, TimeUnit.SECONDS));
+                // answered by the fast endpoint, either first or as the hedge of the slow endpoint's attempt, and
+                // never hedged to the endpoint of the first attempt
+                assertEquals(1, fast.calls.get());
+                assertTrue(slow.calls.get() <= 1);
+            }
+        } finally {
+            adapter.close(Duration.ofSeconds(1));
+        }
+    }
+
+    private static ManagedChannel connect(SocketAddress address) {
+        return InProcessChannelBuilder.forName(((InProcessSocketAddress) address).getName()).usePlaintext().build();
+    }
+
+    private SocketAddress serve(BindableService service) throws Exception {
+        var address = new InProcessSocketAddress(UUID.randomUUID().toString());
+        servers.add(InProcessServerBuilder.forName(address.getName()).addService(service).build().start());
+        return address;
+    }
+
+    /**
+     * An endpoint answering checks with the current answer, and committing namespaces at 7
+     */
+    private static class Answering extends Oracle_Grpc.Oracle_ImplBase {
+        private final AtomicInteger calls  = new AtomicInteger();
+        private final AtomicBoolean answer = new AtomicBoolean(true);
+
+        @Override
+        public void addNamespace(Namespace_ request, StreamObserver<Ts> responseObserver) {
+            responseObserver.onNext(Ts.newBuilder().setTs(7).build());
+            responseObserver.onCompleted();
+        }
+
+        @Override
+        public void check(AssertionAt request, StreamObserver<AssertionCheck> responseObserver) {
+            calls.incrementAndGet();
+            responseObserver.onNext(AssertionCheck.newBuilder().setResult(answer.get()).build());
+            responseObserver.onCompleted();
+        }
+    }
+
+    /**
+     * An endpoint answering checks, or never answering them if slow
+     */
+    private static class Endpoint extends Oracle_Grpc.Oracle_ImplBase {
+        private final AtomicInteger calls = new AtomicInteger();
+        private final boolean       answers;
+
+        private Endpoint(boolean answers) {
+            this.answers = answers;
+        }
+
+        @Override
+        public void check(AssertionAt request, StreamObserver<AssertionCheck> responseObserver) {
+            calls.incrementAndGet();
+            if (answers) {
+                responseObserver.onNext(AssertionCheck.newBuilder().setResult(true).build());
+                responseObserver.onCompleted();
+            }
+        }
+    }
+}
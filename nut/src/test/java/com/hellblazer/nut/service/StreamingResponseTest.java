@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2024 Hal Hildebrand. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ *  more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.hellblazer.nut.service;
+
+import io.grpc.stub.ServerCallStreamObserver;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author hal.hildebrand
+ **/
+public class StreamingResponseTest {
+    private final AtomicBoolean                           ready    = new AtomicBoolean(true);
+    private final List<List<Integer>>                     sent     = new ArrayList<>();
+    private final AtomicInteger                           closed   = new AtomicInteger();
+    private final AtomicInteger                           consumed = new AtomicInteger();
+    private final ServerCallStreamObserver<List<Integer>> observer = observer();
+    private final ArgumentCaptor<Runnable>                onReady  = ArgumentCaptor.forClass(Runnable.class);
+    private final ArgumentCaptor<Runnable>                onCancel = ArgumentCaptor.forClass(Runnable.class);
+
+    @SuppressWarnings("unchecked")
+    private ServerCallStreamObserver<List<Integer>> observer() {
+        ServerCallStreamObserver<List<Integer>> observer = mock(ServerCallStreamObserver.class);
+        when(observer.isReady()).thenAnswer(invocation -> ready.get());
+        doAnswer(invocation -> sent.add(invocation.getArgument(0))).when(observer).onNext(any());
+        return observer;
+    }
+
+    /**
+     * @return a lazy iterator of 1..count, counting the results consumed
+     */
+    private Iterator<Integer> results(int count) {
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return consumed.get() < count;
+            }
+
+            @Override
+            public Integer next() {
+                return consumed.incrementAndGet();
+            }
+        };
+    }
+
+    private void send(Iterator<Integer> results, int chunkSize) {
+        StreamingResponse.send(results, chunkSize, List::copyOf, observer, closed::incrementAndGet);
+        verify(observer).setOnReadyHandler(onReady.capture());
+        verify(observer).setOnCancelHandler(onCancel.capture());
+    }
+
+    @Test
+    public void cancelled() {
+        ready.set(false);
+        send(results(4), 2);
+        assertEquals(0, consumed.get());
+
+        onCancel.getValue().run();
+        assertEquals(1, closed.get());
+        ready.set(true);
+        onReady.getValue().run();
+        // nothing is produced for a cancelled call
+        assertEquals(0, consumed.get());
+        assertEquals(List.of(), sent);
+        verify(observer, never()).onCompleted();
+    }
+
+    @Test
+    public void chunks() {
+        send(results(5), 2);
+        assertEquals(List.of(List.of(1, 2), List.of(3, 4), List.of(5)), sent);
+        verify(observer).onCompleted();
+        assertEquals(1, closed.get());
+    }
+
+    @Test
+    public void empty() {
+        send(results(0), 2);
+        assertEquals(List.of(), sent);
+        verify(observer).onCompleted();
+        assertEquals(1, closed.get());
+    }
+
+    @Test
+    public void failed() {
+        var failure = new IllegalStateException("failed");
+        var results = new Iterator<Integer>() {
+            @Override
+            public boolean hasNext() {
+                return true;
+            }
+
+            @Override
+            public Integer next() {
+                if (consumed.incrementAndGet() > 3) {
+                    throw failure;
+                }
+                return consumed.get();
+            }
+        };
+        send(results, 2);
+        assertEquals(List.of(List.of(1, 2)), sent);
+        verify(observer).onError(failure);
+        verify(observer, never()).onCompleted();
+        assertEquals(1, closed.get());
+    }
+
+    @Test
+    public void flowControl() {
+        doAnswer(invocation -> {
+            sent.add(invocation.getArgument(0));
+            // the transport's buffer fills with each message
+            ready.set(false);
+            return null;
+        }).when(observer).onNext(any());
+
+        send(results(5), 2);
+        // only the chunk sent is consumed while the transport is not ready
+        assertEquals(List.of(List.of(1, 2)), sent);
+        assertEquals(2, consumed.get());
+        verify(observer, never()).onCompleted();
+
+        ready.set(true);
+        onReady.getValue().run();
+        assertEquals(List.of(List.of(1, 2), List.of(3, 4)), sent);
+        assertEquals(4, consumed.get());
+
+        ready.set(true);
+        onReady.getValue().run();
+        assertEquals(List.of(List.of(1, 2), List.of(3, 4), List.of(5)), sent);
+        verify(observer).onCompleted();
+        assertEquals(1, closed.get());
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) 2024 Hal Hildebrand. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ *  more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.hellblazer.nut.service;
+
+import liquibase.Liquibase;
+import liquibase.database.core.H2Database;
+import liquibase.resource.ClassLoaderResourceAccessor;
+import org.h2.jdbc.JdbcConnection;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.function.Supplier;
+
+/**
+ * A fresh in memory database initialized with the delphinius and nut schemas, for tests of the stored procedures
+ *
+ * @author hal.hildebrand
+ **/
+class TestSchema {
+    static Connection connection() throws Exception {
+        return connections().get();
+    }
+
+    /**
+     * @return a supplier of connections to the same fresh database
+     */
+    static Supplier<Connection> connections() throws Exception {
+        var url = "jdbc:h2:mem:%s;DB_CLOSE_DELAY=-1".formatted(UUID.randomUUID());
+        var database = new H2Database();
+        database.setConnection(new liquibase.database.jvm.JdbcConnection(connect(url)));
+        try (var liquibase = new Liquibase("generate.xml", new ClassLoaderResourceAccessor(), database)) {
+            liquibase.update((String) null);
+        }
+        return () -> {
+            try {
+                return connect(url);
+            } catch (SQLException e) {
+                throw new IllegalStateException(e);
+            }
+        };
+    }
+
+    private static Connection connect(String url) throws SQLException {
+        return new JdbcConnection(url, new Properties(), "", "", false);
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2024 Hal Hildebrand. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ *  more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.hellblazer.nut.service;
+
+import com.hellblazer.delphi.v1.proto.Mutation_;
+import com.hellblazer.delphi.v1.proto.Namespace_;
+import com.hellblazer.delphi.v1.proto.WriteBatch;
+import com.hellblazer.nut.internal.v1.proto.Committed;
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author hal.hildebrand
+ **/
+public class WriteCoalescerTest {
+    private final List<WriteBatch>                   batches   = new CopyOnWriteArrayList<>();
+    private final List<CompletableFuture<Committed>> submitted = new CopyOnWriteArrayList<>();
+
+    private static Committed committed(long ts, Integer... present) {
+        return Committed.newBuilder().setTs(ts).addAllPresent(List.of(present)).build();
+    }
+
+    private static Mutation_ mutation(String name) {
+        return Mutation_.newBuilder().setAddNamespace(Namespace_.newBuilder().setName(name)).build();
+    }
+
+    private static Throwable failure(CompletableFuture<Committed> result) {
+        return assertThrows(ExecutionException.class, () -> result.get(10, TimeUnit.SECONDS)).getCause();
+    }
+
+    private WriteCoalescer coalescer(Duration window, int maxMutations) {
+        return new WriteCoalescer(batch -> {
+            var committed = new CompletableFuture<Committed>();
+            batches.add(batch);
+            submitted.add(committed);
+            return committed;
+        }, window, maxMutations);
+    }
+
+    @Test
+    public void applyFailureFallsBack() throws Exception {
+        var coalescer = coalescer(Duration.ofHours(1), 2);
+        var a = coalescer.submit(mutation("a"));
+        var b = coalescer.submit(mutation("b"));
+
+        var failure = new SQLException("b fails");
+        submitted.getFirst().completeExceptionally(new CompletionException(failure));
+        // the rolled back batch is resubmitted one mutation at a time
+        assertEquals(3, batches.size());
+        assertEquals(List.of(mutation("a")), batches.get(1).getMutationsList());
+        assertEquals(List.of(mutation("b")), batches.get(2).getMutationsList());
+
+        submitted.get(1).complete(committed(20));
+        submitted.get(2).completeExceptionally(failure);
+        assertEquals(20, a.get(10, TimeUnit.SECONDS).getTs());
+        assertSame(failure, failure(b));
+    }
+
+    @Test
+    public void coalesced() throws Exception {
+        var coalescer = coalescer(Duration.ofMillis(100), 10);
+        var a = coalescer.submit(mutation("a"));
+        var b = coalescer.submit(mutation("b"));
+        var c = coalescer.submit(mutation("c"));
+
+        var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (batches.isEmpty() && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        // submitted once the window of the first mutation closes
+        assertEquals(1, batches.size());
+        assertEquals(List.of(mutation("a"), mutation("b"), mutation("c")), batches.getFirst().getMutationsList());
+
+        submitted.getFirst().complete(committed(10, 1));
+        // every caller shares the commit timestamp, with only its own assertion's presence
+        assertEquals(committed(10), a.get(10, TimeUnit.SECONDS));
+        assertEquals(committed(10, 0), b.get(10, TimeUnit.SECONDS));
+        assertEquals(committed(10), c.get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void maxSizeFlush() throws Exception {
+        var coalescer = coalescer(Duration.ofHours(1), 2);
+        var a = coalescer.submit(mutation("a"));
+        assertTrue(batches.isEmpty());
+        var b = coalescer.submit(mutation("b"));
+        // a full batch is submitted at once, without waiting for the window
+        assertEquals(1, batches.size());
+        assertEquals(2, batches.getFirst().getMutationsCount());
+
+        var c = coalescer.submit(mutation("c"));
+        assertEquals(1, batches.size());
+
+        submitted.getFirst().complete(committed(10));
+        assertEquals(10, a.get(10, TimeUnit.SECONDS).getTs());
+        assertEquals(10, b.get(10, TimeUnit.SECONDS).getTs());
+        assertFalse(c.isDone());
+    }
+
+    @Test
+    public void unknownOutcomeFailsEveryCaller() {
+        var coalescer = coalescer(Duration.ofHours(1), 2);
+        var a = coalescer.submit(mutation("a"));
+        var b = coalescer.submit(mutation("b"));
+
+        var timeout = new TimeoutException("timed out");
+        submitted.getFirst().completeExceptionally(timeout);
+        // the batch may yet commit, so its mutations are not resubmitted
+        assertEquals(1, batches.size());
+        assertSame(timeout, failure(a));
+        assertSame(timeout, failure(b));
+    }
+}
@@ -53,6 +53,13 @@ public class EnclaveServer extends Enclave_Grpc.Enclave_ImplBase {
         responseObserver.onCompleted();
     }
 
+    @Override
+    public void generateDataKey(DataKey_ request, StreamObserver<DataKey_> responseObserver) {
+        var dataKey = service.generateDataKey(request);
+        responseObserver.onNext(dataKey);
+        responseObserver.onCompleted();
+    }
+
     @Override
     public void generateToken(Bytes request, StreamObserver<FernetToken> responseObserver) {
         var token = service.generateToken(request);
@@ -116,6 +123,13 @@ public class EnclaveServer extends Enclave_Grpc.Enclave_ImplBase {
         responseObserver.onCompleted();
     }
 
+    @Override
+    public void unwrapDataKey(DataKey_ request, StreamObserver<Bytes> responseObserver) {
+        var key = service.unwrapDataKey(request);
+        responseObserver.onNext(key);
+        responseObserver.onCompleted();
+    }
+
     @Override
     public void validate(FernetValidate request, StreamObserver<Bytes> responseObserver) {
         var unwrapped = service.validate(request);
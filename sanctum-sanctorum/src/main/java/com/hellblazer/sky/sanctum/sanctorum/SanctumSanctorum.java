@@ -76,6 +76,7 @@ import java.security.SecureRandom;
 import java.security.spec.AlgorithmParameterSpec;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Properties;
@@ -94,6 +95,7 @@ import static com.hellblazer.sky.constants.Constants.SHAMIR_TAG;
 public class SanctumSanctorum {
     public static final String AES_GCM_NO_PADDING = "AES/GCM/NoPadding";
     public static final String AES                = "AES";
+    public static final int    DATA_KEY_LENGTH    = 32; // bytes
     public static final int    TAG_LENGTH         = 128; // bits
     public static final int    IV_LENGTH          = 16; // bytes
     public static final String SANCTUM_DB_URL     = "jdbc:h2:mem:sanctum;DB_CLOSE_DELAY=-1";
@@ -218,6 +220,27 @@ public class SanctumSanctorum {
         server.start();
     }
 
+    /**
+     * Generate a data key for envelope encryption, wrapped by the master key with the context of the request as
+     * associated data.  As every member shares the master key, any member's enclave can unwrap the data key
+     */
+    private DataKey_ generateDataKey(DataKey_ request) {
+        var master = masterKey();
+        var key = new byte[DATA_KEY_LENGTH];
+        Entropy.nextSecureBytes(key);
+        try {
+            var encrypted = encrypt(key, master, request.getContext().toByteArray());
+            return DataKey_.newBuilder()
+                           .setContext(request.getContext())
+                           .setIv(ByteString.copyFrom(encrypted.iv()))
+                           .setWrapped(ByteString.copyFrom(encrypted.cipherText()))
+                           .setKey(ByteString.copyFrom(key))
+                           .build();
+        } finally {
+            Arrays.fill(key, (byte) 0);
+        }
+    }
+
     private FernetToken generateToken(Bytes request) {
         return FernetToken.newBuilder().setToken(generator.apply(request).serialise()).build();
     }
@@ -264,6 +287,19 @@ public class SanctumSanctorum {
         }
     }
 
+    /**
+     * @return the master key, failing the call if the enclave has been neither unwrapped nor provisioned
+     */
+    private SecretKey masterKey() {
+        var key = master;
+        if (key == null) {
+            log.warn("Master key not available");
+            throw new StatusRuntimeException(
+            io.grpc.Status.FAILED_PRECONDITION.withDescription("Master key not available"));
+        }
+        return (SecretKey) key;
+    }
+
     private void provision(Provisioning_ request) {
         var signedNonce = currentAttestation.get();
         log.info("Provisioning with nonce: {} on: {}", signedNonce, getId());
@@ -339,6 +375,23 @@ public class SanctumSanctorum {
         log.info("Sanctum Sanctorum unwrapped: {}", qb64(id));
     }
 
+    private Bytes unwrapDataKey(DataKey_ request) {
+        var master = masterKey();
+        byte[] key;
+        try {
+            key = decrypt(new Encrypted(request.getWrapped().toByteArray(), request.getIv().toByteArray(),
+                                        request.getContext().toByteArray()), master);
+        } catch (IllegalStateException e) {
+            log.warn("Cannot unwrap data key: {}", e.toString());
+            throw new StatusRuntimeException(io.grpc.Status.INVALID_ARGUMENT.withDescription("Cannot unwrap data key"));
+        }
+        try {
+            return Bytes.newBuilder().setB(ByteString.copyFrom(key)).build();
+        } finally {
+            Arrays.fill(key, (byte) 0);
+        }
+    }
+
     private Bytes validate(FernetValidate request) {
         var hashed = new TokenGenerator.HashedToken(kerl.getDigestAlgorithm().digest(request.getTokenBytes()),
                                                     Token.fromString(request.getToken()));
@@ -406,6 +459,10 @@ public class SanctumSanctorum {
             return attestation.apply(request);
         }
 
+        public DataKey_ generateDataKey(DataKey_ request) {
+            return SanctumSanctorum.this.generateDataKey(request);
+        }
+
         public FernetToken generateToken(Bytes request) {
             return SanctumSanctorum.this.generateToken(request);
         }
@@ -470,6 +527,10 @@ public class SanctumSanctorum {
             return SanctumSanctorum.this.unwrap(scheme, clone, status);
         }
 
+        public Bytes unwrapDataKey(DataKey_ request) {
+            return SanctumSanctorum.this.unwrapDataKey(request);
+        }
+
         public Bytes validate(FernetValidate request) {
             return SanctumSanctorum.this.validate(request);
         }
@@ -25,11 +25,14 @@ import com.hellblazer.delos.cryptography.DigestAlgorithm;
 import com.hellblazer.delos.cryptography.EncryptionAlgorithm;
 import com.hellblazer.delos.gorgoneion.proto.Credentials;
 import com.hellblazer.delos.gorgoneion.proto.SignedNonce;
+import com.hellblazer.sanctorum.internal.v1.proto.DataKey_;
 import com.hellblazer.sanctorum.internal.v1.proto.Enclave_Grpc;
 import com.hellblazer.sanctorum.internal.v1.proto.EncryptedShare;
 import com.hellblazer.sanctorum.internal.v1.proto.Payload_;
 import com.hellblazer.sanctorum.internal.v1.proto.Share;
 import com.hellblazer.sky.constants.Constants;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
 import io.grpc.inprocess.InProcessChannelBuilder;
 import io.grpc.inprocess.InProcessSocketAddress;
 import org.junit.jupiter.api.Test;
@@ -129,6 +132,42 @@ public class SanctumSanctorumTest {
         }
     }
 
+    @Test
+    public void dataKeys() throws Exception {
+        var address = new InProcessSocketAddress(UUID.randomUUID().toString());
+        var parameters = new SanctumSanctorum.Parameters(new SanctumSanctorum.Shamir(4, 3), DigestAlgorithm.DEFAULT,
+                                                         EncryptionAlgorithm.DEFAULT, Constants.SHAMIR_TAG, address,
+                                                         "Give me food or give me slack or kill me".getBytes());
+        var sanctum = new SanctumSanctorum(parameters, n -> Any.getDefaultInstance());
+        sanctum.start();
+
+        var client = InProcessChannelBuilder.forName(address.getName()).usePlaintext().build();
+        try {
+            var sanctumClient = Enclave_Grpc.newBlockingStub(client);
+            var context = ByteString.copyFromUtf8("1:secrets");
+            var dataKey = sanctumClient.generateDataKey(DataKey_.newBuilder().setContext(context).build());
+            assertEquals(SanctumSanctorum.DATA_KEY_LENGTH, dataKey.getKey().size());
+            assertEquals(context, dataKey.getContext());
+            assertNotEquals(dataKey.getKey(), dataKey.getWrapped());
+
+            var wrapped = dataKey.toBuilder().clearKey().build();
+            assertEquals(dataKey.getKey(), sanctumClient.unwrapDataKey(wrapped).getB());
+
+            // the wrapped key is bound to its context
+            var e = assertThrows(StatusRuntimeException.class, () -> sanctumClient.unwrapDataKey(
+            wrapped.toBuilder().setContext(ByteString.copyFromUtf8("1:other")).build()));
+            assertEquals(Status.Code.INVALID_ARGUMENT, e.getStatus().getCode());
+
+            // no data keys once sealed
+            sanctumClient.seal(Empty.getDefaultInstance());
+            e = assertThrows(StatusRuntimeException.class, () -> sanctumClient.unwrapDataKey(wrapped));
+            assertEquals(Status.Code.FAILED_PRECONDITION, e.getStatus().getCode());
+        } finally {
+            client.shutdown();
+            sanctum.shutdown();
+        }
+    }
+
     @Test
     @DisplayName("CRITICAL #4: Null safety check - provisioning should fail before master key set")
     public void nullSafetyProvisioning() throws Exception {
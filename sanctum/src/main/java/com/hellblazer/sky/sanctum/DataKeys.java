@@ -0,0 +1,38 @@
+/*
+ * Copyright (c) 2024 Hal Hildebrand. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ *  more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.hellblazer.sky.sanctum;
+
+import com.google.protobuf.ByteString;
+import com.hellblazer.sanctorum.internal.v1.proto.DataKey_;
+
+/**
+ * Data keys for envelope encryption, generated and unwrapped by the enclave under its master key
+ *
+ * @author hal.hildebrand
+ **/
+public interface DataKeys {
+    /**
+     * @return a new data key bound to the context, carrying both its plaintext and wrapped forms
+     */
+    DataKey_ generate(ByteString context);
+
+    /**
+     * @return the plaintext of the wrapped data key, which the caller is responsible for clearing
+     */
+    byte[] unwrap(DataKey_ wrapped);
+}
@@ -27,6 +27,7 @@ import com.hellblazer.delos.cryptography.Digest;
 import com.hellblazer.delos.cryptography.SignatureAlgorithm;
 import com.hellblazer.delos.membership.stereotomy.ControlledIdentifierMember;
 import com.hellblazer.sanctorum.internal.v1.proto.Bytes;
+import com.hellblazer.sanctorum.internal.v1.proto.DataKey_;
 import com.hellblazer.sanctorum.internal.v1.proto.Enclave_Grpc;
 import com.hellblazer.sanctorum.internal.v1.proto.FernetValidate;
 import com.jauntsdn.netty.channel.vsock.EpollVSockChannel;
@@ -122,6 +123,20 @@ public class Sanctum {
         return invalidTokenCacheTtl;
     }
 
+    public DataKeys dataKeys() {
+        return new DataKeys() {
+            @Override
+            public DataKey_ generate(ByteString context) {
+                return client.generateDataKey(DataKey_.newBuilder().setContext(context).build());
+            }
+
+            @Override
+            public byte[] unwrap(DataKey_ wrapped) {
+                return client.unwrapDataKey(wrapped.toBuilder().clearKey().build()).getB().toByteArray();
+            }
+        };
+    }
+
     public Enclave_Grpc.Enclave_BlockingStub getClient() {
         return Enclave_Grpc.newBlockingStub(channel);
     }
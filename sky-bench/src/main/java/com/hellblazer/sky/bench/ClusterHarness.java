@@ -0,0 +1,357 @@
+/*
+ * Copyright (c) 2024 Hal Hildebrand. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ *  more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.hellblazer.sky.bench;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.hellblazer.delos.cryptography.DigestAlgorithm;
+import com.hellblazer.delos.cryptography.EncryptionAlgorithm;
+import com.hellblazer.delos.cryptography.SignatureAlgorithm;
+import com.hellblazer.delos.delphinius.Oracle;
+import com.hellblazer.delos.model.ProcessDomain.ProcessDomainParameters;
+import com.hellblazer.nut.SkyConfiguration;
+import com.hellblazer.nut.Sphinx;
+import com.hellblazer.nut.service.OracleAdapter;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessSocketAddress;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.IntStream;
+
+/**
+ * Throughput and latency of a mixed Oracle workload against a cluster of Sphinx nodes, all running in this process.
+ * The nodes communicate over in process channels, with in process enclaves unwrapped by a development secret, so the
+ * harness runs on a single machine with no network.  The workload is configured by system properties:
+ * <ul>
+ *     <li>harness.nodes - the cardinality of the cluster, at least 4 (default 4)</li>
+ *     <li>harness.concurrency - the number of concurrent clients, spread across the nodes (default 16)</li>
+ *     <li>harness.warmup - the ISO-8601 duration of the unrecorded warmup (default PT10S)</li>
+ *     <li>harness.duration - the ISO-8601 duration of the recorded run (default PT30S)</li>
+ *     <li>harness.writes, harness.checks, harness.expands - the relative weights of the operations (default 10, 80,
+ *     10)</li>
+ *     <li>harness.subjects, harness.groups, harness.objects - the size of the populated graph (default 1000, 20,
+ *     100)</li>
+ *     <li>harness.timeout - the ISO-8601 timeout of cluster startup and of each write (default PT2M)</li>
+ *     <li>harness.output - the file the JSON report is written to, in addition to standard out (optional)</li>
+ * </ul>
+ * Latencies are reported in microseconds, as the p50, p99 and p999 of each operation
+ *
+ * @author hal.hildebrand
+ **/
+public class ClusterHarness {
+    private static final Logger log        = LoggerFactory.getLogger(ClusterHarness.class);
+    private static final int    KERNEL     = 4;
+    private static final String DEV_SECRET = "Give me food or give me slack or kill me";
+
+    private final Workload            workload;
+    private final Path                directory;
+    private final List<Sphinx>        nodes   = new ArrayList<>();
+    private final List<OracleAdapter> clients = new ArrayList<>();
+    private final LongAdder           errors  = new LongAdder();
+    private       List<Oracle.Subject> subjects;
+    private       List<Oracle.Object>  objects;
+
+    public ClusterHarness(Workload workload, Path directory) {
+        if (workload.nodes() < KERNEL) {
+            throw new IllegalArgumentException("Cluster requires at least %s nodes".formatted(KERNEL));
+        }
+        this.workload = workload;
+        this.directory = directory;
+    }
+
+    public static void main(String[] argv) throws Exception {
+        var workload = Workload.fromProperties();
+        var harness = new ClusterHarness(workload, Files.createTempDirectory("sky-harness"));
+        Report report;
+        try {
+            harness.start();
+            harness.populate();
+            report = harness.run();
+        } finally {
+            harness.shutdown();
+        }
+        var mapper = new ObjectMapper().registerModule(new JavaTimeModule())
+                                       .disable(SerializationFeature.WRITE_DURATIONS_AS_TIMESTAMPS)
+                                       .enable(SerializationFeature.INDENT_OUTPUT);
+        var json = mapper.writeValueAsString(report);
+        var output = System.getProperty("harness.output");
+        if (output != null) {
+            Files.writeString(Path.of(output), json);
+        }
+        System.out.println(json);
+        // The nodes leave non daemon threads behind
+        System.exit(0);
+    }
+
+    /**
+     * Populate the graph: subjects are members of groups, and each object is viewable by a group
+     */
+    public void populate() throws Exception {
+        var ns = Oracle.namespace("bench");
+        var member = ns.relation("member");
+        var view = ns.relation("view");
+        subjects = IntStream.range(0, workload.subjects()).mapToObj(i -> ns.subject("user-" + i)).toList();
+        var groups = IntStream.range(0, workload.groups()).mapToObj(i -> ns.subject("group-" + i, member)).toList();
+        objects = IntStream.range(0, workload.objects()).mapToObj(i -> ns.object("doc-" + i, view)).toList();
+
+        var oracle = clients.getFirst();
+        oracle.add(new Oracle.Namespace("bench")).get(workload.timeout().toMillis(), TimeUnit.MILLISECONDS);
+        var writes = new ArrayList<CompletableFuture<?>>();
+        for (int i = 0; i < subjects.size(); i++) {
+            writes.add(oracle.map(subjects.get(i), groups.get(i % groups.size())));
+        }
+        for (int i = 0; i < objects.size(); i++) {
+            writes.add(oracle.add(groups.get(i % groups.size()).assertion(objects.get(i))));
+        }
+        CompletableFuture.allOf(writes.toArray(CompletableFuture[]::new))
+                         .get(workload.timeout().toMillis(), TimeUnit.MILLISECONDS);
+        log.info("Populated {} subjects, {} groups and {} objects", subjects.size(), groups.size(), objects.size());
+    }
+
+    /**
+     * Drive the workload, first for the warmup and then for the recorded duration
+     *
+     * @return the report of the recorded duration
+     */
+    public Report run() throws InterruptedException {
+        log.info("Warming up for: {}", workload.warmup());
+        drive(workload.warmup());
+        errors.reset();
+        log.info("Recording for: {}", workload.duration());
+        var start = System.nanoTime();
+        var recorders = drive(workload.duration());
+        var elapsed = Duration.ofNanos(System.nanoTime() - start);
+
+        var latencies = new TreeMap<String, Latency>();
+        long total = 0;
+        for (var operation : Operation.values()) {
+            var samples = recorders.stream().map(r -> r.samples(operation)).toList();
+            var latency = Latency.of(samples);
+            total += latency.count();
+            latencies.put(operation.name().toLowerCase(), latency);
+        }
+        var seconds = elapsed.toNanos() / 1e9;
+        return new Report(workload, elapsed, total, errors.sum(), total / seconds, latencies);
+    }
+
+    public void shutdown() {
+        clients.forEach(OracleAdapter::close);
+        clients.clear();
+        nodes.forEach(Sphinx::shutdown);
+        nodes.clear();
+    }
+
+    /**
+     * Bring up the cluster: the seed, then the minimal quorum of the kernel, then the remaining nodes
+     */
+    public void start() throws Exception {
+        var timeout = workload.timeout();
+        var seed = node(0, Collections.emptyList(), Collections.emptyList());
+        seed.start().get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+        log.info("Seed started: {}", seed.id());
+
+        var endpoints = seed.getConfiguration().endpoints;
+        var approaches = List.of(((InProcessSocketAddress) endpoints.approachEndpoint()).getName());
+        var seeds = List.of(
+        new SkyConfiguration.Seedling(seed.id(), ((InProcessSocketAddress) endpoints.clusterEndpoint()).getName()));
+
+        var kernel = IntStream.range(1, KERNEL).mapToObj(i -> node(i, approaches, seeds)).toList();
+        kernel.parallelStream().forEach(Sphinx::start);
+        awaitActive(nodes, timeout);
+        log.info("Kernel is active");
+
+        var remaining = IntStream.range(KERNEL, workload.nodes()).mapToObj(i -> node(i, approaches, seeds)).toList();
+        remaining.parallelStream().forEach(Sphinx::start);
+        awaitActive(nodes, timeout);
+        log.info("All {} nodes are active", nodes.size());
+
+        for (var node : nodes) {
+            var channel = InProcessChannelBuilder.forAddress(node.getServiceEndpoint())
+                                                 .executor(Executors.newVirtualThreadPerTaskExecutor())
+                                                 .usePlaintext()
+                                                 .build();
+            clients.add(new OracleAdapter(channel));
+        }
+    }
+
+    private void awaitActive(List<Sphinx> members, Duration timeout) throws InterruptedException, TimeoutException {
+        var deadline = System.nanoTime() + timeout.toNanos();
+        while (!members.stream().allMatch(Sphinx::active)) {
+            if (System.nanoTime() > deadline) {
+                throw new TimeoutException(
+                "Nodes did not become active: %s".formatted(members.stream().map(Sphinx::logState).toList()));
+            }
+            Thread.sleep(100);
+        }
+    }
+
+    private List<Recorder> drive(Duration duration) throws InterruptedException {
+        var deadline = System.nanoTime() + duration.toNanos();
+        var recorders = IntStream.range(0, workload.concurrency()).mapToObj(_ -> new Recorder()).toList();
+        try (var exec = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < recorders.size(); i++) {
+                var recorder = recorders.get(i);
+                var oracle = clients.get(i % clients.size());
+                exec.execute(() -> {
+                    while (System.nanoTime() < deadline) {
+                        execute(oracle, recorder);
+                    }
+                });
+            }
+        }
+        return recorders;
+    }
+
+    private void execute(OracleAdapter oracle, Recorder recorder) {
+        var random = ThreadLocalRandom.current();
+        var operation = workload.next(random);
+        var subject = subjects.get(random.nextInt(subjects.size()));
+        var object = objects.get(random.nextInt(objects.size()));
+        var start = System.nanoTime();
+        try {
+            switch (operation) {
+            case WRITE -> oracle.add(subject.assertion(object))
+                                .get(workload.timeout().toMillis(), TimeUnit.MILLISECONDS);
+            case CHECK -> oracle.check(object.assertion(subject));
+            case EXPAND -> oracle.expand(object);
+            }
+            recorder.record(operation, System.nanoTime() - start);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException | SQLException | RuntimeException e) {
+            log.debug("Error on {}: {}", operation, e.toString());
+            errors.increment();
+        }
+    }
+
+    private Sphinx node(int i, List<String> approaches, List<SkyConfiguration.Seedling> seeds) {
+        var endpoints = new SkyConfiguration.LocalEndpoints();
+        endpoints.api = "api";
+        endpoints.approach = "approach";
+        endpoints.cluster = "cluster";
+        endpoints.service = "service";
+
+        var config = new SkyConfiguration();
+        config.endpoints = endpoints;
+        config.approaches = approaches;
+        config.seeds = seeds;
+        config.identity = new SkyConfiguration.IdentityConfiguration(directory.resolve(i + ".id"), "JCEKS",
+                                                                     "jdbc:h2:mem:kerl-%s;DB_CLOSE_DELAY=-1".formatted(
+                                                                     endpoints.unique),
+                                                                     directory.resolve(i + ".digest"),
+                                                                     DigestAlgorithm.DEFAULT,
+                                                                     SignatureAlgorithm.DEFAULT,
+                                                                     EncryptionAlgorithm.DEFAULT);
+        config.domain = new ProcessDomainParameters("jdbc:h2:mem:sql-%s;DB_CLOSE_DELAY=-1".formatted(endpoints.unique),
+                                                    Duration.ofMinutes(1),
+                                                    "jdbc:h2:mem:dht-%s;DB_CLOSE_DELAY=-1".formatted(endpoints.unique),
+                                                    directory.resolve("cp-" + i), Duration.ofMillis(5), 0.00125,
+                                                    Duration.ofMinutes(1), 3, Duration.ofMillis(100), 10, 0.1);
+        config.choamParameters.setGenerateGenesis(i < KERNEL);
+
+        var sphinx = new Sphinx(config, DEV_SECRET);
+        nodes.add(sphinx);
+        return sphinx;
+    }
+
+    public enum Operation {
+        WRITE, CHECK, EXPAND
+    }
+
+    public record Workload(int nodes, int concurrency, Duration warmup, Duration duration, int writes, int checks,
+                           int expands, int subjects, int groups, int objects, Duration timeout) {
+        public static Workload fromProperties() {
+            return new Workload(Integer.getInteger("harness.nodes", 4), Integer.getInteger("harness.concurrency", 16),
+                                Duration.parse(System.getProperty("harness.warmup", "PT10S")),
+                                Duration.parse(System.getProperty("harness.duration", "PT30S")),
+                                Integer.getInteger("harness.writes", 10), Integer.getInteger("harness.checks", 80),
+                                Integer.getInteger("harness.expands", 10), Integer.getInteger("harness.subjects", 1000),
+                                Integer.getInteger("harness.groups", 20), Integer.getInteger("harness.objects", 100),
+                                Duration.parse(System.getProperty("harness.timeout", "PT2M")));
+        }
+
+        Operation next(Random random) {
+            var draw = random.nextInt(writes + checks + expands);
+            if (draw < writes) {
+                return Operation.WRITE;
+            }
+            return draw < writes + checks ? Operation.CHECK : Operation.EXPAND;
+        }
+    }
+
+    /**
+     * The count of completed operations and their latency quantiles, in microseconds
+     */
+    public record Latency(long count, double p50, double p99, double p999, double max) {
+        static Latency of(List<long[]> samples) {
+            var merged = samples.stream().flatMapToLong(Arrays::stream).sorted().toArray();
+            if (merged.length == 0) {
+                return new Latency(0, 0, 0, 0, 0);
+            }
+            return new Latency(merged.length, micros(merged, 0.5), micros(merged, 0.99), micros(merged, 0.999),
+                               merged[merged.length - 1] / 1000.0);
+        }
+
+        private static double micros(long[] sorted, double quantile) {
+            var index = (int) Math.ceil(quantile * sorted.length) - 1;
+            return sorted[Math.max(0, Math.min(sorted.length - 1, index))] / 1000.0;
+        }
+    }
+
+    public record Report(Workload workload, Duration elapsed, long operations, long errors, double opsPerSecond,
+                         Map<String, Latency> latency) {
+    }
+
+    /**
+     * Per client latency samples, in nanoseconds
+     */
+    private static class Recorder {
+        private final EnumMap<Operation, long[]>  samples = new EnumMap<>(Operation.class);
+        private final EnumMap<Operation, Integer> counts  = new EnumMap<>(Operation.class);
+
+        void record(Operation operation, long nanos) {
+            var current = samples.computeIfAbsent(operation, _ -> new long[1024]);
+            int count = counts.getOrDefault(operation, 0);
+            if (count == current.length) {
+                current = Arrays.copyOf(current, count * 2);
+                samples.put(operation, current);
+            }
+            current[count] = nanos;
+            counts.put(operation, count + 1);
+        }
+
+        long[] samples(Operation operation) {
+            var current = samples.get(operation);
+            return current == null ? new long[0] : Arrays.copyOf(current, counts.get(operation));
+        }
+    }
+}
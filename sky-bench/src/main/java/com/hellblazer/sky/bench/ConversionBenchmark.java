@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2024 Hal Hildebrand. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ *  more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.hellblazer.sky.bench;
+
+import com.hellblazer.delphi.v1.proto.Assertion_;
+import com.hellblazer.delos.delphinius.Oracle;
+import com.hellblazer.nut.service.Delphi;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Conversion between the Delphi protobuf messages and the Oracle records, performed for every Oracle RPC
+ *
+ * @author hal.hildebrand
+ **/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConversionBenchmark {
+    private Oracle.Assertion assertion;
+    private Assertion_       assertion_;
+    private byte[]           serialized;
+
+    @Setup
+    public void setup() {
+        var ns = Oracle.namespace("my-org");
+        var members = ns.subject("Users", ns.relation("member"));
+        var doc = Oracle.namespace("Document");
+        var object = doc.object("123", doc.relation("View"));
+        assertion = members.assertion(object);
+        assertion_ = Delphi.assertion_(assertion).build();
+        serialized = assertion_.toByteArray();
+    }
+
+    @Benchmark
+    public Oracle.Assertion fromProto() {
+        return Delphi.assertion(assertion_);
+    }
+
+    @Benchmark
+    public Oracle.Assertion parseAndConvert() throws Exception {
+        return Delphi.assertion(Assertion_.parseFrom(serialized));
+    }
+
+    @Benchmark
+    public Assertion_ toProto() {
+        return Delphi.assertion_(assertion).build();
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2024 Hal Hildebrand. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ *  more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.hellblazer.sky.bench;
+
+import com.hellblazer.nut.Sphinx;
+import com.hellblazer.sky.sanctum.sanctorum.SanctumSanctorum;
+import org.openjdk.jmh.annotations.*;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * AES-GCM encryption and decryption of the Sphinx and the SanctumSanctorum enclave
+ *
+ * @author hal.hildebrand
+ **/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CryptoBenchmark {
+    private static final byte[] ASSOCIATED = "associated".getBytes();
+
+    @Param({ "64", "1024", "65536" })
+    public int size;
+
+    private SecretKey                  key;
+    private byte[]                     plaintext;
+    private Sphinx.Encrypted           sphinx;
+    private SanctumSanctorum.Encrypted sanctorum;
+
+    @Setup
+    public void setup() {
+        var entropy = new SecureRandom();
+        var secret = new byte[32];
+        entropy.nextBytes(secret);
+        key = new SecretKeySpec(secret, Sphinx.AES);
+        plaintext = new byte[size];
+        entropy.nextBytes(plaintext);
+        sphinx = Sphinx.encrypt(plaintext, key, ASSOCIATED);
+        sanctorum = SanctumSanctorum.encrypt(plaintext, key, ASSOCIATED);
+    }
+
+    @Benchmark
+    public byte[] sanctorumDecrypt() {
+        return SanctumSanctorum.decrypt(sanctorum, key);
+    }
+
+    @Benchmark
+    public SanctumSanctorum.Encrypted sanctorumEncrypt() {
+        return SanctumSanctorum.encrypt(plaintext, key, ASSOCIATED);
+    }
+
+    @Benchmark
+    public byte[] sphinxDecrypt() {
+        return Sphinx.decrypt(sphinx, key);
+    }
+
+    @Benchmark
+    public Sphinx.Encrypted sphinxEncrypt() {
+        return Sphinx.encrypt(plaintext, key, ASSOCIATED);
+    }
+}
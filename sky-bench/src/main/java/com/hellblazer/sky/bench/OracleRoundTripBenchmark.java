@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2024 Hal Hildebrand. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ *  more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.hellblazer.sky.bench;
+
+import com.hellblazer.delos.delphinius.Oracle;
+import com.hellblazer.nut.service.*;
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import org.joou.ULong;
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.reflect.Proxy;
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+/**
+ * Round trip of Oracle reads from the OracleAdapter through an in process gRPC channel to the Delphi service.  The
+ * Delphi service is backed by a fixed answer Oracle, isolating the cost of the client, the transport, the protobuf
+ * conversions and the service from that of the SQL evaluation
+ *
+ * @author hal.hildebrand
+ **/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OracleRoundTripBenchmark {
+    @Param({ "1", "100" })
+    public int expansion;
+
+    private Server           server;
+    private ManagedChannel   channel;
+    private OracleAdapter    adapter;
+    private Oracle.Assertion assertion;
+    private Oracle.Object    object;
+
+    @Setup
+    public void setup() throws Exception {
+        var ns = Oracle.namespace("my-org");
+        var member = ns.relation("member");
+        var subjects = IntStream.range(0, expansion).mapToObj(i -> ns.subject("user-" + i, member)).toList();
+        var doc = Oracle.namespace("Document");
+        object = doc.object("123", doc.relation("View"));
+        assertion = subjects.getFirst().assertion(object);
+
+        var delphi = new Delphi(fixed(subjects), null, null, Duration.ofSeconds(10), Duration.ZERO,
+                                new CheckCache(64 * 1024 * 1024, 0), new ChangeFeed(1024), new NameTable(null, 1024),
+                                null, null, Duration.ZERO, 1, null);
+        var name = UUID.randomUUID().toString();
+        server = InProcessServerBuilder.forName(name)
+                                       .addService(delphi)
+                                       .executor(Executors.newVirtualThreadPerTaskExecutor())
+                                       .build()
+                                       .start();
+        channel = InProcessChannelBuilder.forName(name).usePlaintext().build();
+        adapter = new OracleAdapter(channel);
+    }
+
+    @TearDown
+    public void teardown() {
+        adapter.close();
+        server.shutdownNow();
+    }
+
+    /**
+     * Check at an explicit timestamp, above the check cache watermark and so never cached
+     */
+    @Benchmark
+    public boolean check() throws Exception {
+        return adapter.check(assertion, ULong.valueOf(Long.MAX_VALUE));
+    }
+
+    @Benchmark
+    public boolean checkPipelined() throws Exception {
+        return adapter.checkPipelined(assertion, ULong.valueOf(Long.MAX_VALUE)).get();
+    }
+
+    @Benchmark
+    public List<Oracle.Subject> expand() throws Exception {
+        return adapter.expand(object);
+    }
+
+    /**
+     * An Oracle answering every check true and every expansion with the subjects
+     */
+    private static Oracle fixed(List<Oracle.Subject> subjects) {
+        return (Oracle) Proxy.newProxyInstance(Oracle.class.getClassLoader(), new Class<?>[] { Oracle.class },
+                                               (proxy, method, args) -> switch (method.getName()) {
+                                                   case "check" -> true;
+                                                   case "expand" -> subjects;
+                                                   default -> throw new UnsupportedOperationException(
+                                                   method.getName());
+                                               });
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2024 Hal Hildebrand. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ *  more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.hellblazer.sky.bench;
+
+import com.codahale.shamir.Scheme;
+import com.hellblazer.delos.cryptography.EncryptionAlgorithm;
+import com.hellblazer.nut.support.ShareService;
+import com.hellblazer.sanctorum.internal.v1.proto.EncryptedShare;
+import org.openjdk.jmh.annotations.*;
+
+import java.security.PublicKey;
+import java.security.SecureRandom;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Generation and encryption of the Shamir shares of a new secret by the ShareService, and the join of the threshold
+ * shares
+ *
+ * @author hal.hildebrand
+ **/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ShamirBenchmark {
+    @Param({ "3", "7" })
+    public int shares;
+
+    @Param({ "32", "1024" })
+    public int secretSize;
+
+    private ShareService         service;
+    private List<PublicKey>      keys;
+    private Scheme               scheme;
+    private Map<Integer, byte[]> threshold;
+
+    @Setup
+    public void setup() {
+        var entropy = new SecureRandom();
+        var algorithm = EncryptionAlgorithm.DEFAULT;
+        service = new ShareService(entropy, algorithm);
+        keys = IntStream.range(0, shares).mapToObj(i -> algorithm.generateKeyPair().getPublic()).toList();
+        var quorum = shares / 2 + 1;
+        scheme = new Scheme(entropy, shares, quorum);
+        var secret = new byte[secretSize];
+        entropy.nextBytes(secret);
+        threshold = scheme.split(secret)
+                          .entrySet()
+                          .stream()
+                          .limit(quorum)
+                          .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
+    }
+
+    @Benchmark
+    public byte[] join() {
+        return scheme.join(threshold);
+    }
+
+    @Benchmark
+    public List<EncryptedShare> shares() {
+        return service.shares(secretSize, keys, shares / 2 + 1);
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2024 Hal Hildebrand. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ *  more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.hellblazer.sky.bench;
+
+import com.google.protobuf.ByteString;
+import com.hellblazer.delos.cryptography.DigestAlgorithm;
+import com.hellblazer.sanctorum.internal.v1.proto.Bytes;
+import com.hellblazer.sky.sanctum.sanctorum.TokenGenerator;
+import com.macasaet.fernet.Key;
+import com.macasaet.fernet.Validator;
+import org.openjdk.jmh.annotations.*;
+
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fernet token generation and validation by the enclave's TokenGenerator
+ *
+ * @author hal.hildebrand
+ **/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TokenBenchmark {
+    private static final Validator<Bytes> VALIDATOR = () -> b -> Bytes.newBuilder()
+                                                                      .setB(ByteString.copyFrom(b))
+                                                                      .build();
+
+    private TokenGenerator             generator;
+    private Bytes                      message;
+    private TokenGenerator.HashedToken token;
+
+    @Setup
+    public void setup() {
+        var entropy = new SecureRandom();
+        generator = new TokenGenerator(Key.generateKey(entropy), entropy);
+        message = Bytes.newBuilder().setB(ByteString.copyFromUtf8("My test message")).build();
+        var generated = generator.apply(message);
+        token = new TokenGenerator.HashedToken(DigestAlgorithm.DEFAULT.digest(generated.serialise()), generated);
+    }
+
+    @Benchmark
+    public Object generate() {
+        return generator.apply(message);
+    }
+
+    @Benchmark
+    public Bytes validate() {
+        return generator.validate(VALIDATOR, token);
+    }
+}